@@ -0,0 +1,5 @@
+#! /bin/sh -x
+
+. tikka-env
+$JAVA_CMD tikka.bhmm.apps.Benchmark $@
+
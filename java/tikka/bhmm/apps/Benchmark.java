@@ -0,0 +1,280 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.apps;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import org.apache.commons.cli.*;
+
+import tikka.bhmm.model.base.HMMBase;
+import tikka.bhmm.model.base.ModelGenerator;
+import tikka.exceptions.InsufficientHeapException;
+import tikka.utils.annealer.Annealer;
+import tikka.utils.annealer.MaximumPosteriorDecoder;
+import tikka.utils.annealer.SimulatedAnnealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * Measures the sampling loops of the bhmm models on a synthetic corpus.
+ * Every model is timed for every combination of state count and vocabulary
+ * size. After warmup sweeps, each measured sweep is timed on its own and
+ * the tokens per second are reported as mean, standard deviation, minimum
+ * and maximum over the measured sweeps. The annealers are timed separately
+ * in calls per second. Corpus and models are seeded so that runs on the
+ * same machine are comparable. Results are written tab separated to
+ * standard output.
+ *
+ * @author tsmoon
+ */
+public class Benchmark {
+
+    /**
+     * Options passed through to the models unchanged
+     */
+    protected static final String[] MODEL_OPTIONS = {
+        "xt", "xs", "xc", "xe", "xg", "xm", "q", "g", "a", "b"};
+
+    public static void main(String[] args) {
+        CommandLineParser optparse = new PosixParser();
+        Options options = setOptions();
+
+        try {
+            CommandLine cline = optparse.parse(options, args);
+
+            if (cline.hasOption('h')) {
+                HelpFormatter formatter = new HelpFormatter();
+                formatter.printHelp("java Benchmark", options);
+                System.exit(0);
+            }
+
+            String[] models = cline.getOptionValue("e", "m1,m2,m3,m4,m6").split(",");
+            int[] states = parseInts(cline.getOptionValue("s", "16,64"));
+            int[] vocabularies = parseInts(cline.getOptionValue("v", "1000,20000"));
+            int tokens = Integer.parseInt(cline.getOptionValue("n", "100000"));
+            int warmup = Integer.parseInt(cline.getOptionValue("bw", "3"));
+            int measured = Integer.parseInt(cline.getOptionValue("bm", "10"));
+            int seed = Integer.parseInt(cline.getOptionValue("r", "1"));
+            int topics = Integer.parseInt(cline.getOptionValue("t", "10"));
+            int[] classes = parseInts(cline.getOptionValue("ak", "16,64,256"));
+            int calls = Integer.parseInt(cline.getOptionValue("ac", "1000000"));
+
+            ArrayList<String> passthrough = new ArrayList<String>();
+            for (String opt : MODEL_OPTIONS) {
+                if (cline.hasOption(opt)) {
+                    passthrough.add("-" + opt);
+                    passthrough.add(cline.getOptionValue(opt));
+                }
+            }
+
+            System.out.println(String.format("# java %s %s, %d processors",
+                  System.getProperty("java.version"),
+                  System.getProperty("java.vm.name"),
+                  Runtime.getRuntime().availableProcessors()));
+            System.out.println(String.format("# tokens:%d warmup:%d measured:%d seed:%d options:%s",
+                  tokens, warmup, measured, seed, passthrough));
+
+            if (!cline.hasOption("na")) {
+                System.out.println("annealer\ttemperatureReciprocal\tclasses\tcalls/s");
+                for (int k : classes) {
+                    benchmarkAnnealer(new SimulatedAnnealer(), 1, k, calls, seed);
+                    benchmarkAnnealer(new SimulatedAnnealer(), 0.5, k, calls, seed);
+                    benchmarkAnnealer(new MaximumPosteriorDecoder(), 1, k, calls, seed);
+                }
+            }
+
+            if (!cline.hasOption("nm")) {
+                System.out.println("model\tstates\tvocabulary\ttokens/s\tstddev\tmin\tmax");
+                for (int vocabulary : vocabularies) {
+                    File dir = File.createTempFile("tikka-benchmark", "");
+                    dir.delete();
+                    SyntheticCorpus.write(dir, tokens, vocabulary, seed);
+                    try {
+                        for (String model : models) {
+                            for (int s : states) {
+                                benchmarkModel(model, s, topics, dir, tokens,
+                                      vocabulary, warmup, measured, seed,
+                                      passthrough);
+                            }
+                        }
+                    } finally {
+                        SyntheticCorpus.delete(dir);
+                    }
+                }
+            }
+        } catch (ParseException exp) {
+            System.out.println("Unexpected exception parsing command line options:" + exp.getMessage());
+        } catch (IOException exp) {
+            System.out.println("IOException:" + exp.getMessage());
+            System.exit(0);
+        } catch (InsufficientHeapException exp) {
+            System.err.println(exp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Time the sweeps of one model over the corpus. Half of the states are
+     * content states and half function states.
+     */
+    protected static void benchmarkModel(String model, int states, int topics,
+          File dir, int tokens, int vocabulary, int warmup, int measured,
+          int seed, ArrayList<String> passthrough) throws IOException,
+          ParseException, InsufficientHeapException {
+        ArrayList<String> args = new ArrayList<String>();
+        args.add("-e");
+        args.add(model);
+        args.add("-d");
+        args.add(dir.getPath());
+        args.add("-sc");
+        args.add(Integer.toString(states / 2));
+        args.add("-sf");
+        args.add(Integer.toString(states - states / 2));
+        args.add("-t");
+        args.add(Integer.toString(topics));
+        args.add("-r");
+        args.add(Integer.toString(seed));
+        args.addAll(passthrough);
+
+        CommandLine cline = new PosixParser().parse(MainBase.setOptions(),
+              args.toArray(new String[args.size()]));
+        HMMBase bhmm = ModelGenerator.generator(new CommandLineOptions(cline));
+        bhmm.initializeFromTrainingData();
+        bhmm.initializeParametersRandom();
+        bhmm.startSampling();
+
+        Annealer annealer = new SimulatedAnnealer();
+        annealer.setTemperatureReciprocal(1);
+        bhmm.sample(warmup, annealer);
+
+        double[] rates = new double[measured];
+        for (int i = 0; i < measured; ++i) {
+            long start = System.nanoTime();
+            bhmm.sample(1, annealer);
+            rates[i] = tokens / ((System.nanoTime() - start) / 1e9);
+        }
+        bhmm.stopSampling();
+
+        System.out.println(String.format("%s\t%d\t%d\t%s", model, states,
+              vocabulary, summarize(rates)));
+    }
+
+    /**
+     * Time calls to an annealer on arrays of random probabilities. The
+     * array is refilled before each call since the annealer overwrites it.
+     */
+    protected static void benchmarkAnnealer(Annealer annealer,
+          double temperatureReciprocal, int classes, int calls, int seed) {
+        annealer.setTemperatureReciprocal(temperatureReciprocal);
+        MersenneTwisterFast rand = new MersenneTwisterFast(seed);
+        double[] source = new double[classes], probs = new double[classes];
+        for (int j = 0; j < classes; ++j) {
+            source[j] = rand.nextDouble();
+        }
+
+        double sink = 0;
+        for (int i = 0; i < calls / 10; ++i) {
+            System.arraycopy(source, 0, probs, 0, classes);
+            sink += annealer.annealProbs(probs) + probs[i % classes];
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; ++i) {
+            System.arraycopy(source, 0, probs, 0, classes);
+            sink += annealer.annealProbs(probs) + probs[i % classes];
+        }
+        double rate = calls / ((System.nanoTime() - start) / 1e9);
+
+        System.out.println(String.format("%s\t%.2f\t%d\t%.0f",
+              annealer.getClass().getSimpleName(), temperatureReciprocal,
+              classes, rate + 0 * sink));
+    }
+
+    /**
+     * @param rates Measured rates
+     * @return  Mean, standard deviation, minimum and maximum, tab separated
+     */
+    protected static String summarize(double[] rates) {
+        double sum = 0, min = Double.MAX_VALUE, max = 0;
+        for (double rate : rates) {
+            sum += rate;
+            min = Math.min(min, rate);
+            max = Math.max(max, rate);
+        }
+        double mean = sum / rates.length, var = 0;
+        for (double rate : rates) {
+            var += (rate - mean) * (rate - mean);
+        }
+        double stddev = rates.length > 1 ? Math.sqrt(var / (rates.length - 1)) : 0;
+        return String.format("%.0f\t%.0f\t%.0f\t%.0f", mean, stddev, min, max);
+    }
+
+    protected static int[] parseInts(String value) {
+        String[] fields = value.split(",");
+        int[] ints = new int[fields.length];
+        for (int i = 0; i < fields.length; ++i) {
+            ints[i] = Integer.parseInt(fields[i].trim());
+        }
+        return ints;
+    }
+
+    /**
+     * Sets option parameters.
+     *
+     * @return Command line option handler
+     */
+    protected static Options setOptions() {
+        Options options = new Options();
+        options.addOption("e", "experiment-model", true,
+              "comma separated models to measure (default=m1,m2,m3,m4,m6)");
+        options.addOption("s", "states", true,
+              "comma separated total numbers of states, split evenly "
+              + "between content and function states (default=16,64)");
+        options.addOption("v", "vocabulary", true,
+              "comma separated vocabulary sizes of the synthetic corpus "
+              + "(default=1000,20000)");
+        options.addOption("n", "tokens", true,
+              "number of tokens in the synthetic corpus (default=100000)");
+        options.addOption("t", "topics", true,
+              "number of topics for m4 (default=10)");
+        options.addOption("bw", "warmup", true,
+              "number of sweeps before measuring (default=3)");
+        options.addOption("bm", "measured", true,
+              "number of measured sweeps (default=10)");
+        options.addOption("ak", "annealer-classes", true,
+              "comma separated array lengths for the annealers (default=16,64,256)");
+        options.addOption("ac", "annealer-calls", true,
+              "number of measured calls per annealer (default=1000000)");
+        options.addOption("na", "no-annealers", false, "skip the annealers");
+        options.addOption("nm", "no-models", false, "skip the models");
+        options.addOption("r", "random-seed", true,
+              "seed for the corpus and the models (default=1)");
+        options.addOption("q", "delta", true, "passed to the models");
+        options.addOption("g", "gamma", true, "passed to the models");
+        options.addOption("a", "alpha", true, "passed to the models");
+        options.addOption("b", "beta", true, "passed to the models");
+        options.addOption("xt", "threads", true, "passed to the models");
+        options.addOption("xs", "sweep", true, "passed to the models");
+        options.addOption("xc", "count-tables", true, "passed to the models");
+        options.addOption("xe", "emission-tables", true, "passed to the models");
+        options.addOption("xg", "sampler", true, "passed to the models");
+        options.addOption("xm", "mh-steps", true, "passed to the models");
+        options.addOption("h", "help", false, "print help");
+        return options;
+    }
+}
@@ -17,7 +17,13 @@
 ///////////////////////////////////////////////////////////////////////////////
 package tikka.bhmm.apps;
 
+import tikka.bhmm.model.base.CountTableEnum;
+import tikka.bhmm.model.base.SamplerEnum;
+import tikka.bhmm.model.base.ConvergenceEnum;
+import tikka.bhmm.model.base.SweepEnum;
+import tikka.opennlp.io.BlockGzipOutputStream;
 import tikka.opennlp.io.DataFormatEnum;
+import tikka.structures.StorageEnum;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -72,6 +78,20 @@ public class CommandLineOptions {
      * full path to save model to
      */
     protected String modelOutputPath = null;
+    /**
+     * Compression level of saved models from 1 to 9, or 0 to save them
+     * uncompressed so that they are mapped when loaded
+     */
+    protected int modelCompression = 0;
+    /**
+     * Number of bytes of the model in each compressed block
+     */
+    protected int modelBlockSize = BlockGzipOutputStream.MAX_BLOCK_SIZE;
+    /**
+     * full path to save a tagging model to, which holds only what is needed
+     * to tag new text
+     */
+    protected String taggingModelOutputPath = null;
     /**
      * Root of path to output annotated texts to
      */
@@ -176,6 +196,76 @@ public class CommandLineOptions {
      * Number of iterations between samples
      */
     protected int lag = 10;
+    /**
+     * Number of sampler threads
+     */
+    protected int threads = 1;
+    /**
+     * How sweeps are split across threads
+     */
+    protected SweepEnum.Sweep sweep = SweepEnum.Sweep.DOCUMENT;
+    /**
+     * Storage for count tables shared across documents
+     */
+    protected CountTableEnum.Backend countTableBackend =
+          CountTableEnum.Backend.DENSE;
+    /**
+     * Storage for counts of states or topics by word
+     */
+    protected CountTableEnum.Emission emissionBackend =
+          CountTableEnum.Emission.DENSE;
+    /**
+     * Where the token arrays and the large count tables are kept
+     */
+    protected StorageEnum.Storage storage = StorageEnum.Storage.HEAP;
+    /**
+     * Directory of the files of mapped arrays
+     */
+    protected String storageDirectory = null;
+    /**
+     * Directory of the binary caches of parsed corpora. No cache if null.
+     */
+    protected String corpusCacheDirectory = null;
+    /**
+     * How the state of each token is drawn
+     */
+    protected SamplerEnum.Sampler sampler = SamplerEnum.Sampler.EXACT;
+    /**
+     * Number of Metropolis-Hastings proposals per token
+     */
+    protected int proposalSteps = 2;
+    /**
+     * Number of iterations over which convergence is measured. Zero
+     * disables early stopping.
+     */
+    protected int convergenceWindow = 0;
+    /**
+     * Relative change of the log likelihood below which a stage has
+     * converged
+     */
+    protected double convergenceThreshold = 0.0001;
+    /**
+     * What to do once a stage has converged
+     */
+    protected ConvergenceEnum.Convergence convergence =
+          ConvergenceEnum.Convergence.STAGE;
+    /**
+     * File of the checkpoints saved during training. No checkpoints if null.
+     */
+    protected String checkpointPath = null;
+    /**
+     * Number of iterations between checkpoints. Zero to not count
+     * iterations.
+     */
+    protected int checkpointIterations = 0;
+    /**
+     * Minutes between checkpoints. Zero to not time checkpoints.
+     */
+    protected double checkpointMinutes = 30;
+    /**
+     * Whether training continues from the checkpoint
+     */
+    protected boolean resume = false;
 
     /**
      *
@@ -257,7 +347,16 @@ public class CommandLineOptions {
                     modelInputPath = value;
                     break;
                 case 'm':
-                    modelOutputPath = value;
+                    opt = option.getOpt();
+                    if (opt.equals("m")) {
+                        modelOutputPath = value;
+                    } else if (opt.equals("mt")) {
+                        taggingModelOutputPath = value;
+                    } else if (opt.equals("mz")) {
+                        modelCompression = Integer.parseInt(value);
+                    } else if (opt.equals("mb")) {
+                        modelBlockSize = Integer.parseInt(value);
+                    }
                     break;
                 case 'n':
                     if (value.endsWith("" + File.separator)) {
@@ -346,6 +445,90 @@ public class CommandLineOptions {
                 case 'w':
                     outputPerClass = Integer.parseInt(value);
                     break;
+                case 'x':
+                    opt = option.getOpt();
+                    if (opt.equals("xt")) {
+                        threads = Integer.parseInt(value);
+                    } else if (opt.equals("xs")) {
+                        if (value.equals("doc")) {
+                            sweep = SweepEnum.Sweep.DOCUMENT;
+                        } else if (value.equals("chromatic")) {
+                            sweep = SweepEnum.Sweep.CHROMATIC;
+                        } else {
+                            System.err.println(
+                                  "\"" + value + "\" is an unknown sweep option.");
+                            System.exit(1);
+                        }
+                    } else if (opt.equals("xc")) {
+                        if (value.equals("dense")) {
+                            countTableBackend = CountTableEnum.Backend.DENSE;
+                        } else if (value.equals("atomic")) {
+                            countTableBackend = CountTableEnum.Backend.ATOMIC;
+                        } else {
+                            System.err.println(
+                                  "\"" + value + "\" is an unknown count table option.");
+                            System.exit(1);
+                        }
+                    } else if (opt.equals("xe")) {
+                        if (value.equals("dense")) {
+                            emissionBackend = CountTableEnum.Emission.DENSE;
+                        } else if (value.equals("sparse")) {
+                            emissionBackend = CountTableEnum.Emission.SPARSE;
+                        } else {
+                            System.err.println(
+                                  "\"" + value + "\" is an unknown emission table option.");
+                            System.exit(1);
+                        }
+                    } else if (opt.equals("xg")) {
+                        if (value.equals("exact")) {
+                            sampler = SamplerEnum.Sampler.EXACT;
+                        } else if (value.equals("alias")) {
+                            sampler = SamplerEnum.Sampler.ALIAS;
+                        } else {
+                            System.err.println(
+                                  "\"" + value + "\" is an unknown sampler option.");
+                            System.exit(1);
+                        }
+                    } else if (opt.equals("xm")) {
+                        proposalSteps = Integer.parseInt(value);
+                    } else if (opt.equals("xw")) {
+                        convergenceWindow = Integer.parseInt(value);
+                    } else if (opt.equals("xr")) {
+                        convergenceThreshold = Double.parseDouble(value);
+                    } else if (opt.equals("xk")) {
+                        if (value.equals("stage")) {
+                            convergence = ConvergenceEnum.Convergence.STAGE;
+                        } else if (value.equals("target")) {
+                            convergence = ConvergenceEnum.Convergence.TARGET;
+                        } else {
+                            System.err.println(
+                                  "\"" + value + "\" is an unknown convergence option.");
+                            System.exit(1);
+                        }
+                    } else if (opt.equals("xo")) {
+                        if (value.equals("heap")) {
+                            storage = StorageEnum.Storage.HEAP;
+                        } else if (value.equals("mapped")) {
+                            storage = StorageEnum.Storage.MAPPED;
+                        } else {
+                            System.err.println(
+                                  "\"" + value + "\" is an unknown storage option.");
+                            System.exit(1);
+                        }
+                    } else if (opt.equals("xd")) {
+                        storageDirectory = value;
+                    } else if (opt.equals("xb")) {
+                        corpusCacheDirectory = value;
+                    } else if (opt.equals("xp")) {
+                        checkpointPath = value;
+                    } else if (opt.equals("xi")) {
+                        checkpointIterations = Integer.parseInt(value);
+                    } else if (opt.equals("xn")) {
+                        checkpointMinutes = Double.parseDouble(value);
+                    } else if (opt.equals("xu")) {
+                        resume = true;
+                    }
+                    break;
             }
         }
     }
@@ -442,6 +625,25 @@ public class CommandLineOptions {
         return modelOutputPath;
     }
 
+    /**
+     * @return compression level of saved models, 0 if they are not
+     * compressed
+     */
+    public int getModelCompression() {
+        return modelCompression;
+    }
+
+    /**
+     * @return number of bytes of the model in each compressed block
+     */
+    public int getModelBlockSize() {
+        return modelBlockSize;
+    }
+
+    public String getTaggingModelOutputPath() {
+        return taggingModelOutputPath;
+    }
+
     public String getAnnotatedTrainTextOutDir() {
         return annotatedTrainTextOutDir;
     }
@@ -484,6 +686,119 @@ public class CommandLineOptions {
         return testSetBurninIterations;
     }
 
+    /**
+     * @return the number of sampler threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return how sweeps are split across threads
+     */
+    public SweepEnum.Sweep getSweep() {
+        return sweep;
+    }
+
+    /**
+     * @return the storage for count tables shared across documents
+     */
+    public CountTableEnum.Backend getCountTableBackend() {
+        return countTableBackend;
+    }
+
+    /**
+     * @return the storage for counts of states or topics by word
+     */
+    public CountTableEnum.Emission getEmissionBackend() {
+        return emissionBackend;
+    }
+
+    /**
+     * @return how the state of each token is drawn
+     */
+    public SamplerEnum.Sampler getSampler() {
+        return sampler;
+    }
+
+    /**
+     * @return the number of Metropolis-Hastings proposals per token
+     */
+    public int getProposalSteps() {
+        return proposalSteps;
+    }
+
+    /**
+     * @return the number of iterations over which convergence is measured
+     */
+    public int getConvergenceWindow() {
+        return convergenceWindow;
+    }
+
+    /**
+     * @return the relative change of the log likelihood below which a stage
+     * has converged
+     */
+    public double getConvergenceThreshold() {
+        return convergenceThreshold;
+    }
+
+    /**
+     * @return what to do once a stage has converged
+     */
+    public ConvergenceEnum.Convergence getConvergence() {
+        return convergence;
+    }
+
+    /**
+     * @return where the token arrays and the large count tables are kept
+     */
+    public StorageEnum.Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return the directory of the files of mapped arrays
+     */
+    public String getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    /**
+     * @return the directory of the binary caches of parsed corpora
+     */
+    public String getCorpusCacheDirectory() {
+        return corpusCacheDirectory;
+    }
+
+    /**
+     * @return the file of the checkpoints saved during training
+     */
+    public String getCheckpointPath() {
+        return checkpointPath;
+    }
+
+    /**
+     * @return the number of iterations between checkpoints
+     */
+    public int getCheckpointIterations() {
+        return checkpointIterations;
+    }
+
+    /**
+     * @return the minutes between checkpoints
+     */
+    public double getCheckpointMinutes() {
+        return checkpointMinutes;
+    }
+
+    /**
+     * @return whether training continues from the checkpoint
+     */
+    public boolean getResume() {
+        return resume;
+    }
+
     /**
      * @return the evaluationOutputFilename
      */
@@ -66,6 +66,17 @@ public class MainBase {
               "full path of model to be loaded");
         options.addOption("m", "model-output-path", true,
               "full path to save model to");
+        options.addOption("mz", "model-compression", true,
+              "compress saved models in blocks on several threads at this " +
+              "level from 1 to 9. compressed models are inflated to a " +
+              "temporary file when loaded (default=0, not compressed)");
+        options.addOption("mb", "model-block-size", true,
+              "number of bytes of the model in each compressed block " +
+              "(default=65280)");
+        options.addOption("mt", "tagging-model-output-path", true,
+              "full path to save a tagging model to. it holds the " +
+              "vocabulary, counts and hyperparameters but no training " +
+              "tokens, and tags the test documents when loaded");
         options.addOption("n", "annotated-text", true,
               "full path to save annotated text to");
         options.addOption("oe", "output-evaluation-score", true,
@@ -97,6 +108,59 @@ public class MainBase {
               "be reduced [0=none, 1=CE; default=0]");
         options.addOption("w", "words-class", true,
               "number of words to print per class (default=50)");
+        options.addOption("xt", "threads", true,
+              "number of threads. files are parsed concurrently, documents " +
+              "are split across threads and counts are merged after each " +
+              "sweep (default=1)");
+        options.addOption("xs", "sweep", true,
+              "how sweeps are split across threads [doc=by document, " +
+              "chromatic=even and odd positions, m2 and m3 only; default=doc]");
+        options.addOption("xc", "count-tables", true,
+              "storage for counts shared across documents [dense=private " +
+              "copies merged after each sweep, atomic=shared by all threads " +
+              "without locks; default=dense]");
+        options.addOption("xe", "emission-tables", true,
+              "storage for counts of states by word [dense, sparse=nonzero " +
+              "counts per word with dense rows for frequent words; default=dense]");
+        options.addOption("xg", "sampler", true,
+              "how the state of each token is drawn [exact, alias=stale alias " +
+              "table proposals with Metropolis-Hastings, m1 and m2 only; " +
+              "default=exact]");
+        options.addOption("xm", "mh-steps", true,
+              "number of Metropolis-Hastings proposals per token, alternating " +
+              "between word and transition proposals (default=2)");
+        options.addOption("xw", "convergence-window", true,
+              "number of iterations over which the log likelihood must stop " +
+              "changing for an annealing stage to end early (default=0, " +
+              "never end early and do not compute the log likelihood)");
+        options.addOption("xr", "convergence-threshold", true,
+              "relative change of the log likelihood over the window below " +
+              "which a stage has converged (default=0.0001)");
+        options.addOption("xk", "convergence-skip", true,
+              "where to continue once a stage has converged [stage=next " +
+              "temperature, target=target temperature; default=stage]");
+        options.addOption("xo", "storage", true,
+              "where to keep the token arrays and the count tables by word, " +
+              "topic and document [heap, mapped=memory mapped files; " +
+              "default=heap]");
+        options.addOption("xd", "storage-dir", true,
+              "directory for the files of memory mapped arrays " +
+              "(default=system temporary directory)");
+        options.addOption("xb", "corpus-cache", true,
+              "directory of binary caches of parsed corpora. a corpus is " +
+              "parsed once and mapped from its cache on later runs, new " +
+              "files are appended (default=no cache)");
+        options.addOption("xp", "checkpoint", true,
+              "file of checkpoints saved during training. the file is " +
+              "replaced by each new checkpoint (default=no checkpoints)");
+        options.addOption("xi", "checkpoint-iterations", true,
+              "number of iterations between checkpoints (default=0, not " +
+              "counted)");
+        options.addOption("xn", "checkpoint-minutes", true,
+              "minutes between checkpoints (default=30)");
+        options.addOption("xu", "resume", false,
+              "continue training from the checkpoint. the training data and " +
+              "options must be those of the run that saved it");
         return options;
     }
 }
@@ -0,0 +1,131 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.apps;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * Writes a reproducible synthetic corpus in CONLL format for benchmarks.
+ * Words are drawn from a Zipfian distribution over a fixed vocabulary and
+ * each word type has a fixed Penn Treebank tag, so the corpus can be read
+ * and evaluated like real training data.
+ *
+ * @author tsmoon
+ */
+public class SyntheticCorpus {
+
+    /**
+     * Tags assigned to word types
+     */
+    protected static final String[] TAGS = {
+        "NN", "NNS", "VB", "VBD", "VBZ", "JJ", "RB", "DT", "IN", "PRP", "CC"};
+    /**
+     * Number of tokens per document
+     */
+    protected static final int DOCUMENT_LENGTH = 2000;
+    /**
+     * Shortest and longest sentence lengths
+     */
+    protected static final int MIN_SENTENCE = 5, MAX_SENTENCE = 30;
+
+    /**
+     * Write the corpus to a directory, one file per document
+     *
+     * @param dir       Directory to write to. Is created if necessary.
+     * @param tokens    Number of tokens
+     * @param vocabulary    Number of word types
+     * @param seed      Seed for the random number generator
+     * @throws IOException
+     */
+    public static void write(File dir, int tokens, int vocabulary, int seed)
+          throws IOException {
+        dir.mkdirs();
+        MersenneTwisterFast rand = new MersenneTwisterFast(seed);
+
+        /**
+         * Cumulative Zipfian weights with exponent one
+         */
+        double[] cumulative = new double[vocabulary];
+        double sum = 0;
+        for (int w = 0; w < vocabulary; ++w) {
+            sum += 1.0 / (w + 1);
+            cumulative[w] = sum;
+        }
+
+        int written = 0, docid = 0;
+        while (written < tokens) {
+            File file = new File(dir, String.format("doc%06d.txt", docid++));
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                  new FileOutputStream(file), "UTF-8"));
+            int end = Math.min(tokens, written + DOCUMENT_LENGTH);
+            while (written < end) {
+                int length = Math.min(end - written, MIN_SENTENCE
+                      + rand.nextInt(MAX_SENTENCE - MIN_SENTENCE + 1));
+                for (int t = 0; t < length; ++t) {
+                    int w = search(cumulative, rand.nextDouble() * sum);
+                    out.write("w" + w);
+                    out.write("\t");
+                    out.write(TAGS[w % TAGS.length]);
+                    out.newLine();
+                }
+                out.newLine();
+                written += length;
+            }
+            out.close();
+        }
+    }
+
+    /**
+     * @param cumulative    Ascending cumulative weights
+     * @param r             Value to look up
+     * @return  First index whose cumulative weight is at least r
+     */
+    protected static int search(double[] cumulative, double r) {
+        int lo = 0, hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] < r) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Delete a directory written by {@link #write}
+     *
+     * @param dir   Directory to delete
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -5,6 +5,7 @@
 package tikka.bhmm.apps;
 
 import tikka.bhmm.model.base.*;
+import tikka.exceptions.InsufficientHeapException;
 
 import java.io.IOException;
 
@@ -34,6 +35,7 @@ public class Tagger extends MainBase {
             CommandLineOptions modelOptions = new CommandLineOptions(cline);
 
             HMMBase bhmm = null;
+            boolean tagging = false;
 
             String modelInputPath = modelOptions.getModelInputPath();
 
@@ -44,7 +46,12 @@ public class Tagger extends MainBase {
                 System.err.println("Loading from model:" + modelInputPath);
                 SerializableModel serializableModel = new SerializableModel();
                 bhmm = serializableModel.loadModel(modelOptions, modelInputPath);
-                bhmm.initializeFromLoadedModel(modelOptions);
+                tagging = serializableModel.isTagging();
+                if (tagging) {
+                    bhmm.initializeForTagging(modelOptions);
+                } else {
+                    bhmm.initializeFromLoadedModel(modelOptions);
+                }
             } else {
                 bhmm = ModelGenerator.generator(modelOptions);
                 System.err.println("Randomly initializing values!");
@@ -62,20 +69,50 @@ public class Tagger extends MainBase {
                       + modelOutputPath);
                 SerializableModel serializableModel = null;
 
-                serializableModel = new SerializableModel(bhmm);
-                serializableModel.saveModel(modelOutputPath);
+                serializableModel = new SerializableModel(bhmm, tagging);
+                serializableModel.saveModel(modelOutputPath,
+                      modelOptions.getModelCompression(),
+                      modelOptions.getModelBlockSize());
             }
 
-            System.err.println("Maximum posterior decoding");
-            bhmm.decode();
+            /**
+             * Save tagging model if specified
+             */
+            String taggingModelOutputPath =
+                  modelOptions.getTaggingModelOutputPath();
+            if (taggingModelOutputPath != null) {
+                System.err.println("Saving tagging model to :"
+                      + taggingModelOutputPath);
+                SerializableModel serializableModel =
+                      new SerializableModel(bhmm, true);
+                serializableModel.saveModel(taggingModelOutputPath,
+                      modelOptions.getModelCompression(),
+                      modelOptions.getModelBlockSize());
+            }
+
+            if (tagging) {
+                System.err.println("Tagging test data");
+                bhmm.tag();
+            } else {
+                System.err.println("Maximum posterior decoding");
+                bhmm.decode();
+            }
 
             /**
              * Set the string of parameters.
              */
             bhmm.setModelParameterStringBuilder();
 
+            /**
+             * A tagging model has no tokens of its own, only those of the
+             * test data
+             */
             String evaluationOutputFilename = modelOptions.getEvaluationOutputFilename();
-            if (evaluationOutputFilename != null) {
+            if (evaluationOutputFilename != null && tagging
+                  && modelOptions.getTestDataDir() == null) {
+                System.err.println("Not evaluating: the tagging model has no "
+                      + "tokens to evaluate. Give the test data with -f.");
+            } else if (evaluationOutputFilename != null) {
                 System.err.println("Performing evaluation");
                 bhmm.evaluate();
                 System.err.println("Also printing evaluation results to " + evaluationOutputFilename);
@@ -87,7 +124,7 @@ public class Tagger extends MainBase {
              * Tag and segment training files from last iteration if specified
              */
             String annotatedTextDir = modelOptions.getAnnotatedTrainTextOutDir();
-            if (annotatedTextDir != null) {
+            if (annotatedTextDir != null && !tagging) {
                 System.err.println("Printing annotated text to :"
                       + annotatedTextDir);
                 bhmm.printAnnotatedTrainText(annotatedTextDir);
@@ -119,6 +156,15 @@ public class Tagger extends MainBase {
                     System.err.println("Also printing test evaluation results to "
                           + modelOptions.getTestEvaluationOutputFilename());
                     bhmm.printEvaluationScore(modelOptions.getTestEvaluationOutput());
+                    modelOptions.getTestEvaluationOutput().close();
+                }
+
+                String annotatedTestTextDir =
+                      modelOptions.getAnnotatedTestTextOutDir();
+                if (annotatedTestTextDir != null && tagging) {
+                    System.err.println("Printing annotated test text to :"
+                          + annotatedTestTextDir);
+                    bhmm.printAnnotatedTestText(annotatedTestTextDir);
                 }
             }
 
@@ -127,6 +173,9 @@ public class Tagger extends MainBase {
         } catch (IOException exp) {
             System.out.println("IOException:" + exp.getMessage());
             System.exit(0);
+        } catch (InsufficientHeapException exp) {
+            System.err.println(exp.getMessage());
+            System.exit(1);
         }
     }
 }
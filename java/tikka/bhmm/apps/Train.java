@@ -19,6 +19,7 @@ package tikka.bhmm.apps;
 
 import tikka.bhmm.model.base.*;
 import tikka.bhmm.models.*;
+import tikka.exceptions.InsufficientHeapException;
 
 import java.io.*;
 
@@ -53,6 +54,16 @@ public class Train extends MainBase {
 
             System.err.println("Randomly initializing values!");
             bhmm.initializeFromTrainingData();
+            if (modelOptions.getResume()) {
+                if (modelOptions.getCheckpointPath() == null) {
+                    System.err.println("Resuming needs the checkpoint file "
+                          + "given with -xp");
+                    System.exit(1);
+                }
+                System.err.println("Resuming from checkpoint "
+                      + modelOptions.getCheckpointPath());
+                bhmm.resume(new File(modelOptions.getCheckpointPath()));
+            }
             System.err.println("Beginning training!");
             bhmm.train();
 
@@ -66,7 +77,24 @@ public class Train extends MainBase {
                 SerializableModel serializableModel = null;
 
                 serializableModel = new SerializableModel(bhmm);
-                serializableModel.saveModel(modelOutputPath);
+                serializableModel.saveModel(modelOutputPath,
+                      modelOptions.getModelCompression(),
+                      modelOptions.getModelBlockSize());
+            }
+
+            /**
+             * Save tagging model if specified
+             */
+            String taggingModelOutputPath =
+                  modelOptions.getTaggingModelOutputPath();
+            if (taggingModelOutputPath != null) {
+                System.err.println("Saving tagging model to :"
+                      + taggingModelOutputPath);
+                SerializableModel serializableModel =
+                      new SerializableModel(bhmm, true);
+                serializableModel.saveModel(taggingModelOutputPath,
+                      modelOptions.getModelCompression(),
+                      modelOptions.getModelBlockSize());
             }
 
             System.err.println("Maximum posterior decoding");
@@ -113,6 +141,9 @@ public class Train extends MainBase {
         } catch (IOException exp) {
             System.out.println("IOException:" + exp.getMessage());
             System.exit(0);
+        } catch (InsufficientHeapException exp) {
+            System.err.println(exp.getMessage());
+            System.exit(1);
         }
     }
 }
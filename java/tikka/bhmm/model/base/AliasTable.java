@@ -0,0 +1,166 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.util.Arrays;
+
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * Walker alias table over a set of columns with nonnegative weights. Once
+ * built, a column is drawn in constant time. The columns may either be all
+ * columns from zero up to the size of the table or an ascending subset of
+ * them, in which case looking up the weight of a column takes a binary
+ * search.
+ *
+ * @author tsmoon
+ */
+public class AliasTable {
+
+    /**
+     * Number of entries in the table
+     */
+    protected int size;
+    /**
+     * Column of each entry in ascending order. Null if entry j is column j.
+     */
+    protected int[] columns;
+    /**
+     * Weight of each entry when the table was built
+     */
+    protected double[] weights;
+    /**
+     * Probability of keeping an entry rather than taking its alias
+     */
+    protected double[] cutoffs;
+    /**
+     * Entry that is taken when an entry is not kept
+     */
+    protected int[] aliases;
+    /**
+     * Sum of the weights
+     */
+    protected double total;
+
+    /**
+     * Build the table. The arrays are copied.
+     *
+     * @param columns   Ascending columns of the entries, or null if entry j
+     *                  is column j
+     * @param weights   Weights of the entries
+     * @param n         Number of entries
+     */
+    public void build(int[] columns, double[] weights, int n) {
+        if (this.weights == null || this.weights.length < n) {
+            this.weights = new double[n];
+            cutoffs = new double[n];
+            aliases = new int[n];
+        }
+        if (columns == null) {
+            this.columns = null;
+        } else {
+            if (this.columns == null || this.columns.length < n) {
+                this.columns = new int[this.weights.length];
+            }
+            System.arraycopy(columns, 0, this.columns, 0, n);
+        }
+        System.arraycopy(weights, 0, this.weights, 0, n);
+        size = n;
+
+        total = 0;
+        for (int j = 0; j < n; ++j) {
+            total += weights[j];
+        }
+        if (n == 0 || total <= 0) {
+            total = 0;
+            return;
+        }
+
+        /**
+         * Vose's method. The indexes of entries below the average weight are
+         * kept at the front of the aliases array and those above at the back
+         * until they are paired off.
+         */
+        int[] stack = new int[n];
+        int small = 0, large = n;
+        for (int j = 0; j < n; ++j) {
+            cutoffs[j] = weights[j] * n / total;
+            if (cutoffs[j] < 1) {
+                stack[small++] = j;
+            } else {
+                stack[--large] = j;
+            }
+        }
+        while (small > 0 && large < n) {
+            int s = stack[--small];
+            int l = stack[large++];
+            aliases[s] = l;
+            cutoffs[l] -= 1 - cutoffs[s];
+            if (cutoffs[l] < 1) {
+                stack[small++] = l;
+            } else {
+                stack[--large] = l;
+            }
+        }
+        while (small > 0) {
+            int s = stack[--small];
+            cutoffs[s] = 1;
+            aliases[s] = s;
+        }
+        while (large < n) {
+            int l = stack[large++];
+            cutoffs[l] = 1;
+            aliases[l] = l;
+        }
+    }
+
+    /**
+     * Draw a column in proportion to its weight. The table must not be
+     * empty.
+     *
+     * @param rand  Random number generator
+     * @return  The sampled column
+     */
+    public int sample(MersenneTwisterFast rand) {
+        int j = rand.nextInt(size);
+        if (rand.nextDouble() >= cutoffs[j]) {
+            j = aliases[j];
+        }
+        return columns == null ? j : columns[j];
+    }
+
+    /**
+     * @param column    Column to look up
+     * @return  Weight of the column when the table was built, zero if the
+     *          column is not in the table
+     */
+    public double weight(int column) {
+        if (columns == null) {
+            return column < size ? weights[column] : 0;
+        }
+        int j = Arrays.binarySearch(columns, 0, size, column);
+        return j < 0 ? 0 : weights[j];
+    }
+
+    /**
+     * @return  Sum of the weights when the table was built
+     */
+    public double total() {
+        return total;
+    }
+}
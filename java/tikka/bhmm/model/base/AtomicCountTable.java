@@ -0,0 +1,82 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Count table whose updates are atomic, so that several sampler threads may
+ * increment and decrement it at once without locks or a merge step. Reads
+ * are not coordinated with updates, so a thread may see counts that other
+ * threads are about to change.
+ *
+ * @author tsmoon
+ */
+public class AtomicCountTable extends CountTable {
+
+    static private final long serialVersionUID = 42L;
+    /**
+     * Array of counts in row major order
+     */
+    protected AtomicIntegerArray counts;
+
+    public AtomicCountTable(int rows, int columns) {
+        super(rows, columns);
+        counts = new AtomicIntegerArray(rows * columns);
+    }
+
+    @Override
+    public int get(int row, int column) {
+        return counts.get(row * columns + column);
+    }
+
+    @Override
+    public void inc(int row, int column) {
+        counts.incrementAndGet(row * columns + column);
+    }
+
+    @Override
+    public void dec(int row, int column) {
+        counts.decrementAndGet(row * columns + column);
+    }
+
+    @Override
+    public void set(int row, int column, int value) {
+        counts.set(row * columns + column, value);
+    }
+
+    @Override
+    public int get(int column) {
+        return counts.get(column);
+    }
+
+    @Override
+    public void inc(int column) {
+        counts.incrementAndGet(column);
+    }
+
+    @Override
+    public void dec(int column) {
+        counts.decrementAndGet(column);
+    }
+
+    @Override
+    public boolean isConcurrent() {
+        return true;
+    }
+}
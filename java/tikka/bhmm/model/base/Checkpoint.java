@@ -0,0 +1,387 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tikka.structures.IntArray;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+import tikka.utils.Checkpointer;
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * State of the sampler at the end of a training iteration, saved so that
+ * training may resume from it. A checkpoint holds the states of the tokens,
+ * every count kept from them, the position in the annealing schedule and
+ * the states of all random number generators, so that a resumed run draws
+ * the same samples as a run that was never stopped. It is saved as a
+ * {@link ModelFile}. The corpus is not saved, since training resumes on
+ * the same corpus read with the same options.
+ *
+ * @author tsmoon
+ */
+public class Checkpoint extends Checkpointer.Snapshot {
+
+    protected String modelName;
+    protected int wordN;
+    protected int wordW;
+    /**
+     * Outer iteration of the annealing schedule
+     */
+    protected int outerIteration;
+    /**
+     * Number of inner iterations of the outer iteration that are done
+     */
+    protected int iteration;
+    protected double temperature;
+    protected double temperatureReciprocal;
+    /**
+     * Log likelihoods of the inner iterations that are done
+     */
+    protected double[] logLikelihoods;
+    /**
+     * State of the random number generator of the model followed by those
+     * of the sampler threads
+     */
+    protected byte[][] randoms;
+    /**
+     * Copies of the arrays over the tokens by name
+     */
+    protected LinkedHashMap<String, IntArray> arrays =
+          new LinkedHashMap<String, IntArray>();
+    protected HashMap<String, Integer> maxValues =
+          new HashMap<String, Integer>();
+    /**
+     * Copies of the count tables by name
+     */
+    protected LinkedHashMap<String, int[]> counts =
+          new LinkedHashMap<String, int[]>();
+    /**
+     * Copies of the sparse count tables by name
+     */
+    protected LinkedHashMap<String, SparseCountTable> sparseCounts =
+          new LinkedHashMap<String, SparseCountTable>();
+
+    /**
+     * Copy the state of a model that is being trained. Called on the
+     * training thread between two sweeps.
+     *
+     * @param m Model being trained
+     * @param outerIteration    Current outer iteration
+     * @param iteration Number of inner iterations that are done
+     * @param logLikelihoods    Log likelihoods of the inner iterations that
+     *                          are done
+     */
+    public Checkpoint(HMMBase m, int outerIteration, int iteration,
+          double[] logLikelihoods) {
+        modelName = m.modelName;
+        wordN = m.wordN;
+        wordW = m.wordW;
+        this.outerIteration = outerIteration;
+        this.iteration = iteration;
+        temperature = m.temperature;
+        temperatureReciprocal = m.temperatureReciprocal;
+        this.logLikelihoods = new double[iteration];
+        System.arraycopy(logLikelihoods, 0, this.logLikelihoods, 0, iteration);
+
+        MersenneTwisterFast[] threads = m.parallelSampler == null
+              ? new MersenneTwisterFast[0] : m.parallelSampler.getRandoms();
+        randoms = new byte[1 + threads.length][];
+        randoms[0] = state(m.mtfRand);
+        for (int t = 0; t < threads.length; ++t) {
+            randoms[t + 1] = state(threads[t]);
+        }
+
+        m.snapshotState(this);
+    }
+
+    /**
+     * Read the position and the random number generators of a saved
+     * checkpoint. The arrays and counts are restored by the model with
+     * {@link HMMBase#restoreState(ModelFile)}.
+     *
+     * @param in    The checkpoint file
+     * @throws IOException  If the file is not a checkpoint
+     */
+    public Checkpoint(ModelFile in) throws IOException {
+        if (!in.contains("checkpoint")) {
+            throw new IOException(in.getFile() + " is not a checkpoint");
+        }
+        modelName = in.getString("modelName");
+        wordN = in.getInt("wordN");
+        wordW = in.getInt("wordW");
+        outerIteration = in.getInt("outerIteration");
+        iteration = in.getInt("iteration");
+        temperature = in.getDouble("temperature");
+        temperatureReciprocal = in.getDouble("temperatureReciprocal");
+
+        DataInputStream bytes = new DataInputStream(new ByteArrayInputStream(
+              in.getBytes("logLikelihoods")));
+        logLikelihoods = new double[iteration];
+        for (int i = 0; i < iteration; ++i) {
+            logLikelihoods[i] = bytes.readDouble();
+        }
+        randoms = new byte[in.getInt("randoms")][];
+        for (int t = 0; t < randoms.length; ++t) {
+            randoms[t] = in.getBytes("random." + t);
+        }
+    }
+
+    /**
+     * Copy an array over the tokens
+     *
+     * @param name  Name of the array
+     * @param values    The array. May be null.
+     * @param maxValue  Largest value the array may hold
+     */
+    public void putArray(String name, IntArray values, int maxValue) {
+        if (values == null) {
+            return;
+        }
+        IntArray copy = IntArray.allocate(values.length(), maxValue);
+        copy.copyFrom(values);
+        arrays.put(name, copy);
+        maxValues.put(name, maxValue);
+    }
+
+    /**
+     * Copy a count table
+     *
+     * @param name  Name of the table
+     * @param table The table. May be null.
+     */
+    public void putCounts(String name, CountTable table) {
+        if (table instanceof SparseCountTable) {
+            sparseCounts.put(name, (SparseCountTable) table.copy());
+        } else if (table != null) {
+            counts.put(name, table.toArray());
+        }
+    }
+
+    /**
+     * Copy a count table
+     *
+     * @param name  Name of the table
+     * @param table The counts. May be null.
+     */
+    public void putCounts(String name, int[] table) {
+        if (table != null) {
+            counts.put(name, table.clone());
+        }
+    }
+
+    @Override
+    public void save(File file) throws IOException {
+        ModelFileWriter out = new ModelFileWriter(file);
+        try {
+            write(out);
+            out.close();
+        } finally {
+            out.abort();
+        }
+    }
+
+    protected void write(ModelFileWriter out) throws IOException {
+        out.putInt("checkpoint", 1);
+        out.putString("modelName", modelName);
+        out.putInt("wordN", wordN);
+        out.putInt("wordW", wordW);
+        out.putInt("outerIteration", outerIteration);
+        out.putInt("iteration", iteration);
+        out.putDouble("temperature", temperature);
+        out.putDouble("temperatureReciprocal", temperatureReciprocal);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream doubles = new DataOutputStream(bytes);
+        for (double logLikelihood : logLikelihoods) {
+            doubles.writeDouble(logLikelihood);
+        }
+        doubles.close();
+        out.putBytes("logLikelihoods", bytes.toByteArray());
+        out.putInt("randoms", randoms.length);
+        for (int t = 0; t < randoms.length; ++t) {
+            out.putBytes("random." + t, randoms[t]);
+        }
+
+        for (Map.Entry<String, IntArray> entry : arrays.entrySet()) {
+            out.putInts(entry.getKey(), entry.getValue(),
+                  maxValues.get(entry.getKey()));
+        }
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            out.putInts(entry.getKey(), entry.getValue(), Integer.MAX_VALUE);
+        }
+        for (Map.Entry<String, SparseCountTable> entry
+              : sparseCounts.entrySet()) {
+            entry.getValue().write(out, entry.getKey());
+        }
+    }
+
+    /**
+     * Check that the checkpoint was saved while training the same model on
+     * the same corpus
+     *
+     * @param m Model that has been initialized from the training data
+     * @param file  The checkpoint file
+     * @throws IOException  If the checkpoint does not fit the model
+     */
+    public void check(HMMBase m, File file) throws IOException {
+        if (!m.modelName.equals(modelName) || m.wordN != wordN
+              || m.wordW != wordW) {
+            throw new IOException(String.format(
+                  "%s was saved while training %s on %d tokens of %d words, "
+                  + "not %s on %d tokens of %d words", file, modelName, wordN,
+                  wordW, m.modelName, m.wordN, m.wordW));
+        }
+    }
+
+    /**
+     * Set the annealing position and the random number generators of a
+     * model whose samplers have been started
+     *
+     * @param m Model to resume
+     * @param logLikelihoods    Log likelihoods of the current outer
+     *                          iteration to fill in
+     */
+    public void restore(HMMBase m, double[] logLikelihoods) {
+        m.temperature = temperature;
+        m.temperatureReciprocal = temperatureReciprocal;
+        System.arraycopy(this.logLikelihoods, 0, logLikelihoods, 0,
+              Math.min(iteration, logLikelihoods.length));
+
+        MersenneTwisterFast[] threads = m.parallelSampler == null
+              ? new MersenneTwisterFast[0] : m.parallelSampler.getRandoms();
+        if (threads.length != randoms.length - 1) {
+            System.err.println(String.format(
+                  "The checkpoint was saved with %d sampler threads rather "
+                  + "than %d. Sampling will not repeat the samples of the "
+                  + "run that saved it.", randoms.length - 1, threads.length));
+        }
+        restore(m.mtfRand, randoms[0]);
+        for (int t = 0; t < threads.length && t + 1 < randoms.length; ++t) {
+            restore(threads[t], randoms[t + 1]);
+        }
+    }
+
+    /**
+     * Overwrite an array over the tokens with its copy in a checkpoint
+     *
+     * @param in    The checkpoint file
+     * @param name  Name of the array
+     * @param values    Array to overwrite. Nothing is restored if null.
+     * @throws IOException  If the checkpoint has no such array
+     */
+    public static void restoreArray(ModelFile in, String name,
+          IntArray values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        IntArray saved = require(in, name, values.length());
+        values.copyFrom(saved);
+    }
+
+    /**
+     * Overwrite a count table with its copy in a checkpoint
+     *
+     * @param in    The checkpoint file
+     * @param name  Name of the table
+     * @param table Table to overwrite. Nothing is restored if null.
+     * @throws IOException  If the checkpoint has no such table
+     */
+    public static void restoreCounts(ModelFile in, String name,
+          CountTable table) throws IOException {
+        if (table == null) {
+            return;
+        }
+        if (SparseCountTable.isSaved(in, name)) {
+            if (table instanceof SparseCountTable) {
+                ((SparseCountTable) table).read(in, name);
+            } else {
+                SparseCountTable saved = new SparseCountTable(table.getRows(),
+                      table.getColumns());
+                saved.read(in, name);
+                table.copyFrom(saved);
+            }
+            return;
+        }
+        int columns = table.getColumns();
+        IntArray saved = require(in, name, table.getRows() * columns);
+        for (int i = 0; i < saved.length(); ++i) {
+            table.set(i / columns, i % columns, saved.get(i));
+        }
+    }
+
+    /**
+     * Overwrite a count table with its copy in a checkpoint
+     *
+     * @param in    The checkpoint file
+     * @param name  Name of the table
+     * @param table Counts to overwrite. Nothing is restored if null.
+     * @throws IOException  If the checkpoint has no such table
+     */
+    public static void restoreCounts(ModelFile in, String name, int[] table)
+          throws IOException {
+        if (table == null) {
+            return;
+        }
+        IntArray saved = require(in, name, table.length);
+        for (int i = 0; i < table.length; ++i) {
+            table[i] = saved.get(i);
+        }
+    }
+
+    protected static IntArray require(ModelFile in, String name, int length)
+          throws IOException {
+        IntArray saved = in.getIntArray(name, true);
+        if (saved == null || saved.length() != length) {
+            throw new IOException(String.format(
+                  "%s has no array %s of %d elements", in.getFile(), name,
+                  length));
+        }
+        return saved;
+    }
+
+    protected static byte[] state(MersenneTwisterFast rand) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            rand.writeState(out);
+            out.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    protected static void restore(MersenneTwisterFast rand, byte[] state) {
+        try {
+            rand.readState(new DataInputStream(new ByteArrayInputStream(
+                  state)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+import tikka.structures.IntArray;
+import tikka.utils.annealer.Annealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * Two-color parallel sampler for first order models. In a first order chain
+ * the state of a token depends only on the states of its two neighbors, so
+ * all tokens at even positions may be resampled at once given the tokens at
+ * odd positions and vice versa. Each color is split into contiguous ranges
+ * over the threads. The counts are held fixed while a color is sampled and
+ * the changes are applied to them once all threads are done with the color.
+ * Unlike {@link DocumentPartitionedSampler}, this also parallelizes within a
+ * single document.
+ *
+ * @author tsmoon
+ */
+public class ChromaticSampler extends ParallelSampler {
+
+    /**
+     * Number of ranges each color is split into
+     */
+    protected int threads;
+    /**
+     * Random number generator for each thread
+     */
+    protected MersenneTwisterFast[] rands;
+    /**
+     * Scratch array of state probabilities for each thread
+     */
+    protected double[][] probs;
+    /**
+     * States of the tokens of the current color before they were resampled.
+     * Token i is stored at i/2.
+     */
+    protected int[] previousStates;
+
+    /**
+     * @param model     Model that has been randomly initialized
+     * @param threads   Number of sampler threads
+     */
+    public ChromaticSampler(HMMBase model, int threads) {
+        super(model, threads);
+        this.threads = threads;
+        rands = new MersenneTwisterFast[threads];
+        probs = new double[threads][];
+        for (int t = 0; t < threads; ++t) {
+            rands[t] = new MersenneTwisterFast(model.mtfRand.nextInt());
+            probs[t] = new double[model.stateS];
+        }
+        previousStates = new int[(model.wordN + 1) / 2];
+    }
+
+    @Override
+    public void sweep(Annealer annealer) {
+        sampleColor(0, annealer);
+        sampleColor(1, annealer);
+    }
+
+    @Override
+    public MersenneTwisterFast[] getRandoms() {
+        return rands;
+    }
+
+    /**
+     * Resample all tokens at positions of the given parity
+     *
+     * @param color     0 for even positions, 1 for odd positions
+     * @param annealer  Callback to annealing process
+     */
+    protected void sampleColor(final int color, final Annealer annealer) {
+        final int wordN = model.wordN;
+        int positions = (wordN - color + 1) / 2;
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int t = 0; t < threads; ++t) {
+            final int start = 2 * (int) ((long) positions * t / threads) + color;
+            final int end = 2 * (int) ((long) positions * (t + 1) / threads) + color;
+            if (start >= end) {
+                continue;
+            }
+            final MersenneTwisterFast rand = rands[t];
+            final double[] stateProbs = probs[t];
+            tasks.add(new Callable<Object>() {
+
+                public Object call() {
+                    IntArray stateVector = model.stateVector;
+                    for (int i = start; i < end && i < wordN; i += 2) {
+                        int prev = i > 0 ? stateVector.get(i - 1) : 0;
+                        int next = i + 1 < wordN ? stateVector.get(i + 1) : 0;
+                        previousStates[i >> 1] = stateVector.get(i);
+                        stateVector.set(i, model.sampleTokenGivenNeighbors(i,
+                              prev, next, stateProbs, rand, annealer));
+                    }
+                    return null;
+                }
+            });
+        }
+
+        invokeAll(tasks);
+
+        applyChanges(color);
+    }
+
+    /**
+     * Move the counts of every token of the given color whose state changed
+     * from its old state to its new one.
+     *
+     * @param color     0 for even positions, 1 for odd positions
+     */
+    protected void applyChanges(int color) {
+        int wordN = model.wordN;
+        IntArray stateVector = model.stateVector;
+        CountTable stateByWord = model.stateByWord;
+        CountTable stateCounts = model.stateCounts;
+        CountTable firstOrderTransitions = model.firstOrderTransitions;
+        for (int i = color; i < wordN; i += 2) {
+            int oldstate = previousStates[i >> 1], newstate = stateVector.get(i);
+            if (oldstate == newstate) {
+                continue;
+            }
+            int wordid = model.wordVector.get(i);
+            stateByWord.dec(wordid, oldstate);
+            stateByWord.inc(wordid, newstate);
+            stateCounts.dec(oldstate);
+            stateCounts.inc(newstate);
+            int prev = i > 0 ? stateVector.get(i - 1) : 0;
+            firstOrderTransitions.dec(prev, oldstate);
+            firstOrderTransitions.inc(prev, newstate);
+            if (i + 1 < wordN) {
+                firstOrderTransitions.dec(oldstate, stateVector.get(i + 1));
+                firstOrderTransitions.inc(newstate, stateVector.get(i + 1));
+            }
+        }
+    }
+}
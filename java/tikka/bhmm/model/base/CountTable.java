@@ -0,0 +1,210 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.io.IOException;
+import java.io.Serializable;
+
+import tikka.structures.IntArray;
+import tikka.structures.ModelFileWriter;
+import tikka.utils.math.LogGamma;
+
+/**
+ * Table of counts for the sufficient statistics of the models. A table has
+ * a number of rows, each with the same number of columns. One dimensional
+ * tables have a single row and are indexed by column alone.
+ *
+ * @author tsmoon
+ */
+public abstract class CountTable implements Serializable {
+
+    static private final long serialVersionUID = 42L;
+    /**
+     * Number of rows
+     */
+    protected int rows;
+    /**
+     * Number of columns
+     */
+    protected int columns;
+
+    protected CountTable(int rows, int columns) {
+        this.rows = rows;
+        this.columns = columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public abstract int get(int row, int column);
+
+    public abstract void inc(int row, int column);
+
+    public abstract void dec(int row, int column);
+
+    public abstract void set(int row, int column, int value);
+
+    public int get(int column) {
+        return get(0, column);
+    }
+
+    public void inc(int column) {
+        inc(0, column);
+    }
+
+    public void dec(int column) {
+        dec(0, column);
+    }
+
+    /**
+     * Copy the counts of a row into an array, e.g. the counts of a word in
+     * every state, so that a sampler reads them once per token instead of
+     * once per state.
+     *
+     * @param row       Row to copy
+     * @param counts    Array of at least {@link #columns} counts to fill
+     */
+    public void getRow(int row, int[] counts) {
+        for (int j = 0; j < columns; ++j) {
+            counts[j] = get(row, j);
+        }
+    }
+
+    /**
+     * Whether the table may be incremented and decremented from several
+     * threads at once without losing updates.
+     *
+     * @return  Whether updates are atomic
+     */
+    public boolean isConcurrent() {
+        return false;
+    }
+
+    /**
+     * Create a private copy of the table for a single sampler thread
+     *
+     * @return  Copy of the table
+     */
+    public CountTable copy() {
+        DenseCountTable table = new DenseCountTable(rows, columns);
+        table.copyFrom(this);
+        return table;
+    }
+
+    /**
+     * Overwrite the contents of this table with those of another table of
+     * the same dimensions.
+     *
+     * @param table Table to copy from
+     */
+    public void copyFrom(CountTable table) {
+        for (int i = 0; i < rows; ++i) {
+            for (int j = 0; j < columns; ++j) {
+                set(i, j, table.get(i, j));
+            }
+        }
+    }
+
+    /**
+     * Add the difference between each local copy and this table to this
+     * table.
+     *
+     * @param locals    Local copies of the table made by {@link #copy()}
+     */
+    public void merge(CountTable[] locals) {
+        for (int i = 0; i < rows; ++i) {
+            for (int j = 0; j < columns; ++j) {
+                int global = get(i, j);
+                int sum = global;
+                for (int r = 0; r < locals.length; ++r) {
+                    sum += locals[r].get(i, j) - global;
+                }
+                set(i, j, sum);
+            }
+        }
+    }
+
+    /**
+     * Sum of the log rising factorials of a prior over the positive counts
+     * in a range of columns of every row. This is the part of a collapsed
+     * Dirichlet-multinomial log likelihood that depends on single counts.
+     *
+     * @param prior Prior of each cell
+     * @param from  First column
+     * @param to    One past the last column
+     * @return  Sum of {@link LogGamma#logRising} over the positive counts
+     */
+    public double logRisingSum(double prior, int from, int to) {
+        double sum = 0;
+        for (int i = 0; i < rows; ++i) {
+            for (int j = from; j < to; ++j) {
+                int count = get(i, j);
+                if (count > 0) {
+                    sum += LogGamma.logRising(prior, count);
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Save the counts in a section of a model file in row major order. The
+     * cells are streamed to the file rather than copied to an array first.
+     *
+     * @param out   Writer of the model file
+     * @param name  Name of the section
+     * @throws IOException
+     */
+    public void write(ModelFileWriter out, String name) throws IOException {
+        out.putInts(name, new IntArray(rows * columns) {
+
+            @Override
+            public int get(int i) {
+                return CountTable.this.get(i / columns, i % columns);
+            }
+
+            @Override
+            public void set(int i, int value) {
+                CountTable.this.set(i / columns, i % columns, value);
+            }
+
+            @Override
+            public long bytes() {
+                return 4L * length;
+            }
+        }, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return  Contents of the table in row major order
+     */
+    public int[] toArray() {
+        int[] array = new int[rows * columns];
+        for (int i = 0; i < rows; ++i) {
+            for (int j = 0; j < columns; ++j) {
+                array[i * columns + j] = get(i, j);
+            }
+        }
+        return array;
+    }
+}
@@ -0,0 +1,130 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.io.IOException;
+
+import tikka.structures.ModelFileWriter;
+
+/**
+ * Count table backed by a single int array in row major order. Updates are
+ * not synchronized.
+ *
+ * @author tsmoon
+ */
+public class DenseCountTable extends CountTable {
+
+    static private final long serialVersionUID = 42L;
+    /**
+     * Array of counts
+     */
+    protected int[] counts;
+
+    public DenseCountTable(int rows, int columns) {
+        super(rows, columns);
+        counts = new int[rows * columns];
+    }
+
+    /**
+     * Wrap an existing array of counts
+     *
+     * @param counts    Array of counts in row major order
+     * @param columns   Number of columns
+     */
+    public DenseCountTable(int[] counts, int columns) {
+        super(counts.length / columns, columns);
+        this.counts = counts;
+    }
+
+    @Override
+    public int get(int row, int column) {
+        return counts[row * columns + column];
+    }
+
+    @Override
+    public void inc(int row, int column) {
+        counts[row * columns + column]++;
+    }
+
+    @Override
+    public void dec(int row, int column) {
+        counts[row * columns + column]--;
+    }
+
+    @Override
+    public void set(int row, int column, int value) {
+        counts[row * columns + column] = value;
+    }
+
+    @Override
+    public int get(int column) {
+        return counts[column];
+    }
+
+    @Override
+    public void inc(int column) {
+        counts[column]++;
+    }
+
+    @Override
+    public void dec(int column) {
+        counts[column]--;
+    }
+
+    @Override
+    public void getRow(int row, int[] counts) {
+        System.arraycopy(this.counts, row * columns, counts, 0, columns);
+    }
+
+    @Override
+    public void copyFrom(CountTable table) {
+        if (table instanceof DenseCountTable) {
+            System.arraycopy(((DenseCountTable) table).counts, 0, counts, 0,
+                  counts.length);
+        } else {
+            super.copyFrom(table);
+        }
+    }
+
+    @Override
+    public void merge(CountTable[] locals) {
+        for (int r = 0; r < locals.length; ++r) {
+            if (!(locals[r] instanceof DenseCountTable)) {
+                super.merge(locals);
+                return;
+            }
+        }
+        for (int k = 0; k < counts.length; ++k) {
+            int sum = counts[k];
+            for (int r = 0; r < locals.length; ++r) {
+                sum += ((DenseCountTable) locals[r]).counts[k] - counts[k];
+            }
+            counts[k] = sum;
+        }
+    }
+
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        out.putInts(name, counts, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int[] toArray() {
+        return counts.clone();
+    }
+}
@@ -0,0 +1,165 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+import tikka.structures.IntArray;
+import tikka.utils.annealer.Annealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * Approximate distributed Gibbs sampler for the bhmm models. The documents
+ * are split into contiguous partitions of roughly equal numbers of tokens
+ * and each partition is sampled on its own thread against a private copy
+ * of the counts shared across documents. The changes to those counts are
+ * merged back into the model at the end of every sweep. If the model keeps
+ * its counts in concurrent tables, all threads update them directly
+ * instead and there is nothing to merge.
+ *
+ * @author tsmoon
+ */
+public class DocumentPartitionedSampler extends ParallelSampler {
+
+    /**
+     * One copy of the model per partition
+     */
+    protected HMMBase[] replicas;
+    /**
+     * Token offsets of the partitions. Partition p covers the tokens from
+     * boundaries[p] up to but not including boundaries[p+1].
+     */
+    protected int[] boundaries;
+    /**
+     * State preceding the first token of each partition at the beginning
+     * of the current sweep. The transition into that token was counted from
+     * this state.
+     */
+    protected int[] previousStates;
+
+    /**
+     * @param model     Model that has been randomly initialized
+     * @param threads   Number of sampler threads
+     */
+    public DocumentPartitionedSampler(HMMBase model, int threads) {
+        super(model, threads);
+        boundaries = partition(model.documentStarts, model.wordN, threads);
+        int partitions = boundaries.length - 1;
+        previousStates = new int[partitions];
+        replicas = new HMMBase[partitions];
+        for (int p = 0; p < partitions; ++p) {
+            replicas[p] = model.replicate(model.mtfRand.nextInt());
+        }
+    }
+
+    /**
+     * Split the tokens into at most n partitions of roughly equal size. Every
+     * partition begins at a document boundary.
+     *
+     * @param documentStarts    Offsets of the first token of each document,
+     *                          followed by wordN
+     * @param wordN Number of tokens
+     * @param n     Maximum number of partitions
+     * @return  Offsets of the partitions, including wordN as the last element
+     */
+    protected static int[] partition(int[] documentStarts, int wordN, int n) {
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+        offsets.add(0);
+        int i = 0, d = 0;
+        for (int p = 1; p < n; ++p) {
+            int target = (int) ((long) wordN * p / n);
+            if (target <= i) {
+                continue;
+            }
+            while (documentStarts[d] < target) {
+                d++;
+            }
+            i = documentStarts[d];
+            if (i >= wordN) {
+                break;
+            }
+            offsets.add(i);
+        }
+        offsets.add(wordN);
+
+        int[] boundaries = new int[offsets.size()];
+        for (int p = 0; p < boundaries.length; ++p) {
+            boundaries[p] = offsets.get(p);
+        }
+        return boundaries;
+    }
+
+    @Override
+    public void sweep(final Annealer annealer) {
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int p = 0; p < replicas.length; ++p) {
+            final HMMBase replica = replicas[p];
+            final int start = boundaries[p], end = boundaries[p + 1];
+            final int previous = previousStates[p] =
+                  start > 0 ? model.stateVector.get(start - 1) : 0;
+            replica.followingState =
+                  end < model.wordN ? model.stateVector.get(end) : 0;
+            if (!model.sharesCounts()) {
+                model.synchronizeReplica(replica);
+            }
+            tasks.add(new Callable<Object>() {
+
+                public Object call() {
+                    replica.sampleTokens(start, end, previous, annealer);
+                    return null;
+                }
+            });
+        }
+
+        invokeAll(tasks);
+
+        if (!model.sharesCounts()) {
+            model.mergeReplicas(replicas);
+        }
+        repairBoundaries();
+    }
+
+    @Override
+    public MersenneTwisterFast[] getRandoms() {
+        MersenneTwisterFast[] rands = new MersenneTwisterFast[replicas.length];
+        for (int p = 0; p < replicas.length; ++p) {
+            rands[p] = replicas[p].mtfRand;
+        }
+        return rands;
+    }
+
+    /**
+     * The first token of each partition was sampled against the state its
+     * predecessor had at the beginning of the sweep. Move the transition
+     * count of that token to the predecessor's new state so that the counts
+     * match the state assignments again.
+     */
+    protected void repairBoundaries() {
+        IntArray stateVector = model.stateVector;
+        CountTable firstOrderTransitions = model.firstOrderTransitions;
+        for (int p = 1; p < replicas.length; ++p) {
+            int i = boundaries[p];
+            int prev = stateVector.get(i - 1);
+            if (previousStates[p] != prev) {
+                firstOrderTransitions.dec(previousStates[p], stateVector.get(i));
+                firstOrderTransitions.inc(prev, stateVector.get(i));
+            }
+        }
+    }
+}
@@ -20,7 +20,10 @@ package tikka.bhmm.model.base;
 import tikka.bhmm.apps.CommandLineOptions;
 import tikka.opennlp.io.*;
 import tikka.structures.*;
+import tikka.utils.Checkpointer;
+import tikka.utils.HeapUsage;
 import tikka.utils.ec.util.MersenneTwisterFast;
+import tikka.utils.math.LogGamma;
 import tikka.utils.annealer.*;
 import tikka.utils.normalizer.*;
 import tikka.utils.postags.*;
@@ -33,15 +36,14 @@ import java.io.OutputStreamWriter;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import tikka.exceptions.IgnoreTagException;
+import tikka.exceptions.InsufficientHeapException;
 
 /**
  * The "barely hidden markov model" or "bicameral hidden markov model"
  *
  * @author tsmoon
  */
-public abstract class HMMBase extends HMMFields {
+public abstract class HMMBase extends HMMFields implements Cloneable {
 
     public HMMBase(CommandLineOptions options) {
         try {
@@ -73,10 +75,8 @@ public abstract class HMMBase extends HMMFields {
         testDataDir = options.getTestDataDir();
         if (testDataDir != null) {
             testDirReader = new DirReader(testDataDir, dataFormat);
-            testWordIdx = new HashMap<String, Integer>();
-            testIdxToWord = new HashMap<Integer, String>();
-            testWordIdx.put(EOSw, EOSi);
-            testIdxToWord.put(EOSi, EOSw);
+            testVocabulary = new Vocabulary();
+            testVocabulary.put(EOSw, EOSi);
         } else {
             testDataDir = "";
         }
@@ -84,10 +84,8 @@ public abstract class HMMBase extends HMMFields {
         /**
          * Setting lexicons
          */
-        trainWordIdx = new HashMap<String, Integer>();
-        trainIdxToWord = new HashMap<Integer, String>();
-        trainWordIdx.put(EOSw, EOSi);
-        trainIdxToWord.put(EOSi, EOSw);
+        trainVocabulary = new Vocabulary();
+        trainVocabulary.put(EOSw, EOSi);
 
         /**
          * Setting dimensions
@@ -116,6 +114,28 @@ public abstract class HMMBase extends HMMFields {
         samples = options.getSamples();
         lag = options.getLag();
         testSetBurninIterations = options.getTestSetBurninIterations();
+        threads = options.getThreads();
+        sweep = options.getSweep();
+        countTableBackend = options.getCountTableBackend();
+        emissionBackend = options.getEmissionBackend();
+        sampler = options.getSampler();
+        proposalSteps = options.getProposalSteps();
+        convergenceWindow = options.getConvergenceWindow();
+        convergenceThreshold = options.getConvergenceThreshold();
+        convergence = options.getConvergence();
+        storage = options.getStorage();
+        if (options.getStorageDirectory() != null) {
+            storageDirectory = new File(options.getStorageDirectory());
+        }
+        if (options.getCorpusCacheDirectory() != null) {
+            corpusCacheDirectory = new File(options.getCorpusCacheDirectory());
+        }
+        if (options.getCheckpointPath() != null) {
+            checkpointer = new Checkpointer(
+                  new File(options.getCheckpointPath()),
+                  options.getCheckpointIterations(),
+                  options.getCheckpointMinutes());
+        }
 
         /**
          * Setting hyperparameters
@@ -154,9 +174,173 @@ public abstract class HMMBase extends HMMFields {
     /**
      * Initialize data structures needed for inference from training data.
      */
-    public void initializeFromTrainingData() {
-        initializeTokenArrays(trainDirReader, trainWordIdx, trainIdxToWord);
+    public void initializeFromTrainingData() throws IOException,
+          InsufficientHeapException {
+        long startTime = System.currentTimeMillis();
+        initializeTokenArrays(trainDirReader, trainVocabulary);
+        trainVocabulary.freeze();
+        System.err.println(HeapUsage.report(String.format(
+              "Reading %d tokens of %d words", wordN, wordW), startTime));
+        checkHeap();
         initializeCountArrays();
+        System.err.println(HeapUsage.report("Initialization", startTime));
+    }
+
+    /**
+     * Print the projected heap of the model and fail before allocating the
+     * count tables if it exceeds the maximum heap of the JVM
+     *
+     * @throws InsufficientHeapException
+     */
+    protected void checkHeap() throws InsufficientHeapException {
+        long projected = projectedHeapBytes();
+        long available = Runtime.getRuntime().maxMemory();
+        System.err.println(String.format(
+              "Projected heap for count and token arrays: %d MB of %d MB",
+              projected >> 20, available >> 20));
+        if (projected > available) {
+            throw new InsufficientHeapException(projected, available);
+        }
+        if (countTableBackend == CountTableEnum.Backend.ATOMIC
+              && !concurrentCounts() && replicaCopies() > 0) {
+            System.err.println(String.format(
+                  "Atomic count tables are not used with %s. Each of the %d "
+                  + "sampler threads keeps a private copy of the counts.",
+                  emissionBackend == CountTableEnum.Emission.SPARSE
+                  ? "sparse emission tables" : "mapped storage", threads));
+        }
+    }
+
+    /**
+     * Heap needed for the token arrays and the count tables of the model,
+     * including the private copies of sampler threads. The token arrays
+     * must have been initialized. Models with further tables add their
+     * sizes.
+     *
+     * @return  Projected size in bytes
+     */
+    public long projectedHeapBytes() {
+        long bytes = wordVector.heapBytes() + stateVector.heapBytes()
+              + goldTagVector.heapBytes() + 4L * (sentenceS + documentD + 2);
+
+        long emission = emissionTableBytes(wordW, stateS);
+        long shared = emission + countTableBytes(1, stateS)
+              + countTableBytes(stateS, stateS);
+        bytes += shared * (1 + replicaCopies())
+              - mappedEmissionBytes(emission);
+        if (transitionOrder() >= 2) {
+            bytes += 4L * stateS * stateS * stateS;
+        }
+        if (transitionOrder() >= 3) {
+            bytes += 4L * stateS * stateS * stateS * stateS;
+        }
+
+        bytes += countTableBytes(sentenceS, stateC) + 4L * sentenceS
+              + countTableBytes(documentD, stateC) + 4L * documentD
+              + 4L * stateS * documentD;
+        if (threads > 1 && sweep == SweepEnum.Sweep.CHROMATIC
+              && supportsChromaticSweep()) {
+            bytes += 4L * ((wordN + 1) / 2);
+        }
+        return bytes;
+    }
+
+    /**
+     * Number of private copies of the counts shared across documents that
+     * the sampler threads will make
+     *
+     * @return  Number of copies
+     */
+    protected int replicaCopies() {
+        if (threads <= 1
+              || (sweep == SweepEnum.Sweep.CHROMATIC && supportsChromaticSweep())
+              || concurrentCounts()) {
+            return 0;
+        }
+        return threads;
+    }
+
+    /**
+     * @param rows      Number of rows
+     * @param columns   Number of columns
+     * @return  Size in bytes of a table made by {@link #newCountTable}
+     */
+    protected long countTableBytes(int rows, int columns) {
+        return 4L * rows * columns;
+    }
+
+    /**
+     * Size of a table made by {@link #newEmissionTable}. A sparse table
+     * holds at most one column and count pair per token, at twice that
+     * since rows grow by doubling, and never more than a dense one.
+     *
+     * @param rows      Number of rows
+     * @param columns   Number of columns
+     * @return  Size in bytes
+     */
+    protected long emissionTableBytes(int rows, int columns) {
+        switch (emissionBackend) {
+            case SPARSE:
+                return 32L * rows + Math.min(4L * rows * columns, 16L * wordN);
+            default:
+                return countTableBytes(rows, columns);
+        }
+    }
+
+    /**
+     * Part of the size of a table made by {@link #newLargeTable} that is
+     * not kept on the heap. Private copies of sampler threads are always on
+     * the heap.
+     *
+     * @param bytes Size of the table in bytes
+     * @return  Size in bytes outside the heap
+     */
+    protected long mappedBytes(long bytes) {
+        return storage == StorageEnum.Storage.MAPPED ? bytes : 0;
+    }
+
+    /**
+     * Part of the size of a table made by {@link #newEmissionTable} that is
+     * not kept on the heap. Sparse tables are always on the heap.
+     *
+     * @param bytes Size of the table in bytes
+     * @return  Size in bytes outside the heap
+     */
+    protected long mappedEmissionBytes(long bytes) {
+        switch (emissionBackend) {
+            case SPARSE:
+                return 0;
+            default:
+                return mappedBytes(bytes);
+        }
+    }
+
+    /**
+     * Heap taken up by an array made by {@link #newIntArray}
+     *
+     * @param length    Number of elements
+     * @param maxValue  Largest value that will be stored
+     * @return  Size in bytes on the heap
+     */
+    protected long intArrayHeapBytes(int length, int maxValue) {
+        if (storage == StorageEnum.Storage.MAPPED) {
+            return 0;
+        } else if (maxValue <= ByteIntArray.MAX_VALUE) {
+            return length;
+        } else if (maxValue <= ShortIntArray.MAX_VALUE) {
+            return 2L * length;
+        }
+        return 4L * length;
+    }
+
+    /**
+     * Highest order of the state transitions that the model counts.
+     * Transition tables are only allocated up to this order.
+     *
+     * @return  Order of the transitions
+     */
+    protected int transitionOrder() {
+        return 1;
     }
 
     /**
@@ -170,99 +354,142 @@ public abstract class HMMBase extends HMMFields {
      * rewritten in sampling for test sets.
      *
      * @param dirReader Object to walk through files and directories
-     * @param wordIdx   Dictionary from word to index
-     * @param idxToWord Dictionary from index to word
+     * @param vocabulary    Dictionary between words and indexes
+     * @throws IOException
      */
     protected void initializeTokenArrays(DirReader dirReader,
-          HashMap<String, Integer> wordIdx, HashMap<Integer, String> idxToWord) {
-        documentD = sentenceS = 0;
-        ArrayList<Integer> wordVectorT = new ArrayList<Integer>(),
-              goldTagVectorT = new ArrayList<Integer>(),
-              sentenceVectorT = new ArrayList<Integer>(),
-              documentVectorT = new ArrayList<Integer>();
-        while ((dataReader = dirReader.nextDocumentReader()) != null) {
-            try {
-                String[][] sentence;
-                while ((sentence = dataReader.nextSequence()) != null) {
-                    for (String[] line : sentence) {
-                        try {
-                            wordNormalizer.normalize(line);
-                            String word = wordNormalizer.getWord();
-                            String tag = wordNormalizer.getTag();
-                            if (!word.isEmpty() && tag != null) {
-                                if (!wordIdx.containsKey(word)) {
-                                    wordIdx.put(word, wordIdx.size());
-                                    idxToWord.put(idxToWord.size(), word);
-                                }
-                                wordVectorT.add(wordIdx.get(word));
-                                sentenceVectorT.add(sentenceS);
-                                documentVectorT.add(documentD);
-                                goldTagVectorT.add(tagMap.get(tag));
-                            }
-                        } catch (IgnoreTagException e) {
-                        }
-                    }
-                    sentenceS++;
-                }
-            } catch (IOException e) {
-            }
-            documentD++;
-        }
+          Vocabulary vocabulary) throws IOException {
+        NormalizedCorpus corpus = readCorpus(dirReader, vocabulary);
+        documentD = corpus.documentStarts.size();
+        sentenceS = corpus.sentenceStarts.size();
 
-        wordN = wordVectorT.size();
-        wordW = wordIdx.size();
+        wordN = corpus.size();
+        wordW = vocabulary.size();
         wbeta = beta * wordW;
         wdelta = delta * wordW;
         calpha = alpha * stateC;
         sgamma = gamma * stateS;
 
-        wordVector = new int[wordN];
-        goldTagVector = new int[wordN];
-        sentenceVector = new int[wordN];
-        documentVector = new int[wordN];
+        corpus.sentenceStarts.add(wordN);
+        corpus.documentStarts.add(wordN);
+        sentenceStarts = corpus.sentenceStarts.toArray();
+        documentStarts = corpus.documentStarts.toArray();
 
-        first = new int[wordN];
-        second = new int[wordN];
-        third = new int[wordN];
+        wordVector = newIntArray(wordN, wordW - 1);
+        corpus.words.copyTo(wordVector);
+        corpus.words = null;
+        goldTagVector = newIntArray(wordN, corpus.tags.max());
+        corpus.tags.copyTo(goldTagVector);
+        corpus.tags = null;
 
-        stateVector = new int[wordN];
+        stateVector = newIntArray(wordN, stateS - 1);
+    }
 
-        copyToArray(wordVector, wordVectorT);
-        copyToArray(goldTagVector, goldTagVectorT);
-        copyToArray(sentenceVector, sentenceVectorT);
-        copyToArray(documentVector, documentVectorT);
+    /**
+     * Parse the documents of a directory, or read them from the corpus
+     * cache if there is one
+     *
+     * @param dirReader Object to walk through files and directories
+     * @param vocabulary    Dictionary between words and indexes
+     * @return  Normalized tokens of the documents
+     * @throws IOException
+     */
+    protected NormalizedCorpus readCorpus(DirReader dirReader,
+          Vocabulary vocabulary) throws IOException {
+        NormalizingParser parser = new NormalizingParser(wordNormalizer, tagMap);
+        if (corpusCacheDirectory == null) {
+            return NormalizedCorpus.read(dirReader, vocabulary, parser,
+                  threads);
+        }
+        return new NormalizedCorpusCache(corpusCacheDirectory).read(
+              dirReader, vocabulary, parser, threads);
+    }
+
+    /**
+     * Find the sentence or document that holds a token
+     *
+     * @param starts    Offsets of the first token of each sentence or
+     *                  document, followed by {@link #wordN}
+     * @param i         Index of token
+     * @return  Index of the sentence or document
+     */
+    protected static int locate(int[] starts, int i) {
+        int low = 0, high = starts.length - 2;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (starts[mid] <= i) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Move the index of a sentence or document forward to the one that
+     * holds a token. Cheaper than {@link #locate} when tokens are visited
+     * in order.
+     *
+     * @param starts    Offsets of the first token of each sentence or
+     *                  document, followed by {@link #wordN}
+     * @param i         Index of token
+     * @param index     Sentence or document that holds a token before i
+     * @return  Index of the sentence or document
+     */
+    protected static int advance(int[] starts, int i, int index) {
+        while (i >= starts[index + 1]) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * @param i Index of token
+     * @return  Index of the sentence of the token
+     */
+    protected int sentenceOf(int i) {
+        return locate(sentenceStarts, i);
+    }
+
+    /**
+     * @param i Index of token
+     * @return  Index of the document of the token
+     */
+    protected int documentOf(int i) {
+        return locate(documentStarts, i);
     }
 
     /**
      * Initializes arrays for counting occurrences. These need to be initialized
      * regardless of whether the model being trained from raw data or whether
-     * it is loaded from a saved model.
+     * it is loaded from a saved model. The tables of a saved model that were
+     * read with it are kept as they are.
+     *
+     * @throws IOException
      */
-    protected void initializeCountArrays() {
+    protected void initializeCountArrays() throws IOException {
 
-        stateCounts = new int[stateS];
+        if (!countsLoaded) {
+            stateCounts = newCountTable(1, stateS);
+            stateByWord = newEmissionTable(wordW, stateS);
+            firstOrderTransitions = newCountTable(stateS, stateS);
+        }
         stateProbs = new double[stateS];
+        wordStateCounts = new int[stateS];
         for (int i = 0; i < stateS; ++i) {
-            stateCounts[i] = 0;
             stateProbs[i] = 0;
         }
 
-        stateByWord = new int[stateS * wordW];
-        for (int i = 0; i < stateS * wordW; ++i) {
-            stateByWord[i] = 0;
-        }
-
-        contentStateBySentence = new int[stateC * sentenceS];
-        for (int i = 0; i < stateC * sentenceS; ++i) {
-            contentStateBySentence[i] = 0;
-        }
+        contentStateBySentence = newCountTable(sentenceS, stateC);
 
         sentenceCounts = new int[sentenceS];
         for (int i = 0; i < sentenceS; ++i) {
             sentenceCounts[i] = 0;
         }
-        for (int i = 0; i < sentenceS; ++i) {
-            sentenceCounts[sentenceVector[i]]++;
+        for (int i = 0, sentenceid = 0; i < sentenceS && i < wordN; ++i) {
+            sentenceid = advance(sentenceStarts, i, sentenceid);
+            sentenceCounts[sentenceid]++;
         }
 
         documentCounts = new int[documentD];
@@ -270,29 +497,24 @@ public abstract class HMMBase extends HMMFields {
             documentCounts[i] = 0;
         }
 
-        contentStateByDocument = new int[stateC * documentD];
-        for (int i = 0; i < stateC * documentD; ++i) {
-            contentStateByDocument[i] = 0;
-        }
+        contentStateByDocument = newCountTable(documentD, stateC);
 
         functionStateByDocument = new int[stateS * documentD];
         for (int i = 0; i < stateS * documentD; ++i) {
             functionStateByDocument[i] = 0;
         }
 
-        thirdOrderTransitions = new int[stateS * stateS * stateS * stateS];
-        secondOrderTransitions = new int[stateS * stateS * stateS];
-        firstOrderTransitions = new int[stateS * stateS];
-
-        for (int i = 0; i < stateS * stateS * stateS * stateS; ++i) {
-            thirdOrderTransitions[i] = 0;
-        }
-        for (int i = 0; i < stateS * stateS * stateS; ++i) {
-            secondOrderTransitions[i] = 0;
+        if (transitionOrder() >= 2) {
+            secondOrderTransitions = new int[stateS * stateS * stateS];
+            for (int i = 0; i < stateS * stateS * stateS; ++i) {
+                secondOrderTransitions[i] = 0;
+            }
         }
-
-        for (int i = 0; i < stateS * stateS; ++i) {
-            firstOrderTransitions[i] = 0;
+        if (transitionOrder() >= 3) {
+            thirdOrderTransitions = new int[stateS * stateS * stateS * stateS];
+            for (int i = 0; i < stateS * stateS * stateS * stateS; ++i) {
+                thirdOrderTransitions[i] = 0;
+            }
         }
 
         sampleProbs = new double[samples];
@@ -302,41 +524,631 @@ public abstract class HMMBase extends HMMFields {
     }
 
     /**
-     * Learn parameters
+     * Create a table of counts in the storage chosen for this run
+     *
+     * @param rows      Number of rows
+     * @param columns   Number of columns
+     * @return  Table of zero counts
+     */
+    protected CountTable newCountTable(int rows, int columns) {
+        switch (countTableBackend) {
+            case ATOMIC:
+                return new AtomicCountTable(rows, columns);
+            default:
+                return new DenseCountTable(rows, columns);
+        }
+    }
+
+    /**
+     * Create a table of counts that grows with the vocabulary or the number
+     * of documents. The table is kept in a mapped file if the storage is
+     * mapped and on the heap otherwise.
+     *
+     * @param rows      Number of rows
+     * @param columns   Number of columns
+     * @return  Table of zero counts
+     * @throws IOException
+     */
+    protected CountTable newLargeTable(int rows, int columns) throws
+          IOException {
+        switch (storage) {
+            case MAPPED:
+                return new MappedCountTable(rows, columns, storageDirectory);
+            default:
+                return newCountTable(rows, columns);
+        }
+    }
+
+    /**
+     * Create a table of counts by word. Sparse tables are not limited to
+     * wordW * columns entries fitting in an int and are always kept on the
+     * heap.
+     *
+     * @param rows      Number of rows, usually the number of word types
+     * @param columns   Number of columns
+     * @return  Table of zero counts
+     * @throws IOException
+     */
+    protected CountTable newEmissionTable(int rows, int columns) throws
+          IOException {
+        switch (emissionBackend) {
+            case SPARSE:
+                return new SparseCountTable(rows, columns);
+            default:
+                return newLargeTable(rows, columns);
+        }
+    }
+
+    /**
+     * Create an array with one element per token. The array is kept in a
+     * mapped file that is read ahead of the sweeps if the storage is mapped
+     * and on the heap otherwise.
+     *
+     * @param length    Number of elements
+     * @param maxValue  Largest value that will be stored
+     * @return  Array of zeros
+     * @throws IOException
+     */
+    protected IntArray newIntArray(int length, int maxValue) throws
+          IOException {
+        switch (storage) {
+            case MAPPED:
+                return MappedIntArray.createTemporary(storageDirectory,
+                      length, maxValue, true);
+            default:
+                return IntArray.allocate(length, maxValue);
+        }
+    }
+
+    /**
+     * Whether the tables that {@link #newCountTable} and
+     * {@link #newEmissionTable} create for this run are concurrent. Used to
+     * project the heap before the tables exist; {@link #sharesCounts()}
+     * gives the same answer once they do. Sparse emission tables and mapped
+     * tables are never concurrent, even with atomic count tables.
+     *
+     * @return  Whether the count tables will be concurrent
+     */
+    protected boolean concurrentCounts() {
+        return countTableBackend == CountTableEnum.Backend.ATOMIC
+              && emissionBackend == CountTableEnum.Emission.DENSE
+              && storage != StorageEnum.Storage.MAPPED;
+    }
+
+    /**
+     * Whether sampler threads may update the counts shared across documents
+     * directly instead of private copies
+     *
+     * @return  Whether the count tables are concurrent
+     */
+    protected boolean sharesCounts() {
+        return stateByWord.isConcurrent() && stateCounts.isConcurrent();
+    }
+
+    /**
+     * Learn parameters. Training starts from a random initialization or
+     * from the checkpoint read by {@link #resume(File)}. Checkpoints are
+     * saved between sweeps if they were asked for.
      */
     public void train() {
-        initializeParametersRandom();
+        int firstOuterIteration = 0, firstIteration = 0;
+        double[] logLikelihoods = new double[innerIterations];
+        if (resumePoint == null) {
+            initializeParametersRandom();
+        }
+        startSampling();
+        if (resumePoint != null) {
+            System.err.println("Resuming from iteration "
+                  + resumePoint.iteration + " of outer iteration "
+                  + resumePoint.outerIteration);
+            resumePoint.restore(this, logLikelihoods);
+            firstOuterIteration = resumePoint.outerIteration;
+            firstIteration = resumePoint.iteration;
+            resumePoint = null;
+        }
 
         Annealer annealer = new SimulatedAnnealer();
         /**
          * Training iterations
          */
-        for (int outiter = 0; outiter < outerIterations;
+        for (int outiter = firstOuterIteration; outiter < outerIterations;
               ++outiter) {
             System.err.print("\nouter iteration " + outiter + ":");
             System.err.println("annealing temperature " + temperature);
             annealer.stabilizeTemperature();
             annealer.setTemperatureReciprocal(temperatureReciprocal);
-            trainInnerIter(innerIterations, annealer);
+            boolean converged = trainStage(outiter, innerIterations,
+                  firstIteration, logLikelihoods, annealer);
+            firstIteration = 0;
 //            trainInnerIter(innerIterations, "inner iteration");
             temperature -= temperatureDecrement;
             temperatureReciprocal = 1 / temperature;
+            if (converged && convergence == ConvergenceEnum.Convergence.TARGET
+                  && outiter < outerIterations - 2) {
+                System.err.println("Skipping to target temperature "
+                      + targetTemperature);
+                outiter = outerIterations - 2;
+                temperature = targetTemperature;
+                temperatureReciprocal = 1 / temperature;
+            }
         }
         /**
          * Increment it so sampling resumes at same temperature if it is loaded
          * from a model
          */
         temperature += temperatureDecrement;
+
+        stopSampling();
+        if (checkpointer != null) {
+            checkpointer.finish();
+        }
+    }
+
+    /**
+     * Continue training from a checkpoint rather than from a random
+     * initialization. The model must have been initialized from the same
+     * training data with the same options as the run that saved the
+     * checkpoint. The states of the tokens and the counts are restored
+     * here, the annealing position and the random number generators once
+     * {@link #train()} has started the samplers.
+     *
+     * @param file  The checkpoint file
+     * @throws IOException  If the checkpoint does not fit the model
+     */
+    public void resume(File file) throws IOException {
+        ModelFile in = new ModelFile(file);
+        Checkpoint checkpoint = new Checkpoint(in);
+        checkpoint.check(this, file);
+        restoreState(in);
+        resumePoint = checkpoint;
+    }
+
+    /**
+     * Copy the states of the tokens and all counts kept from them to a
+     * checkpoint. Models with further arrays or tables add them.
+     *
+     * @param checkpoint    Checkpoint being taken
+     */
+    protected void snapshotState(Checkpoint checkpoint) {
+        checkpoint.putArray("stateVector", stateVector, stateS - 1);
+        checkpoint.putCounts("stateByWord", stateByWord);
+        checkpoint.putCounts("stateCounts", stateCounts);
+        checkpoint.putCounts("firstOrderTransitions", firstOrderTransitions);
+        checkpoint.putCounts("secondOrderTransitions", secondOrderTransitions);
+        checkpoint.putCounts("thirdOrderTransitions", thirdOrderTransitions);
+        checkpoint.putCounts("contentStateBySentence", contentStateBySentence);
+        checkpoint.putCounts("contentStateByDocument", contentStateByDocument);
+        checkpoint.putCounts("functionStateByDocument",
+              functionStateByDocument);
+        checkpoint.putCounts("sentenceCounts", sentenceCounts);
+        checkpoint.putCounts("documentCounts", documentCounts);
     }
 
     /**
-     * Training routine for the inner iterations
+     * Inverse of {@link #snapshotState}. Called on a model that has been
+     * initialized from the training data instead of
+     * {@link #initializeParametersRandom()}.
+     *
+     * @param in    The checkpoint file
+     * @throws IOException  If an array or a table is missing
+     */
+    protected void restoreState(ModelFile in) throws IOException {
+        Checkpoint.restoreArray(in, "stateVector", stateVector);
+        Checkpoint.restoreCounts(in, "stateByWord", stateByWord);
+        Checkpoint.restoreCounts(in, "stateCounts", stateCounts);
+        Checkpoint.restoreCounts(in, "firstOrderTransitions",
+              firstOrderTransitions);
+        Checkpoint.restoreCounts(in, "secondOrderTransitions",
+              secondOrderTransitions);
+        Checkpoint.restoreCounts(in, "thirdOrderTransitions",
+              thirdOrderTransitions);
+        Checkpoint.restoreCounts(in, "contentStateBySentence",
+              contentStateBySentence);
+        Checkpoint.restoreCounts(in, "contentStateByDocument",
+              contentStateByDocument);
+        Checkpoint.restoreCounts(in, "functionStateByDocument",
+              functionStateByDocument);
+        Checkpoint.restoreCounts(in, "sentenceCounts", sentenceCounts);
+        Checkpoint.restoreCounts(in, "documentCounts", documentCounts);
+    }
+
+    /**
+     * Set up the samplers selected on the command line. Called once the
+     * parameters have been initialized.
+     */
+    public void startSampling() {
+        if (sampler == SamplerEnum.Sampler.ALIAS) {
+            if (supportsProposalSampling()) {
+                proposals = new MetropolisHastingsSampler(this, proposalSteps);
+            } else {
+                System.err.println(modelName + " does not support alias "
+                      + "sampling. Sampling exactly.");
+            }
+        }
+
+        if (threads > 1) {
+            if (sweep == SweepEnum.Sweep.CHROMATIC && supportsChromaticSweep()) {
+                System.err.println("Sampling even and odd positions with "
+                      + threads + " threads");
+                parallelSampler = new ChromaticSampler(this, threads);
+            } else {
+                System.err.println("Sampling documents with " + threads
+                      + " threads");
+                parallelSampler = new DocumentPartitionedSampler(this, threads);
+            }
+        }
+    }
+
+    /**
+     * Stop the sampler threads and release the samplers set up by
+     * {@link #startSampling()}
+     */
+    public void stopSampling() {
+        if (parallelSampler != null) {
+            parallelSampler.shutdown();
+            parallelSampler = null;
+        }
+        proposals = null;
+    }
+
+    /**
+     * Training routine for the inner iterations. Each iteration is a full
+     * sweep over the tokens, either sequentially or split over documents
+     * across sampler threads.
      *
      * @param itermax Maximum number of iterations to perform
      * @param annealer Callback to annealing process
      * @see HDPHMMLDA#sampleFromTrain()
      */
-    protected abstract void trainInnerIter(int itermax, Annealer annealer);
+    protected void trainInnerIter(int itermax, Annealer annealer) {
+        for (int iter = 0; iter < itermax; ++iter) {
+            System.err.println("iteration " + iter);
+            sweep(annealer);
+        }
+    }
+
+    /**
+     * Sweep over the tokens of one annealing stage. If a convergence window
+     * is set, the log likelihood is computed and reported after each sweep,
+     * and the stage ends early once it has stopped changing. Otherwise the
+     * log likelihood is never computed. A checkpoint is saved after any
+     * sweep that does not end the stage early if one is due.
+     *
+     * @param outiter   Current outer iteration
+     * @param itermax Maximum number of iterations to perform
+     * @param firstIteration    Number of iterations already done, which is
+     *                          zero unless training has been resumed
+     * @param logLikelihoods    Log likelihoods of the iterations that are
+     *                          done, to be filled in for the rest
+     * @param annealer Callback to annealing process
+     * @return  Whether the stage ended early
+     */
+    protected boolean trainStage(int outiter, int itermax, int firstIteration,
+          double[] logLikelihoods, Annealer annealer) {
+        for (int iter = firstIteration; iter < itermax; ++iter) {
+            System.err.println("iteration " + iter);
+            sweep(annealer);
+            if (convergenceWindow > 0) {
+                logLikelihoods[iter] = logLikelihood();
+                System.err.println("\tlog likelihood " + logLikelihoods[iter]);
+                if (hasConverged(logLikelihoods, iter)) {
+                    System.err.println("Converged after " + (iter + 1)
+                          + " iterations");
+                    return true;
+                }
+            }
+            if (checkpointer != null && checkpointer.tick()) {
+                checkpointer.save(new Checkpoint(this, outiter, iter + 1,
+                      logLikelihoods));
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Whether the relative change of the log likelihood over the last
+     * {@link #convergenceWindow} iterations is below
+     * {@link #convergenceThreshold}
+     *
+     * @param logLikelihoods    Log likelihoods of the stage so far
+     * @param iter  Index of the latest iteration
+     * @return  Whether the stage has converged
+     */
+    protected boolean hasConverged(double[] logLikelihoods, int iter) {
+        if (convergenceWindow <= 0 || iter < convergenceWindow) {
+            return false;
+        }
+        double previous = logLikelihoods[iter - convergenceWindow];
+        return Math.abs(logLikelihoods[iter] - previous)
+              < convergenceThreshold * Math.abs(previous);
+    }
+
+    /**
+     * Full sweep over the tokens, either sequentially or split across
+     * sampler threads
+     *
+     * @param annealer Callback to annealing process
+     */
+    protected void sweep(Annealer annealer) {
+        if (parallelSampler != null) {
+            parallelSampler.sweep(annealer);
+        } else {
+            sampleTokens(0, wordN, 0, annealer);
+        }
+    }
+
+    /**
+     * Collapsed log probability of the words and the current state
+     * assignments given the hyperparameters. It is computed from the count
+     * tables, so its cost depends on the sizes of the tables, or on the
+     * number of nonzero counts of sparse tables, and not on the number of
+     * tokens. Models with further count tables add their terms.
+     *
+     * @return  Log likelihood
+     */
+    public double logLikelihood() {
+        return emissionLogLikelihood(stateByWord, stateCounts, 0, stateS,
+              delta, wdelta)
+              + tableLogLikelihood(firstOrderTransitions, gamma);
+    }
+
+    /**
+     * Log probability of the words emitted by a range of states or topics
+     *
+     * @param byWord    Counts of states by word
+     * @param counts    Counts of states, in row 0
+     * @param from      First state
+     * @param to        One past the last state
+     * @param prior     Emission prior of each word
+     * @param total     Emission prior summed over all words
+     * @return  Log probability
+     */
+    protected double emissionLogLikelihood(CountTable byWord,
+          CountTable counts, int from, int to, double prior, double total) {
+        double ll = byWord.logRisingSum(prior, from, to);
+        for (int j = from; j < to; ++j) {
+            ll -= LogGamma.logRising(total, counts.get(j));
+        }
+        return ll;
+    }
+
+    /**
+     * Log probability of the counts of a table whose rows are each drawn
+     * from a symmetric Dirichlet-multinomial distribution over the columns
+     *
+     * @param table Counts
+     * @param prior Prior of each column
+     * @return  Log probability
+     */
+    protected static double tableLogLikelihood(CountTable table, double prior) {
+        int rows = table.getRows(), columns = table.getColumns();
+        double total = prior * columns;
+        double ll = 0;
+        for (int r = 0; r < rows; ++r) {
+            int rowtotal = 0;
+            for (int c = 0; c < columns; ++c) {
+                int count = table.get(r, c);
+                if (count > 0) {
+                    ll += LogGamma.logRising(prior, count);
+                    rowtotal += count;
+                }
+            }
+            ll -= LogGamma.logRising(total, rowtotal);
+        }
+        return ll;
+    }
+
+    /**
+     * Perform sweeps over the training tokens at the annealer's current
+     * temperature. For use between {@link #startSampling()} and
+     * {@link #stopSampling()}, e.g. to measure the samplers.
+     *
+     * @param iterations    Number of sweeps
+     * @param annealer      Callback to annealing process
+     */
+    public void sample(int iterations, Annealer annealer) {
+        trainInnerIter(iterations, annealer);
+    }
+
+    /**
+     * Sample states for the tokens in a contiguous range of the corpus.
+     * The range always starts at a document boundary. The transition into
+     * the first token was counted from the given previous state, which is
+     * the state of the preceding token when the sweep began.
+     *
+     * @param start    Index of first token to sample
+     * @param end      Index one past the last token to sample
+     * @param previous State preceding the first token
+     * @param annealer Callback to annealing process
+     */
+    protected abstract void sampleTokens(int start, int end, int previous,
+          Annealer annealer);
+
+    /**
+     * State of the token after a token within a range being sampled. The
+     * token after the range may be resampled by another sampler thread at
+     * the same time, so its state at the beginning of the sweep is used
+     * instead, which keeps threaded sweeps repeatable.
+     *
+     * @param i Index of token
+     * @param end   Index one past the last token of the range
+     * @return  State of the next token, or 0 after the last token
+     */
+    protected int nextState(int i, int end) {
+        if (i + 1 < end) {
+            return stateVector.get(i + 1);
+        }
+        return end < wordN ? followingState : 0;
+    }
+
+    /**
+     * Whether the model is a first order chain whose token states may be
+     * sampled with {@link #sampleTokenGivenNeighbors}.
+     *
+     * @return  Whether {@link ChromaticSampler} may be used
+     */
+    protected boolean supportsChromaticSweep() {
+        return false;
+    }
+
+    /**
+     * Draw a new state for a token given the states of its neighbors. The
+     * counts are only read, and the token's own contribution to them is
+     * discounted on the fly, so many tokens that are not adjacent may be
+     * sampled at once. The caller is responsible for updating the counts.
+     *
+     * @param i         Index of token
+     * @param prev      State of the preceding token
+     * @param next      State of the following token
+     * @param probs     Scratch array of length {@link #stateS}
+     * @param rand      Random number generator of the calling thread
+     * @param annealer  Callback to annealing process
+     * @return  The new state of the token
+     */
+    protected int sampleTokenGivenNeighbors(int i, int prev, int next,
+          double[] probs, MersenneTwisterFast rand, Annealer annealer) {
+        throw new UnsupportedOperationException(modelName
+              + " does not support chromatic sweeps");
+    }
+
+    /**
+     * Whether tokens may be sampled with {@link MetropolisHastingsSampler}
+     *
+     * @return  Whether {@link #stateWeight} and {@link #emissionWeight} are
+     *          implemented
+     */
+    protected boolean supportsProposalSampling() {
+        return false;
+    }
+
+    /**
+     * Unnormalized conditional probability of a state for a token whose own
+     * counts have been removed from the model
+     *
+     * @param i     Index of token
+     * @param prev  State of the preceding token
+     * @param j     State whose probability is computed
+     * @param next  State of the following token
+     * @return  Unnormalized probability
+     */
+    protected double stateWeight(int i, int prev, int j, int next) {
+        throw new UnsupportedOperationException(modelName
+              + " does not support alias sampling");
+    }
+
+    /**
+     * Emission factor of the conditional probability of a state for a word
+     * seen a given number of times in that state
+     *
+     * @param j     State
+     * @param count Count of the word in the state
+     * @return  Emission factor
+     */
+    protected double emissionWeight(int j, int count) {
+        throw new UnsupportedOperationException(modelName
+              + " does not support alias sampling");
+    }
+
+    /**
+     * Emission prior of a state summed over all words. It is added to the
+     * state count in the denominator of the emission probability.
+     *
+     * @param j State
+     * @return  Sum of the emission prior
+     */
+    protected double emissionPriorTotal(int j) {
+        return wdelta;
+    }
+
+    /**
+     * Kernel for the tokens of one sweep, with its cached denominators
+     * recomputed from the current state counts. Called at the beginning of
+     * {@link #sampleTokens}.
+     *
+     * @return  Kernel of this model
+     */
+    protected SamplingKernel sweepKernel() {
+        if (kernel == null) {
+            double[] totals = new double[stateS];
+            for (int j = 0; j < stateS; ++j) {
+                totals[j] = emissionPriorTotal(j);
+            }
+            kernel = new SamplingKernel(stateCounts, totals, sgamma);
+        } else {
+            kernel.refresh();
+        }
+        return kernel;
+    }
+
+    /**
+     * Create a copy of this model for a sampler thread. The copy shares the
+     * token arrays and the per-sentence and per-document counts with this
+     * model, since documents are never split across threads. It gets its own
+     * copies of the counts that are shared across documents, its own
+     * scratch arrays and its own random number generator.
+     *
+     * @param seed  Seed for the random number generator of the copy
+     * @return  Copy of the model that may be sampled on its own thread
+     */
+    protected HMMBase replicate(int seed) {
+        HMMBase replica = null;
+        try {
+            replica = (HMMBase) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        replica.parallelSampler = null;
+        replica.kernel = null;
+        replica.mtfRand = new MersenneTwisterFast(seed);
+        replica.stateProbs = new double[stateS];
+        replica.wordStateCounts = new int[stateS];
+        if (proposals != null) {
+            replica.proposals =
+                  new MetropolisHastingsSampler(replica, proposalSteps);
+        }
+        if (!sharesCounts()) {
+            replica.stateByWord = stateByWord.copy();
+            replica.stateCounts = stateCounts.copy();
+            replica.firstOrderTransitions = firstOrderTransitions.copy();
+        }
+        return replica;
+    }
+
+    /**
+     * Overwrite the shared counts of a replica with the current global
+     * counts. Called at the beginning of every sweep unless the counts are
+     * shared.
+     *
+     * @param replica   Copy of the model created by {@link #replicate(int)}
+     */
+    protected void synchronizeReplica(HMMBase replica) {
+        replica.stateByWord.copyFrom(stateByWord);
+        replica.stateCounts.copyFrom(stateCounts);
+        replica.firstOrderTransitions.copyFrom(firstOrderTransitions);
+    }
+
+    /**
+     * Add the changes each replica made to the shared counts during a sweep
+     * back into the global counts. Called at the end of every sweep unless
+     * the counts are shared.
+     *
+     * @param replicas  Copies of the model that have completed a sweep
+     */
+    protected void mergeReplicas(HMMBase[] replicas) {
+        CountTable[] locals = new CountTable[replicas.length];
+        for (int r = 0; r < replicas.length; ++r) {
+            locals[r] = replicas[r].stateByWord;
+        }
+        stateByWord.merge(locals);
+        for (int r = 0; r < replicas.length; ++r) {
+            locals[r] = replicas[r].stateCounts;
+        }
+        stateCounts.merge(locals);
+        for (int r = 0; r < replicas.length; ++r) {
+            locals[r] = replicas[r].firstOrderTransitions;
+        }
+        firstOrderTransitions.merge(locals);
+    }
 
     /**
      * Maximum posterior decoding of tag sequence
@@ -412,7 +1224,7 @@ public abstract class HMMBase extends HMMFields {
          * Normalize content states
          */
         for (; i < stateC; ++i) {
-            sum += stateProbs[i] = stateCounts[i] + wbeta;
+            sum += stateProbs[i] = stateCounts.get(i) + wbeta;
             ArrayList<DoubleStringPair> topWords =
                   new ArrayList<DoubleStringPair>();
             /**
@@ -420,7 +1232,7 @@ public abstract class HMMBase extends HMMFields {
              */
             for (int j = EOSi + 1; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      stateByWord[j * stateS + i] + beta, trainIdxToWord.get(
+                      stateByWord.get(j, i) + beta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -436,7 +1248,7 @@ public abstract class HMMBase extends HMMFields {
          * Normalize function states
          */
         for (; i < stateS; ++i) {
-            sum += stateProbs[i] = stateCounts[i] + wdelta;
+            sum += stateProbs[i] = stateCounts.get(i) + wdelta;
             ArrayList<DoubleStringPair> topWords =
                   new ArrayList<DoubleStringPair>();
             /**
@@ -444,7 +1256,7 @@ public abstract class HMMBase extends HMMFields {
              */
             for (int j = EOSi + 1; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      stateByWord[j * stateS + i] + delta, trainIdxToWord.get(
+                      stateByWord.get(j, i) + delta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -468,7 +1280,17 @@ public abstract class HMMBase extends HMMFields {
      * @throws IOException
      */
     public void printAnnotatedTrainText(String outDir) throws IOException {
-        printAnnotatedText(outDir, trainDataDir, trainDirReader, trainIdxToWord);
+        printAnnotatedText(outDir, trainDataDir, trainDirReader, trainVocabulary);
+    }
+
+    /**
+     * Print test text that has been tagged with {@link #tag()} to output.
+     *
+     * @param outDir Root of path to generate output to
+     * @throws IOException
+     */
+    public void printAnnotatedTestText(String outDir) throws IOException {
+        printAnnotatedText(outDir, testDataDir, testDirReader, testVocabulary);
     }
 
     /**
@@ -477,61 +1299,63 @@ public abstract class HMMBase extends HMMFields {
      * @param outDir Root of path to generate output to
      * @param dataDir   Origin of data
      * @param dirReader DirReader for data
-     * @param idxToWord Dictionary from index to word
+     * @param vocabulary    Dictionary between words and indexes
      * @throws IOException
      * @see HDPHMMLDA#printAnnotatedTestText(java.lang.String)
      * @see HDPHMMLDA#printAnnotatedTrainText(java.lang.String)
      */
     public void printAnnotatedText(String outDir, String dataDir,
-          DirReader dirReader, HashMap<Integer, String> idxToWord)
+          DirReader dirReader, Vocabulary vocabulary)
           throws IOException {
-        DirWriter dirWriter = new DirWriter(outDir, dataDir, dirReader);
+        DirWriter dirWriter = new ParallelDirWriter(outDir, dataDir, dirReader,
+              threads);
         String root = dirWriter.getRoot();
 
+        /**
+         * Labels of each state and gold tag, rendered once instead of for
+         * every token
+         */
+        String[] stateLabels = new String[stateS];
+        for (int i = 0; i < stateS; ++i) {
+            stateLabels[i] = "N:" + i
+                  + "\tF:" + tagMap.getOneToOneTagString(i)
+                  + "\tR:" + tagMap.getManyToOneTagString(i);
+        }
+        String[] goldLabels = new String[Collections.max(tagMap.values()) + 1];
+        for (int i = 0; i < goldLabels.length; ++i) {
+            goldLabels[i] = "GF:" + tagMap.getGoldTagString(i)
+                  + "\tGR:" + tagMap.getGoldReducedTagString(i);
+        }
+
         BufferedWriter bufferedWriter;
 
-        int docid = 0, cursent = 0, prevsent = 0;
-        String word;
+        int docid = 0, cursent = 0, prevsent = 0, curdoc = 0;
         bufferedWriter = dirWriter.nextOutputBuffer();
 
         for (int i = 0; i < wordN; ++i) {
-            cursent = sentenceVector[i];
-            if (docid != documentVector[i]) {
+            cursent = advance(sentenceStarts, i, cursent);
+            curdoc = advance(documentStarts, i, curdoc);
+            if (docid != curdoc) {
                 bufferedWriter.close();
                 bufferedWriter = dirWriter.nextOutputBuffer();
-                docid = documentVector[i];
+                docid = curdoc;
             }
 
-            int wordid = wordVector[i];
-
             if (cursent != prevsent) {
                 bufferedWriter.newLine();
             }
 
-            word = idxToWord.get(wordid);
-            bufferedWriter.write(word);
-            bufferedWriter.write("\t");
-            int stateid = stateVector[i];
-            int goldid = goldTagVector[i];
-            String tag = String.format("N:%d", stateid);
-            bufferedWriter.write(tag);
-            bufferedWriter.write("\t");
-            tag = String.format("F:%s", tagMap.getOneToOneTagString(stateid));
-            bufferedWriter.write(tag);
-            bufferedWriter.write("\t");
-            tag = String.format("R:%s", tagMap.getManyToOneTagString(stateid));
-            bufferedWriter.write(tag);
-            bufferedWriter.write("\t");
-            tag = String.format("GF:%s", tagMap.getGoldTagString(goldid));
-            bufferedWriter.write(tag);
-            bufferedWriter.write("\t");
-            tag = String.format("GR:%s", tagMap.getGoldReducedTagString(goldid));
-            bufferedWriter.write(tag);
+            bufferedWriter.write(vocabulary.getWord(wordVector.get(i)));
+            bufferedWriter.write('\t');
+            bufferedWriter.write(stateLabels[stateVector.get(i)]);
+            bufferedWriter.write('\t');
+            bufferedWriter.write(goldLabels[goldTagVector.get(i)]);
             bufferedWriter.newLine();
 
             prevsent = cursent;
         }
         bufferedWriter.close();
+        dirWriter.close();
 
         bufferedWriter = new BufferedWriter(new OutputStreamWriter(
               new FileOutputStream(root + File.separator + "PARAMETERS")));
@@ -653,7 +1477,13 @@ public abstract class HMMBase extends HMMFields {
     }
 
     /**
-     * 
+     * Prepare a model loaded from a full model. The counts of states by
+     * word, the state counts and the transitions are used as they were read,
+     * which for a model file means mapped, so processes loading the same
+     * model share their pages. Models only rebuild the counts that are not
+     * saved, and models saved without counts rebuild all of them from the
+     * state of each token.
+     *
      * @param options
      * @throws IOException
      */
@@ -687,14 +1517,144 @@ public abstract class HMMBase extends HMMFields {
          */
         temperature = targetTemperature;
 
-        first = new int[wordN];
-        second = new int[wordN];
-        third = new int[wordN];
+        countsLoaded = stateByWord != null && stateCounts != null
+              && firstOrderTransitions != null;
+        initializeCountArrays();
+    }
+
+    /**
+     * Prepare a model loaded from a tagging model to tag the test data. The
+     * count tables of the tagging model are used as they are. Nothing is
+     * rebuilt from the training tokens, which a tagging model does not
+     * have. The test tokens replace the token arrays.
+     *
+     * @param options
+     * @throws IOException
+     */
+    public void initializeForTagging(CommandLineOptions options)
+          throws IOException {
+        if (randomSeed == -1) {
+            mtfRand = new MersenneTwisterFast();
+        } else {
+            mtfRand = new MersenneTwisterFast(randomSeed);
+        }
+
+        stateS = stateF + stateC;
+        S3 = stateS * stateS * stateS;
+        S2 = stateS * stateS;
+        S1 = stateS;
+        stateProbs = new double[stateS];
+        wordStateCounts = new int[stateS];
+        temperature = targetTemperature;
+
+        if (testDirReader != null) {
+            initializeTokenArrays(testDirReader, testVocabulary);
+        }
+
+        /**
+         * The emission priors are spread over the training vocabulary, not
+         * over the words of the test data
+         */
+        wordW = trainVocabulary.size();
+        wbeta = beta * wordW;
+        wdelta = delta * wordW;
+        sgamma = gamma * stateS;
+    }
 
-        for (String word : trainWordIdx.keySet()) {
-            trainIdxToWord.put(trainWordIdx.get(word), word);
+    /**
+     * Tag the test tokens with the most likely states under the counts of
+     * the model, which are not changed. Each sentence is decoded with the
+     * Viterbi algorithm, starting from the state of the last token of the
+     * sentence before it or from state 0 at the start of a document. Words
+     * that are not in the training vocabulary have no counts in any state.
+     */
+    public void tag() {
+        if (wordN == 0) {
+            return;
+        }
+        int[] trainWords = new int[testVocabulary.size()];
+        for (int w = 0; w < trainWords.length; ++w) {
+            String word = testVocabulary.getWord(w);
+            trainWords[w] = word == null ? -1 : trainVocabulary.get(word);
         }
 
-        initializeCountArrays();
+        /**
+         * Emission priors and denominators, and transition log probabilities
+         */
+        double[] priors = new double[stateS];
+        double[] norms = new double[stateS];
+        for (int j = 0; j < stateS; ++j) {
+            priors[j] = emissionPriorTotal(j) / wordW;
+            norms[j] = Math.log(stateCounts.get(j) + emissionPriorTotal(j));
+        }
+        double[] transitions = new double[stateS * stateS];
+        for (int i = 0; i < stateS; ++i) {
+            double total = sgamma;
+            for (int j = 0; j < stateS; ++j) {
+                total += firstOrderTransitions.get(i, j);
+            }
+            for (int j = 0; j < stateS; ++j) {
+                transitions[i * stateS + j] = Math.log(
+                      (firstOrderTransitions.get(i, j) + gamma) / total);
+            }
+        }
+
+        double[] scores = new double[stateS], nextScores = new double[stateS];
+        int[] backPointers = new int[0];
+        int previous = 0, docid = 0;
+        for (int s = 0; s < sentenceS; ++s) {
+            int start = sentenceStarts[s], end = sentenceStarts[s + 1];
+            if (start == end) {
+                continue;
+            }
+            docid = advance(documentStarts, start, docid);
+            if (start == documentStarts[docid]) {
+                previous = 0;
+            }
+            if (backPointers.length < (end - start) * stateS) {
+                backPointers = new int[(end - start) * stateS];
+            }
+
+            for (int i = start; i < end; ++i) {
+                int wordid = trainWords[wordVector.get(i)];
+                int row = (i - start) * stateS;
+                for (int j = 0; j < stateS; ++j) {
+                    int best = previous;
+                    double score;
+                    if (i == start) {
+                        score = transitions[previous * stateS + j];
+                    } else {
+                        score = Double.NEGATIVE_INFINITY;
+                        for (int k = 0; k < stateS; ++k) {
+                            double candidate = scores[k]
+                                  + transitions[k * stateS + j];
+                            if (candidate > score) {
+                                score = candidate;
+                                best = k;
+                            }
+                        }
+                    }
+                    int count = wordid < 0 ? 0 : stateByWord.get(wordid, j);
+                    nextScores[j] = score + Math.log(count + priors[j])
+                          - norms[j];
+                    backPointers[row + j] = best;
+                }
+                double[] swap = scores;
+                scores = nextScores;
+                nextScores = swap;
+            }
+
+            int stateid = 0;
+            for (int j = 1; j < stateS; ++j) {
+                if (scores[j] > scores[stateid]) {
+                    stateid = j;
+                }
+            }
+            previous = stateid;
+            for (int i = end - 1; i >= start; --i) {
+                stateVector.set(i, stateid);
+                stateid = backPointers[(i - start) * stateS + stateid];
+            }
+        }
     }
 }
@@ -4,13 +4,14 @@
 ///////////////////////////////////////////////////////////////////////////////
 package tikka.bhmm.model.base;
 
+import java.io.File;
 import java.util.HashMap;
-import java.util.List;
 
 import tikka.opennlp.io.*;
 
 import tikka.structures.*;
 
+import tikka.utils.Checkpointer;
 import tikka.utils.ec.util.MersenneTwisterFast;
 import tikka.utils.normalizer.*;
 import tikka.utils.postags.*;
@@ -26,9 +27,10 @@ public abstract class HMMFields {
      */
     protected final static String newline = System.getProperty("line.separator");
     /**
-     * Random number generator. Preferred over Java native Rand.
+     * Random number generator. Preferred over Java native Rand. Each sampler
+     * thread holds its own generator.
      */
-    static protected MersenneTwisterFast mtfRand;
+    protected MersenneTwisterFast mtfRand;
     /**
      * Seed for random number generator. Default is 0.
      */
@@ -101,15 +103,18 @@ public abstract class HMMFields {
     /**
      * Array of word indexes. Of length {@link #wordN}.
      */
-    protected int[] wordVector;
+    protected IntArray wordVector;
     /**
-     * Array of sentence indexes. Of length {@link #wordN}.
+     * Offsets of the first token of each sentence. Sentence s covers the
+     * tokens from sentenceStarts[s] up to but not including
+     * sentenceStarts[s+1]. Of length {@link #sentenceS}+1.
      */
-    protected int[] sentenceVector;
+    protected int[] sentenceStarts;
     /**
-     * Array of document indexes
+     * Offsets of the first token of each document. Of length
+     * {@link #documentD}+1.
      */
-    protected int[] documentVector;
+    protected int[] documentStarts;
     /**
      * Number of content states. It also includes the initial start state
      * as an offset.
@@ -129,21 +134,21 @@ public abstract class HMMFields {
      */
     protected int S3, S2, S1;
     /**
-     * 3rd order state counts
+     * 3rd order state counts. Only allocated for models of that order.
      */
     protected int[] thirdOrderTransitions;
     /**
-     * 2nd order state counts
+     * 2nd order state counts. Only allocated for models of that order.
      */
     protected int[] secondOrderTransitions;
     /**
      * 1st order state counts
      */
-    protected int[] firstOrderTransitions;
+    protected CountTable firstOrderTransitions;
     /**
      * Array of counts per state
      */
-    protected int[] stateCounts;
+    protected CountTable stateCounts;
     /**
      * Array of counts per sentence
      */
@@ -152,26 +157,14 @@ public abstract class HMMFields {
      * Array of counts per document
      */
     protected int[] documentCounts;
-    /**
-     * Array of states one word before in previous iteration
-     */
-    protected int[] first;
-    /**
-     * Array of states two words before in previous iteration
-     */
-    protected int[] second;
-    /**
-     * Array of states three words before in previous iteration
-     */
-    protected int[] third;
     /**
      * Array of states over tokens
      */
-    protected int[] stateVector;
+    protected IntArray stateVector;
     /**
      * Array of full gold tags
      */
-    protected int[] goldTagVector;
+    protected IntArray goldTagVector;
 //    /**
 //     * Array of reduced gold tags
 //     */
@@ -195,15 +188,21 @@ public abstract class HMMFields {
     /**
      * Array of counts for words given all states
      */
-    protected int[] stateByWord;
+    protected CountTable stateByWord;
+    /**
+     * Whether {@link #stateByWord}, {@link #stateCounts} and
+     * {@link #firstOrderTransitions} were read from a saved model rather
+     * than rebuilt from the state of each token
+     */
+    protected boolean countsLoaded = false;
     /**
      * Array of counts for content states given sentence
      */
-    protected int[] contentStateBySentence;
+    protected CountTable contentStateBySentence;
     /**
      *
      */
-    protected int[] contentStateByDocument;
+    protected CountTable contentStateByDocument;
     /**
      * Array of function states over documents
      */
@@ -212,27 +211,24 @@ public abstract class HMMFields {
      * Probability of each state
      */
     protected double[] stateProbs;
+    /**
+     * Counts of the current word in each state, copied from
+     * {@link #stateByWord} once per token
+     */
+    protected int[] wordStateCounts;
     /**
      * Table of top {@link #outputPerClass} words per state. Used in
      * normalization and printing.
      */
     protected StringDoublePair[][] topWordsPerState;
     /**
-     * Hashtable from word to index for training data.
-     */
-    protected HashMap<String, Integer> trainWordIdx;
-    /**
-     * Hashtable from index to word for training data.
-     */
-    protected HashMap<Integer, String> trainIdxToWord;
-    /**
-     * Hashtable from word to index for training data.
+     * Dictionary between words and indexes for training data.
      */
-    protected HashMap<String, Integer> testWordIdx;
+    protected Vocabulary trainVocabulary;
     /**
-     * Hashtable from index to word for training data.
+     * Dictionary between words and indexes for test data.
      */
-    protected HashMap<Integer, String> testIdxToWord;
+    protected Vocabulary testVocabulary;
     /**
      * Path of training data.
      */
@@ -291,6 +287,89 @@ public abstract class HMMFields {
      * </pre>
      */
     protected int outerIterations;
+    /**
+     * Number of sampler threads. Values greater than one partition the
+     * documents across threads in each sweep and parse the training files
+     * concurrently.
+     */
+    protected int threads;
+    /**
+     * How each sweep is split across threads when there is more than one
+     */
+    protected SweepEnum.Sweep sweep;
+    /**
+     * Sampler that splits each sweep across threads. Only set while
+     * training with more than one thread.
+     */
+    protected ParallelSampler parallelSampler;
+    /**
+     * State of the token after the range a sampler thread samples, as it
+     * was at the beginning of the sweep
+     */
+    protected int followingState = 0;
+    /**
+     * Storage for the count tables shared across documents
+     */
+    protected CountTableEnum.Backend countTableBackend;
+    /**
+     * Storage for the counts of states or topics by word
+     */
+    protected CountTableEnum.Emission emissionBackend;
+    /**
+     * Where the token arrays and the large count tables are kept
+     */
+    protected StorageEnum.Storage storage;
+    /**
+     * Directory of the files of mapped arrays. The default temporary
+     * directory if null.
+     */
+    protected File storageDirectory;
+    /**
+     * Directory of the binary caches of parsed corpora. Corpora are parsed
+     * on every run if null.
+     */
+    protected File corpusCacheDirectory;
+    /**
+     * How the state of each token is drawn
+     */
+    protected SamplerEnum.Sampler sampler;
+    /**
+     * Number of Metropolis-Hastings proposals per token
+     */
+    protected int proposalSteps;
+    /**
+     * Metropolis-Hastings sampler for single tokens. Only set while training
+     * with alias tables.
+     */
+    protected MetropolisHastingsSampler proposals;
+    /**
+     * Cached denominators of the state counts. Created on the first sweep.
+     */
+    protected SamplingKernel kernel;
+    /**
+     * Number of iterations over which the relative change of the log
+     * likelihood is measured. Zero disables early stopping.
+     */
+    protected int convergenceWindow;
+    /**
+     * Relative change of the log likelihood below which an annealing stage
+     * has converged
+     */
+    protected double convergenceThreshold;
+    /**
+     * What to do once an annealing stage has converged
+     */
+    protected ConvergenceEnum.Convergence convergence;
+    /**
+     * Writer of periodic checkpoints during training. No checkpoints if
+     * null.
+     */
+    protected Checkpointer checkpointer;
+    /**
+     * Checkpoint that training continues from. Null if training starts
+     * from a random initialization.
+     */
+    protected Checkpoint resumePoint;
     /**
      * Number of iterations for test set burnin
      */
@@ -339,18 +418,6 @@ public abstract class HMMFields {
     /**
      * Array of topic indexes. Of length {@link #wordN}.
      */
-    protected int[] topicVector;
+    protected IntArray topicVector;
 
-    /**
-     * Copy a sequence of numbers from ta to array ia.
-     *
-     * @param <T>   Any number type
-     * @param ia    Target array of integers to be copied to
-     * @param ta    Source List<T> of numbers to be copied from
-     */
-    protected static <T extends Number> void copyToArray(int[] ia, List<T> ta) {
-        for (int i = 0; i < ta.size(); ++i) {
-            ia[i] = ta.get(i).intValue();
-        }
-    }
 }
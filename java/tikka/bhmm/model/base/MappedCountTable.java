@@ -0,0 +1,119 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.io.File;
+import java.io.IOException;
+
+import tikka.structures.MappedIntArray;
+import tikka.structures.ModelFileWriter;
+
+/**
+ * Count table kept in a memory mapped file in row major order. Used for
+ * the tables that grow with the vocabulary or the number of documents when
+ * they do not fit on the heap, and for the tables of models loaded from
+ * {@link tikka.structures.ModelFile}s. Updates are not synchronized. The
+ * table cannot be serialized; save its contents with {@link #write}.
+ *
+ * @author tsmoon
+ */
+public class MappedCountTable extends CountTable {
+
+    static private final long serialVersionUID = 42L;
+    /**
+     * Array of counts
+     */
+    protected transient MappedIntArray counts;
+
+    /**
+     * Create a table of zero counts in a temporary file
+     *
+     * @param rows      Number of rows
+     * @param columns   Number of columns
+     * @param directory Directory of the file. The default temporary
+     *                  directory if null.
+     * @throws IOException
+     */
+    public MappedCountTable(int rows, int columns, File directory) throws
+          IOException {
+        super(rows, columns);
+        if ((long) rows * columns > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(
+                  "A mapped table of %d by %d counts is too large. "
+                  + "Use sparse emission tables instead.", rows, columns));
+        }
+        counts = MappedIntArray.createTemporary(directory, rows * columns,
+              Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Wrap mapped counts, such as a section of a saved model
+     *
+     * @param counts    Counts in row major order
+     * @param columns   Number of columns
+     */
+    public MappedCountTable(MappedIntArray counts, int columns) {
+        super(counts.length() / columns, columns);
+        this.counts = counts;
+    }
+
+    @Override
+    public int get(int row, int column) {
+        return counts.get(row * columns + column);
+    }
+
+    @Override
+    public void inc(int row, int column) {
+        counts.inc(row * columns + column);
+    }
+
+    @Override
+    public void dec(int row, int column) {
+        counts.dec(row * columns + column);
+    }
+
+    @Override
+    public void set(int row, int column, int value) {
+        counts.set(row * columns + column, value);
+    }
+
+    @Override
+    public int get(int column) {
+        return counts.get(column);
+    }
+
+    @Override
+    public void inc(int column) {
+        counts.inc(column);
+    }
+
+    @Override
+    public void dec(int column) {
+        counts.dec(column);
+    }
+
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        out.putInts(name, counts, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int[] toArray() {
+        return counts.toArray();
+    }
+}
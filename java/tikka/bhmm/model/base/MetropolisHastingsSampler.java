@@ -0,0 +1,223 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import tikka.utils.annealer.Annealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * Metropolis-Hastings sampler for the state of a single token, in the manner
+ * of LightLDA. Proposals alternate between a word proposal, drawn from the
+ * emission factor of the conditional, and a transition proposal, drawn from
+ * the transition out of the preceding state. Both are drawn from alias
+ * tables that are built from the counts the first time a word or preceding
+ * state is seen in a sweep and are stale for the rest of it. Every proposal
+ * is accepted or rejected against the exact conditional, so that the cost
+ * per token does not grow with the number of states.
+ * <p>
+ * Each sampler thread needs its own instance.
+ *
+ * @author tsmoon
+ */
+public class MetropolisHastingsSampler {
+
+    /**
+     * Model whose tokens are sampled
+     */
+    protected HMMBase model;
+    /**
+     * Number of proposals per token
+     */
+    protected int steps;
+    /**
+     * Number of states
+     */
+    protected int stateS;
+    /**
+     * Smoothing part of the word proposal, which is the same for all words
+     */
+    protected AliasTable smoothing;
+    /**
+     * Count part of the word proposal of each word type
+     */
+    protected AliasTable[] words;
+    /**
+     * Sweep in which the table of each word type was built
+     */
+    protected int[] wordSweeps;
+    /**
+     * Count part of the transition proposal for each preceding state
+     */
+    protected AliasTable[] transitions;
+    /**
+     * Sweep in which the table of each preceding state was built
+     */
+    protected int[] transitionSweeps;
+    /**
+     * Number of sweeps begun
+     */
+    protected int sweeps;
+    /**
+     * Scratch arrays for building tables
+     */
+    protected int[] scratchColumns;
+    protected double[] scratchWeights;
+    protected int[] scratchCounts;
+
+    /**
+     * @param model Model whose tokens are sampled
+     * @param steps Number of proposals per token
+     */
+    public MetropolisHastingsSampler(HMMBase model, int steps) {
+        this.model = model;
+        this.steps = steps;
+        stateS = model.stateS;
+        smoothing = new AliasTable();
+        words = new AliasTable[model.wordW];
+        wordSweeps = new int[model.wordW];
+        transitions = new AliasTable[stateS];
+        transitionSweeps = new int[stateS];
+        scratchColumns = new int[stateS];
+        scratchWeights = new double[stateS];
+        scratchCounts = new int[stateS];
+    }
+
+    /**
+     * Mark all tables as stale. Called at the beginning of every sweep.
+     */
+    public void newSweep() {
+        sweeps++;
+        for (int j = 0; j < stateS; ++j) {
+            scratchWeights[j] = model.emissionWeight(j, 0);
+        }
+        smoothing.build(null, scratchWeights, stateS);
+    }
+
+    /**
+     * Build the count part of the word proposal for a word type if it has
+     * not been built in this sweep
+     *
+     * @param wordid    Index of word type
+     * @return  Table of the word type
+     */
+    protected AliasTable wordTable(int wordid) {
+        AliasTable table = words[wordid];
+        if (table == null) {
+            table = words[wordid] = new AliasTable();
+        } else if (wordSweeps[wordid] == sweeps) {
+            return table;
+        }
+        int n = 0;
+        model.stateByWord.getRow(wordid, scratchCounts);
+        for (int j = 0; j < stateS; ++j) {
+            int count = scratchCounts[j];
+            if (count > 0) {
+                scratchColumns[n] = j;
+                scratchWeights[n++] =
+                      model.emissionWeight(j, count) - model.emissionWeight(j, 0);
+            }
+        }
+        table.build(scratchColumns, scratchWeights, n);
+        wordSweeps[wordid] = sweeps;
+        return table;
+    }
+
+    /**
+     * Build the count part of the transition proposal for a preceding state
+     * if it has not been built in this sweep
+     *
+     * @param prev  Preceding state
+     * @return  Table of the preceding state
+     */
+    protected AliasTable transitionTable(int prev) {
+        AliasTable table = transitions[prev];
+        if (table == null) {
+            table = transitions[prev] = new AliasTable();
+        } else if (transitionSweeps[prev] == sweeps) {
+            return table;
+        }
+        int n = 0;
+        for (int j = 0; j < stateS; ++j) {
+            int count = model.firstOrderTransitions.get(prev, j);
+            if (count > 0) {
+                scratchColumns[n] = j;
+                scratchWeights[n++] = count;
+            }
+        }
+        table.build(scratchColumns, scratchWeights, n);
+        transitionSweeps[prev] = sweeps;
+        return table;
+    }
+
+    /**
+     * Draw a new state for a token whose own counts have already been
+     * removed from the model.
+     *
+     * @param i         Index of token
+     * @param prev      State of the preceding token
+     * @param next      State of the following token
+     * @param stateid   Current state of the token, where the chain starts
+     * @param rand      Random number generator
+     * @param annealer  Callback to annealing process
+     * @return  The new state of the token
+     */
+    public int sample(int i, int prev, int next, int stateid,
+          MersenneTwisterFast rand, Annealer annealer) {
+        AliasTable word = wordTable(model.wordVector.get(i));
+        AliasTable transition = transitionTable(prev);
+        double gamma = model.gamma;
+        double wordMass = word.total() + smoothing.total();
+        double transitionMass = transition.total() + stateS * gamma;
+
+        int s = stateid, t;
+        double ps = model.stateWeight(i, prev, s, next), pt;
+        double qs, qt;
+        for (int step = 0; step < steps; ++step) {
+            if (step % 2 == 0) {
+                if (rand.nextDouble() * wordMass < word.total()) {
+                    t = word.sample(rand);
+                } else {
+                    t = smoothing.sample(rand);
+                }
+                if (t == s) {
+                    continue;
+                }
+                qs = word.weight(s) + smoothing.weight(s);
+                qt = word.weight(t) + smoothing.weight(t);
+            } else {
+                if (rand.nextDouble() * transitionMass < transition.total()) {
+                    t = transition.sample(rand);
+                } else {
+                    t = rand.nextInt(stateS);
+                }
+                if (t == s) {
+                    continue;
+                }
+                qs = transition.weight(s) + gamma;
+                qt = transition.weight(t) + gamma;
+            }
+            pt = model.stateWeight(i, prev, t, next);
+            double accept = annealer.annealRatio(pt / ps) * qs / qt;
+            if (accept >= 1 || rand.nextDouble() < accept) {
+                s = t;
+                ps = pt;
+            }
+        }
+        return s;
+    }
+}
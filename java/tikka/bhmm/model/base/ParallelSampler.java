@@ -0,0 +1,96 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import tikka.utils.annealer.Annealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * Base class for samplers that split a sweep over the tokens across a pool
+ * of threads.
+ *
+ * @author tsmoon
+ */
+public abstract class ParallelSampler {
+
+    /**
+     * Model whose counts hold the global state between sweeps
+     */
+    protected HMMBase model;
+    /**
+     * Pool of sampler threads
+     */
+    protected ExecutorService executor;
+
+    /**
+     * @param model     Model that has been randomly initialized
+     * @param threads   Number of sampler threads
+     */
+    protected ParallelSampler(HMMBase model, int threads) {
+        this.model = model;
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Perform one sweep over all tokens
+     *
+     * @param annealer  Callback to annealing process
+     */
+    public abstract void sweep(Annealer annealer);
+
+    /**
+     * Random number generators of the sampler threads in a fixed order.
+     * Checkpoints save their states so that sampling may resume exactly.
+     *
+     * @return  Generators of the threads
+     */
+    public abstract MersenneTwisterFast[] getRandoms();
+
+    /**
+     * Run tasks on the thread pool and wait for all of them to finish.
+     * Failures in any task are rethrown on the calling thread.
+     *
+     * @param tasks Tasks to run
+     */
+    protected void invokeAll(List<Callable<Object>> tasks) {
+        try {
+            for (Future<Object> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Stop the sampler threads
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,151 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import tikka.utils.annealer.Annealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * Shared pieces of the token samplers of the bhmm models. The denominators
+ * of the emission and transition probabilities of every state depend only on
+ * the count of the state, so their reciprocals are cached here and
+ * recomputed for a single state whenever its count changes. The models
+ * multiply their numerators by the cached reciprocals instead of dividing
+ * for every state of every token.
+ * <p>
+ * The cache must see every change to the counts it was built from. A model
+ * calls {@link #update(int)} after each inc or dec of a state count and
+ * {@link #refresh()} at the beginning of each sweep, which also picks up any
+ * changes merged in from other threads. Each sampler thread needs its own
+ * instance.
+ *
+ * @author tsmoon
+ */
+public class SamplingKernel {
+
+    /**
+     * Counts per state or topic
+     */
+    protected CountTable counts;
+    /**
+     * Emission prior summed over all words for each state. Added to the
+     * state count in the denominator of the emission probability.
+     */
+    protected double[] emissionTotals;
+    /**
+     * Transition prior summed over all states. Added to the state count in
+     * the denominator of the transition probability.
+     */
+    protected double transitionTotal;
+    /**
+     * Reciprocal of the emission denominator of each state
+     */
+    protected double[] emissionNorms;
+    /**
+     * Reciprocal of the transition denominator of each state
+     */
+    protected double[] transitionNorms;
+
+    /**
+     * @param counts            Counts per state or topic, in row 0
+     * @param emissionTotals    Emission prior summed over all words for
+     *                          each state
+     * @param transitionTotal   Transition prior summed over all states
+     */
+    public SamplingKernel(CountTable counts, double[] emissionTotals,
+          double transitionTotal) {
+        this.counts = counts;
+        this.emissionTotals = emissionTotals;
+        this.transitionTotal = transitionTotal;
+        emissionNorms = new double[emissionTotals.length];
+        transitionNorms = new double[emissionTotals.length];
+        refresh();
+    }
+
+    /**
+     * Recompute the reciprocals of all states from the counts
+     */
+    public void refresh() {
+        for (int j = 0; j < emissionNorms.length; ++j) {
+            update(j);
+        }
+    }
+
+    /**
+     * Recompute the reciprocals of a state after its count has changed
+     *
+     * @param j State whose count has changed
+     */
+    public void update(int j) {
+        int count = counts.get(j);
+        emissionNorms[j] = 1 / (count + emissionTotals[j]);
+        transitionNorms[j] = 1 / (count + transitionTotal);
+    }
+
+    /**
+     * @param j State
+     * @return  Reciprocal of the emission denominator of the state
+     */
+    public double emissionNorm(int j) {
+        return emissionNorms[j];
+    }
+
+    /**
+     * @param j State
+     * @return  Reciprocal of the transition denominator of the state
+     */
+    public double transitionNorm(int j) {
+        return transitionNorms[j];
+    }
+
+    /**
+     * Anneal an array of unnormalized probabilities and draw an index from
+     * it
+     *
+     * @param probs     Array of probabilities. Is overwritten.
+     * @param annealer  Callback to annealing process
+     * @param rand      Random number generator
+     * @return  The sampled index
+     */
+    public static int sample(double[] probs, Annealer annealer,
+          MersenneTwisterFast rand) {
+        return sampleIndex(probs, annealer.annealProbs(probs), rand);
+    }
+
+    /**
+     * Draw an index from an array of unnormalized probabilities. Rounding
+     * error never carries the draw past the end of the array.
+     *
+     * @param probs     Array of probabilities
+     * @param totalprob Sum of probabilities
+     * @param rand      Random number generator
+     * @return  The sampled index
+     */
+    public static int sampleIndex(double[] probs, double totalprob,
+          MersenneTwisterFast rand) {
+        double r = rand.nextDouble() * totalprob;
+        int last = probs.length - 1;
+        int index = 0;
+        double max = probs[index];
+        while (r > max && index < last) {
+            index++;
+            max += probs[index];
+        }
+        return index;
+    }
+}
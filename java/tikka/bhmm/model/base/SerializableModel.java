@@ -17,27 +17,33 @@
 ///////////////////////////////////////////////////////////////////////////////
 package tikka.bhmm.model.base;
 
+import tikka.opennlp.io.BlockGzipOutputStream;
 import tikka.opennlp.io.DataFormatEnum;
+import tikka.opennlp.io.GzipChannel;
 
 import tikka.bhmm.apps.CommandLineOptions;
 
+import tikka.structures.IntArray;
+import tikka.structures.MappedIntArray;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+import tikka.structures.Vocabulary;
 import tikka.utils.postags.TagMap;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import java.nio.channels.Channels;
 import java.util.HashMap;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 
 /**
  * Object where model parameters are saved. Includes both constant parameters
- * and inferred parameters.
+ * and inferred parameters. Models are saved as {@link ModelFile}s whose
+ * token arrays and count tables are mapped when they are loaded. Models
+ * saved with java serialization before can still be loaded.
  * 
  * @author tsmoon
  */
@@ -58,6 +64,11 @@ public class SerializableModel implements Serializable {
     protected double beta;
     protected double gamma;
     protected double delta;
+    protected Vocabulary vocabulary;
+    /**
+     * Word index of models saved before the vocabulary was serialized. It is
+     * only read when such a model is loaded.
+     */
     protected HashMap<String, Integer> wordIdx;
     protected int[] wordVector;
     protected double initialTemperature;
@@ -83,6 +94,26 @@ public class SerializableModel implements Serializable {
     protected int[] stateByWord;
     protected int[] stateCounts;
     protected int[] firstOrderTransitions;
+    /**
+     * Token arrays, offsets and count tables of the model that is saved.
+     * They are written to the model file as they are, without copying them
+     * to the heap first.
+     */
+    protected transient IntArray wordArray;
+    protected transient IntArray goldTagArray;
+    protected transient IntArray stateArray;
+    protected transient IntArray topicArray;
+    protected transient int[] documentStarts;
+    protected transient int[] sentenceStarts;
+    protected transient CountTable stateByWordTable;
+    protected transient CountTable stateCountsTable;
+    protected transient CountTable firstOrderTransitionsTable;
+
+    /**
+     * Whether only the parameters needed to tag new text are saved or were
+     * loaded, without the state of the training tokens
+     */
+    protected transient boolean tagging = false;
 
     /**
      * Constructor to use when model is being saved.
@@ -90,36 +121,55 @@ public class SerializableModel implements Serializable {
      * @param bhmm Model to be saved
      */
     public SerializableModel(HMMBase m) {
+        this(m, false);
+    }
+
+    /**
+     * Constructor to use when model is being saved.
+     *
+     * @param bhmm Model to be saved
+     * @param tagging   Whether to save a tagging model, which holds the
+     *                  vocabulary, the counts of states by word, the state
+     *                  counts, the transitions and the hyperparameters but
+     *                  none of the arrays over the training tokens
+     */
+    public SerializableModel(HMMBase m, boolean tagging) {
+        this.tagging = tagging;
         alpha = m.alpha;
         beta = m.beta;
         dataFormat = m.dataFormat;
         delta = m.delta;
-        documentD = m.documentD;
-        documentVector = m.documentVector;
-        firstOrderTransitions = m.firstOrderTransitions;
+        firstOrderTransitionsTable = m.firstOrderTransitions;
         gamma = m.gamma;
-        goldTagVector = m.goldTagVector;
         initialTemperature = m.initialTemperature;
         iterations = m.iterations;
         modelName = m.modelName;
         outputPerClass = m.outputPerClass;
         randomSeed = m.randomSeed;
         trainDataDir = m.trainDataDir;
-        sentenceS = m.sentenceS;
-        sentenceVector = m.sentenceVector;
-        stateByWord = m.stateByWord;
-        stateCounts = m.stateCounts;
-        stateVector = m.stateVector;
+        stateByWordTable = m.stateByWord;
+        stateCountsTable = m.stateCounts;
         stateC = m.stateC;
         stateF = m.stateF;
         tagMap = m.tagMap;
         targetTemperature = m.targetTemperature;
         temperatureDecrement = m.temperatureDecrement;
         topicK = m.topicK;
-        topicVector = m.topicVector;
-        wordIdx = m.trainWordIdx;
+        vocabulary = m.trainVocabulary;
+        wordW = vocabulary.size();
+        if (tagging) {
+            return;
+        }
+
+        documentD = m.documentD;
+        documentStarts = m.documentStarts;
+        goldTagArray = m.goldTagVector;
+        sentenceS = m.sentenceS;
+        sentenceStarts = m.sentenceStarts;
+        stateArray = m.stateVector;
+        topicArray = m.topicVector;
         wordN = m.wordN;
-        wordVector = m.wordVector;
+        wordArray = m.wordVector;
         wordW = m.wordW;
     }
 
@@ -130,7 +180,8 @@ public class SerializableModel implements Serializable {
     }
 
     /**
-     * Load a previously trained model.
+     * Load a previously trained model. Models in the binary model format are
+     * mapped, older models are deserialized.
      *
      * @param filename  Full path of model location.
      * @return  The model that has been loaded.
@@ -140,9 +191,17 @@ public class SerializableModel implements Serializable {
     public HMMBase loadModel(CommandLineOptions options, String filename)
           throws IOException,
           FileNotFoundException {
+        File file = new File(filename);
+        if (ModelFile.isModelFile(file)) {
+            ModelFile in = ModelFile.open(file);
+            tagging = in.contains("tagging");
+            return read(in, ModelGenerator.generator(in.getString("modelName"),
+                  options));
+        }
+
         ObjectInputStream modelIn =
-              new ObjectInputStream(new GZIPInputStream(new FileInputStream(
-              filename)));
+              new ObjectInputStream(Channels.newInputStream(
+              new GzipChannel(file)));
         try {
             loadBuffer = (SerializableModel) modelIn.readObject();
         } catch (ClassNotFoundException e) {
@@ -159,17 +218,157 @@ public class SerializableModel implements Serializable {
     }
 
     /**
-     * Save the trained model.
+     * Save the trained model in the binary model format.
      *
      * @param filename  Full path of model location.
      * @throws IOException
      */
     public void saveModel(String filename) throws IOException {
-        ObjectOutputStream modelOut =
-              new ObjectOutputStream(new GZIPOutputStream(
-              new FileOutputStream(filename)));
-        modelOut.writeObject(this);
-        modelOut.close();
+        saveModel(filename, 0, BlockGzipOutputStream.MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * Save the trained model in the binary model format, compressed in
+     * blocks that are deflated on several threads.
+     *
+     * @param filename  Full path of model location.
+     * @param level Compression level from 1 to 9, or 0 to save the model
+     *              uncompressed
+     * @param blockSize Number of bytes of the model in each compressed block
+     * @throws IOException
+     */
+    public void saveModel(String filename, int level, int blockSize) throws
+          IOException {
+        ModelFileWriter out = new ModelFileWriter(new File(filename), level,
+              blockSize);
+        try {
+            write(out);
+            out.close();
+        } finally {
+            out.abort();
+        }
+    }
+
+    /**
+     * @return  Whether the model that was loaded is a tagging model, which
+     *          must be prepared with {@link HMMBase#initializeForTagging}
+     */
+    public boolean isTagging() {
+        return tagging;
+    }
+
+    /**
+     * Put the fields in the sections of a model file. Offsets of sentences
+     * and documents are saved rather than the index of every token. Token
+     * arrays and count tables are streamed from the model, so a model whose
+     * arrays are mapped is saved without loading them onto the heap.
+     *
+     * @param out   Writer of the model file
+     * @throws IOException
+     */
+    protected void write(ModelFileWriter out) throws IOException {
+        out.putString("modelName", modelName);
+        out.putString("dataFormat", dataFormat == null ? null
+              : dataFormat.name());
+        out.putString("trainDataDir", trainDataDir);
+        out.putInt("randomSeed", randomSeed);
+        out.putInt("iterations", iterations);
+        out.putInt("outputPerClass", outputPerClass);
+        out.putInt("wordW", wordW);
+        out.putInt("stateC", stateC);
+        out.putInt("stateF", stateF);
+        out.putInt("topicK", topicK);
+        out.putDouble("alpha", alpha);
+        out.putDouble("beta", beta);
+        out.putDouble("gamma", gamma);
+        out.putDouble("delta", delta);
+        out.putDouble("initialTemperature", initialTemperature);
+        out.putDouble("temperatureDecrement", temperatureDecrement);
+        out.putDouble("targetTemperature", targetTemperature);
+        out.putObject("tagMap", tagMap);
+        out.putStrings("vocabulary", vocabulary.toArray());
+        stateByWordTable.write(out, "stateByWord");
+        stateCountsTable.write(out, "stateCounts");
+        firstOrderTransitionsTable.write(out, "firstOrderTransitions");
+        if (tagging) {
+            out.putInt("tagging", 1);
+            return;
+        }
+
+        int stateS = stateC + stateF;
+        out.putInt("wordN", wordN);
+        out.putInt("documentD", documentD);
+        out.putInt("sentenceS", sentenceS);
+        out.putInts("documentStarts", documentStarts, wordN);
+        out.putInts("sentenceStarts", sentenceStarts, wordN);
+        out.putInts("wordVector", wordArray, wordW - 1);
+        out.putInts("goldTagVector", goldTagArray);
+        out.putInts("stateVector", stateArray, stateS - 1);
+        out.putInts("topicVector", topicArray, topicK - 1);
+    }
+
+    /**
+     * Set the fields of a model from the sections of a model file. Token
+     * arrays and count tables are mapped rather than read, except sparse
+     * tables, which are rebuilt from their nonzero counts. Tagging models
+     * have no token arrays; those are left null.
+     *
+     * @param in    The model file
+     * @param hmm   Model to set the fields of
+     * @return  The model
+     * @throws IOException
+     */
+    protected HMMBase read(ModelFile in, HMMBase hmm) throws IOException {
+        String format = in.getString("dataFormat");
+        hmm.alpha = in.getDouble("alpha");
+        hmm.beta = in.getDouble("beta");
+        hmm.dataFormat = format == null ? null
+              : DataFormatEnum.DataFormat.valueOf(format);
+        hmm.delta = in.getDouble("delta");
+        hmm.gamma = in.getDouble("gamma");
+        hmm.initialTemperature = in.getDouble("initialTemperature");
+        hmm.iterations = in.getInt("iterations");
+        hmm.modelName = in.getString("modelName");
+        hmm.outputPerClass = in.getInt("outputPerClass");
+        hmm.randomSeed = in.getInt("randomSeed");
+        hmm.trainDataDir = in.getString("trainDataDir");
+        hmm.stateC = in.getInt("stateC");
+        hmm.stateF = in.getInt("stateF");
+        hmm.tagMap = (TagMap) in.getObject("tagMap");
+        hmm.targetTemperature = in.getDouble("targetTemperature");
+        hmm.temperatureDecrement = in.getDouble("temperatureDecrement");
+        hmm.topicK = in.getInt("topicK");
+        hmm.trainVocabulary = Vocabulary.fromArray(in.getStrings("vocabulary"));
+        hmm.trainVocabulary.freeze();
+        hmm.wordW = in.getInt("wordW");
+
+        int stateS = hmm.stateC + hmm.stateF;
+        if (SparseCountTable.isSaved(in, "stateByWord")) {
+            SparseCountTable table = new SparseCountTable(hmm.wordW, stateS);
+            table.read(in, "stateByWord");
+            hmm.stateByWord = table;
+        } else {
+            hmm.stateByWord = wrap(in.getIntArray("stateByWord", false),
+                  stateS);
+        }
+        hmm.stateCounts = wrap(in.getIntArray("stateCounts", false), stateS);
+        hmm.firstOrderTransitions = wrap(in.getIntArray(
+              "firstOrderTransitions", false), stateS);
+        if (in.contains("tagging")) {
+            return hmm;
+        }
+
+        hmm.wordN = in.getInt("wordN");
+        hmm.documentD = in.getInt("documentD");
+        hmm.documentStarts = in.getInts("documentStarts");
+        hmm.sentenceS = in.getInt("sentenceS");
+        hmm.sentenceStarts = in.getInts("sentenceStarts");
+        hmm.wordVector = in.getIntArray("wordVector", true);
+        hmm.goldTagVector = in.getIntArray("goldTagVector", true);
+        hmm.stateVector = in.getIntArray("stateVector", true);
+        hmm.topicVector = in.getIntArray("topicVector", true);
+
+        return hmm;
     }
 
     protected void copy(SerializableModel sm) {
@@ -200,7 +399,8 @@ public class SerializableModel implements Serializable {
         temperatureDecrement = sm.temperatureDecrement;
         topicK = sm.topicK;
         topicVector = sm.topicVector;
-        wordIdx = sm.wordIdx;
+        vocabulary = sm.vocabulary != null ? sm.vocabulary
+              : Vocabulary.fromMap(sm.wordIdx);
         wordN = sm.wordN;
         wordVector = sm.wordVector;
         wordW = sm.wordW;
@@ -212,10 +412,10 @@ public class SerializableModel implements Serializable {
         hmm.dataFormat = dataFormat;
         hmm.delta = delta;
         hmm.documentD = documentD;
-        hmm.documentVector = documentVector;
-        hmm.firstOrderTransitions = firstOrderTransitions;
+        hmm.documentStarts = compress(documentVector, documentD);
+        hmm.firstOrderTransitions = wrap(firstOrderTransitions, stateC + stateF);
         hmm.gamma = gamma;
-        hmm.goldTagVector = goldTagVector;
+        hmm.goldTagVector = IntArray.fromArray(goldTagVector);
         hmm.initialTemperature = initialTemperature;
         hmm.iterations = iterations;
         hmm.modelName = modelName;
@@ -223,22 +423,77 @@ public class SerializableModel implements Serializable {
         hmm.randomSeed = randomSeed;
         hmm.trainDataDir = trainDataDir;
         hmm.sentenceS = sentenceS;
-        hmm.sentenceVector = sentenceVector;
-        hmm.stateByWord = stateByWord;
-        hmm.stateCounts = stateCounts;
-        hmm.stateVector = stateVector;
+        hmm.sentenceStarts = compress(sentenceVector, sentenceS);
+        hmm.stateByWord = wrap(stateByWord, stateC + stateF);
+        hmm.stateCounts = wrap(stateCounts, stateC + stateF);
+        hmm.stateVector = IntArray.fromArray(stateVector, stateC + stateF - 1);
         hmm.stateC = stateC;
         hmm.stateF = stateF;
         hmm.tagMap = tagMap;
         hmm.targetTemperature = targetTemperature;
         hmm.temperatureDecrement = temperatureDecrement;
         hmm.topicK = topicK;
-        hmm.topicVector = topicVector;
-        hmm.trainWordIdx = wordIdx;
+        hmm.topicVector = IntArray.fromArray(topicVector, topicK - 1);
+        hmm.trainVocabulary = vocabulary;
+        hmm.trainVocabulary.freeze();
         hmm.wordN = wordN;
-        hmm.wordVector = wordVector;
+        hmm.wordVector = IntArray.fromArray(wordVector, wordW - 1);
         hmm.wordW = wordW;
 
         return hmm;
     }
+
+    /**
+     * Turn the index of the sentence or document of each token, which is how
+     * models saved with java serialization hold them, into offsets
+     *
+     * @param indexes   Index of the sentence or document of each token
+     * @param count     Number of sentences or documents
+     * @return  Offsets of the first token of each sentence or document,
+     *          followed by the number of tokens
+     */
+    protected static int[] compress(int[] indexes, int count) {
+        int[] starts = new int[count + 1];
+        int s = 0;
+        for (int i = 0; i < indexes.length; ++i) {
+            while (s <= indexes[i]) {
+                starts[s++] = i;
+            }
+        }
+        while (s <= count) {
+            starts[s++] = indexes.length;
+        }
+        return starts;
+    }
+
+    /**
+     * Wrap a saved array of counts in a table
+     *
+     * @param counts    Array of counts in row major order. May be null.
+     * @param columns   Number of columns
+     * @return  The table, or null if there were no counts
+     */
+    protected static CountTable wrap(int[] counts, int columns) {
+        if (counts == null) {
+            return null;
+        }
+        return new DenseCountTable(counts, columns);
+    }
+
+    /**
+     * Wrap counts of a model file in a table
+     *
+     * @param counts    Mapped or copied counts in row major order. May be
+     *                  null.
+     * @param columns   Number of columns
+     * @return  The table, or null if there were no counts
+     */
+    protected static CountTable wrap(IntArray counts, int columns) {
+        if (counts == null) {
+            return null;
+        } else if (counts instanceof MappedIntArray) {
+            return new MappedCountTable((MappedIntArray) counts, columns);
+        }
+        return new DenseCountTable(counts.toArray(), columns);
+    }
 }
@@ -0,0 +1,448 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.bhmm.model.base;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+import tikka.utils.math.LogGamma;
+
+/**
+ * Count table for large, mostly empty tables such as the counts of states by
+ * word. Each row keeps a compact list of (column, count) pairs holding only
+ * the nonzero counts, sorted by column. Once a row has so many nonzero columns that the list
+ * would take more space than a plain array, e.g. for very frequent words, it
+ * is switched to a dense array. Rows are allocated separately, so the total
+ * size of the table is not limited by the size of a single array. Updates
+ * are not synchronized. Model files hold only the nonzero counts of the
+ * table, see {@link #write}.
+ *
+ * @author tsmoon
+ */
+public class SparseCountTable extends CountTable {
+
+    static private final long serialVersionUID = 42L;
+    /**
+     * Initial number of pairs allocated for a row
+     */
+    protected static final int INITIAL_PAIRS = 2;
+    /**
+     * Column and count pairs of each sparse row, interleaved. Null if the
+     * row is empty or dense.
+     */
+    protected int[][] pairs;
+    /**
+     * Number of pairs in use in each sparse row
+     */
+    protected int[] sizes;
+    /**
+     * Counts of each dense row. Null if the row is sparse.
+     */
+    protected int[][] dense;
+    /**
+     * Number of pairs beyond which a row is switched to a dense array
+     */
+    protected int denseThreshold;
+
+    public SparseCountTable(int rows, int columns) {
+        super(rows, columns);
+        pairs = new int[rows][];
+        sizes = new int[rows];
+        dense = new int[rows][];
+        denseThreshold = Math.max(columns / 2, 1);
+    }
+
+    @Override
+    public int get(int row, int column) {
+        int[] d = dense[row];
+        if (d != null) {
+            return d[column];
+        }
+        int k = find(pairs[row], sizes[row], column);
+        return k < 0 ? 0 : pairs[row][2 * k + 1];
+    }
+
+    /**
+     * Find a column among the pairs of a sparse row by binary search
+     *
+     * @param p         Pairs of the row
+     * @param size      Number of pairs in use
+     * @param column    Column to find
+     * @return  Index of the pair holding the column, or -(insertion point) - 1
+     *          if the row has no such pair
+     */
+    protected static int find(int[] p, int size, int column) {
+        int low = 0, high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int c = p[2 * mid];
+            if (c < column) {
+                low = mid + 1;
+            } else if (c > column) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Sparse rows are expanded from their nonzero pairs only
+     */
+    @Override
+    public void getRow(int row, int[] counts) {
+        int[] d = dense[row];
+        if (d != null) {
+            System.arraycopy(d, 0, counts, 0, columns);
+            return;
+        }
+        Arrays.fill(counts, 0, columns, 0);
+        scatter(row, counts, 1);
+    }
+
+    @Override
+    public void inc(int row, int column) {
+        int[] d = dense[row];
+        if (d != null) {
+            d[column]++;
+        } else {
+            add(row, column, 1);
+        }
+    }
+
+    @Override
+    public void dec(int row, int column) {
+        int[] d = dense[row];
+        if (d != null) {
+            d[column]--;
+        } else {
+            add(row, column, -1);
+        }
+    }
+
+    @Override
+    public void set(int row, int column, int value) {
+        int[] d = dense[row];
+        if (d != null) {
+            d[column] = value;
+        } else {
+            add(row, column, value - get(row, column));
+        }
+    }
+
+    /**
+     * Add to the count of a column in a sparse row. The pairs of a row are
+     * kept sorted by column, so that a column is found by binary search.
+     * Pairs whose count drops to zero are removed.
+     *
+     * @param row       Row of a sparse row
+     * @param column    Column
+     * @param delta     Amount to add
+     */
+    protected void add(int row, int column, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        int[] p = pairs[row];
+        int n = 2 * sizes[row];
+        int k = find(p, sizes[row], column);
+        if (k >= 0) {
+            k *= 2;
+            p[k + 1] += delta;
+            if (p[k + 1] == 0) {
+                System.arraycopy(p, k + 2, p, k, n - k - 2);
+                sizes[row]--;
+            }
+            return;
+        }
+
+        if (sizes[row] >= denseThreshold) {
+            densify(row);
+            dense[row][column] += delta;
+            return;
+        }
+        if (p == null) {
+            p = pairs[row] = new int[2 * INITIAL_PAIRS];
+        } else if (n == p.length) {
+            int[] grown = new int[Math.min(2 * p.length, 2 * denseThreshold)];
+            System.arraycopy(p, 0, grown, 0, n);
+            p = pairs[row] = grown;
+        }
+        k = -2 * (k + 1);
+        System.arraycopy(p, k, p, k + 2, n - k);
+        p[k] = column;
+        p[k + 1] = delta;
+        sizes[row]++;
+    }
+
+    /**
+     * Switch a row from a list of pairs to a dense array
+     *
+     * @param row   Row to switch
+     */
+    protected void densify(int row) {
+        int[] d = new int[columns];
+        int[] p = pairs[row];
+        int n = 2 * sizes[row];
+        for (int k = 0; k < n; k += 2) {
+            d[p[k]] = p[k + 1];
+        }
+        dense[row] = d;
+        pairs[row] = null;
+        sizes[row] = 0;
+    }
+
+    /**
+     * @return  Number of rows that have been switched to dense arrays
+     */
+    public int getDenseRows() {
+        int count = 0;
+        for (int i = 0; i < rows; ++i) {
+            if (dense[i] != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Only the nonzero entries of sparse rows are visited
+     */
+    @Override
+    public double logRisingSum(double prior, int from, int to) {
+        double sum = 0;
+        for (int i = 0; i < rows; ++i) {
+            int[] d = dense[i];
+            if (d != null) {
+                for (int j = from; j < to; ++j) {
+                    if (d[j] > 0) {
+                        sum += LogGamma.logRising(prior, d[j]);
+                    }
+                }
+                continue;
+            }
+            int[] p = pairs[i];
+            int n = 2 * sizes[i];
+            for (int k = 0; k < n; k += 2) {
+                if (p[k] >= from && p[k] < to && p[k + 1] > 0) {
+                    sum += LogGamma.logRising(prior, p[k + 1]);
+                }
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Save the nonzero counts in sections of a model file: the offsets of
+     * the rows into the entries, the column and the count of each entry, and
+     * the rows that have been switched to dense arrays. The size of the
+     * sections does not depend on the number of columns.
+     *
+     * @param out   Writer of the model file
+     * @param name  Name of the table
+     * @throws IOException
+     */
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        int entries = 0, denseRows = 0;
+        for (int i = 0; i < rows; ++i) {
+            if (dense[i] != null) {
+                denseRows++;
+                for (int j = 0; j < columns; ++j) {
+                    if (dense[i][j] != 0) {
+                        entries++;
+                    }
+                }
+            } else {
+                entries += sizes[i];
+            }
+        }
+
+        int[] rowStarts = new int[rows + 1];
+        int[] states = new int[entries];
+        int[] counts = new int[entries];
+        int[] denseRowIndexes = new int[denseRows];
+        int e = 0, r = 0;
+        for (int i = 0; i < rows; ++i) {
+            rowStarts[i] = e;
+            int[] d = dense[i];
+            if (d != null) {
+                denseRowIndexes[r++] = i;
+                for (int j = 0; j < columns; ++j) {
+                    if (d[j] != 0) {
+                        states[e] = j;
+                        counts[e++] = d[j];
+                    }
+                }
+            } else {
+                int[] p = pairs[i];
+                int n = 2 * sizes[i];
+                for (int k = 0; k < n; k += 2) {
+                    states[e] = p[k];
+                    counts[e++] = p[k + 1];
+                }
+            }
+        }
+        rowStarts[rows] = e;
+
+        out.putInts(name + ".rowStarts", rowStarts, entries);
+        out.putInts(name + ".states", states, columns - 1);
+        out.putInts(name + ".counts", counts);
+        out.putInts(name + ".denseRows", denseRowIndexes, rows - 1);
+    }
+
+    /**
+     * Overwrite the contents of this table with counts saved by
+     * {@link #write}
+     *
+     * @param in    The model file
+     * @param name  Name of the table
+     * @throws IOException  If the saved table has another number of rows
+     */
+    public void read(ModelFile in, String name) throws IOException {
+        int[] rowStarts = in.getInts(name + ".rowStarts");
+        int[] states = in.getInts(name + ".states");
+        int[] counts = in.getInts(name + ".counts");
+        int[] denseRowIndexes = in.getInts(name + ".denseRows");
+        if (rowStarts == null || rowStarts.length != rows + 1) {
+            throw new IOException(String.format(
+                  "%s has no sparse table %s of %d rows", in.getFile(), name,
+                  rows));
+        }
+
+        for (int i = 0; i < rows; ++i) {
+            pairs[i] = null;
+            sizes[i] = 0;
+            dense[i] = null;
+        }
+        for (int row : denseRowIndexes) {
+            dense[row] = new int[columns];
+        }
+        for (int i = 0; i < rows; ++i) {
+            int start = rowStarts[i], end = rowStarts[i + 1];
+            int[] d = dense[i];
+            if (d != null) {
+                for (int e = start; e < end; ++e) {
+                    d[states[e]] = counts[e];
+                }
+            } else if (end > start) {
+                pairs[i] = new int[2 * Math.max(end - start, INITIAL_PAIRS)];
+                for (int e = start; e < end; ++e) {
+                    add(i, states[e], counts[e]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Whether a model file holds a table saved by {@link #write}
+     *
+     * @param in    The model file
+     * @param name  Name of the table
+     * @return  Whether the sparse sections of the table exist
+     */
+    public static boolean isSaved(ModelFile in, String name) {
+        return in.contains(name + ".rowStarts");
+    }
+
+    @Override
+    public CountTable copy() {
+        SparseCountTable table = new SparseCountTable(rows, columns);
+        table.copyFrom(this);
+        return table;
+    }
+
+    @Override
+    public void copyFrom(CountTable table) {
+        if (!(table instanceof SparseCountTable)) {
+            super.copyFrom(table);
+            return;
+        }
+        SparseCountTable sparse = (SparseCountTable) table;
+        for (int i = 0; i < rows; ++i) {
+            dense[i] = sparse.dense[i] == null ? null : sparse.dense[i].clone();
+            pairs[i] = sparse.pairs[i] == null ? null : sparse.pairs[i].clone();
+            sizes[i] = sparse.sizes[i];
+        }
+    }
+
+    /**
+     * Add the difference between each local copy and this table to this
+     * table. Only the nonzero entries of each row are visited.
+     *
+     * @param locals    Local copies of the table made by {@link #copy()}
+     */
+    @Override
+    public void merge(CountTable[] locals) {
+        for (int r = 0; r < locals.length; ++r) {
+            if (!(locals[r] instanceof SparseCountTable)) {
+                super.merge(locals);
+                return;
+            }
+        }
+        int[] row = new int[columns];
+        for (int i = 0; i < rows; ++i) {
+            boolean changed = false;
+            for (int r = 0; r < locals.length; ++r) {
+                SparseCountTable local = (SparseCountTable) locals[r];
+                changed |= local.scatter(i, row, 1);
+                changed |= scatter(i, row, -1);
+            }
+            if (!changed) {
+                continue;
+            }
+            for (int j = 0; j < columns; ++j) {
+                if (row[j] != 0) {
+                    if (dense[i] != null) {
+                        dense[i][j] += row[j];
+                    } else {
+                        add(i, j, row[j]);
+                    }
+                    row[j] = 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Add the counts of a row, multiplied by a sign, to a dense buffer
+     *
+     * @param row       Row to add
+     * @param buffer    Buffer of length {@link #columns}
+     * @param sign      1 or -1
+     * @return  Whether the row has any nonzero counts
+     */
+    protected boolean scatter(int row, int[] buffer, int sign) {
+        int[] d = dense[row];
+        if (d != null) {
+            for (int j = 0; j < columns; ++j) {
+                buffer[j] += sign * d[j];
+            }
+            return true;
+        }
+        int[] p = pairs[row];
+        int n = 2 * sizes[row];
+        for (int k = 0; k < n; k += 2) {
+            buffer[p[k]] += sign * p[k + 1];
+        }
+        return n > 0;
+    }
+}
@@ -19,6 +19,7 @@ package tikka.bhmm.models;
 
 import java.io.IOException;
 import tikka.bhmm.model.base.HMMBase;
+import tikka.bhmm.model.base.SamplingKernel;
 import tikka.bhmm.apps.CommandLineOptions;
 import tikka.utils.annealer.Annealer;
 
@@ -34,82 +35,73 @@ public class CDHMMD extends HMMBase {
     }
 
     /**
-     * Training routine for the inner iterations
+     * Sample states for the tokens in a contiguous range of the corpus.
+     * The range is expected to start at a document boundary.
+     *
+     * @param start    Index of first token to sample
+     * @param end      Index one past the last token to sample
+     * @param previous State preceding the first token
+     * @param annealer Callback to annealing process
      */
     @Override
-    protected void trainInnerIter(int itermax, Annealer annealer) {
-        int wordid, stateid, docid;
-        int current = 0, next;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordstateoff, stateoff, docoff;
-
-        for (int iter = 0; iter < itermax; ++iter) {
-            System.err.println("iteration " + iter);
-            current = 0;
-            for (int i = 0; i < wordN; ++i) {
-                if (i % 100000 == 0) {
-                    System.err.println("\tProcessing word " + i);
-                }
-                wordid = wordVector[i];
-
-                docid = documentVector[i];
-                stateid = stateVector[i];
-                stateoff = current * stateS;
-                wordstateoff = wordid * stateS;
-                docoff = docid * stateC;
-
-                if (stateid < stateC) {
-                    contentStateByDocument[docoff + stateid]--;
-                    documentCounts[docid]--;
-                }
-                stateByWord[wordstateoff + stateid]--;
-                stateCounts[stateid]--;
-                firstOrderTransitions[first[i] * stateS + stateid]--;
-
-                try {
-                    next = stateVector[i + 1];
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    next = 0;
-                }
-
-                int j = 0;
-                for (; j < stateC; j++) {
-                    stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + beta)
-                          / (stateCounts[j] + wbeta))
-                          * ((contentStateByDocument[docoff + j] + alpha)
-                          / (documentCounts[docid] + calpha))
-                          * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
-                          * (firstOrderTransitions[j * stateS + next] + gamma);
-                }
-                for (; j < stateS; j++) {
-                    stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + delta)
-                          / (stateCounts[j] + wdelta))
-                          * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
-                          * (firstOrderTransitions[j * stateS + next] + gamma);
-                }
-                totalprob = annealer.annealProbs(stateProbs);
-                r = mtfRand.nextDouble() * totalprob;
-                max = stateProbs[0];
-                stateid = 0;
-                while (r > max) {
-                    stateid++;
-                    max += stateProbs[stateid];
-                }
-                stateVector[i] = stateid;
-
-                if (stateid < stateC) {
-                    contentStateByDocument[docoff + stateid]++;
-                    documentCounts[docid]++;
-                }
-                stateByWord[wordstateoff + stateid]++;
-                stateCounts[stateid]++;
-                firstOrderTransitions[stateoff + stateid]++;
-                first[i] = current;
-                current = stateid;
+    protected void sampleTokens(int start, int end, int previous,
+          Annealer annealer) {
+        int wordid, stateid;
+        int docid = documentOf(start);
+        int current = previous, next;
+        double documentnorm;
+
+        SamplingKernel kernel = sweepKernel();
+
+        for (int i = start; i < end; ++i) {
+            if (i % 100000 == 0) {
+                System.err.println("\tProcessing word " + i);
             }
+            wordid = wordVector.get(i);
+
+            docid = advance(documentStarts, i, docid);
+            stateid = stateVector.get(i);
+
+            if (stateid < stateC) {
+                contentStateByDocument.dec(docid, stateid);
+                documentCounts[docid]--;
+            }
+            stateByWord.dec(wordid, stateid);
+            stateCounts.dec(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.dec(previous, stateid);
+            previous = stateid;
+
+            next = nextState(i, end);
+            stateByWord.getRow(wordid, wordStateCounts);
+
+            documentnorm = 1 / (documentCounts[docid] + calpha);
+            int j = 0;
+            for (; j < stateC; j++) {
+                stateProbs[j] =
+                      (wordStateCounts[j] + beta) * kernel.emissionNorm(j)
+                      * (contentStateByDocument.get(docid, j) + alpha) * documentnorm
+                      * (firstOrderTransitions.get(current, j) + gamma) * kernel.transitionNorm(j)
+                      * (firstOrderTransitions.get(j, next) + gamma);
+            }
+            for (; j < stateS; j++) {
+                stateProbs[j] =
+                      (wordStateCounts[j] + delta) * kernel.emissionNorm(j)
+                      * (firstOrderTransitions.get(current, j) + gamma) * kernel.transitionNorm(j)
+                      * (firstOrderTransitions.get(j, next) + gamma);
+            }
+            stateid = SamplingKernel.sample(stateProbs, annealer, mtfRand);
+            stateVector.set(i, stateid);
+
+            if (stateid < stateC) {
+                contentStateByDocument.inc(docid, stateid);
+                documentCounts[docid]++;
+            }
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.inc(current, stateid);
+            current = stateid;
         }
     }
 
@@ -119,86 +111,91 @@ public class CDHMMD extends HMMBase {
     @Override
     public void initializeParametersRandom() {
 
-        int wordid, docid, stateid;
+        int wordid, stateid;
+        int docid = 0;
         int current = 0;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordstateoff, docoff, stateoff;
+        double totalprob = 0;
 
         /**
          * Initialize by assigning random topic indices to words
          */
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
+            wordid = wordVector.get(i);
 
-            docid = documentVector[i];
-            stateoff = current * stateS;
-            wordstateoff = wordid * stateS;
-            docoff = docid * stateC;
+            docid = advance(documentStarts, i, docid);
 
             totalprob = 0;
             int j = 0;
             for (; j < stateC; j++) {
                 totalprob += stateProbs[j] =
-                      ((stateByWord[wordstateoff + j] + beta)
-                      / (stateCounts[j] + wbeta))
-                      * ((contentStateByDocument[docoff + j] + alpha)
+                      ((stateByWord.get(wordid, j) + beta)
+                      / (stateCounts.get(j) + wbeta))
+                      * ((contentStateByDocument.get(docid, j) + alpha)
                       / (documentCounts[docid] + calpha))
-                      * (firstOrderTransitions[stateoff + j] + gamma);
+                      * (firstOrderTransitions.get(current, j) + gamma);
             }
             for (; j < stateS; j++) {
                 totalprob += stateProbs[j] =
-                      ((stateByWord[wordstateoff + j] + delta)
-                      / (stateCounts[j] + wdelta))
-                      * (firstOrderTransitions[stateoff + j] + gamma);
-            }
-            r = mtfRand.nextDouble() * totalprob;
-            max = stateProbs[0];
-            stateid = 0;
-            while (r > max) {
-                stateid++;
-                max += stateProbs[stateid];
+                      ((stateByWord.get(wordid, j) + delta)
+                      / (stateCounts.get(j) + wdelta))
+                      * (firstOrderTransitions.get(current, j) + gamma);
             }
-            stateVector[i] = stateid;
+            stateid = SamplingKernel.sampleIndex(stateProbs, totalprob, mtfRand);
+            stateVector.set(i, stateid);
 
             if (stateid < stateC) {
-                contentStateByDocument[docoff + stateid]++;
+                contentStateByDocument.inc(docid, stateid);
                 documentCounts[docid]++;
             }
-            stateByWord[wordstateoff + stateid]++;
-            stateCounts[stateid]++;
-            firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            firstOrderTransitions.inc(current, stateid);
             current = stateid;
         }
     }
 
+    /**
+     * Content states are also drawn from the distributions of their
+     * documents.
+     */
+    @Override
+    public double logLikelihood() {
+        return emissionLogLikelihood(stateByWord, stateCounts, 0, stateC,
+              beta, wbeta)
+              + emissionLogLikelihood(stateByWord, stateCounts, stateC, stateS,
+              delta, wdelta)
+              + tableLogLikelihood(firstOrderTransitions, gamma)
+              + tableLogLikelihood(contentStateByDocument, alpha);
+    }
+
+    @Override
+    protected double emissionPriorTotal(int j) {
+        return j < stateC ? wbeta : wdelta;
+    }
+
     @Override
     public void initializeFromLoadedModel(CommandLineOptions options) throws
           IOException {
         super.initializeFromLoadedModel(options);
 
         int current = 0;
-        int wordid = 0, stateid = 0, docid;
-        int stateoff, wordstateoff, docoff;
+        int wordid = 0, stateid = 0, docid = 0;
 
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
-            docid = documentVector[i];
-            stateid = stateVector[i];
+            wordid = wordVector.get(i);
+            docid = advance(documentStarts, i, docid);
+            stateid = stateVector.get(i);
 
-            stateoff = current * stateS;
-            wordstateoff = wordid * stateS;
-            docoff = docid * stateC;
 
             if (stateid < stateC) {
-                contentStateByDocument[docoff + stateid]++;
+                contentStateByDocument.inc(docid, stateid);
                 documentCounts[docid]++;
             }
-            stateByWord[wordstateoff + stateid]++;
-            stateCounts[stateid]++;
-            firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            if (!countsLoaded) {
+                stateByWord.inc(wordid, stateid);
+                stateCounts.inc(stateid);
+                firstOrderTransitions.inc(current, stateid);
+            }
             current = stateid;
         }
     }
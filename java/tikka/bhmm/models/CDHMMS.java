@@ -19,6 +19,7 @@ package tikka.bhmm.models;
 
 import java.io.IOException;
 import tikka.bhmm.model.base.HMMBase;
+import tikka.bhmm.model.base.SamplingKernel;
 import tikka.bhmm.apps.CommandLineOptions;
 import tikka.utils.annealer.Annealer;
 
@@ -34,95 +35,133 @@ public class CDHMMS extends HMMBase {
     }
 
     /**
-     * Training routine for the inner iterations
+     * Sample states for the tokens in a contiguous range of the corpus.
+     * The range is expected to start at a document boundary.
+     *
+     * @param start    Index of first token to sample
+     * @param end      Index one past the last token to sample
+     * @param previous State preceding the first token
+     * @param annealer Callback to annealing process
      */
     @Override
-    protected void trainInnerIter(int itermax, Annealer annealer) {
-        int wordid, sentenceid, stateid;
-        int current = 0, next;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordstateoff, sentenceoff, stateoff;
-
-        for (int iter = 0; iter < itermax; ++iter) {
-            System.err.println("iteration " + iter);
-            current = 0;
-            for (int i = 0; i < wordN; ++i) {
-                if (i % 100000 == 0) {
-                    System.err.println("\tProcessing word " + i);
-                }
-                wordid = wordVector[i];
+    protected void sampleTokens(int start, int end, int previous,
+          Annealer annealer) {
+        int wordid, stateid;
+        int sentenceid = sentenceOf(start);
+        int current = previous, next;
+        double sentencenorm;
+
+        SamplingKernel kernel = sweepKernel();
+        boolean propose = proposals != null && annealer.isStochastic();
+        if (propose) {
+            proposals.newSweep();
+        }
+        for (int i = start; i < end; ++i) {
+            if (i % 100000 == 0) {
+                System.err.println("\tProcessing word " + i);
+            }
+            wordid = wordVector.get(i);
 
-                sentenceid = sentenceVector[i];
-                stateid = stateVector[i];
-                stateoff = current * stateS;
-                wordstateoff = stateS * wordid;
-                sentenceoff = stateC * sentenceid;
-
-                if (stateid < stateC) {
-                    contentStateBySentence[sentenceoff + stateid]--;
-                    sentenceCounts[sentenceid]--;
-                }
-                stateByWord[wordstateoff + stateid]--;
-                stateCounts[stateid]--;
-                firstOrderTransitions[first[i] * stateS + stateid]--;
-
-                try {
-                    next = stateVector[i + 1];
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    next = 0;
-                }
+            sentenceid = advance(sentenceStarts, i, sentenceid);
+            stateid = stateVector.get(i);
 
+            if (stateid < stateC) {
+                contentStateBySentence.dec(sentenceid, stateid);
+                sentenceCounts[sentenceid]--;
+            }
+            stateByWord.dec(wordid, stateid);
+            stateCounts.dec(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.dec(previous, stateid);
+            previous = stateid;
+
+            next = nextState(i, end);
+
+            if (propose) {
+                stateid = proposals.sample(i, current, next, stateid, mtfRand,
+                      annealer);
+            } else {
+                stateByWord.getRow(wordid, wordStateCounts);
+                sentencenorm = 1 / (sentenceCounts[sentenceid] + calpha);
                 int j = 0;
                 for (; j < stateC; j++) {
                     stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + beta)
-                          / (stateCounts[j] + wbeta))
-                          * ((contentStateBySentence[sentenceoff + j] + alpha)
-                          / (sentenceCounts[sentenceid] + calpha))
-                          * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
-                          * (firstOrderTransitions[j * stateS + next] + gamma);
+                          (wordStateCounts[j] + beta) * kernel.emissionNorm(j)
+                          * (contentStateBySentence.get(sentenceid, j) + alpha) * sentencenorm
+                          * (firstOrderTransitions.get(current, j) + gamma) * kernel.transitionNorm(j)
+                          * (firstOrderTransitions.get(j, next) + gamma);
                 }
                 for (; j < stateS; j++) {
                     stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + delta)
-                          / (stateCounts[j] + wdelta))
-                          * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
-                          * (firstOrderTransitions[j * stateS + next] + gamma);
-                }
-                totalprob = annealer.annealProbs(stateProbs);
-                r = mtfRand.nextDouble() * totalprob;
-                max = stateProbs[0];
-                stateid = 0;
-                while (r > max) {
-                    stateid++;
-                    max += stateProbs[stateid];
+                          (wordStateCounts[j] + delta) * kernel.emissionNorm(j)
+                          * (firstOrderTransitions.get(current, j) + gamma) * kernel.transitionNorm(j)
+                          * (firstOrderTransitions.get(j, next) + gamma);
                 }
-                stateVector[i] = stateid;
+                stateid = SamplingKernel.sample(stateProbs, annealer, mtfRand);
+            }
+            stateVector.set(i, stateid);
 
-                if (stateid < stateC) {
-                    contentStateBySentence[sentenceoff + stateid]++;
-                    sentenceCounts[sentenceid]++;
-                }
-                stateByWord[wordstateoff + stateid]++;
-                stateCounts[stateid]++;
-                firstOrderTransitions[stateoff + stateid]++;
-                first[i] = current;
-                current = stateid;
+            if (stateid < stateC) {
+                contentStateBySentence.inc(sentenceid, stateid);
+                sentenceCounts[sentenceid]++;
             }
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.inc(current, stateid);
+            current = stateid;
         }
     }
 
+    @Override
+    protected boolean supportsProposalSampling() {
+        return true;
+    }
+
+    @Override
+    protected double stateWeight(int i, int prev, int j, int next) {
+        double weight = emissionWeight(j, stateByWord.get(wordVector.get(i), j))
+              * (firstOrderTransitions.get(prev, j) + gamma) * kernel.transitionNorm(j)
+              * (firstOrderTransitions.get(j, next) + gamma);
+        if (j < stateC) {
+            int sentenceid = sentenceOf(i);
+            weight *= (contentStateBySentence.get(sentenceid, j) + alpha)
+                  / (sentenceCounts[sentenceid] + calpha);
+        }
+        return weight;
+    }
+
+    @Override
+    protected double emissionWeight(int j, int count) {
+        return (count + (j < stateC ? beta : delta)) * kernel.emissionNorm(j);
+    }
+
+    /**
+     * Content states are also drawn from the distributions of their
+     * sentences.
+     */
+    @Override
+    public double logLikelihood() {
+        return emissionLogLikelihood(stateByWord, stateCounts, 0, stateC,
+              beta, wbeta)
+              + emissionLogLikelihood(stateByWord, stateCounts, stateC, stateS,
+              delta, wdelta)
+              + tableLogLikelihood(firstOrderTransitions, gamma)
+              + tableLogLikelihood(contentStateBySentence, alpha);
+    }
+
+    @Override
+    protected double emissionPriorTotal(int j) {
+        return j < stateC ? wbeta : wdelta;
+    }
+
     /**
      * This resets the sentenceCounts array to zero for all elements. This has
      * to be done since the values are set in initializeCounts.
      */
     public void initializeSentenceCounts() {
-        try {
-            for (int i = 0;; ++i) {
-                sentenceCounts[i] = 0;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
+        for (int i = 0; i < sentenceCounts.length; ++i) {
+            sentenceCounts[i] = 0;
         }
     }
 
@@ -132,56 +171,45 @@ public class CDHMMS extends HMMBase {
     @Override
     public void initializeParametersRandom() {
         initializeSentenceCounts();
-        int wordid, sentenceid, stateid;
+        int wordid, stateid;
+        int sentenceid = 0;
         int current = 0;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordstateoff, sentenceoff, stateoff;
+        double totalprob = 0;
 
         /**
          * Initialize by assigning random topic indices to words
          */
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
+            wordid = wordVector.get(i);
 
-            sentenceid = sentenceVector[i];
-            stateoff = current * stateS;
-            wordstateoff = wordid * stateS;
-            sentenceoff = sentenceid * stateC;
+            sentenceid = advance(sentenceStarts, i, sentenceid);
 
             totalprob = 0;
             int j = 0;
             for (; j < stateC; j++) {
                 totalprob += stateProbs[j] =
-                      ((stateByWord[wordstateoff + j] + beta)
-                      / (stateCounts[j] + wbeta))
-                      * ((contentStateBySentence[sentenceoff + j] + alpha)
+                      ((stateByWord.get(wordid, j) + beta)
+                      / (stateCounts.get(j) + wbeta))
+                      * ((contentStateBySentence.get(sentenceid, j) + alpha)
                       / (sentenceCounts[sentenceid] + calpha))
-                      * (firstOrderTransitions[stateoff + j] + gamma);
+                      * (firstOrderTransitions.get(current, j) + gamma);
             }
             for (; j < stateS; j++) {
                 totalprob += stateProbs[j] =
-                      ((stateByWord[wordstateoff + j] + delta)
-                      / (stateCounts[j] + wdelta))
-                      * (firstOrderTransitions[stateoff + j] + gamma);
+                      ((stateByWord.get(wordid, j) + delta)
+                      / (stateCounts.get(j) + wdelta))
+                      * (firstOrderTransitions.get(current, j) + gamma);
             }
-            r = mtfRand.nextDouble() * totalprob;
-            max = stateProbs[0];
-            stateid = 0;
-            while (r > max) {
-                stateid++;
-                max += stateProbs[stateid];
-            }
-            stateVector[i] = stateid;
+            stateid = SamplingKernel.sampleIndex(stateProbs, totalprob, mtfRand);
+            stateVector.set(i, stateid);
 
             if (stateid < stateC) {
-                contentStateBySentence[sentenceoff + stateid]++;
+                contentStateBySentence.inc(sentenceid, stateid);
                 sentenceCounts[sentenceid]++;
             }
-            stateByWord[wordstateoff + stateid]++;
-            stateCounts[stateid]++;
-            firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            firstOrderTransitions.inc(current, stateid);
             current = stateid;
 
         }
@@ -193,26 +221,23 @@ public class CDHMMS extends HMMBase {
         super.initializeFromLoadedModel(options);
 
         int current = 0;
-        int wordid = 0, stateid = 0, sentenceid;
-        int stateoff, wordstateoff, sentenceoff;
+        int wordid = 0, stateid = 0, sentenceid = 0;
 
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
-            sentenceid = sentenceVector[i];
-            stateid = stateVector[i];
+            wordid = wordVector.get(i);
+            sentenceid = advance(sentenceStarts, i, sentenceid);
+            stateid = stateVector.get(i);
 
-            stateoff = current * stateS;
-            wordstateoff = stateS * wordid;
-            sentenceoff = stateC * sentenceid;
 
             if (stateid < stateC) {
-                contentStateBySentence[sentenceoff + stateid]++;
+                contentStateBySentence.inc(sentenceid, stateid);
                 sentenceCounts[sentenceid]++;
             }
-            stateByWord[wordstateoff + stateid]++;
-            stateCounts[stateid]++;
-            firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            if (!countsLoaded) {
+                stateByWord.inc(wordid, stateid);
+                stateCounts.inc(stateid);
+                firstOrderTransitions.inc(current, stateid);
+            }
             current = stateid;
         }
     }
@@ -23,10 +23,12 @@ import java.util.Collections;
 
 import tikka.bhmm.apps.CommandLineOptions;
 import tikka.bhmm.model.base.HMMBase;
+import tikka.bhmm.model.base.SamplingKernel;
 
 import tikka.structures.*;
 
 import tikka.utils.annealer.Annealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
 
 /**
  * Though this is derived from BHMM, it is just a vanilla HMM.
@@ -46,109 +48,134 @@ public class HMM extends HMMBase {
     public void initializeParametersRandom() {
         int wordid, stateid;
         int current = 0;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordstateoff, stateoff;
+        double totalprob = 0;
 
         /**
          * Initialize by assigning random topic indices to words
          */
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
+            wordid = wordVector.get(i);
 
-            wordstateoff = stateS * wordid;
 
             totalprob = 0;
-            stateoff = current * stateS;
-            try {
-                for (int j = 0;; j++) {
-                    totalprob += stateProbs[j] =
-                          (stateByWord[wordstateoff + j] + delta)
-                          / (stateCounts[j] + wdelta)
-                          * (firstOrderTransitions[stateoff + j] + gamma);
-                }
-            } catch (java.lang.ArrayIndexOutOfBoundsException e) {
+            for (int j = 0; j < stateS; j++) {
+                totalprob += stateProbs[j] =
+                      (stateByWord.get(wordid, j) + delta)
+                      / (stateCounts.get(j) + wdelta)
+                      * (firstOrderTransitions.get(current, j) + gamma);
             }
 
-            r = mtfRand.nextDouble() * totalprob;
-            stateid = 0;
-            max = stateProbs[stateid];
-            while (r > max) {
-                stateid++;
-                max += stateProbs[stateid];
-            }
-            stateVector[i] = stateid;
-            stateByWord[wordstateoff + stateid]++;
-            stateCounts[stateid]++;
-            firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            stateid = SamplingKernel.sampleIndex(stateProbs, totalprob, mtfRand);
+            stateVector.set(i, stateid);
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            firstOrderTransitions.inc(current, stateid);
             current = stateid;
         }
     }
 
     /**
-     * Training routine for the inner iterations
+     * Sample states for the tokens in a contiguous range of the corpus.
+     * The range is expected to start at a document boundary.
+     *
+     * @param start    Index of first token to sample
+     * @param end      Index one past the last token to sample
+     * @param previous State preceding the first token
+     * @param annealer Callback to annealing process
      */
     @Override
-    protected void trainInnerIter(int itermax, Annealer annealer) {
+    protected void sampleTokens(int start, int end, int previous,
+          Annealer annealer) {
         int wordid, stateid;
-        int current = 0, next = 0;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordstateoff, stateoff;
-
-        for (int iter = 0; iter < itermax; ++iter) {
-            System.err.println("iteration " + iter);
-            current = 0;
-            for (int i = 0; i < wordN; i++) {
-                if (i % 100000 == 0) {
-                    System.err.println("\tProcessing word " + i);
-                }
-                wordid = wordVector[i];
+        int current = previous, next = 0;
+
+        SamplingKernel kernel = sweepKernel();
+        boolean propose = proposals != null && annealer.isStochastic();
+        if (propose) {
+            proposals.newSweep();
+        }
+        for (int i = start; i < end; i++) {
+            if (i % 100000 == 0) {
+                System.err.println("\tProcessing word " + i);
+            }
+            wordid = wordVector.get(i);
 
-                stateid = stateVector[i];
-                wordstateoff = wordid * stateS;
+            stateid = stateVector.get(i);
 
-                stateByWord[wordstateoff + stateid]--;
-                stateCounts[stateid]--;
-                firstOrderTransitions[first[i] * stateS + stateid]--;
+            stateByWord.dec(wordid, stateid);
+            stateCounts.dec(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.dec(previous, stateid);
+            previous = stateid;
 
-                stateoff = current * stateS;
-                try {
-                    next = stateVector[i + 1];
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    next = 0;
-                }
+            next = nextState(i, end);
 
-                try {
-                    for (int j = 0;; j++) {
-                        stateProbs[j] =
-                              ((stateByWord[wordstateoff + j] + delta) / (stateCounts[j] + wdelta))
-                              * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
-                              * (firstOrderTransitions[j * stateS + next] + gamma);
-                    }
-                } catch (ArrayIndexOutOfBoundsException e) {
-                }
-                totalprob = annealer.annealProbs(stateProbs);
-                r = mtfRand.nextDouble() * totalprob;
-                stateid = 0;
-                max = stateProbs[stateid];
-                while (r > max) {
-                    stateid++;
-                    max += stateProbs[stateid];
+            if (propose) {
+                stateid = proposals.sample(i, current, next, stateid, mtfRand,
+                      annealer);
+            } else {
+                stateByWord.getRow(wordid, wordStateCounts);
+                for (int j = 0; j < stateS; j++) {
+                    stateProbs[j] =
+                          (wordStateCounts[j] + delta) * kernel.emissionNorm(j)
+                          * (firstOrderTransitions.get(current, j) + gamma) * kernel.transitionNorm(j)
+                          * (firstOrderTransitions.get(j, next) + gamma);
                 }
-                stateVector[i] = stateid;
+                stateid = SamplingKernel.sample(stateProbs, annealer, mtfRand);
+            }
+            stateVector.set(i, stateid);
 
-                stateByWord[wordstateoff + stateid]++;
-                stateCounts[stateid]++;
-                firstOrderTransitions[stateoff + stateid]++;
-                first[i] = current;
-                current = stateid;
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.inc(current, stateid);
+            current = stateid;
 //                }
-            }
         }
     }
 
+    @Override
+    protected boolean supportsChromaticSweep() {
+        return true;
+    }
+
+    /**
+     * Draw a new state for a token given the states of its neighbors
+     * without modifying the counts.
+     */
+    @Override
+    protected int sampleTokenGivenNeighbors(int i, int prev, int next,
+          double[] probs, MersenneTwisterFast rand, Annealer annealer) {
+        int stateid = stateVector.get(i);
+        int wordid = wordVector.get(i);
+        for (int j = 0; j < stateS; j++) {
+            int own = j == stateid ? 1 : 0;
+            int ownnext = j == prev && next == stateid ? 1 : 0;
+            probs[j] =
+                  ((stateByWord.get(wordid, j) - own + delta) / (stateCounts.get(j) - own + wdelta))
+                  * (firstOrderTransitions.get(prev, j) - own + gamma) / (stateCounts.get(j) - own + sgamma)
+                  * (firstOrderTransitions.get(j, next) - ownnext + gamma);
+        }
+        return SamplingKernel.sample(probs, annealer, rand);
+    }
+
+    @Override
+    protected boolean supportsProposalSampling() {
+        return true;
+    }
+
+    @Override
+    protected double stateWeight(int i, int prev, int j, int next) {
+        return (stateByWord.get(wordVector.get(i), j) + delta) * kernel.emissionNorm(j)
+              * (firstOrderTransitions.get(prev, j) + gamma) * kernel.transitionNorm(j)
+              * (firstOrderTransitions.get(j, next) + gamma);
+    }
+
+    @Override
+    protected double emissionWeight(int j, int count) {
+        return (count + delta) * kernel.emissionNorm(j);
+    }
+
     /**
      * Normalize the sample counts for words given state.
      */
@@ -161,7 +188,7 @@ public class HMM extends HMMBase {
 
         double sum = 0.;
         for (int i = 0; i < stateS; ++i) {
-            sum += stateProbs[i] = stateCounts[i] + wdelta;
+            sum += stateProbs[i] = stateCounts.get(i) + wdelta;
             ArrayList<DoubleStringPair> topWords =
                   new ArrayList<DoubleStringPair>();
             /**
@@ -170,7 +197,7 @@ public class HMM extends HMMBase {
 //            for (int j = EOSi + 1; j < wordW; ++j) {
             for (int j = 0; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      stateByWord[j * stateS + i] + delta, trainIdxToWord.get(
+                      stateByWord.get(j, i) + delta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -230,22 +257,21 @@ public class HMM extends HMMBase {
     public void initializeFromLoadedModel(CommandLineOptions options) throws
           IOException {
         super.initializeFromLoadedModel(options);
+        if (countsLoaded) {
+            return;
+        }
 
         int current = 0;
         int wordid = 0, stateid = 0;
-        int stateoff, wordstateoff;
 
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
-            stateid = stateVector[i];
+            wordid = wordVector.get(i);
+            stateid = stateVector.get(i);
 
-            stateoff = stateS * current;
-            wordstateoff = stateS * wordid;
 
-            stateByWord[wordstateoff + stateid]++;
-            stateCounts[stateid]++;
-            firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            firstOrderTransitions.inc(current, stateid);
             current = stateid;
         }
     }
@@ -19,7 +19,12 @@ package tikka.bhmm.models;
 
 import tikka.bhmm.apps.CommandLineOptions;
 import tikka.utils.annealer.Annealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
 import tikka.bhmm.model.base.HMMBase;
+import tikka.bhmm.model.base.SamplingKernel;
+import tikka.structures.ModelFile;
+
+import java.io.IOException;
 
 /**
  * The HMM+ model in the papers
@@ -52,72 +57,111 @@ public class HMMP extends HMM {
     }
 
     /**
-     * Training routine for the inner iterations
+     * Sample states for the tokens in a contiguous range of the corpus.
+     * The range is expected to start at a document boundary.
+     *
+     * @param start    Index of first token to sample
+     * @param end      Index one past the last token to sample
+     * @param previous State preceding the first token
+     * @param annealer Callback to annealing process
      */
     @Override
-    protected void trainInnerIter(int itermax, Annealer annealer) {
+    protected void sampleTokens(int start, int end, int previous,
+          Annealer annealer) {
         int wordid, stateid;
-        int current = 0, next;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordstateoff, stateoff;
-
-        for (int iter = 0; iter < itermax; ++iter) {
-            System.err.println("iteration " + iter);
-            current = 0;
-            for (int i = 0; i < wordN; ++i) {
-                if (i % 100000 == 0) {
-                    System.err.println("\tProcessing word " + i);
-                }
-                wordid = wordVector[i];
-                stateid = stateVector[i];
-                stateoff = current * stateS;
-                wordstateoff = stateS * wordid;
-
-                stateByWord[wordstateoff + stateid]--;
-                stateCounts[stateid]--;
-                firstOrderTransitions[first[i] * stateS + stateid]--;
-
-                try {
-                    next = stateVector[i + 1];
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    next = 0;
-                }
+        int current = previous, next;
 
-                int j = 0;
-                for (; j < stateC; j++) {
-                    stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + beta)
-                          / (stateCounts[j] + statenorm))
-                          * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
-                          * (firstOrderTransitions[j * stateS + next] + gamma);
-                }
-                for (; j < stateS; j++) {
-                    stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + delta)
-                          / (stateCounts[j] + statenorm))
-                          * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
-                          * (firstOrderTransitions[j * stateS + next] + gamma);
-                }
-                totalprob = annealer.annealProbs(stateProbs);
-                r = mtfRand.nextDouble() * totalprob;
-                stateid = 0;
-                max = stateProbs[stateid];
-                while (r > max) {
-                    stateid++;
-                    max += stateProbs[stateid];
-                }
-                stateVector[i] = stateid;
+        SamplingKernel kernel = sweepKernel();
 
-                stateByWord[wordstateoff + stateid]++;
-                stateCounts[stateid]++;
-                firstOrderTransitions[stateoff + stateid]++;
-                first[i] = current;
-                current = stateid;
+        for (int i = start; i < end; ++i) {
+            if (i % 100000 == 0) {
+                System.err.println("\tProcessing word " + i);
+            }
+            wordid = wordVector.get(i);
+            stateid = stateVector.get(i);
+
+            stateByWord.dec(wordid, stateid);
+            stateCounts.dec(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.dec(previous, stateid);
+            previous = stateid;
+
+            next = nextState(i, end);
+            stateByWord.getRow(wordid, wordStateCounts);
+
+            int j = 0;
+            for (; j < stateC; j++) {
+                stateProbs[j] =
+                      (wordStateCounts[j] + beta) * kernel.emissionNorm(j)
+                      * (firstOrderTransitions.get(current, j) + gamma) * kernel.transitionNorm(j)
+                      * (firstOrderTransitions.get(j, next) + gamma);
+            }
+            for (; j < stateS; j++) {
+                stateProbs[j] =
+                      (wordStateCounts[j] + delta) * kernel.emissionNorm(j)
+                      * (firstOrderTransitions.get(current, j) + gamma) * kernel.transitionNorm(j)
+                      * (firstOrderTransitions.get(j, next) + gamma);
             }
+            stateid = SamplingKernel.sample(stateProbs, annealer, mtfRand);
+            stateVector.set(i, stateid);
+
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.inc(current, stateid);
+            current = stateid;
         }
     }
 
+    /**
+     * Content and function states share the normalization term
+     * {@link #statenorm}.
+     */
+    @Override
+    public double logLikelihood() {
+        return emissionLogLikelihood(stateByWord, stateCounts, 0, stateC,
+              beta, statenorm)
+              + emissionLogLikelihood(stateByWord, stateCounts, stateC, stateS,
+              delta, statenorm)
+              + tableLogLikelihood(firstOrderTransitions, gamma);
+    }
+
+    @Override
+    protected boolean supportsChromaticSweep() {
+        return true;
+    }
+
+    /**
+     * Draw a new state for a token given the states of its neighbors
+     * without modifying the counts.
+     */
+    @Override
+    protected int sampleTokenGivenNeighbors(int i, int prev, int next,
+          double[] probs, MersenneTwisterFast rand, Annealer annealer) {
+        int stateid = stateVector.get(i);
+        int wordid = wordVector.get(i);
+        int j = 0;
+        for (; j < stateC; j++) {
+            int own = j == stateid ? 1 : 0;
+            int ownnext = j == prev && next == stateid ? 1 : 0;
+            probs[j] =
+                  ((stateByWord.get(wordid, j) - own + beta)
+                  / (stateCounts.get(j) - own + statenorm))
+                  * (firstOrderTransitions.get(prev, j) - own + gamma) / (stateCounts.get(j) - own + sgamma)
+                  * (firstOrderTransitions.get(j, next) - ownnext + gamma);
+        }
+        for (; j < stateS; j++) {
+            int own = j == stateid ? 1 : 0;
+            int ownnext = j == prev && next == stateid ? 1 : 0;
+            probs[j] =
+                  ((stateByWord.get(wordid, j) - own + delta)
+                  / (stateCounts.get(j) - own + statenorm))
+                  * (firstOrderTransitions.get(prev, j) - own + gamma) / (stateCounts.get(j) - own + sgamma)
+                  * (firstOrderTransitions.get(j, next) - ownnext + gamma);
+        }
+        return SamplingKernel.sample(probs, annealer, rand);
+    }
+
     /**
      * Randomly initialize learning parameters
      */
@@ -129,31 +173,28 @@ public class HMMP extends HMM {
         int current = 0;
         double max = 0, totalprob = 0;
         double r = 0;
-        int wordstateoff, stateoff;
 
         /**
          * Initialize by assigning random topic indices to words
          */
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
-            stateoff = current * stateS;
-            wordstateoff = stateS * wordid;
+            wordid = wordVector.get(i);
 
             totalprob = 0;
             if (mtfRand.nextDouble() > 0.5) {
                 for (int j = 0; j < stateC; j++) {
                     totalprob += stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + beta)
-                          / (stateCounts[j] + statenorm))
-                          * (firstOrderTransitions[stateoff + j] + gamma);
+                          ((stateByWord.get(wordid, j) + beta)
+                          / (stateCounts.get(j) + statenorm))
+                          * (firstOrderTransitions.get(current, j) + gamma);
                 }
                 stateid = 0;
             } else {
                 for (int j = stateC; j < stateS; j++) {
                     totalprob += stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + delta)
-                          / (stateCounts[j] + statenorm))
-                          * (firstOrderTransitions[stateoff + j] + gamma);
+                          ((stateByWord.get(wordid, j) + delta)
+                          / (stateCounts.get(j) + statenorm))
+                          * (firstOrderTransitions.get(current, j) + gamma);
                 }
                 r = mtfRand.nextDouble() * totalprob;
                 stateid = stateC;
@@ -164,13 +205,22 @@ public class HMMP extends HMM {
                 stateid++;
                 max += stateProbs[stateid];
             }
-            stateVector[i] = stateid;
+            stateVector.set(i, stateid);
 
-            stateByWord[wordstateoff + stateid]++;
-            stateCounts[stateid]++;
-            firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            stateByWord.inc(wordid, stateid);
+            stateCounts.inc(stateid);
+            firstOrderTransitions.inc(current, stateid);
             current = stateid;
         }
     }
+
+    /**
+     * The normalization terms are set with the random initialization, which
+     * is skipped when training resumes from a checkpoint
+     */
+    @Override
+    protected void restoreState(ModelFile in) throws IOException {
+        super.restoreState(in);
+        setHyper();
+    }
 }
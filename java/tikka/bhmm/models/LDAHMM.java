@@ -24,8 +24,13 @@ import java.util.ArrayList;
 import java.util.Collections;
 
 import tikka.bhmm.apps.CommandLineOptions;
+import tikka.bhmm.model.base.Checkpoint;
+import tikka.bhmm.model.base.CountTable;
+import tikka.bhmm.model.base.HMMBase;
+import tikka.bhmm.model.base.SamplingKernel;
 import tikka.structures.*;
 import tikka.utils.annealer.Annealer;
+import tikka.utils.math.LogGamma;
 
 /**
  * This is the lda-hmm implementation
@@ -41,7 +46,7 @@ public class LDAHMM extends HMM {
     /**
      * Array of counts by topic
      */
-    protected int[] topicCounts;
+    protected CountTable topicCounts;
     /**
      * Array of probabilities by topic
      */
@@ -49,19 +54,23 @@ public class LDAHMM extends HMM {
     /**
      * Counts of topics by document
      */
-    protected int[] DocumentByTopic;
+    protected CountTable DocumentByTopic;
     /**
      * Array of counts for words given topics.
      * This has no effect on the model. It is merely here as a bookkeeping
      * device to check how the segmentation model is doing compared to
      * normalization as if the words had been dumped into their topics.
      */
-    protected int[] TopicByWord;
+    protected CountTable TopicByWord;
     /**
      * Table of top {@link #outputPerClass} words per topic. Used in
      * normalization and printing.
      */
     protected StringDoublePair[][] TopWordsPerTopic;
+    /**
+     * Cached denominators of the topic counts. Created on the first sweep.
+     */
+    protected SamplingKernel topicKernel;
 
     public LDAHMM(CommandLineOptions options) {
         super(options);
@@ -71,42 +80,133 @@ public class LDAHMM extends HMM {
     /**
      * Initializes arrays for counting occurrences. These need to be initialized
      * regardless of whether the model being trained from raw data or whether
-     * it is loaded from a saved model.
+     * it is loaded from a saved model. The topic of each token of a saved
+     * model is kept.
+     *
+     * @throws IOException
      */
     @Override
-    protected void initializeCountArrays() {
+    protected void initializeCountArrays() throws IOException {
         super.initializeCountArrays();
 
-        topicCounts = new int[topicK];
+        topicCounts = newCountTable(1, topicK);
         topicProbs = new double[topicK];
         for (int i = 0; i < topicK; ++i) {
-            topicCounts[i] = 0;
             topicProbs[i] = 0.;
         }
 
-        topicVector = new int[wordN];
-        try {
-            for (int i = 0;; ++i) {
-                topicVector[i] = 0;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
+        if (topicVector == null) {
+            topicVector = newIntArray(wordN, topicK - 1);
         }
 
-        TopicByWord = new int[topicK * wordW];
-        try {
-            for (int i = 0;; ++i) {
-                TopicByWord[i] = 0;
+        TopicByWord = newEmissionTable(wordW, topicK);
+
+        DocumentByTopic = newLargeTable(documentD, topicK);
+    }
+
+    @Override
+    protected void snapshotState(Checkpoint checkpoint) {
+        super.snapshotState(checkpoint);
+        checkpoint.putArray("topicVector", topicVector, topicK - 1);
+        checkpoint.putCounts("topicCounts", topicCounts);
+        checkpoint.putCounts("DocumentByTopic", DocumentByTopic);
+        checkpoint.putCounts("TopicByWord", TopicByWord);
+    }
+
+    @Override
+    protected void restoreState(ModelFile in) throws IOException {
+        super.restoreState(in);
+        Checkpoint.restoreArray(in, "topicVector", topicVector);
+        Checkpoint.restoreCounts(in, "topicCounts", topicCounts);
+        Checkpoint.restoreCounts(in, "DocumentByTopic", DocumentByTopic);
+        Checkpoint.restoreCounts(in, "TopicByWord", TopicByWord);
+    }
+
+    @Override
+    public long projectedHeapBytes() {
+        long emission = emissionTableBytes(wordW, topicK);
+        long topics = emission + countTableBytes(1, topicK);
+        long documents = countTableBytes(documentD, topicK);
+        return super.projectedHeapBytes() + topics * (1 + replicaCopies())
+              - mappedEmissionBytes(emission)
+              + intArrayHeapBytes(wordN, topicK - 1)
+              + documents - mappedBytes(documents);
+    }
+
+    /**
+     * The topic state emits from the topics, so states may not be sampled
+     * from their neighbors alone.
+     */
+    @Override
+    protected boolean supportsChromaticSweep() {
+        return false;
+    }
+
+    /**
+     * Tokens in the topic state are emitted from their topics, and the
+     * topics of those tokens are drawn from their documents.
+     */
+    @Override
+    public double logLikelihood() {
+        double ll = emissionLogLikelihood(stateByWord, stateCounts, 1, stateS,
+              delta, wdelta)
+              + emissionLogLikelihood(TopicByWord, topicCounts, 0, topicK,
+              beta, wbeta)
+              + tableLogLikelihood(firstOrderTransitions, gamma);
+        double talpha = alpha * topicK;
+        for (int d = 0; d < documentD; ++d) {
+            int doctotal = 0;
+            for (int j = 0; j < topicK; ++j) {
+                int count = DocumentByTopic.get(d, j);
+                if (count > 0) {
+                    ll += LogGamma.logRising(alpha, count);
+                    doctotal += count;
+                }
             }
-        } catch (ArrayIndexOutOfBoundsException e) {
+            ll -= LogGamma.logRising(talpha, doctotal);
         }
+        return ll;
+    }
 
-        DocumentByTopic = new int[documentD * topicK];
-        try {
-            for (int i = 0;; ++i) {
-                DocumentByTopic[i] = 0;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
+    /**
+     * Create a copy of this model for a sampler thread. Topic counts by word
+     * are shared across documents and are copied as well.
+     *
+     * @param seed  Seed for the random number generator of the copy
+     * @return  Copy of the model that may be sampled on its own thread
+     */
+    @Override
+    protected HMMBase replicate(int seed) {
+        LDAHMM replica = (LDAHMM) super.replicate(seed);
+        replica.topicProbs = new double[topicK];
+        replica.topicKernel = null;
+        if (!sharesCounts()) {
+            replica.topicCounts = topicCounts.copy();
+            replica.TopicByWord = TopicByWord.copy();
         }
+        return replica;
+    }
+
+    @Override
+    protected void synchronizeReplica(HMMBase replica) {
+        super.synchronizeReplica(replica);
+        LDAHMM ldahmm = (LDAHMM) replica;
+        ldahmm.topicCounts.copyFrom(topicCounts);
+        ldahmm.TopicByWord.copyFrom(TopicByWord);
+    }
+
+    @Override
+    protected void mergeReplicas(HMMBase[] replicas) {
+        super.mergeReplicas(replicas);
+        CountTable[] locals = new CountTable[replicas.length];
+        for (int r = 0; r < replicas.length; ++r) {
+            locals[r] = ((LDAHMM) replicas[r]).topicCounts;
+        }
+        topicCounts.merge(locals);
+        for (int r = 0; r < replicas.length; ++r) {
+            locals[r] = ((LDAHMM) replicas[r]).TopicByWord;
+        }
+        TopicByWord.merge(locals);
     }
 
     /**
@@ -129,7 +229,7 @@ public class LDAHMM extends HMM {
 
         double sum = 0.;
         for (int i = 0; i < topicK; ++i) {
-            sum += topicProbs[i] = topicCounts[i] + wbeta;
+            sum += topicProbs[i] = topicCounts.get(i) + wbeta;
             ArrayList<DoubleStringPair> topWords =
                   new ArrayList<DoubleStringPair>();
             /**
@@ -137,7 +237,7 @@ public class LDAHMM extends HMM {
              */
             for (int j = 0; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      TopicByWord[j * topicK + i] + beta, trainIdxToWord.get(
+                      TopicByWord.get(j, i) + beta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -167,29 +267,25 @@ public class LDAHMM extends HMM {
 
         double sum = 0.;
         double[] marginalwordprobs = new double[wordN];
-        try {
-            for (int i = 0;; ++i) {
-                marginalwordprobs[i] = 0;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
+        for (int i = 0; i < wordN; ++i) {
+            marginalwordprobs[i] = 0;
         }
 
         for (int j = 0; j < wordW; ++j) {
-            int wordoff = j * topicK;
             for (int i = 0; i < topicK; ++i) {
                 marginalwordprobs[j] += topicProbs[i]
-                      * (TopicByWord[wordoff + i] + beta)
-                      / (topicCounts[i] + wbeta);
+                      * (TopicByWord.get(j, i) + beta)
+                      / (topicCounts.get(i) + wbeta);
             }
         }
 
         {
-            sum += stateProbs[0] = stateCounts[0] + wdelta;
+            sum += stateProbs[0] = stateCounts.get(0) + wdelta;
             ArrayList<DoubleStringPair> topWords =
                   new ArrayList<DoubleStringPair>();
             for (int j = 0; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      marginalwordprobs[j], trainIdxToWord.get(
+                      marginalwordprobs[j], trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -202,7 +298,7 @@ public class LDAHMM extends HMM {
         }
 
         for (int i = 0; i < stateS; ++i) {
-            sum += stateProbs[i] = stateCounts[i] + wdelta;
+            sum += stateProbs[i] = stateCounts.get(i) + wdelta;
             ArrayList<DoubleStringPair> topWords =
                   new ArrayList<DoubleStringPair>();
             /**
@@ -210,7 +306,7 @@ public class LDAHMM extends HMM {
              */
             for (int j = 0; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      stateByWord[j * stateS + i] + delta, trainIdxToWord.get(
+                      stateByWord.get(j, i) + delta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -282,192 +378,160 @@ public class LDAHMM extends HMM {
 
     @Override
     public void initializeParametersRandom() {
-        int wordid, docid, topicid, stateid;
+        int wordid, topicid, stateid;
+        int docid = 0;
         int current = 0, prev = 0, preprev = 0, next = 0, nnext = 0, nnnext = 0;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordtopicoff, wordstateoff, docoff, thirdstateoff, secondstateoff;
+        double totalprob = 0;
 
         /**
          * Initialize by assigning random topic indices to words
          */
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
+            wordid = wordVector.get(i);
 
-            docid = documentVector[i];
-            wordtopicoff = topicK * wordid;
-            wordstateoff = stateS * wordid;
-            docoff = topicK * docid;
+            docid = advance(documentStarts, i, docid);
 
             if (mtfRand.nextDouble() > 0.5) {
-                stateVector[i] = 1;
+                stateVector.set(i, 1);
             } else {
-                stateVector[i] = 0;
+                stateVector.set(i, 0);
             }
 
             totalprob = 0;
-            try {
-                for (int j = 0;; ++j) {
-                    topicProbs[j] = DocumentByTopic[docoff + j] + alpha;
-                    if (stateVector[i] == 1) {
-                        topicProbs[j] *= (TopicByWord[wordtopicoff + j] + beta)
-                              / (topicCounts[j] + wbeta);
-                    }
-                    totalprob += topicProbs[j];
+            for (int j = 0; j < topicK; ++j) {
+                topicProbs[j] = DocumentByTopic.get(docid, j) + alpha;
+                if (stateVector.get(i) == 1) {
+                    topicProbs[j] *= (TopicByWord.get(wordid, j) + beta)
+                          / (topicCounts.get(j) + wbeta);
                 }
-            } catch (java.lang.ArrayIndexOutOfBoundsException e) {
+                totalprob += topicProbs[j];
             }
 
-            max = topicProbs[0];
-            topicid = 0;
-            r = mtfRand.nextDouble() * totalprob;
-            while (r > max) {
-                topicid++;
-                max += topicProbs[topicid];
-            }
-            topicVector[i] = topicid;
-            max = 0;
+            topicid = SamplingKernel.sampleIndex(topicProbs, totalprob, mtfRand);
+            topicVector.set(i, topicid);
 
             totalprob = 0;
-            if (stateVector[i] == 0) {
+            if (stateVector.get(i) == 0) {
                 totalprob = stateProbs[0] =
-                      (TopicByWord[wordtopicoff + topicid] + delta)
-                      / (topicCounts[topicid] + wdelta)
-                      * (firstOrderTransitions[current * S1 + 0] + gamma);
-                try {
-                    for (int j = 1;; j++) {
-                        totalprob += stateProbs[j] =
-                              (stateByWord[wordstateoff + j] + beta)
-                              / (stateCounts[j] + wbeta)
-                              * (firstOrderTransitions[current * S1 + j]
-                              + gamma);
-                    }
-                } catch (java.lang.ArrayIndexOutOfBoundsException e) {
+                      (TopicByWord.get(wordid, topicid) + delta)
+                      / (topicCounts.get(topicid) + wdelta)
+                      * (firstOrderTransitions.get(current, 0) + gamma);
+                for (int j = 1; j < stateS; j++) {
+                    totalprob += stateProbs[j] =
+                          (stateByWord.get(wordid, j) + beta)
+                          / (stateCounts.get(j) + wbeta)
+                          * (firstOrderTransitions.get(current, j)
+                          + gamma);
                 }
             }
 
-            r = mtfRand.nextDouble() * totalprob;
-            stateid = 0;
-            max = stateProbs[stateid];
-            while (r > max) {
-                stateid++;
-                max += stateProbs[stateid];
-            }
-            stateVector[i] = stateid;
+            stateid = SamplingKernel.sampleIndex(stateProbs, totalprob, mtfRand);
+            stateVector.set(i, stateid);
 
             if (stateid == 0) {
-                TopicByWord[wordtopicoff + topicid]++;
-                DocumentByTopic[docoff + topicid]++;
-                topicCounts[topicid]++;
+                TopicByWord.inc(wordid, topicid);
+                DocumentByTopic.inc(docid, topicid);
+                topicCounts.inc(topicid);
             } else {
-                stateByWord[wordstateoff + stateid]++;
+                stateByWord.inc(wordid, stateid);
             }
 
-            stateCounts[stateid]++;
-            firstOrderTransitions[current * S1 + stateid]++;
-            first[i] = current;
+            stateCounts.inc(stateid);
+            firstOrderTransitions.inc(current, stateid);
             current = stateid;
         }
     }
 
+    /**
+     * Sample topics and states for the tokens in a contiguous range of the
+     * corpus. The range is expected to start at a document boundary.
+     *
+     * @param start    Index of first token to sample
+     * @param end      Index one past the last token to sample
+     * @param previous State preceding the first token
+     * @param annealer Callback to annealing process
+     */
     @Override
-    protected void trainInnerIter(int itermax, Annealer annealer) {
-        int wordid, docid, topicid, stateid;
-        int current = 0, next;
-        double max = 0, totalprob = 0;
-        double r = 0;
-        int wordtopicoff, wordstateoff, docoff, stateoff;
-
-        for (int iter = 0; iter < itermax; ++iter) {
-            System.err.println("iteration " + iter);
-            current = 0;
-            for (int i = 0; i < wordN; i++) {
-                if (i % 100000 == 0) {
-                    System.err.println("\tProcessing word " + i);
-                }
-                wordid = wordVector[i];
-
-                docid = documentVector[i];
-                stateid = stateVector[i];
-                topicid = topicVector[i];
-                wordstateoff = wordid * stateS;
-                wordtopicoff = wordid * topicK;
-                docoff = docid * topicK;
-
-                if (stateid == 0) {
-                    TopicByWord[wordtopicoff + topicid]--;
-                    DocumentByTopic[docoff + topicid]--;
-                    topicCounts[topicid]--;
-                } else {
-                    stateByWord[wordstateoff + stateid]--;
+    protected void sampleTokens(int start, int end, int previous,
+          Annealer annealer) {
+        int wordid, topicid, stateid;
+        int docid = documentOf(start);
+        int current = previous, next;
+
+        SamplingKernel kernel = sweepKernel();
+        if (topicKernel == null) {
+            double[] totals = new double[topicK];
+            for (int j = 0; j < topicK; ++j) {
+                totals[j] = wbeta;
+            }
+            topicKernel = new SamplingKernel(topicCounts, totals, sgamma);
+        } else {
+            topicKernel.refresh();
+        }
 
-                }
-                stateCounts[stateid]--;
-                firstOrderTransitions[first[i] * S1 + stateid]--;
-
-                try {
-                    for (int j = 0;; j++) {
-                        topicProbs[j] = DocumentByTopic[docoff + j] + alpha;
-                        if (stateid == 1) {
-                            topicProbs[j] *= (TopicByWord[wordtopicoff + j] + beta)
-                                  / (topicCounts[j] + wbeta);
-                        }
-                    }
-                } catch (java.lang.ArrayIndexOutOfBoundsException e) {
-                }
-                totalprob = annealer.annealProbs(topicProbs);
-                r = mtfRand.nextDouble() * totalprob;
-                max = topicProbs[0];
-
-                topicid = 0;
-                while (r > max) {
-                    topicid++;
-                    max += topicProbs[topicid];
-                }
-                topicVector[i] = topicid;
+        for (int i = start; i < end; i++) {
+            if (i % 100000 == 0) {
+                System.err.println("\tProcessing word " + i);
+            }
+            wordid = wordVector.get(i);
 
-                stateoff = current * stateS;
-                try {
-                    next = stateVector[i + 1];
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    next = 0;
-                }
+            docid = advance(documentStarts, i, docid);
+            stateid = stateVector.get(i);
+            topicid = topicVector.get(i);
 
-                stateProbs[0] =
-                      ((TopicByWord[wordtopicoff + topicid] + beta) / (topicCounts[topicid] + wbeta))
-                      * (firstOrderTransitions[stateoff + 0] + gamma)
-                      * ((firstOrderTransitions[S1 + next] + gamma)
-                      / (stateCounts[0] + sgamma));
-                for (int j = 1; j < stateS; j++) {
-                    stateProbs[j] =
-                          ((stateByWord[wordstateoff + j] + delta) / (stateCounts[j] + wdelta))
-                          * (firstOrderTransitions[stateoff + j] + gamma)
-                          * ((firstOrderTransitions[j * stateS + next] + gamma)
-                          / (stateCounts[j] + sgamma));
-                }
-                totalprob = annealer.annealProbs(stateProbs);
-                r = mtfRand.nextDouble() * totalprob;
-                stateid = 0;
-                max = stateProbs[stateid];
-                while (r > max) {
-                    stateid++;
-                    max += stateProbs[stateid];
-                }
-                stateVector[i] = stateid;
-
-                if (stateid == 0) {
-                    TopicByWord[wordtopicoff + topicid]++;
-                    DocumentByTopic[docoff + topicid]++;
-                    topicCounts[topicid]++;
-                } else {
-                    stateByWord[wordstateoff + stateid]++;
+            if (stateid == 0) {
+                TopicByWord.dec(wordid, topicid);
+                DocumentByTopic.dec(docid, topicid);
+                topicCounts.dec(topicid);
+                topicKernel.update(topicid);
+            } else {
+                stateByWord.dec(wordid, stateid);
+
+            }
+            stateCounts.dec(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.dec(previous, stateid);
+            previous = stateid;
+
+            for (int j = 0; j < topicK; j++) {
+                topicProbs[j] = DocumentByTopic.get(docid, j) + alpha;
+                if (stateid == 1) {
+                    topicProbs[j] *= (TopicByWord.get(wordid, j) + beta)
+                          * topicKernel.emissionNorm(j);
                 }
+            }
+            topicid = SamplingKernel.sample(topicProbs, annealer, mtfRand);
+            topicVector.set(i, topicid);
+
+            next = nextState(i, end);
+            stateByWord.getRow(wordid, wordStateCounts);
+
+            stateProbs[0] =
+                  (TopicByWord.get(wordid, topicid) + beta) * topicKernel.emissionNorm(topicid)
+                  * (firstOrderTransitions.get(current, 0) + gamma)
+                  * (firstOrderTransitions.get(1, next) + gamma) * kernel.transitionNorm(0);
+            for (int j = 1; j < stateS; j++) {
+                stateProbs[j] =
+                      (wordStateCounts[j] + delta) * kernel.emissionNorm(j)
+                      * (firstOrderTransitions.get(current, j) + gamma)
+                      * (firstOrderTransitions.get(j, next) + gamma) * kernel.transitionNorm(j);
+            }
+            stateid = SamplingKernel.sample(stateProbs, annealer, mtfRand);
+            stateVector.set(i, stateid);
 
-                stateCounts[stateid]++;
-                firstOrderTransitions[current * S1 + stateid]++;
-                first[i] = current;
-                current = stateid;
+            if (stateid == 0) {
+                TopicByWord.inc(wordid, topicid);
+                DocumentByTopic.inc(docid, topicid);
+                topicCounts.inc(topicid);
+                topicKernel.update(topicid);
+            } else {
+                stateByWord.inc(wordid, stateid);
             }
+
+            stateCounts.inc(stateid);
+            kernel.update(stateid);
+            firstOrderTransitions.inc(current, stateid);
+            current = stateid;
         }
     }
 
@@ -498,32 +562,28 @@ public class LDAHMM extends HMM {
         super.initializeFromLoadedModel(options);
 
         int current = 0;
-        int wordid = 0, stateid = 0, docid, topicid;
-        int stateoff, wordstateoff, wordtopicoff, docoff;
+        int wordid = 0, stateid = 0, docid = 0, topicid;
 
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
-            docid = documentVector[i];
-            stateid = stateVector[i];
-            topicid = topicVector[i];
+            wordid = wordVector.get(i);
+            docid = advance(documentStarts, i, docid);
+            stateid = stateVector.get(i);
+            topicid = topicVector.get(i);
 
-            stateoff = current * stateS;
-            wordstateoff = wordid * stateS;
-            wordtopicoff = wordid * topicK;
-            docoff = docid * topicK;
 
             if (stateid == 0) {
-                TopicByWord[wordtopicoff + topicid]++;
-                DocumentByTopic[docoff + topicid]++;
-                topicCounts[topicid]++;
-            } else {
-                stateByWord[wordstateoff + stateid]++;
+                TopicByWord.inc(wordid, topicid);
+                DocumentByTopic.inc(docid, topicid);
+                topicCounts.inc(topicid);
+            } else if (!countsLoaded) {
+                stateByWord.inc(wordid, stateid);
             }
 
-            stateByWord[wordstateoff + stateid]++;
-            stateCounts[stateid]++;
-            firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            if (!countsLoaded) {
+                stateByWord.inc(wordid, stateid);
+                stateCounts.inc(stateid);
+                firstOrderTransitions.inc(current, stateid);
+            }
             current = stateid;
         }
     }
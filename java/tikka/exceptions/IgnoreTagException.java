@@ -18,6 +18,9 @@
 package tikka.exceptions;
 
 /**
+ * Thrown for every token whose tag is to be ignored, which can be a sizable
+ * share of a corpus. The message is only formatted when it is asked for and
+ * no stack trace is recorded.
  *
  * @author tsmoon
  */
@@ -25,15 +28,23 @@ public class IgnoreTagException extends Exception {
 
     protected String token;
     protected String tag;
-    protected String message;
 
     public IgnoreTagException(String _token, String _tag) {
         token = _token;
         tag = _tag;
-        message = String.format("The token \"%s\" will be ignored due to its tag \"%s\".", token, tag);
+    }
+
+    @Override
+    public String getMessage() {
+        return String.format("The token \"%s\" will be ignored due to its tag \"%s\".", token, tag);
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+        return this;
     }
 
     public void printMessage() {
-        System.err.println(message);
+        System.err.println(getMessage());
     }
 }
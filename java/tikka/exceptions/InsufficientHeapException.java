@@ -0,0 +1,54 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.exceptions;
+
+/**
+ * Thrown before allocating the tables of a model that would not fit in
+ * the maximum heap of the JVM
+ *
+ * @author tsmoon
+ */
+public class InsufficientHeapException extends Exception {
+
+    /**
+     * Bytes the model is projected to need
+     */
+    protected long projected;
+    /**
+     * Maximum heap of the JVM in bytes
+     */
+    protected long available;
+
+    public InsufficientHeapException(long projected, long available) {
+        super(String.format("The count and token arrays need %d MB but the "
+              + "maximum heap is %d MB. Increase -Xmx (JAVA_MEM_FLAG in "
+              + "bin/tikka-env), or reduce the number of states, threads "
+              + "or the size of the corpus.",
+              projected >> 20, available >> 20));
+        this.projected = projected;
+        this.available = available;
+    }
+
+    public long getProjected() {
+        return projected;
+    }
+
+    public long getAvailable() {
+        return available;
+    }
+}
@@ -17,6 +17,7 @@
 ///////////////////////////////////////////////////////////////////////////////
 package tikka.hhl.apps;
 
+import tikka.opennlp.io.BlockGzipOutputStream;
 import tikka.opennlp.io.DataFormatEnum;
 
 import java.io.BufferedWriter;
@@ -67,6 +68,15 @@ public class CommandLineOptions {
      * full path to save model to
      */
     protected String modelOutputPath = null;
+    /**
+     * Compression level of saved models from 1 to 9, or 0 to save them
+     * uncompressed so that they are mapped when loaded
+     */
+    protected int modelCompression = 0;
+    /**
+     * Number of bytes of the model in each compressed block
+     */
+    protected int modelBlockSize = BlockGzipOutputStream.MAX_BLOCK_SIZE;
     /**
      * Root of path to output annotated texts to
      */
@@ -180,6 +190,23 @@ public class CommandLineOptions {
      * Number of iterations between samples
      */
     protected int lag = 10;
+    /**
+     * File of the checkpoints saved during training. No checkpoints if null.
+     */
+    protected String checkpointPath = null;
+    /**
+     * Number of iterations between checkpoints. Zero to not count
+     * iterations.
+     */
+    protected int checkpointIterations = 0;
+    /**
+     * Minutes between checkpoints. Zero to not time checkpoints.
+     */
+    protected double checkpointMinutes = 30;
+    /**
+     * Whether training continues from the checkpoint
+     */
+    protected boolean resume = false;
 
     /**
      * 
@@ -261,7 +288,14 @@ public class CommandLineOptions {
                     modelInputPath = value;
                     break;
                 case 'm':
-                    modelOutputPath = value;
+                    opt = option.getOpt();
+                    if (opt.equals("m")) {
+                        modelOutputPath = value;
+                    } else if (opt.equals("mz")) {
+                        modelCompression = Integer.parseInt(value);
+                    } else if (opt.equals("mb")) {
+                        modelBlockSize = Integer.parseInt(value);
+                    }
                     break;
                 case 'n':
                     if (value.endsWith("" + File.separator)) {
@@ -334,6 +368,14 @@ public class CommandLineOptions {
                         stemBoundaryProb = Double.parseDouble(value);
                     } else if (opt.equals("xaffixboundaryprob")) {
                         affixBoundaryProb = Double.parseDouble(value);
+                    } else if (opt.equals("xcheckpoint")) {
+                        checkpointPath = value;
+                    } else if (opt.equals("xcheckpointiterations")) {
+                        checkpointIterations = Integer.parseInt(value);
+                    } else if (opt.equals("xcheckpointminutes")) {
+                        checkpointMinutes = Double.parseDouble(value);
+                    } else if (opt.equals("xresume")) {
+                        resume = true;
                     }
                     break;
             }
@@ -460,6 +502,21 @@ public class CommandLineOptions {
         return modelOutputPath;
     }
 
+    /**
+     * @return compression level of saved models, 0 if they are not
+     * compressed
+     */
+    public int getModelCompression() {
+        return modelCompression;
+    }
+
+    /**
+     * @return number of bytes of the model in each compressed block
+     */
+    public int getModelBlockSize() {
+        return modelBlockSize;
+    }
+
     public String getAnnotatedTrainTextOutDir() {
         return annotatedTrainTextOutDir;
     }
@@ -501,4 +558,20 @@ public class CommandLineOptions {
     public int getTestSetBurninIterations() {
         return testSetBurninIterations;
     }
+
+    public String getCheckpointPath() {
+        return checkpointPath;
+    }
+
+    public int getCheckpointIterations() {
+        return checkpointIterations;
+    }
+
+    public double getCheckpointMinutes() {
+        return checkpointMinutes;
+    }
+
+    public boolean getResume() {
+        return resume;
+    }
 }
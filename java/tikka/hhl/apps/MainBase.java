@@ -64,6 +64,13 @@ public class MainBase {
               "full path of model to be loaded");
         options.addOption("m", "model-output-path", true,
               "full path to save model to");
+        options.addOption("mz", "model-compression", true,
+              "compress saved models in blocks on several threads at this " +
+              "level from 1 to 9. compressed models are inflated to a " +
+              "temporary file when loaded (default=0, not compressed)");
+        options.addOption("mb", "model-block-size", true,
+              "number of bytes of the model in each compressed block " +
+              "(default=65280)");
         options.addOption("n", "annotated-text", true,
               "full path to save annotated text to");
         options.addOption("oste", "output-test-sample-score", true,
@@ -103,5 +110,16 @@ public class MainBase {
               "(default=0.2)");
         options.addOption("xaffixboundaryprob", "affix-boundary-prob", true,
               "(default=0.2)");
+        options.addOption("xcheckpoint", "checkpoint", true,
+              "file of checkpoints saved during training. the file is " +
+              "replaced by each new checkpoint (default=no checkpoints)");
+        options.addOption("xcheckpointiterations", "checkpoint-iterations",
+              true, "number of iterations between checkpoints (default=0, " +
+              "not counted)");
+        options.addOption("xcheckpointminutes", "checkpoint-minutes", true,
+              "minutes between checkpoints (default=30)");
+        options.addOption("xresume", "resume", false,
+              "continue training from the checkpoint with the options of " +
+              "the run that saved it");
     }
 }
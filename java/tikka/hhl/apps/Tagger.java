@@ -105,7 +105,9 @@ public class Tagger extends MainBase {
                 System.err.println("Saving model to :"
                       + modelOutputPath);
                 SerializableModel serializableModel = new SerializableModel(hhl);
-                serializableModel.saveModel(modelOutputPath);
+                serializableModel.saveModel(modelOutputPath,
+                      modelOptions.getModelCompression(),
+                      modelOptions.getModelBlockSize());
             }
 
             /**
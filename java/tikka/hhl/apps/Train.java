@@ -20,6 +20,7 @@ package tikka.hhl.apps;
 import tikka.hhl.models.base.HDPHMMLDA;
 import tikka.hhl.models.m1.HDPHMMLDAm1;
 
+import java.io.File;
 import java.io.IOException;
 
 import org.apache.commons.cli.*;
@@ -56,7 +57,20 @@ public class Train extends MainBase {
             HDPHMMLDA hhl = null;
             String experimentModel = modelOptions.getExperimentModel();
 
-            if (experimentModel.equals("m1")) {
+            if (modelOptions.getResume()) {
+                String checkpointPath = modelOptions.getCheckpointPath();
+                if (checkpointPath == null) {
+                    System.err.println("Resuming needs the checkpoint file "
+                          + "given with -xcheckpoint");
+                    System.exit(1);
+                }
+                System.err.println("Resuming from checkpoint "
+                      + checkpointPath);
+                SerializableModel serializableModel = new SerializableModel();
+                hhl = serializableModel.loadModel(modelOptions, checkpointPath);
+                hhl.initializeFromLoadedModel(modelOptions);
+                hhl.resume(new File(checkpointPath));
+            } else if (experimentModel.equals("m1")) {
                 System.err.println("Using model 1!");
                 hhl = new HDPHMMLDAm1(modelOptions);
             } else if (experimentModel.equals("m2")) {
@@ -72,8 +86,10 @@ public class Train extends MainBase {
                 hhl = new HDPHMMLDAm1(modelOptions);
             }
 
-            System.err.println("Randomly initializing values!");
-            hhl.initializeFromTrainingData();
+            if (!modelOptions.getResume()) {
+                System.err.println("Randomly initializing values!");
+                hhl.initializeFromTrainingData();
+            }
             System.err.println("Beginning training!");
             hhl.train();
 
@@ -85,7 +101,9 @@ public class Train extends MainBase {
                 System.err.println("Saving model to :"
                       + modelOutputPath);
                 SerializableModel serializableModel = new SerializableModel(hhl);
-                serializableModel.saveModel(modelOutputPath);
+                serializableModel.saveModel(modelOutputPath,
+                      modelOptions.getModelCompression(),
+                      modelOptions.getModelBlockSize());
             }
 
             /**
@@ -28,6 +28,8 @@ import tikka.hhl.lexicons.ThreeDimLexicon;
 import tikka.hhl.lexicons.ThreeDimProbLexicon;
 import tikka.hhl.lexicons.TwoDimLexicon;
 import tikka.hhl.lexicons.TwoDimProbLexicon;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -279,4 +281,24 @@ public class AffixStemStateHDP extends AffixStemStateDP {
             endt = java.lang.Math.min(stateS, startt + M);
         }
     }
+
+    /**
+     * Put the counts of affixes given stems and states and the counts of
+     * the affix-state process in sections of a model file
+     *
+     * @param out   Writer of the model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        super.write(out, name);
+        affixStateDP.write(out, name + ".affixState");
+    }
+
+    @Override
+    public void readLater(ModelFile in, String name) {
+        super.readLater(in, name);
+        affixStateDP.readLater(in, name + ".affixState");
+    }
 }
@@ -19,14 +19,21 @@ package tikka.hhl.distributions;
 
 import tikka.exceptions.EmptyCountException;
 import tikka.hhl.lexicons.Lexicon;
-import java.util.HashMap;
+import tikka.structures.LazyHashMap;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
- * The base distribution for a dirichlet process.
+ * The base distribution for a dirichlet process. Counts of strings that
+ * were saved with a model are read back when they are first used.
  * 
  * @author tsmoon
  */
-public class DirichletBaseDistribution extends HashMap<String, Integer> {
+public class DirichletBaseDistribution extends LazyHashMap<String, Integer> {
 
     /**
      * Cumulative count of all items in dictionary/distribution. Used in
@@ -146,4 +153,36 @@ public class DirichletBaseDistribution extends HashMap<String, Integer> {
     public double[] getStringProbs() {
         return stringProbs;
     }
+
+    /**
+     * Put the counts of strings in sections of a model file, in the order
+     * of the strings
+     *
+     * @param out   Writer of the model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        String[] strings = new String[size()];
+        int[] counts = new int[strings.length];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry :
+              new TreeMap<String, Integer>(this).entrySet()) {
+            strings[i] = entry.getKey();
+            counts[i++] = entry.getValue();
+        }
+        out.putStrings(name + ".strings", strings);
+        out.putInts(name + ".counts", counts);
+    }
+
+    @Override
+    protected void read(ModelFile in, String name) throws IOException {
+        String[] strings = in.getStrings(name + ".strings");
+        int[] counts = in.getInts(name + ".counts");
+        for (int i = 0; i < strings.length; ++i) {
+            put(strings[i], counts[i]);
+            cumCount += counts[i];
+        }
+    }
 }
@@ -18,6 +18,10 @@
 package tikka.hhl.distributions;
 
 import tikka.hhl.lexicons.Lexicon;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
+import java.io.IOException;
 
 /**
  * Class skeleton for a dirichlet process.
@@ -50,4 +54,24 @@ public abstract class DirichletProcess {
      * from the length of a string to some value in [0,1].
      */
     protected DirichletBaseDistribution baseDistribution;
+
+    /**
+     * Put the counts of the process in sections of a model file. The
+     * lexicon and the base distribution are shared with other processes and
+     * are saved by the model.
+     *
+     * @param out   Writer of the model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    public abstract void write(ModelFileWriter out, String name) throws
+          IOException;
+
+    /**
+     * Read the counts saved by {@link #write} when they are first used
+     *
+     * @param in    The model file
+     * @param name  Prefix of the names of the sections
+     */
+    public abstract void readLater(ModelFile in, String name);
 }
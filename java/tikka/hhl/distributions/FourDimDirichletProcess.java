@@ -23,6 +23,10 @@ import tikka.exceptions.EmptyTwoDimLexiconException;
 import tikka.hhl.lexicons.FourDimLexicon;
 import tikka.hhl.lexicons.FourDimProbLexicon;
 import tikka.hhl.lexicons.Lexicon;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
+import java.io.IOException;
 
 /**
  *
@@ -224,4 +228,14 @@ public class FourDimDirichletProcess extends DirichletProcess {
         }
         return val;
     }
+
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        stemAffixClsCounts.write(out, name);
+    }
+
+    @Override
+    public void readLater(ModelFile in, String name) {
+        stemAffixClsCounts.readLater(in, name);
+    }
 }
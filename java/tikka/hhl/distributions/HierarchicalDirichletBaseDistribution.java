@@ -63,6 +63,7 @@ public class HierarchicalDirichletBaseDistribution extends DirichletBaseDistribu
      */
     @Override
     public int dec(String s) throws EmptyCountException {
+        load();
         int val = get(s) - 1;
         if (val > 0) {
             put(s, val);
@@ -85,6 +86,7 @@ public class HierarchicalDirichletBaseDistribution extends DirichletBaseDistribu
      */
     @Override
     public int inc(String s) {
+        load();
         if (!containsKey(s)) {
             put(s, 0);
         }
@@ -129,6 +131,7 @@ public class HierarchicalDirichletBaseDistribution extends DirichletBaseDistribu
      */
     @Override
     public double prob(String s) {
+        load();
         double stringProb = 0;
         try {
             stringProb = stringProbs[s.length()];
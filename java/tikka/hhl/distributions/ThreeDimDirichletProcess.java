@@ -23,6 +23,8 @@ import tikka.exceptions.EmptyTwoDimLexiconException;
 import tikka.hhl.lexicons.Lexicon;
 import tikka.hhl.lexicons.ThreeDimLexicon;
 import tikka.hhl.lexicons.ThreeDimProbLexicon;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
 import java.io.BufferedWriter;
 import java.io.IOException;
 
@@ -401,4 +403,14 @@ public abstract class ThreeDimDirichletProcess extends DirichletProcess {
     public double[] getNonexistentTopicStateAffixProbs() {
         return nonexistentTopicStateAffixProbs;
     }
+
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        morphClsCounts.write(out, name);
+    }
+
+    @Override
+    public void readLater(ModelFile in, String name) {
+        morphClsCounts.readLater(in, name);
+    }
 }
@@ -19,16 +19,23 @@ package tikka.hhl.lexicons;
 
 import tikka.exceptions.EmptyCountException;
 import tikka.exceptions.EmptyTwoDimLexiconException;
-import java.util.HashMap;
+import tikka.structures.LazyHashMap;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A table from a class index (either state or topic) to a subtable of affix
  * type indexes that again point to a subtable of counts for stem type
  * indexes. Suitable increment, decrement, and get functions are defined.
+ * A table that was saved with a model is read back when it is first used.
  *
  * @author tsmoon
  */
-public class FourDimLexicon extends HashMap<Integer, ThreeDimLexicon> {
+public class FourDimLexicon extends LazyHashMap<Integer, ThreeDimLexicon> {
 
     /**
      * Create a sublexicon for every class
@@ -113,4 +120,76 @@ public class FourDimLexicon extends HashMap<Integer, ThreeDimLexicon> {
             return 0;
         }
     }
+
+    /**
+     * Put the counts in sections of a model file as parallel arrays of
+     * class, affix and stem indexes and counts. Classes without counts are
+     * listed apart so that their subtables exist when the table is read.
+     * The counts are listed in the order of their indexes, so that equal
+     * tables are saved alike however the maps were filled.
+     *
+     * @param out   Writer of the model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        int n = 0, emptyN = 0;
+        for (ThreeDimLexicon affixes : values()) {
+            for (TwoDimLexicon stems : affixes.values()) {
+                n += stems.size();
+            }
+            if (affixes.isEmpty()) {
+                emptyN++;
+            }
+        }
+        int[] classes = new int[n], affixes = new int[n], stems = new int[n],
+              counts = new int[n];
+        int[] empty = new int[emptyN];
+        int i = 0, e = 0;
+        for (Map.Entry<Integer, ThreeDimLexicon> cls :
+              new TreeMap<Integer, ThreeDimLexicon>(this).entrySet()) {
+            if (cls.getValue().isEmpty()) {
+                empty[e++] = cls.getKey();
+            }
+            for (Map.Entry<Integer, TwoDimLexicon> affix :
+                  new TreeMap<Integer, TwoDimLexicon>(
+                  cls.getValue()).entrySet()) {
+                for (Map.Entry<Integer, Integer> stem :
+                      new TreeMap<Integer, Integer>(
+                      affix.getValue()).entrySet()) {
+                    classes[i] = cls.getKey();
+                    affixes[i] = affix.getKey();
+                    stems[i] = stem.getKey();
+                    counts[i++] = stem.getValue();
+                }
+            }
+        }
+        out.putInts(name + ".classes", classes);
+        out.putInts(name + ".affixes", affixes);
+        out.putInts(name + ".stems", stems);
+        out.putInts(name + ".counts", counts);
+        out.putInts(name + ".empty", empty);
+    }
+
+    @Override
+    protected void read(ModelFile in, String name) throws IOException {
+        int[] classes = in.getInts(name + ".classes");
+        int[] affixes = in.getInts(name + ".affixes");
+        int[] stems = in.getInts(name + ".stems");
+        int[] counts = in.getInts(name + ".counts");
+        for (int i = 0; i < classes.length; ++i) {
+            ThreeDimLexicon lex = get(classes[i]);
+            if (lex == null) {
+                lex = new ThreeDimLexicon();
+                put(classes[i], lex);
+            }
+            lex.add(affixes[i], stems[i], counts[i]);
+        }
+        for (int cls : in.getInts(name + ".empty")) {
+            if (!containsKey(cls)) {
+                put(cls, new ThreeDimLexicon());
+            }
+        }
+    }
 }
@@ -18,17 +18,23 @@
 package tikka.hhl.lexicons;
 
 import tikka.exceptions.KeyRemovedException;
+import tikka.structures.LazyHashMap;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+import tikka.structures.Vocabulary;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.util.Map;
 import java.util.Stack;
 
 /**
  * A data structure which keeps track of indexes, their counts, the strings
- * that they represent, and available slots for new indexes.
+ * that they represent, and available slots for new indexes. A lexicon that
+ * was saved with a model is read back when it is first used.
  * 
  * @author tsmoon
  */
-public class Lexicon extends HashMap<Integer, StringCountPair> {
+public class Lexicon extends LazyHashMap<Integer, StringCountPair> {
 
     /**
      * A stack of available indexes when new strings are encountered. If old
@@ -40,7 +46,7 @@ public class Lexicon extends HashMap<Integer, StringCountPair> {
     /**
      * A map from strings to indexes.
      */
-    protected HashMap<String, Integer> reverseMap;
+    protected Vocabulary reverseMap;
 
     /**
      * Default constructor. The map from strings to indexes is shared throughout
@@ -48,7 +54,7 @@ public class Lexicon extends HashMap<Integer, StringCountPair> {
      * 
      * @param reverseMap    A map from strings to indexes
      */
-    public Lexicon(HashMap<String, Integer> reverseMap) {
+    public Lexicon(Vocabulary reverseMap) {
         this.reverseMap = reverseMap;
         availableIdx = new Stack<Integer>();
         availableIdx.push(0);
@@ -62,6 +68,7 @@ public class Lexicon extends HashMap<Integer, StringCountPair> {
      * @return  The vacating index
      */
     public int removeKey(int idx) {
+        load();
         availableIdx.push(idx);
         reverseMap.remove(getString(idx));
         remove(idx);
@@ -78,6 +85,7 @@ public class Lexicon extends HashMap<Integer, StringCountPair> {
      * @throws KeyRemovedException
      */
     public int dec(int idx) throws KeyRemovedException {
+        load();
         StringCountPair sc = get(idx);
         if (sc.count == 1) {
             removeKey(idx);
@@ -94,6 +102,7 @@ public class Lexicon extends HashMap<Integer, StringCountPair> {
      * @return  Count of key after increment
      */
     public int inc(int idx) {
+        load();
         StringCountPair sc = get(idx);
         try {
             sc.count++;
@@ -111,11 +120,8 @@ public class Lexicon extends HashMap<Integer, StringCountPair> {
      * @return  Index value of string.
      */
     public int getIdx(String s) {
-        if (!reverseMap.containsKey(s)) {
-            return -1;
-        } else {
-            return reverseMap.get(s);
-        }
+        load();
+        return reverseMap.get(s);
     }
 
     /**
@@ -127,17 +133,17 @@ public class Lexicon extends HashMap<Integer, StringCountPair> {
      * @return  Index value of string.
      */
     public int getOrPutIdx(String s) {
-        if (!reverseMap.containsKey(s)) {
-            int thisIdx = availableIdx.pop();
+        load();
+        int thisIdx = reverseMap.get(s);
+        if (thisIdx < 0) {
+            thisIdx = availableIdx.pop();
             put(thisIdx, new StringCountPair(s, 0));
             if (availableIdx.size() == 0) {
                 availableIdx.push(size());
             }
             reverseMap.put(s, thisIdx);
-            return thisIdx;
-        } else {
-            return reverseMap.get(s);
         }
+        return thisIdx;
     }
 
     /**
@@ -165,4 +171,58 @@ public class Lexicon extends HashMap<Integer, StringCountPair> {
     public int getCount(int idx) {
         return get(idx).count;
     }
+
+    /**
+     * Put the strings and counts by index and the stack of available
+     * indexes in sections of a model file
+     *
+     * @param out   Writer of the model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        load();
+        int maxid = -1;
+        for (int idx : keySet()) {
+            maxid = Math.max(maxid, idx);
+        }
+        String[] strings = new String[maxid + 1];
+        int[] counts = new int[maxid + 1];
+        for (Map.Entry<Integer, StringCountPair> entry : entrySet()) {
+            strings[entry.getKey()] = entry.getValue().string;
+            counts[entry.getKey()] = entry.getValue().count;
+        }
+        int[] available = new int[availableIdx.size()];
+        for (int i = 0; i < available.length; ++i) {
+            available[i] = availableIdx.get(i);
+        }
+        out.putStrings(name + ".strings", strings);
+        out.putInts(name + ".counts", counts);
+        out.putInts(name + ".available", available);
+    }
+
+    /**
+     * Read the strings and counts and the available indexes, and add the
+     * strings to the shared map from strings to indexes
+     *
+     * @param in    The model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    @Override
+    protected void read(ModelFile in, String name) throws IOException {
+        String[] strings = in.getStrings(name + ".strings");
+        int[] counts = in.getInts(name + ".counts");
+        for (int idx = 0; idx < strings.length; ++idx) {
+            if (strings[idx] != null) {
+                put(idx, new StringCountPair(strings[idx], counts[idx]));
+                reverseMap.put(strings[idx], idx);
+            }
+        }
+        availableIdx.clear();
+        for (int idx : in.getInts(name + ".available")) {
+            availableIdx.push(idx);
+        }
+    }
 }
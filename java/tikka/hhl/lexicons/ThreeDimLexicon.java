@@ -20,15 +20,22 @@ package tikka.hhl.lexicons;
 import tikka.exceptions.EmptyCountException;
 import tikka.exceptions.KeyRemovedException;
 import tikka.exceptions.EmptyTwoDimLexiconException;
-import java.util.HashMap;
+import tikka.structures.LazyHashMap;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Table for of type indexes (either state, topic, or affix) to
- * TwoDimLexicon (or subtables). 
+ * TwoDimLexicon (or subtables). A table that was saved with a model is
+ * read back when it is first used.
  *
  * @author tsmoon
  */
-public class ThreeDimLexicon extends HashMap<Integer, TwoDimLexicon> {
+public class ThreeDimLexicon extends LazyHashMap<Integer, TwoDimLexicon> {
 
     /**
      * Cumulative count of all items in table as well as subtables (i.e. the
@@ -47,6 +54,7 @@ public class ThreeDimLexicon extends HashMap<Integer, TwoDimLexicon> {
      * @return  Count of conditioned string after increment
      */
     public int inc(int cls, int idx) {
+        load();
         if (!containsKey(cls)) {
             TwoDimLexicon lex = new TwoDimLexicon();
             put(cls, lex);
@@ -70,6 +78,7 @@ public class ThreeDimLexicon extends HashMap<Integer, TwoDimLexicon> {
      */
     public int dec(int cls, int idx) throws EmptyCountException,
             EmptyTwoDimLexiconException {
+        load();
         cumCount--;
         return get(cls).dec(idx);
     }
@@ -106,4 +115,77 @@ public class ThreeDimLexicon extends HashMap<Integer, TwoDimLexicon> {
             return get(cls).getCount(idx);
         }
     }
+
+    /**
+     * Put the counts in sections of a model file as parallel arrays of
+     * conditioning indexes, conditioned indexes and counts. Conditioning
+     * indexes whose subtables have been emptied are listed apart, since
+     * normalization expects their subtables. The counts are listed in the
+     * order of their indexes, so that equal tables are saved alike however
+     * the maps were filled.
+     *
+     * @param out   Writer of the model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    @Override
+    public void write(ModelFileWriter out, String name) throws IOException {
+        int n = 0, emptyN = 0;
+        for (TwoDimLexicon lex : values()) {
+            n += lex.size();
+            if (lex.isEmpty()) {
+                emptyN++;
+            }
+        }
+        int[] classes = new int[n], indexes = new int[n], counts = new int[n];
+        int[] empty = new int[emptyN];
+        int i = 0, e = 0;
+        for (Map.Entry<Integer, TwoDimLexicon> entry :
+              new TreeMap<Integer, TwoDimLexicon>(this).entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                empty[e++] = entry.getKey();
+            }
+            for (Map.Entry<Integer, Integer> count :
+                  new TreeMap<Integer, Integer>(entry.getValue()).entrySet()) {
+                classes[i] = entry.getKey();
+                indexes[i] = count.getKey();
+                counts[i++] = count.getValue();
+            }
+        }
+        out.putInts(name + ".classes", classes);
+        out.putInts(name + ".indexes", indexes);
+        out.putInts(name + ".counts", counts);
+        out.putInts(name + ".empty", empty);
+    }
+
+    @Override
+    protected void read(ModelFile in, String name) throws IOException {
+        int[] classes = in.getInts(name + ".classes");
+        int[] indexes = in.getInts(name + ".indexes");
+        int[] counts = in.getInts(name + ".counts");
+        for (int i = 0; i < classes.length; ++i) {
+            add(classes[i], indexes[i], counts[i]);
+        }
+        for (int cls : in.getInts(name + ".empty")) {
+            put(cls, new TwoDimLexicon());
+        }
+    }
+
+    /**
+     * Add the count of a conditioned index that is not in the table yet.
+     * Used when the table is read from a model file.
+     *
+     * @param cls Index of conditioning type
+     * @param idx  Index of conditioned string
+     * @param count Count of conditioned string
+     */
+    protected void add(int cls, int idx, int count) {
+        TwoDimLexicon lex = get(cls);
+        if (lex == null) {
+            lex = new TwoDimLexicon();
+            put(cls, lex);
+        }
+        lex.add(idx, count);
+        cumCount += count;
+    }
 }
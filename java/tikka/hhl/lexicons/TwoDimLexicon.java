@@ -101,4 +101,16 @@ public class TwoDimLexicon extends HashMap<Integer, Integer> {
     public int getCumCount() {
         return cumCount;
     }
+
+    /**
+     * Add the count of an index that is not in the table yet. Used when the
+     * table is read from a model file.
+     *
+     * @param idx   Index of type
+     * @param count Count of index
+     */
+    protected void add(int idx, int count) {
+        put(idx, count);
+        cumCount += count;
+    }
 }
@@ -0,0 +1,250 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.hhl.models.base;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+import tikka.utils.Checkpointer;
+
+/**
+ * Model saved between two iterations of training, together with the
+ * counts, the lexicons and the distributions of the sampler, the position
+ * in the annealing schedule and the state of the random number generator.
+ * A checkpoint is a model file that {@link SerializableModel#loadModel} can
+ * load. Training resumes from the loaded model at the next iteration and
+ * draws the same samples as a run that was never stopped.
+ * <p>
+ * The token arrays and the counts are copied and written on the background
+ * thread. The lexicons and the distributions are not copied. They are
+ * written on the training thread when the checkpoint is taken.
+ *
+ * @author tsmoon
+ */
+public class Checkpoint extends Checkpointer.Snapshot {
+
+    /**
+     * Copy of the model with its own token arrays
+     */
+    protected SerializableModel model;
+    /**
+     * Writer of the checkpoint, which already holds the lexicons and the
+     * distributions
+     */
+    protected ModelFileWriter out;
+    /**
+     * Error in writing the lexicons and the distributions, reported when
+     * the checkpoint is saved
+     */
+    protected IOException failure;
+    /**
+     * Checkpoint file that training resumes from
+     */
+    protected ModelFile in;
+    /**
+     * Outer iteration that training resumes at
+     */
+    protected int outerIteration;
+    /**
+     * Inner iteration that training resumes at
+     */
+    protected int innerIteration;
+    protected double temperature;
+    protected double temperatureReciprocal;
+    /**
+     * State of the random number generator
+     */
+    protected byte[] random;
+    /**
+     * Copies of the counts of the sampler
+     */
+    protected int[] topicCounts, TopicByWord, DocumentByTopic, stateCounts,
+          StateByWord, SwitchByState, switchCounts, fourthOrderSwitches,
+          thirdOrderTransitions, secondOrderTransitions, first, second, third;
+
+    /**
+     * Copy the state of a model that is being trained. Called on the
+     * training thread between two iterations.
+     *
+     * @param m Model being trained
+     * @param file  File of the checkpoint
+     * @param outerIteration    Outer iteration that training resumes at
+     * @param innerIteration    Inner iteration that training resumes at
+     */
+    public Checkpoint(HDPHMMLDA m, File file, int outerIteration,
+          int innerIteration) {
+        model = new SerializableModel(m);
+        model.stateVector = copy(m.stateVector);
+        model.topicVector = copy(m.topicVector);
+        model.splitVector = copy(m.splitVector);
+        model.switchVector = copy(m.switchVector);
+        topicCounts = copy(m.topicCounts);
+        TopicByWord = copy(m.TopicByWord);
+        DocumentByTopic = copy(m.DocumentByTopic);
+        stateCounts = copy(m.stateCounts);
+        StateByWord = copy(m.StateByWord);
+        SwitchByState = copy(m.SwitchByState);
+        switchCounts = copy(m.switchCounts);
+        fourthOrderSwitches = copy(m.fourthOrderSwitches);
+        thirdOrderTransitions = copy(m.thirdOrderTransitions);
+        secondOrderTransitions = copy(m.secondOrderTransitions);
+        first = copy(m.first);
+        second = copy(m.second);
+        third = copy(m.third);
+        this.outerIteration = outerIteration;
+        this.innerIteration = innerIteration;
+        temperature = m.temperature;
+        temperatureReciprocal = m.temperatureReciprocal;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream randomOut = new DataOutputStream(bytes);
+        try {
+            HDPHMMLDA.mtfRand.writeState(randomOut);
+            randomOut.close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        random = bytes.toByteArray();
+
+        try {
+            out = new ModelFileWriter(file);
+            m.writeDistributions(out);
+        } catch (IOException e) {
+            failure = e;
+            if (out != null) {
+                out.abort();
+            }
+        }
+    }
+
+    /**
+     * Read the position and the random number generator of a saved
+     * checkpoint
+     *
+     * @param in    The checkpoint file
+     * @throws IOException  If the file is not a checkpoint
+     */
+    public Checkpoint(ModelFile in) throws IOException {
+        if (!in.contains("checkpoint")) {
+            throw new IOException(in.getFile() + " is not a checkpoint");
+        }
+        this.in = in;
+        outerIteration = in.getInt("outerIteration");
+        innerIteration = in.contains("innerIteration")
+              ? in.getInt("innerIteration") : 0;
+        temperature = in.getDouble("temperature");
+        temperatureReciprocal = in.getDouble("temperatureReciprocal");
+        random = in.getBytes("random");
+    }
+
+    /**
+     * Add the token arrays, the counts and the position to the file that
+     * holds the lexicons and the distributions
+     *
+     * @param file  File of the checkpoint, which was opened when the
+     *              checkpoint was taken
+     * @throws IOException
+     */
+    @Override
+    public void save(File file) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        try {
+            model.write(out);
+            out.putInts("topicCounts", topicCounts);
+            out.putInts("TopicByWord", TopicByWord);
+            out.putInts("DocumentByTopic", DocumentByTopic);
+            out.putInts("stateCounts", stateCounts);
+            out.putInts("StateByWord", StateByWord);
+            out.putInts("SwitchByState", SwitchByState);
+            out.putInts("switchCounts", switchCounts);
+            out.putInts("fourthOrderSwitches", fourthOrderSwitches);
+            out.putInts("thirdOrderTransitions", thirdOrderTransitions);
+            out.putInts("secondOrderTransitions", secondOrderTransitions);
+            out.putInts("first", first);
+            out.putInts("second", second);
+            out.putInts("third", third);
+            out.putInt("checkpoint", 1);
+            out.putInt("outerIteration", outerIteration);
+            out.putInt("innerIteration", innerIteration);
+            out.putDouble("temperature", temperature);
+            out.putDouble("temperatureReciprocal", temperatureReciprocal);
+            out.putBytes("random", random);
+            out.close();
+        } finally {
+            out.abort();
+        }
+    }
+
+    /**
+     * Set the counts, the annealing position and the random number
+     * generator of a model loaded from the checkpoint. The counts replace
+     * those rebuilt from the token arrays, which miss the updates of
+     * sampling to the last tokens. Checkpoints saved without counts keep
+     * the rebuilt ones.
+     *
+     * @param m Model to resume
+     */
+    public void restore(HDPHMMLDA m) {
+        try {
+            m.topicCounts = restore(m.topicCounts, "topicCounts");
+            m.TopicByWord = restore(m.TopicByWord, "TopicByWord");
+            m.DocumentByTopic = restore(m.DocumentByTopic, "DocumentByTopic");
+            m.stateCounts = restore(m.stateCounts, "stateCounts");
+            m.StateByWord = restore(m.StateByWord, "StateByWord");
+            m.SwitchByState = restore(m.SwitchByState, "SwitchByState");
+            m.switchCounts = restore(m.switchCounts, "switchCounts");
+            m.fourthOrderSwitches = restore(m.fourthOrderSwitches,
+                  "fourthOrderSwitches");
+            m.thirdOrderTransitions = restore(m.thirdOrderTransitions,
+                  "thirdOrderTransitions");
+            m.secondOrderTransitions = restore(m.secondOrderTransitions,
+                  "secondOrderTransitions");
+            m.first = restore(m.first, "first");
+            m.second = restore(m.second, "second");
+            m.third = restore(m.third, "third");
+            HDPHMMLDA.mtfRand.readState(new DataInputStream(
+                  new ByteArrayInputStream(random)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        m.temperature = temperature;
+        m.temperatureReciprocal = temperatureReciprocal;
+    }
+
+    /**
+     * @param values    Counts rebuilt from the token arrays
+     * @param name  Name of the section of the saved counts
+     * @return  The saved counts, or the rebuilt ones if none were saved
+     * @throws IOException
+     */
+    protected int[] restore(int[] values, String name) throws IOException {
+        return in != null && in.contains(name) ? in.getInts(name) : values;
+    }
+
+    protected static int[] copy(int[] values) {
+        return values == null ? null : values.clone();
+    }
+}
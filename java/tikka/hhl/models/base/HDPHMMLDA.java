@@ -19,13 +19,19 @@ package tikka.hhl.models.base;
 
 import tikka.hhl.apps.CommandLineOptions;
 
+import tikka.opennlp.io.CursorEventEnum;
 import tikka.opennlp.io.DataFormatEnum;
 import tikka.opennlp.io.DataReader;
 import tikka.opennlp.io.DirReader;
 import tikka.opennlp.io.DirWriter;
+import tikka.opennlp.io.ParallelDirWriter;
+import tikka.opennlp.io.TokenCursor;
 
 import tikka.structures.DoubleStringPair;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
 import tikka.structures.StringDoublePair;
+import tikka.structures.Vocabulary;
 import tikka.hhl.distributions.AffixStateDP;
 import tikka.hhl.distributions.DirichletBaseDistribution;
 import tikka.hhl.distributions.HierarchicalDirichletBaseDistribution;
@@ -35,6 +41,7 @@ import tikka.hhl.distributions.StemAffixTopicDP;
 import tikka.hhl.distributions.StemAffixTopicHDP;
 import tikka.hhl.lexicons.Lexicon;
 
+import tikka.utils.Checkpointer;
 import tikka.utils.ec.util.MersenneTwisterFast;
 import tikka.utils.normalizer.WordNormalizer;
 import tikka.utils.normalizer.WordNormalizerToLowerNoNum;
@@ -155,21 +162,13 @@ public abstract class HDPHMMLDA {
      */
     protected int[] TopicByWord;
     /**
-     * Hashtable from word to index for training data.
+     * Dictionary between words and indexes for training data.
      */
-    protected HashMap<String, Integer> trainWordIdx;
+    protected Vocabulary trainVocabulary;
     /**
-     * Hashtable from index to word for training data.
+     * Dictionary between words and indexes for test data.
      */
-    protected HashMap<Integer, String> trainIdxToWord;
-    /**
-     * Hashtable from word to index for test data.
-     */
-    protected HashMap<String, Integer> testWordIdx;
-    /**
-     * Hashtable from index to word for test data.
-     */
-    protected HashMap<Integer, String> testIdxToWord;
+    protected Vocabulary testVocabulary;
     /**
      * Array of document indexes. Of length {@link #wordN}.
      */
@@ -220,6 +219,21 @@ public abstract class HDPHMMLDA {
      * </pre>
      */
     protected int outerIterations;
+    /**
+     * Writer of checkpoints between iterations. No checkpoints if null.
+     */
+    protected Checkpointer checkpointer;
+    /**
+     * Checkpoint that training continues from. Null if training starts
+     * from a random initialization.
+     */
+    protected Checkpoint resumePoint;
+    /**
+     * Model file the model was loaded from. If it holds the lexicons and the
+     * counts of the distributions, they are read from it when first used
+     * rather than rebuilt from the tokens.
+     */
+    protected ModelFile distributionFile;
     /**
      * Number of iterations for test set burnin
      */
@@ -544,15 +558,15 @@ public abstract class HDPHMMLDA {
      */
     protected Lexicon affixLexicon;
     /**
-     * Hashmap from index to stems. To be shared across all stem related
+     * Map from stems to indexes. To be shared across all stem related
      * structures.
      */
-    protected HashMap<String, Integer> StemToIdx;
+    protected Vocabulary StemToIdx;
     /**
-     * Hashmap from index to affixes. To be shared across all affix related
+     * Map from affixes to indexes. To be shared across all affix related
      * structures.
      */
-    protected HashMap<String, Integer> AffixToIdx;
+    protected Vocabulary AffixToIdx;
     /**
      * Path of training data.
      */
@@ -621,18 +635,15 @@ public abstract class HDPHMMLDA {
         /**
          * Setting lexicons
          */
-        trainWordIdx = new HashMap<String, Integer>();
-        trainIdxToWord = new HashMap<Integer, String>();
-        trainWordIdx.put(EOSw, EOSi);
-        trainIdxToWord.put(EOSi, EOSw);
-
-        testWordIdx = new HashMap<String, Integer>();
-        testIdxToWord = new HashMap<Integer, String>();
-        testWordIdx.put(EOSw, EOSi);
-        testIdxToWord.put(EOSi, EOSw);
-
-        StemToIdx = new HashMap<String, Integer>();
-        AffixToIdx = new HashMap<String, Integer>();
+        trainVocabulary = new Vocabulary();
+        trainVocabulary.put(EOSw, EOSi);
+
+        testVocabulary = new Vocabulary();
+
+        testVocabulary.put(EOSw, EOSi);
+
+        StemToIdx = new Vocabulary();
+        AffixToIdx = new Vocabulary();
         stemLexicon = new Lexicon(StemToIdx);
         affixLexicon = new Lexicon(AffixToIdx);
 
@@ -698,13 +709,21 @@ public abstract class HDPHMMLDA {
         notAffixBoundaryProb = 1 - affixBoundaryProb;
 
         modelName = options.getExperimentModel();
+
+        if (options.getCheckpointPath() != null) {
+            checkpointer = new Checkpointer(
+                  new File(options.getCheckpointPath()),
+                  options.getCheckpointIterations(),
+                  options.getCheckpointMinutes());
+        }
     }
 
     /**
      * Initialize data structures needed for inference from training data.
      */
     public void initializeFromTrainingData() {
-        initializeTokenArrays(trainDirReader, trainWordIdx, trainIdxToWord);
+        initializeTokenArrays(trainDirReader, trainVocabulary);
+        trainVocabulary.freeze();
         initializeCountArrays();
         initalizeDistributions();
     }
@@ -715,36 +734,35 @@ public abstract class HDPHMMLDA {
      * rewritten in sampling for test sets.
      *
      * @param dirReader Object to walk through files and directories
-     * @param wordIdx   Dictionary from word to index
-     * @param idxToWord Dictionary from index to word
+     * @param vocabulary    Dictionary between words and indexes
      */
     protected void initializeTokenArrays(DirReader dirReader,
-          HashMap<String, Integer> wordIdx, HashMap<Integer, String> idxToWord) {
+          Vocabulary vocabulary) {
         documentD = 0;
         ArrayList<Integer> wordVectorT = new ArrayList<Integer>(),
               documentVectorT = new ArrayList<Integer>(),
               sentenceVectorT = new ArrayList<Integer>();
         while ((dataReader = dirReader.nextDocumentReader()) != null) {
+            TokenCursor cursor = dataReader.getCursor();
             try {
-                String[][] sentence;
-                while ((sentence = dataReader.nextSequence()) != null) {
-                    for (String[] line : sentence) {
-                        try {
-                            String word = wordNormalizer.normalize(line)[0];
-                            if (!word.isEmpty()) {
-                                if (!wordIdx.containsKey(word)) {
-                                    wordIdx.put(word, wordIdx.size());
-                                    idxToWord.put(idxToWord.size(), word);
-                                }
-                                wordVectorT.add(wordIdx.get(word));
-                                documentVectorT.add(documentD);
-                            }
-                        } catch (IgnoreTagException e) {
+                CursorEventEnum.CursorEvent event;
+                while ((event = cursor.next())
+                      != CursorEventEnum.CursorEvent.DOCUMENT_END) {
+                    if (event == CursorEventEnum.CursorEvent.SENTENCE_END) {
+                        wordVectorT.add(EOSi);
+                        documentVectorT.add(documentD);
+                        sentenceVectorT.add(wordVectorT.size());
+                        continue;
+                    }
+                    try {
+                        String word = wordNormalizer.normalize(cursor.getWord(),
+                              cursor.getTag())[0];
+                        if (!word.isEmpty()) {
+                            wordVectorT.add(vocabulary.add(word));
+                            documentVectorT.add(documentD);
                         }
+                    } catch (IgnoreTagException e) {
                     }
-                    wordVectorT.add(EOSi);
-                    documentVectorT.add(documentD);
-                    sentenceVectorT.add(wordVectorT.size());
                 }
             } catch (IOException e) {
             }
@@ -752,7 +770,7 @@ public abstract class HDPHMMLDA {
         }
 
         wordN = wordVectorT.size();
-        wordW = wordIdx.size();
+        wordW = vocabulary.size();
         wbeta = beta * wordW;
         wgamma = gamma * wordW;
 
@@ -946,10 +964,6 @@ public abstract class HDPHMMLDA {
         second = new int[wordN];
         third = new int[wordN];
 
-        for (String word : trainWordIdx.keySet()) {
-            trainIdxToWord.put(trainWordIdx.get(word), word);
-        }
-
         initializeCountArrays();
     }
 
@@ -960,28 +974,145 @@ public abstract class HDPHMMLDA {
     protected abstract void initalizeDistributions();
 
     /**
-     * Train the model.
+     * Put the stem and affix of every token, the lexicons and the counts of
+     * the distributions in sections of a model file. Each lexicon and
+     * distribution has its own sections, so that a loaded model reads only
+     * those it uses.
+     *
+     * @param out   Writer of the model file
+     * @throws IOException
+     */
+    public void writeDistributions(ModelFileWriter out) throws IOException {
+        out.putInt("distributions", 1);
+        out.putInts("stemVector", stemVector);
+        out.putInts("affixVector", affixVector);
+        stemLexicon.write(out, "stemLexicon");
+        affixLexicon.write(out, "affixLexicon");
+        writeProcesses(out);
+    }
+
+    /**
+     * Attach the lexicons and the distributions of the model to the file the
+     * model was loaded from, if it holds them. Each is read when it is first
+     * used. The distributions must have been initialized.
+     *
+     * @return  Whether the file holds the distributions. If not, they must
+     *          be rebuilt with {@link #rebuildDistributions()}.
+     * @throws IOException
+     */
+    protected boolean readDistributionsLater() throws IOException {
+        if (distributionFile == null
+              || !distributionFile.contains("distributions")) {
+            return false;
+        }
+        stemVector = distributionFile.getInts("stemVector");
+        affixVector = distributionFile.getInts("affixVector");
+        stemLexicon.readLater(distributionFile, "stemLexicon");
+        affixLexicon.readLater(distributionFile, "affixLexicon");
+        readProcessesLater(distributionFile);
+        return true;
+    }
+
+    /**
+     * Put the counts of the distributions of the model, and of base
+     * distributions that keep counts, in sections of a model file
+     *
+     * @param out   Writer of the model file
+     * @throws IOException
+     */
+    protected abstract void writeProcesses(ModelFileWriter out) throws
+          IOException;
+
+    /**
+     * Read the counts saved by {@link #writeProcesses} when they are first
+     * used
+     *
+     * @param in    The model file
+     */
+    protected abstract void readProcessesLater(ModelFile in);
+
+    /**
+     * Rebuild the lexicons and the distributions from the segmentations of
+     * the tokens of a loaded model
+     */
+    protected abstract void rebuildDistributions();
+
+    /**
+     * Train the model. Training starts from a random initialization or, if
+     * {@link #resume(File)} was called, from the iteration after the
+     * checkpoint.
      */
     public void train() {
-        randomInitializeParameters();
+        int firstOuterIteration = 0, firstInnerIteration = 0;
+        if (resumePoint == null) {
+            randomInitializeParameters();
+        } else {
+            firstOuterIteration = resumePoint.outerIteration;
+            firstInnerIteration = resumePoint.innerIteration;
+            System.err.println("Resuming from outer iteration "
+                  + firstOuterIteration + ", inner iteration "
+                  + firstInnerIteration);
+            resumePoint.restore(this);
+            resumePoint = null;
+        }
 
         /**
          * Training iterations
          */
-        for (int outiter = 0; outiter < outerIterations;
+        for (int outiter = firstOuterIteration; outiter < outerIterations;
               ++outiter) {
             System.err.print("\nouter iteration " + outiter + ":");
             System.err.print("annealing temperature " + temperature);
             stabilizeTemperature();
-            trainInnerIter(innerIterations, "inner iteration");
+            for (int initer = firstInnerIteration; initer < innerIterations;
+                  ++initer) {
+                trainInnerIter(initer, initer + 1, "inner iteration");
+                if (initer + 1 < innerIterations) {
+                    checkpoint(outiter, initer + 1);
+                }
+            }
+            firstInnerIteration = 0;
             temperature -= temperatureDecrement;
             temperatureReciprocal = 1 / temperature;
+            if (outiter + 1 < outerIterations) {
+                checkpoint(outiter + 1, 0);
+            }
         }
         /**
          * Increment it so sampling resumes at same temperature if it is loaded
          * from a model
          */
         temperature += temperatureDecrement;
+
+        if (checkpointer != null) {
+            checkpointer.finish();
+        }
+    }
+
+    /**
+     * Count an iteration that has just finished and save a checkpoint if
+     * one is due
+     *
+     * @param outerIteration    Outer iteration that training resumes at
+     * @param innerIteration    Inner iteration that training resumes at
+     */
+    protected void checkpoint(int outerIteration, int innerIteration) {
+        if (checkpointer != null && checkpointer.tick()) {
+            checkpointer.save(new Checkpoint(this, checkpointer.getFile(),
+                  outerIteration, innerIteration));
+        }
+    }
+
+    /**
+     * Continue training from a checkpoint. The model must have been loaded
+     * from the checkpoint and initialized with
+     * {@link #initializeFromLoadedModel}.
+     *
+     * @param file  The checkpoint file
+     * @throws IOException  If the file is not a checkpoint
+     */
+    public void resume(File file) throws IOException {
+        resumePoint = new Checkpoint(new ModelFile(file));
     }
 
     /**
@@ -1052,7 +1183,7 @@ public abstract class HDPHMMLDA {
              */
             for (int j = EOSi + 1; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      TopicByWord[j * topicK + i] + beta, trainIdxToWord.get(
+                      TopicByWord[j * topicK + i] + beta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -1083,7 +1214,7 @@ public abstract class HDPHMMLDA {
              */
             for (int j = 1; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      StateByWord[j * stateS + i] + gamma, trainIdxToWord.get(
+                      StateByWord[j * stateS + i] + gamma, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -1274,7 +1405,7 @@ public abstract class HDPHMMLDA {
      * @throws IOException
      */
     public void printAnnotatedTrainText(String outDir) throws IOException {
-        printAnnotatedText(outDir, trainDataDir, trainDirReader, trainIdxToWord);
+        printAnnotatedText(outDir, trainDataDir, trainDirReader, trainVocabulary);
     }
 
     /**
@@ -1285,7 +1416,7 @@ public abstract class HDPHMMLDA {
      */
     public void printAnnotatedTestText(String outDir)
           throws IOException {
-        printAnnotatedText(outDir, testDataDir, testDirReader, testIdxToWord);
+        printAnnotatedText(outDir, testDataDir, testDirReader, testVocabulary);
     }
 
     /**
@@ -1294,21 +1425,35 @@ public abstract class HDPHMMLDA {
      * @param outDir Root of path to generate output to
      * @param dataDir   Origin of data
      * @param dirReader DirReader for data
-     * @param idxToWord Dictionary from index to word
+     * @param vocabulary    Dictionary between words and indexes
      * @throws IOException
      * @see HDPHMMLDA#printAnnotatedTestText(java.lang.String)
      * @see HDPHMMLDA#printAnnotatedTrainText(java.lang.String) 
      */
     public void printAnnotatedText(String outDir, String dataDir,
-          DirReader dirReader, HashMap<Integer, String> idxToWord)
+          DirReader dirReader, Vocabulary vocabulary)
           throws IOException {
-        DirWriter dirWriter = new DirWriter(outDir, dataDir, dirReader);
+        DirWriter dirWriter = new ParallelDirWriter(outDir, dataDir, dirReader,
+              1);
         String root = dirWriter.getRoot();
 
+        /**
+         * Labels of each state and topic, rendered once instead of for
+         * every token
+         */
+        String[] stateLabels = new String[stateS];
+        for (int i = 0; i < stateS; ++i) {
+            stateLabels[i] = "S:" + i + ",T:";
+        }
+        String[] topicLabels = new String[topicK];
+        for (int i = 0; i < topicK; ++i) {
+            topicLabels[i] = Integer.toString(i);
+        }
+
         BufferedWriter bufferedWriter;
 
         int docid = 0, splitid = 0;
-        String word, stem, affix;
+        String word;
         bufferedWriter = dirWriter.nextOutputBuffer();
 
         for (int i = 0; i < wordN; ++i) {
@@ -1320,24 +1465,23 @@ public abstract class HDPHMMLDA {
             int wordid = wordVector[i];
             if (wordid != EOSi) {
                 splitid = splitVector[i];
-                word = idxToWord.get(wordid);
-                stem = word.substring(0, splitid);
-                affix = word.substring(splitid, word.length());
-                bufferedWriter.write(stem + "+" + affix);
-                bufferedWriter.write("\t");
+                word = vocabulary.getWord(wordid);
+                bufferedWriter.write(word, 0, splitid);
+                bufferedWriter.write('+');
+                bufferedWriter.write(word, splitid, word.length() - splitid);
+                bufferedWriter.write('\t');
                 int stateid = stateVector[i];
-                int topicid = topicVector[i];
-                String line = null;
+                bufferedWriter.write(stateLabels[stateid]);
                 if (stateid < topicSubStates) {
-                    line = String.format("S:%d,T:%d", stateid, topicid);
+                    bufferedWriter.write(topicLabels[topicVector[i]]);
                 } else {
-                    line = String.format("S:%d,T:%d", stateid, -1);
+                    bufferedWriter.write("-1");
                 }
-                bufferedWriter.write(line);
             }
             bufferedWriter.newLine();
         }
         bufferedWriter.close();
+        dirWriter.close();
 
         bufferedWriter = new BufferedWriter(new OutputStreamWriter(
               new FileOutputStream(root + File.separator + "PARAMETERS")));
@@ -1597,11 +1741,13 @@ public abstract class HDPHMMLDA {
     /**
      * Training routine for the inner iterations
      *
-     * @param itermax Maximum number of iterations to perform
+     * @param firstiter Number of the first iteration to perform
+     * @param itermax Number of the iteration to stop before
      * @param message Message to generate
      * @see HDPHMMLDA#sampleFromTrain() 
      */
-    protected abstract void trainInnerIter(int itermax, String message);
+    protected abstract void trainInnerIter(int firstiter, int itermax,
+          String message);
 
     /**
      * Method for setting probability of tokens per sample.
@@ -1615,7 +1761,7 @@ public abstract class HDPHMMLDA {
      * Sample training model output. Take {@link #sample} samples ever {@link #lag}
      * iterations.
      *
-     * @see HDPHMMLDA#trainInnerIter(int, java.lang.String)
+     * @see HDPHMMLDA#trainInnerIter(int, int, java.lang.String)
      * @see HDPHMMLDA#obtainSample(int) 
      */
     public void sampleFromTrain() {
@@ -1625,7 +1771,7 @@ public abstract class HDPHMMLDA {
         for (int outiter = 0; outiter < samples; ++outiter) {
             System.err.print("\nTaking sample #" + outiter + ": ");
             System.err.print("annealing temperature " + temperature);
-            trainInnerIter(lag, "Lag");
+            trainInnerIter(0, lag, "Lag");
             obtainSample(outiter);
         }
     }
@@ -1648,7 +1794,7 @@ public abstract class HDPHMMLDA {
          * overwritten.
          */
         double twbeta = wbeta, twgamma = wgamma;
-        initializeTokenArrays(testDirReader, testWordIdx, testIdxToWord);
+        initializeTokenArrays(testDirReader, testVocabulary);
         wbeta = twbeta;
         wgamma = twgamma;
         double talpha = alpha * topicK;
@@ -1929,7 +2075,7 @@ public abstract class HDPHMMLDA {
             ArrayList<DoubleStringPair> topWords = new ArrayList<DoubleStringPair>();
             for (int j = 1; j < wordW;
                   ++j) {
-                topWords.add(new DoubleStringPair(StateByWordProbs[j * stateS + i], trainIdxToWord.get(j)));
+                topWords.add(new DoubleStringPair(StateByWordProbs[j * stateS + i], trainVocabulary.getWord(j)));
             }
             Collections.sort(topWords);
             for (int j = 0; j < outputPerClass;
@@ -1955,7 +2101,7 @@ public abstract class HDPHMMLDA {
             ArrayList<DoubleStringPair> topWords = new ArrayList<DoubleStringPair>();
             for (int j = 1; j < wordW;
                   ++j) {
-                topWords.add(new DoubleStringPair(TopicByWordProbs[j * topicK + i], trainIdxToWord.get(j)));
+                topWords.add(new DoubleStringPair(TopicByWordProbs[j * topicK + i], trainVocabulary.getWord(j)));
             }
             Collections.sort(topWords);
             for (int j = 0; j < outputPerClass;
@@ -23,19 +23,21 @@ import tikka.hhl.apps.CommandLineOptions;
 import tikka.hhl.models.m1.HDPHMMLDAm1;
 import tikka.hhl.models.m2.HDPHMMLDAm2;
 
+import tikka.opennlp.io.BlockGzipOutputStream;
 import tikka.opennlp.io.DataFormatEnum;
+import tikka.opennlp.io.GzipChannel;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+import tikka.structures.Vocabulary;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import java.nio.channels.Channels;
 import java.util.HashMap;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import tikka.hhl.models.m3.HDPHMM;
 import tikka.hhl.models.m4.HDPLDA;
 
@@ -53,6 +55,11 @@ public class SerializableModel implements Serializable {
      * copied to the enclosing class (this).
      */
     protected SerializableModel loadBuffer = null;
+    /**
+     * Model being saved, whose lexicons and distributions are saved with
+     * it. Null when a model is loaded.
+     */
+    protected transient HDPHMMLDA model = null;
     /**
      * Format of the input data
      */
@@ -92,6 +99,11 @@ public class SerializableModel implements Serializable {
     /**
      * Hashtable from word to index.
      */
+    protected Vocabulary vocabulary;
+    /**
+     * Word index of models saved before the vocabulary was serialized. It is
+     * only read when such a model is loaded.
+     */
     protected HashMap<String, Integer> wordIdx;
     /**
      * Array of document indexes. Of length {@link #wordN}.
@@ -223,6 +235,7 @@ public class SerializableModel implements Serializable {
      * @param hhl Model to be saved
      */
     public SerializableModel(HDPHMMLDA m) {
+        model = m;
         affixBoundaryProb = m.affixBoundaryProb;
         alpha = m.alpha;
         beta = m.beta;
@@ -256,7 +269,7 @@ public class SerializableModel implements Serializable {
         topicK = m.topicK;
         topicSubStates = m.topicSubStates;
         topicVector = m.topicVector;
-        wordIdx = m.trainWordIdx;
+        vocabulary = m.trainVocabulary;
         wordN = m.wordN;
         wordVector = m.wordVector;
         wordW = m.wordW;
@@ -270,7 +283,10 @@ public class SerializableModel implements Serializable {
     }
 
     /**
-     * Load a previously trained model.
+     * Load a previously trained model. Models saved with java serialization
+     * before the binary model format can still be loaded. The lexicons and
+     * distributions of models saved with them are read when first used,
+     * otherwise they are rebuilt from the tokens.
      *
      * @param filename  Full path of model location.
      * @return  The model that has been loaded.
@@ -280,19 +296,24 @@ public class SerializableModel implements Serializable {
     public HDPHMMLDA loadModel(CommandLineOptions options, String filename)
           throws IOException,
           FileNotFoundException {
-        ObjectInputStream modelIn =
-              new ObjectInputStream(new GZIPInputStream(new FileInputStream(
-              filename)));
-//        ObjectInputStream modelIn =
-//                new ObjectInputStream(new FileInputStream(filename));
-        try {
-            loadBuffer = (SerializableModel) modelIn.readObject();
-        } catch (ClassNotFoundException e) {
-            e.printStackTrace();
+        File file = new File(filename);
+        ModelFile in = null;
+        if (ModelFile.isModelFile(file)) {
+            in = ModelFile.open(file);
+            read(in);
+        } else {
+            ObjectInputStream modelIn =
+                  new ObjectInputStream(Channels.newInputStream(
+                  new GzipChannel(file)));
+            try {
+                loadBuffer = (SerializableModel) modelIn.readObject();
+            } catch (ClassNotFoundException e) {
+                e.printStackTrace();
+            }
+            copy(loadBuffer);
+            loadBuffer = null;
+            modelIn.close();
         }
-        copy(loadBuffer);
-        loadBuffer = null;
-        modelIn.close();
 
         HDPHMMLDA hhl = null;
         if (modelName.equals("m1")) {
@@ -338,27 +359,149 @@ public class SerializableModel implements Serializable {
         hhl.topicK = topicK;
         hhl.topicSubStates = topicSubStates;
         hhl.topicVector = topicVector;
-        hhl.trainWordIdx = wordIdx;
+        hhl.trainVocabulary = vocabulary;
+        hhl.trainVocabulary.freeze();
         hhl.wordN = wordN;
         hhl.wordVector = wordVector;
         hhl.wordW = wordW;
         hhl.xi = xi;
+        hhl.distributionFile = in;
 
         return hhl;
     }
 
     /**
-     * Save the trained model.
+     * Save the trained model in the binary model format. The lexicons and
+     * the counts of the distributions are saved in sections of their own.
      *
      * @param filename  Full path of model location.
      * @throws IOException
      */
     public void saveModel(String filename) throws IOException {
-        ObjectOutputStream modelOut =
-              new ObjectOutputStream(new GZIPOutputStream(
-              new FileOutputStream(filename)));
-        modelOut.writeObject(this);
-        modelOut.close();
+        saveModel(filename, 0, BlockGzipOutputStream.MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * Save the trained model in the binary model format, compressed in
+     * blocks that are deflated on several threads.
+     *
+     * @param filename  Full path of model location.
+     * @param level Compression level from 1 to 9, or 0 to save the model
+     *              uncompressed
+     * @param blockSize Number of bytes of the model in each compressed block
+     * @throws IOException
+     */
+    public void saveModel(String filename, int level, int blockSize) throws
+          IOException {
+        ModelFileWriter out = new ModelFileWriter(new File(filename), level,
+              blockSize);
+        try {
+            write(out);
+            model.writeDistributions(out);
+            out.close();
+        } finally {
+            out.abort();
+        }
+    }
+
+    /**
+     * Put the fields in the sections of a model file. Token arrays are saved
+     * as four byte ints since they may hold negative values.
+     *
+     * @param out   Writer of the model file
+     * @throws IOException
+     */
+    protected void write(ModelFileWriter out) throws IOException {
+        out.putString("modelName", modelName);
+        out.putString("dataFormat", dataFormat == null ? null
+              : dataFormat.name());
+        out.putString("trainDataDir", trainDataDir);
+        out.putInt("randomSeed", randomSeed);
+        out.putInt("iterations", iterations);
+        out.putInt("topicK", topicK);
+        out.putInt("documentD", documentD);
+        out.putInt("wordW", wordW);
+        out.putInt("wordN", wordN);
+        out.putInt("stateS", stateS);
+        out.putInt("topicSubStates", topicSubStates);
+        out.putDouble("alpha", alpha);
+        out.putDouble("beta", beta);
+        out.putDouble("gamma", gamma);
+        out.putDouble("initialTemperature", initialTemperature);
+        out.putDouble("temperatureDecrement", temperatureDecrement);
+        out.putDouble("targetTemperature", targetTemperature);
+        out.putDouble("muStem", muStem);
+        out.putDouble("muStemBase", muStemBase);
+        out.putDouble("muAffix", muAffix);
+        out.putDouble("muAffixBase", muAffixBase);
+        out.putDouble("betaStem", betaStem);
+        out.putDouble("betaStemBase", betaStemBase);
+        out.putDouble("psi", psi);
+        out.putDouble("xi", xi);
+        out.putDouble("affixBoundaryProb", affixBoundaryProb);
+        out.putDouble("stemBoundaryProb", stemBoundaryProb);
+        out.putDouble("notAffixBoundaryProb", notAffixBoundaryProb);
+        out.putDouble("notStemBoundaryProb", notStemBoundaryProb);
+        out.putStrings("vocabulary", vocabulary.toArray());
+
+        out.putInts("documentVector", documentVector, Integer.MAX_VALUE);
+        out.putInts("sentenceVector", sentenceVector, Integer.MAX_VALUE);
+        out.putInts("wordVector", wordVector, Integer.MAX_VALUE);
+        out.putInts("topicVector", topicVector, Integer.MAX_VALUE);
+        out.putInts("stateVector", stateVector, Integer.MAX_VALUE);
+        out.putInts("splitVector", splitVector, Integer.MAX_VALUE);
+        out.putInts("switchVector", switchVector, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Set the fields from the sections of a model file. The token arrays of
+     * these models are plain ints, so they are copied out of the mapped
+     * sections in bulk.
+     *
+     * @param in    The model file
+     * @throws IOException
+     */
+    protected void read(ModelFile in) throws IOException {
+        String format = in.getString("dataFormat");
+        dataFormat = format == null ? null
+              : DataFormatEnum.DataFormat.valueOf(format);
+        modelName = in.getString("modelName");
+        trainDataDir = in.getString("trainDataDir");
+        randomSeed = in.getInt("randomSeed");
+        iterations = in.getInt("iterations");
+        topicK = in.getInt("topicK");
+        documentD = in.getInt("documentD");
+        wordW = in.getInt("wordW");
+        wordN = in.getInt("wordN");
+        stateS = in.getInt("stateS");
+        topicSubStates = in.getInt("topicSubStates");
+        alpha = in.getDouble("alpha");
+        beta = in.getDouble("beta");
+        gamma = in.getDouble("gamma");
+        initialTemperature = in.getDouble("initialTemperature");
+        temperatureDecrement = in.getDouble("temperatureDecrement");
+        targetTemperature = in.getDouble("targetTemperature");
+        muStem = in.getDouble("muStem");
+        muStemBase = in.getDouble("muStemBase");
+        muAffix = in.getDouble("muAffix");
+        muAffixBase = in.getDouble("muAffixBase");
+        betaStem = in.getDouble("betaStem");
+        betaStemBase = in.getDouble("betaStemBase");
+        psi = in.getDouble("psi");
+        xi = in.getDouble("xi");
+        affixBoundaryProb = in.getDouble("affixBoundaryProb");
+        stemBoundaryProb = in.getDouble("stemBoundaryProb");
+        notAffixBoundaryProb = in.getDouble("notAffixBoundaryProb");
+        notStemBoundaryProb = in.getDouble("notStemBoundaryProb");
+        vocabulary = Vocabulary.fromArray(in.getStrings("vocabulary"));
+
+        documentVector = in.getInts("documentVector");
+        sentenceVector = in.getInts("sentenceVector");
+        wordVector = in.getInts("wordVector");
+        topicVector = in.getInts("topicVector");
+        stateVector = in.getInts("stateVector");
+        splitVector = in.getInts("splitVector");
+        switchVector = in.getInts("switchVector");
     }
 
     protected void copy(SerializableModel sm) {
@@ -395,7 +538,8 @@ public class SerializableModel implements Serializable {
         topicK = sm.topicK;
         topicSubStates = sm.topicSubStates;
         topicVector = sm.topicVector;
-        wordIdx = sm.wordIdx;
+        vocabulary = sm.vocabulary != null ? sm.vocabulary
+              : Vocabulary.fromMap(sm.wordIdx);
         wordN = sm.wordN;
         wordVector = sm.wordVector;
         wordW = sm.wordW;
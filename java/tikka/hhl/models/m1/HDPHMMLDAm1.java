@@ -28,6 +28,9 @@ import tikka.hhl.distributions.HierarchicalDirichletBaseDistribution;
 import tikka.hhl.distributions.StemAffixStateDP;
 import tikka.hhl.distributions.StemAffixTopicHDP;
 
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
 import java.io.IOException;
 
 /**
@@ -95,12 +98,13 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
         super.initializeFromLoadedModel(options);
 
         initalizeDistributions();
+        if (!readDistributionsLater()) {
+            rebuildDistributions();
+        }
 
         int current = 0, prev = 0, pprev = 0;
-        int wordid = 0, docid = 0, topicid = 0, stateid = 0, splitid = 0, stemid =
-              0, affixid = 0;
+        int wordid = 0, docid = 0, topicid = 0, stateid = 0;
         int docoff, wordstateoff, wordtopicoff;
-        String word = "", stem = "", affix = "";
 
         for (int i = 0; i < wordN; ++i) {
             wordid = wordVector[i];
@@ -117,31 +121,17 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
                 docid = documentVector[i];
                 topicid = topicVector[i];
                 stateid = stateVector[i];
-                splitid = splitVector[i];
 
                 docoff = topicK * docid;
                 wordstateoff = wordid * stateS;
                 wordtopicoff = wordid * topicK;
 
-                word = trainIdxToWord.get(wordid);
-
-                stem = word.substring(0, splitid);
-                affix = word.substring(splitid, word.length());
-                stemid = stemLexicon.getOrPutIdx(stem);
-                affixid = affixLexicon.getOrPutIdx(affix);
-                stemVector[i] = stemid;
-                affixVector[i] = affixid;
-
                 if (stateid < topicSubStates) {
-                    stemAffixTopicHDP.inc(topicid, affixid, stemid);
                     DocumentByTopic[docoff + topicid]++;
                     topicCounts[topicid]++;
                     TopicByWord[wordtopicoff + topicid]++;
-                } else {
-                    stemAffixStateDP.inc(stateid, affixid, stemid);
                 }
 
-                affixStateDP.inc(stateid, affixid);
                 StateByWord[wordstateoff + stateid]++;
                 stateCounts[stateid]++;
                 secondOrderTransitions[prev * S2 + current * stateS + stateid]++;
@@ -156,6 +146,56 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
         }
     }
 
+    @Override
+    protected void rebuildDistributions() {
+        int wordid = 0, topicid = 0, stateid = 0, splitid = 0, stemid = 0,
+              affixid = 0;
+        String word = "", stem = "", affix = "";
+
+        for (int i = 0; i < wordN; ++i) {
+            wordid = wordVector[i];
+
+            if (wordid != EOSi) {
+                topicid = topicVector[i];
+                stateid = stateVector[i];
+                splitid = splitVector[i];
+
+                word = trainVocabulary.getWord(wordid);
+
+                stem = word.substring(0, splitid);
+                affix = word.substring(splitid, word.length());
+                stemid = stemLexicon.getOrPutIdx(stem);
+                affixid = affixLexicon.getOrPutIdx(affix);
+                stemVector[i] = stemid;
+                affixVector[i] = affixid;
+
+                if (stateid < topicSubStates) {
+                    stemAffixTopicHDP.inc(topicid, affixid, stemid);
+                } else {
+                    stemAffixStateDP.inc(stateid, affixid, stemid);
+                }
+
+                affixStateDP.inc(stateid, affixid);
+            }
+        }
+    }
+
+    @Override
+    protected void writeProcesses(ModelFileWriter out) throws IOException {
+        stemTopicHierarchicalBaseDistribution.write(out, "stemTopicBase");
+        stemAffixTopicHDP.write(out, "stemAffixTopicHDP");
+        stemAffixStateDP.write(out, "stemAffixStateDP");
+        affixStateDP.write(out, "affixStateDP");
+    }
+
+    @Override
+    protected void readProcessesLater(ModelFile in) {
+        stemTopicHierarchicalBaseDistribution.readLater(in, "stemTopicBase");
+        stemAffixTopicHDP.readLater(in, "stemAffixTopicHDP");
+        stemAffixStateDP.readLater(in, "stemAffixStateDP");
+        affixStateDP.readLater(in, "affixStateDP");
+    }
+
     /**
      * Randomly set the model parameters for use in training
      */
@@ -260,7 +300,7 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
                     stateVector[i] = stateid;
                 }
 
-                word = trainIdxToWord.get(wordid);
+                word = trainVocabulary.getWord(wordid);
                 wlength = word.length();
                 totalprob = 0;
                 for (int j = 0; j < wlength + 1; ++j) {
@@ -321,7 +361,8 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
      * Training routine for the inner iterations
      */
     @Override
-    protected void trainInnerIter(int itermax, String message) {
+    protected void trainInnerIter(int firstiter, int itermax,
+          String message) {
         /**
          * Declaring temporary variables for training
          */
@@ -339,7 +380,7 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
 
         double[] splitProbs = new double[MAXLEN];
 
-        for (int initer = 0; initer < itermax; ++initer) {
+        for (int initer = firstiter; initer < itermax; ++initer) {
             System.err.print("\n" + message + " " + initer);
             System.err.print("\tprocessing word ");
             current = 0;
@@ -361,7 +402,7 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
                     third[i] = pprev;
                     current = prev = pprev = 0;
                 } else {
-                    word = trainIdxToWord.get(wordid);
+                    word = trainVocabulary.getWord(wordid);
                     docid = documentVector[i];
                     stateid = stateVector[i];
                     topicid = topicVector[i];
@@ -556,7 +597,7 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
 
         double[] nonexistentStateAffixProbs = affixStateDP.getNonexistentStateAffixProbs();
         for (int wordid = 1; wordid < wordW; ++wordid) {
-            word = trainIdxToWord.get(wordid);
+            word = trainVocabulary.getWord(wordid);
             int wordtopicoff = wordid * topicK;
             int wordstateoff = wordid * stateS;
 
@@ -593,7 +634,7 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
         }
 
         for (int wordid = 1; wordid < wordW; ++wordid) {
-            word = trainIdxToWord.get(wordid);
+            word = trainVocabulary.getWord(wordid);
             int wordstateoff = wordid * stateS;
 
             wlength = word.length();
@@ -647,7 +688,7 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
 
             if (wordid != EOSi) // sentence marker
             {
-                word = trainIdxToWord.get(wordVector[i]);
+                word = trainVocabulary.getWord(wordVector[i]);
                 docid = documentVector[i];
                 stateid = stateVector[i];
                 topicid = topicVector[i];
@@ -699,7 +740,7 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
         testWordStateProbs = new double[wordW * stateS];
 
         for (int i = 0; i < wordW; ++i) {
-            word = testIdxToWord.get(i);
+            word = testVocabulary.getWord(i);
             wlength = word.length();
             splitmax = wlength + 1;
             for (int k = 0; k < splitmax; ++k) {
@@ -788,7 +829,7 @@ public class HDPHMMLDAm1 extends HDPHMMLDA {
                 stateid = stateVector[i];
                 topicid = topicVector[i];
 
-                word = testIdxToWord.get(wordid);
+                word = testVocabulary.getWord(wordid);
                 wlength = word.length();
                 splitmax = wlength + 1;
                 for (int k = 0; k < splitmax; ++k) {
@@ -27,6 +27,9 @@ import tikka.hhl.distributions.AffixStemStateHDP;
 import tikka.hhl.distributions.StemStateDP;
 import tikka.hhl.distributions.StemTopicDP;
 
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
 import java.io.IOException;
 
 /**
@@ -82,12 +85,13 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
         super.initializeFromLoadedModel(options);
 
         initalizeDistributions();
+        if (!readDistributionsLater()) {
+            rebuildDistributions();
+        }
 
         int current = 0, prev = 0, pprev = 0;
-        int wordid = 0, docid = 0, topicid = 0, stateid = 0, splitid = 0, stemid =
-              0, affixid = 0;
+        int wordid = 0, docid = 0, topicid = 0, stateid = 0;
         int docoff, wordstateoff, wordtopicoff;
-        String word = "", stem = "", affix = "";
 
         for (int i = 0; i < wordN; ++i) {
             wordid = wordVector[i];
@@ -104,31 +108,17 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
                 docid = documentVector[i];
                 topicid = topicVector[i];
                 stateid = stateVector[i];
-                splitid = splitVector[i];
 
                 docoff = topicK * docid;
                 wordstateoff = wordid * stateS;
                 wordtopicoff = wordid * topicK;
 
-                word = trainIdxToWord.get(wordid);
-
-                stem = word.substring(0, splitid);
-                affix = word.substring(splitid, word.length());
-                stemid = stemLexicon.getOrPutIdx(stem);
-                affixid = affixLexicon.getOrPutIdx(affix);
-                stemVector[i] = stemid;
-                affixVector[i] = affixid;
-
                 if (stateid < topicSubStates) {
-                    stemTopicDP.inc(topicid, stemid);
                     DocumentByTopic[docoff + topicid]++;
                     topicCounts[topicid]++;
                     TopicByWord[wordtopicoff + topicid]++;
-                } else {
-                    stemStateDP.inc(stateid, stemid);
                 }
 
-                affixStemStateHDP.inc(stateid, stemid, affixid);
                 StateByWord[wordstateoff + stateid]++;
                 stateCounts[stateid]++;
                 secondOrderTransitions[prev * S2 + current * stateS + stateid]++;
@@ -143,6 +133,54 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
         }
     }
 
+    @Override
+    protected void rebuildDistributions() {
+        int wordid = 0, topicid = 0, stateid = 0, splitid = 0, stemid = 0,
+              affixid = 0;
+        String word = "", stem = "", affix = "";
+
+        for (int i = 0; i < wordN; ++i) {
+            wordid = wordVector[i];
+
+            if (wordid != EOSi) {
+                topicid = topicVector[i];
+                stateid = stateVector[i];
+                splitid = splitVector[i];
+
+                word = trainVocabulary.getWord(wordid);
+
+                stem = word.substring(0, splitid);
+                affix = word.substring(splitid, word.length());
+                stemid = stemLexicon.getOrPutIdx(stem);
+                affixid = affixLexicon.getOrPutIdx(affix);
+                stemVector[i] = stemid;
+                affixVector[i] = affixid;
+
+                if (stateid < topicSubStates) {
+                    stemTopicDP.inc(topicid, stemid);
+                } else {
+                    stemStateDP.inc(stateid, stemid);
+                }
+
+                affixStemStateHDP.inc(stateid, stemid, affixid);
+            }
+        }
+    }
+
+    @Override
+    protected void writeProcesses(ModelFileWriter out) throws IOException {
+        affixStemStateHDP.write(out, "affixStemStateHDP");
+        stemStateDP.write(out, "stemStateDP");
+        stemTopicDP.write(out, "stemTopicDP");
+    }
+
+    @Override
+    protected void readProcessesLater(ModelFile in) {
+        affixStemStateHDP.readLater(in, "affixStemStateHDP");
+        stemStateDP.readLater(in, "stemStateDP");
+        stemTopicDP.readLater(in, "stemTopicDP");
+    }
+
     /**
      * Randomly set the model parameters for use in training
      */
@@ -246,7 +284,7 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
                     stateVector[i] = stateid;
                 }
 
-                word = trainIdxToWord.get(wordid);
+                word = trainVocabulary.getWord(wordid);
                 wlength = word.length();
                 totalprob = 0;
                 for (int j = 0; j < wlength + 1; ++j) {
@@ -307,7 +345,8 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
      * Training routine for the inner iterations
      */
     @Override
-    protected void trainInnerIter(int itermax, String message) {
+    protected void trainInnerIter(int firstiter, int itermax,
+          String message) {
         /**
          * Declaring temporary variables for training
          */
@@ -325,7 +364,7 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
 
         double[] splitProbs = new double[MAXLEN];
 
-        for (int initer = 0; initer < itermax; ++initer) {
+        for (int initer = firstiter; initer < itermax; ++initer) {
             System.err.print("\n" + message + " " + initer);
             System.err.print("\tprocessing word ");
             current = 0;
@@ -347,7 +386,7 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
                     third[i] = pprev;
                     current = prev = pprev = 0;
                 } else {
-                    word = trainIdxToWord.get(wordid);
+                    word = trainVocabulary.getWord(wordid);
                     docid = documentVector[i];
                     stateid = stateVector[i];
                     topicid = topicVector[i];
@@ -541,7 +580,7 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
         int[] stemidxes = new int[MAXLEN], affixidxes = new int[MAXLEN];
 
         for (int wordid = 1; wordid < wordW; ++wordid) {
-            word = trainIdxToWord.get(wordid);
+            word = trainVocabulary.getWord(wordid);
             int wordtopicoff = wordid * topicK;
             int wordstateoff = wordid * stateS;
 
@@ -574,7 +613,7 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
          * Calculate word probability per state (but only for non-topic states)
          */
         for (int wordid = 1; wordid < wordW; ++wordid) {
-            word = trainIdxToWord.get(wordid);
+            word = trainVocabulary.getWord(wordid);
             int wordstateoff = wordid * stateS;
 
             wlength = word.length();
@@ -627,7 +666,7 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
 
             if (wordid != EOSi) // sentence marker
             {
-                word = trainIdxToWord.get(wordVector[i]);
+                word = trainVocabulary.getWord(wordVector[i]);
                 stateid = stateVector[i];
                 topicid = topicVector[i];
 
@@ -678,7 +717,7 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
         testWordStateProbs = new double[wordW * stateS];
 
         for (int i = 0; i < wordW; ++i) {
-            word = testIdxToWord.get(i);
+            word = testVocabulary.getWord(i);
             wlength = word.length();
             splitmax = wlength + 1;
             for (int k = 0; k < splitmax; ++k) {
@@ -767,7 +806,7 @@ public class HDPHMMLDAm2 extends HDPHMMLDA {
                 stateid = stateVector[i];
                 topicid = topicVector[i];
 
-                word = testIdxToWord.get(wordid);
+                word = testVocabulary.getWord(wordid);
                 wlength = word.length();
                 splitmax = wlength + 1;
                 for (int k = 0; k < splitmax; ++k) {
@@ -26,6 +26,9 @@ import tikka.hhl.distributions.DirichletBaseDistribution;
 import tikka.hhl.distributions.AffixStemStateHDP;
 import tikka.hhl.distributions.StemStateDP;
 
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
 import java.io.IOException;
 
 /**
@@ -76,11 +79,13 @@ public class HDPHMM extends HDPHMMLDA {
         super.initializeFromLoadedModel(options);
 
         initalizeDistributions();
+        if (!readDistributionsLater()) {
+            rebuildDistributions();
+        }
 
         int current = 0, prev = 0, pprev = 0;
-        int wordid = 0, stateid = 0, splitid = 0, stemid = 0, affixid = 0;
+        int wordid = 0, stateid = 0;
         int wordstateoff;
-        String word = "", stem = "", affix = "";
 
         for (int i = 0; i < wordN; ++i) {
             wordid = wordVector[i];
@@ -94,21 +99,9 @@ public class HDPHMM extends HDPHMMLDA {
                 pprev = prev = current = 0;
             } else {
                 stateid = stateVector[i];
-                splitid = splitVector[i];
 
                 wordstateoff = wordid * stateS;
 
-                word = trainIdxToWord.get(wordid);
-
-                stem = word.substring(0, splitid);
-                affix = word.substring(splitid, word.length());
-                stemid = stemLexicon.getOrPutIdx(stem);
-                affixid = affixLexicon.getOrPutIdx(affix);
-                stemVector[i] = stemid;
-                affixVector[i] = affixid;
-
-                stemStateDP.inc(stateid, stemid);
-                affixStemStateHDP.inc(stateid, stemid, affixid);
                 StateByWord[wordstateoff + stateid]++;
                 stateCounts[stateid]++;
                 secondOrderTransitions[prev * S2 + current * stateS + stateid]++;
@@ -123,6 +116,45 @@ public class HDPHMM extends HDPHMMLDA {
         }
     }
 
+    @Override
+    protected void rebuildDistributions() {
+        int wordid = 0, stateid = 0, splitid = 0, stemid = 0, affixid = 0;
+        String word = "", stem = "", affix = "";
+
+        for (int i = 0; i < wordN; ++i) {
+            wordid = wordVector[i];
+
+            if (wordid != EOSi) {
+                stateid = stateVector[i];
+                splitid = splitVector[i];
+
+                word = trainVocabulary.getWord(wordid);
+
+                stem = word.substring(0, splitid);
+                affix = word.substring(splitid, word.length());
+                stemid = stemLexicon.getOrPutIdx(stem);
+                affixid = affixLexicon.getOrPutIdx(affix);
+                stemVector[i] = stemid;
+                affixVector[i] = affixid;
+
+                stemStateDP.inc(stateid, stemid);
+                affixStemStateHDP.inc(stateid, stemid, affixid);
+            }
+        }
+    }
+
+    @Override
+    protected void writeProcesses(ModelFileWriter out) throws IOException {
+        affixStemStateHDP.write(out, "affixStemStateHDP");
+        stemStateDP.write(out, "stemStateDP");
+    }
+
+    @Override
+    protected void readProcessesLater(ModelFile in) {
+        affixStemStateHDP.readLater(in, "affixStemStateHDP");
+        stemStateDP.readLater(in, "stemStateDP");
+    }
+
     /**
      * Randomly set the model parameters for use in training
      */
@@ -181,7 +213,7 @@ public class HDPHMM extends HDPHMMLDA {
                 }
                 stateVector[i] = stateid;
 
-                word = trainIdxToWord.get(wordid);
+                word = trainVocabulary.getWord(wordid);
                 wlength = word.length();
                 totalprob = 0;
                 for (int j = 0; j < wlength + 1; ++j) {
@@ -229,7 +261,8 @@ public class HDPHMM extends HDPHMMLDA {
      * Training routine for the inner iterations
      */
     @Override
-    protected void trainInnerIter(int itermax, String message) {
+    protected void trainInnerIter(int firstiter, int itermax,
+          String message) {
         /**
          * Declaring temporary variables for training
          */
@@ -245,7 +278,7 @@ public class HDPHMM extends HDPHMMLDA {
 
         double[] splitProbs = new double[MAXLEN];
 
-        for (int initer = 0; initer < itermax; ++initer) {
+        for (int initer = firstiter; initer < itermax; ++initer) {
             System.err.print("\n" + message + " " + initer);
             System.err.print("\tprocessing word ");
             current = 0;
@@ -267,7 +300,7 @@ public class HDPHMM extends HDPHMMLDA {
                     third[i] = pprev;
                     current = prev = pprev = 0;
                 } else {
-                    word = trainIdxToWord.get(wordid);
+                    word = trainVocabulary.getWord(wordid);
                     stateid = stateVector[i];
                     stemid = stemVector[i];
                     affixid = affixVector[i];
@@ -395,7 +428,7 @@ public class HDPHMM extends HDPHMMLDA {
          * Calculate word probability per state (but only for non-topic states)
          */
         for (int wordid = 1; wordid < wordW; ++wordid) {
-            word = trainIdxToWord.get(wordid);
+            word = trainVocabulary.getWord(wordid);
             int wordstateoff = wordid * stateS;
 
             wlength = word.length();
@@ -447,7 +480,7 @@ public class HDPHMM extends HDPHMMLDA {
 
             if (wordid != EOSi) // sentence marker
             {
-                word = trainIdxToWord.get(wordVector[i]);
+                word = trainVocabulary.getWord(wordVector[i]);
                 stateid = stateVector[i];
                 topicid = topicVector[i];
 
@@ -497,7 +530,7 @@ public class HDPHMM extends HDPHMMLDA {
         testWordStateProbs = new double[wordW * stateS];
 
         for (int i = 1; i < wordW; ++i) {
-            word = testIdxToWord.get(i);
+            word = testVocabulary.getWord(i);
             wlength = word.length();
             splitmax = wlength + 1;
             for (int k = 0; k < splitmax; ++k) {
@@ -585,7 +618,7 @@ public class HDPHMM extends HDPHMMLDA {
             {
                 stateid = stateVector[i];
 
-                word = testIdxToWord.get(wordid);
+                word = testVocabulary.getWord(wordid);
                 wlength = word.length();
                 splitmax = wlength + 1;
                 for (int k = 0; k < splitmax; ++k) {
@@ -627,7 +660,7 @@ public class HDPHMM extends HDPHMMLDA {
          * overwritten.
          */
         double twbeta = wbeta, twgamma = wgamma;
-        initializeTokenArrays(testDirReader, testWordIdx, testIdxToWord);
+        initializeTokenArrays(testDirReader, testVocabulary);
         wbeta = twbeta;
         wgamma = twgamma;
 
@@ -26,6 +26,9 @@ import tikka.hhl.distributions.DirichletBaseDistribution;
 import tikka.hhl.distributions.AffixStemStateHDP;
 import tikka.hhl.distributions.StemTopicDP;
 
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+
 import java.io.IOException;
 
 /**
@@ -81,11 +84,12 @@ public class HDPLDA extends HDPHMMLDA {
         super.initializeFromLoadedModel(options);
 
         initalizeDistributions();
+        if (!readDistributionsLater()) {
+            rebuildDistributions();
+        }
 
-        int wordid = 0, docid = 0, topicid = 0, splitid = 0, stemid =
-              0, affixid = 0;
+        int wordid = 0, docid = 0, topicid = 0;
         int docoff, wordtopicoff;
-        String word = "", stem = "", affix = "";
 
         for (int i = 0; i < wordN; ++i) {
             wordid = wordVector[i];
@@ -93,12 +97,30 @@ public class HDPLDA extends HDPHMMLDA {
             if (wordid != EOSi) {
                 docid = documentVector[i];
                 topicid = topicVector[i];
-                splitid = splitVector[i];
 
                 docoff = topicK * docid;
                 wordtopicoff = wordid * topicK;
 
-                word = trainIdxToWord.get(wordid);
+                DocumentByTopic[docoff + topicid]++;
+                topicCounts[topicid]++;
+                TopicByWord[wordtopicoff + topicid]++;
+            }
+        }
+    }
+
+    @Override
+    protected void rebuildDistributions() {
+        int wordid = 0, topicid = 0, splitid = 0, stemid = 0, affixid = 0;
+        String word = "", stem = "", affix = "";
+
+        for (int i = 0; i < wordN; ++i) {
+            wordid = wordVector[i];
+
+            if (wordid != EOSi) {
+                topicid = topicVector[i];
+                splitid = splitVector[i];
+
+                word = trainVocabulary.getWord(wordid);
 
                 stem = word.substring(0, splitid);
                 affix = word.substring(splitid, word.length());
@@ -108,14 +130,23 @@ public class HDPLDA extends HDPHMMLDA {
                 affixVector[i] = affixid;
 
                 stemTopicDP.inc(topicid, stemid);
-                DocumentByTopic[docoff + topicid]++;
-                topicCounts[topicid]++;
-                TopicByWord[wordtopicoff + topicid]++;
                 affixStemStateHDP.inc(FIXEDSTATEID, stemid, affixid);
             }
         }
     }
 
+    @Override
+    protected void writeProcesses(ModelFileWriter out) throws IOException {
+        affixStemStateHDP.write(out, "affixStemStateHDP");
+        stemTopicDP.write(out, "stemTopicDP");
+    }
+
+    @Override
+    protected void readProcessesLater(ModelFile in) {
+        affixStemStateHDP.readLater(in, "affixStemStateHDP");
+        stemTopicDP.readLater(in, "stemTopicDP");
+    }
+
     /**
      * Randomly set the model parameters for use in training
      */
@@ -165,7 +196,7 @@ public class HDPLDA extends HDPHMMLDA {
                 topicVector[i] = topicid;
                 max = 0;
 
-                word = trainIdxToWord.get(wordid);
+                word = trainVocabulary.getWord(wordid);
                 wlength = word.length();
                 totalprob = 0;
                 for (int j = 0; j < wlength + 1; ++j) {
@@ -206,7 +237,8 @@ public class HDPLDA extends HDPHMMLDA {
      * Training routine for the inner iterations
      */
     @Override
-    protected void trainInnerIter(int itermax, String message) {
+    protected void trainInnerIter(int firstiter, int itermax,
+          String message) {
         /**
          * Declaring temporary variables for training
          */
@@ -221,7 +253,7 @@ public class HDPLDA extends HDPHMMLDA {
 
         double[] splitProbs = new double[MAXLEN];
 
-        for (int initer = 0; initer < itermax; ++initer) {
+        for (int initer = firstiter; initer < itermax; ++initer) {
             System.err.print("\n" + message + " " + initer);
             System.err.print("\tprocessing word ");
             for (int i = 0; i < wordN; i++) {
@@ -238,7 +270,7 @@ public class HDPLDA extends HDPHMMLDA {
                     stemid = stemVector[i];
                     affixid = affixVector[i];
 
-                    word = trainIdxToWord.get(wordid);
+                    word = trainVocabulary.getWord(wordid);
                     wlength = word.length();
                     splitmax = wlength + 1;
                     for (int k = 0; k < splitmax; ++k) {
@@ -345,7 +377,7 @@ public class HDPLDA extends HDPHMMLDA {
         int[] stemidxes = new int[MAXLEN], affixidxes = new int[MAXLEN];
 
         for (int wordid = 1; wordid < wordW; ++wordid) {
-            word = trainIdxToWord.get(wordid);
+            word = trainVocabulary.getWord(wordid);
             int wordtopicoff = wordid * topicK;
 
             wlength = word.length();
@@ -397,7 +429,7 @@ public class HDPLDA extends HDPHMMLDA {
 
             if (wordid != EOSi) // sentence marker
             {
-                word = trainIdxToWord.get(wordVector[i]);
+                word = trainVocabulary.getWord(wordVector[i]);
                 topicid = topicVector[i];
 
                 wlength = word.length();
@@ -439,7 +471,7 @@ public class HDPLDA extends HDPHMMLDA {
         testWordTopicProbs = new double[wordW * topicK];
 
         for (int i = 1; i < wordW; ++i) {
-            word = testIdxToWord.get(i);
+            word = testVocabulary.getWord(i);
             wlength = word.length();
             splitmax = wlength + 1;
             for (int k = 0; k < splitmax; ++k) {
@@ -524,7 +556,7 @@ public class HDPLDA extends HDPHMMLDA {
             {
                 topicid = topicVector[i];
 
-                word = testIdxToWord.get(wordid);
+                word = testVocabulary.getWord(wordid);
                 wlength = word.length();
                 splitmax = wlength + 1;
                 for (int k = 0; k < splitmax; ++k) {
@@ -566,7 +598,7 @@ public class HDPLDA extends HDPHMMLDA {
          * overwritten.
          */
         double twbeta = wbeta, twgamma = wgamma;
-        initializeTokenArrays(testDirReader, testWordIdx, testIdxToWord);
+        initializeTokenArrays(testDirReader, testVocabulary);
         wbeta = twbeta;
         wgamma = twgamma;
         double talpha = alpha * topicK;
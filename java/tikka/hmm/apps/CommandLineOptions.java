@@ -17,7 +17,9 @@
 ///////////////////////////////////////////////////////////////////////////////
 package tikka.hmm.apps;
 
+import tikka.opennlp.io.BlockGzipOutputStream;
 import tikka.opennlp.io.DataFormatEnum;
+import tikka.structures.StorageEnum;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -76,6 +78,15 @@ public class CommandLineOptions {
      * full path to save model to
      */
     protected String modelOutputPath = null;
+    /**
+     * Compression level of saved models from 1 to 9, or 0 to save them
+     * uncompressed so that they are mapped when loaded
+     */
+    protected int modelCompression = 0;
+    /**
+     * Number of bytes of the model in each compressed block
+     */
+    protected int modelBlockSize = BlockGzipOutputStream.MAX_BLOCK_SIZE;
     /**
      * Root of path to output annotated texts to
      */
@@ -144,6 +155,14 @@ public class CommandLineOptions {
      * Output buffer to dump training data sample scores (perplexity) to
      */
     protected BufferedWriter trainDataSampleScoreOutput;
+    /**
+     * Name of file to write elapsed time and accuracy per iteration to
+     */
+    protected String convergenceOutputFilename = null;
+    /**
+     * Output buffer to write elapsed time and accuracy per iteration to
+     */
+    protected BufferedWriter convergenceOutput;
     /**
      * Temperature at which to start annealing process
      */
@@ -172,6 +191,22 @@ public class CommandLineOptions {
      * Number of iterations between samples
      */
     protected int lag = 10;
+    /**
+     * Number of sampler threads
+     */
+    protected int threads = 1;
+    /**
+     * Where the token arrays and the large count arrays are kept
+     */
+    protected StorageEnum.Storage storage = StorageEnum.Storage.HEAP;
+    /**
+     * Directory of the files of mapped arrays
+     */
+    protected String storageDirectory = null;
+    /**
+     * Directory of the binary caches of parsed corpora. No cache if null.
+     */
+    protected String corpusCacheDirectory = null;
 
     /**
      *
@@ -253,7 +288,14 @@ public class CommandLineOptions {
                     modelInputPath = value;
                     break;
                 case 'm':
-                    modelOutputPath = value;
+                    opt = option.getOpt();
+                    if (opt.equals("m")) {
+                        modelOutputPath = value;
+                    } else if (opt.equals("mz")) {
+                        modelCompression = Integer.parseInt(value);
+                    } else if (opt.equals("mb")) {
+                        modelBlockSize = Integer.parseInt(value);
+                    }
                     break;
                 case 'n':
                     if (value.endsWith("" + File.separator)) {
@@ -281,6 +323,10 @@ public class CommandLineOptions {
                         evaluationOutputFilename = value;
                         evaluationOutput = new BufferedWriter(new OutputStreamWriter(
                               new FileOutputStream(evaluationOutputFilename)));
+                    } else if (opt.equals("oc")) {
+                        convergenceOutputFilename = value;
+                        convergenceOutput = new BufferedWriter(new OutputStreamWriter(
+                              new FileOutputStream(convergenceOutputFilename)));
                     }
                     break;
                 case 'p':
@@ -328,6 +374,26 @@ public class CommandLineOptions {
                 case 'w':
                     outputPerClass = Integer.parseInt(value);
                     break;
+                case 'x':
+                    opt = option.getOpt();
+                    if (opt.equals("xt")) {
+                        threads = Integer.parseInt(value);
+                    } else if (opt.equals("xo")) {
+                        if (value.equals("heap")) {
+                            storage = StorageEnum.Storage.HEAP;
+                        } else if (value.equals("mapped")) {
+                            storage = StorageEnum.Storage.MAPPED;
+                        } else {
+                            System.err.println(
+                                  "\"" + value + "\" is an unknown storage option.");
+                            System.exit(1);
+                        }
+                    } else if (opt.equals("xd")) {
+                        storageDirectory = value;
+                    } else if (opt.equals("xb")) {
+                        corpusCacheDirectory = value;
+                    }
+                    break;
             }
         }
     }
@@ -412,6 +478,21 @@ public class CommandLineOptions {
         return modelOutputPath;
     }
 
+    /**
+     * @return compression level of saved models, 0 if they are not
+     * compressed
+     */
+    public int getModelCompression() {
+        return modelCompression;
+    }
+
+    /**
+     * @return number of bytes of the model in each compressed block
+     */
+    public int getModelBlockSize() {
+        return modelBlockSize;
+    }
+
     public String getAnnotatedTrainTextOutDir() {
         return annotatedTrainTextOutDir;
     }
@@ -468,6 +549,48 @@ public class CommandLineOptions {
         return evaluationOutput;
     }
 
+    /**
+     * @return the convergenceOutputFilename
+     */
+    public String getConvergenceOutputFilename() {
+        return convergenceOutputFilename;
+    }
+
+    /**
+     * @return the convergenceOutput
+     */
+    public BufferedWriter getConvergenceOutput() {
+        return convergenceOutput;
+    }
+
+    /**
+     * @return the number of sampler threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return where the token arrays and the large count arrays are kept
+     */
+    public StorageEnum.Storage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return the directory of the files of mapped arrays
+     */
+    public String getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    /**
+     * @return the directory of the binary caches of parsed corpora
+     */
+    public String getCorpusCacheDirectory() {
+        return corpusCacheDirectory;
+    }
+
     public TagSetEnum.TagSet getTagSet() {
         return tagSet;
     }
@@ -45,7 +45,7 @@ public class MainBase {
         options.addOption("d", "train-data-dir", true,
               "full path to directory containing training documents");
         options.addOption("e", "experiment-model", true,
-              "model to use [m1,m2,m3; default=m1]");
+              "model to use [m1,m2,m3,m4; default=m1]");
         options.addOption("f", "test-data-dir", true,
               "full path to directory containing test documents");
         options.addOption("g", "gamma", true,
@@ -65,10 +65,20 @@ public class MainBase {
               "full path of model to be loaded");
         options.addOption("m", "model-output-path", true,
               "full path to save model to");
+        options.addOption("mz", "model-compression", true,
+              "compress saved models in blocks on several threads at this " +
+              "level from 1 to 9. compressed models are inflated to a " +
+              "temporary file when loaded (default=0, not compressed)");
+        options.addOption("mb", "model-block-size", true,
+              "number of bytes of the model in each compressed block " +
+              "(default=65280)");
         options.addOption("n", "annotated-text", true,
               "full path to save annotated text to");
         options.addOption("oe", "output-evaluation-score", true,
               "path of output for evaluation results");
+        options.addOption("oc", "output-convergence", true,
+              "path of output for elapsed training time and accuracy after "
+              + "each iteration");
         options.addOption("oste", "output-test-sample-score", true,
               "path of output for perplexity measures for samples taken for the test data");
         options.addOption("ostr", "output-train-sample-score", true,
@@ -93,5 +103,20 @@ public class MainBase {
               + "be reduced [0=none, 1=CE; default=0]");
         options.addOption("w", "words-class", true,
               "number of words to print per class (default=50)");
+        options.addOption("xt", "threads", true,
+              "number of threads. files are parsed concurrently and "
+              + "sentences are split across threads in blocked sampling "
+              + "(default=1)");
+        options.addOption("xo", "storage", true,
+              "where to keep the token arrays and the count arrays by word, "
+              + "topic and document [heap, mapped=memory mapped files; "
+              + "default=heap]");
+        options.addOption("xd", "storage-dir", true,
+              "directory for the files of memory mapped arrays "
+              + "(default=system temporary directory)");
+        options.addOption("xb", "corpus-cache", true,
+              "directory of binary caches of parsed corpora. a corpus is "
+              + "parsed once and mapped from its cache on later runs, new "
+              + "files are appended (default=no cache)");
     }
 }
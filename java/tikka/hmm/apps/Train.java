@@ -26,6 +26,7 @@ import tikka.hmm.model.base.SerializableModel;
 import tikka.hmm.model.em.EMHMM;
 import tikka.hmm.model.hmmlda.HMMLDA;
 import tikka.hmm.model.hmmlda.SerializableModelHMMLDA;
+import tikka.hmm.model.mcmc.BlockedGibbsHMM;
 import tikka.hmm.model.mcmc.GibbsHMM;
 
 /**
@@ -72,6 +73,9 @@ public class Train extends MainBase {
                  * has new fields with no access through a shared class interface.
                  */
                 hmm = hmmlda = new HMMLDA(modelOptions);
+            } else if (experimentModel.equals("m4")) {
+                System.err.println("Using blocked MCMC HMM!");
+                hmm = new BlockedGibbsHMM(modelOptions);
             }
 
             System.err.println("Randomly initializing values!");
@@ -79,6 +83,10 @@ public class Train extends MainBase {
             System.err.println("Beginning training!");
             hmm.train();
 
+            if (modelOptions.getConvergenceOutput() != null) {
+                modelOptions.getConvergenceOutput().close();
+            }
+
             /**
              * Save model if specified
              */
@@ -94,9 +102,13 @@ public class Train extends MainBase {
                     serializableModel = new SerializableModel(hmm);
                 } else if (experimentModel.equals("m3")) {
                     serializableModel = new SerializableModelHMMLDA(hmmlda);
+                } else if (experimentModel.equals("m4")) {
+                    serializableModel = new SerializableModel(hmm);
                 }
 
-                serializableModel.saveModel(modelOutputPath);
+                serializableModel.saveModel(modelOutputPath,
+                      modelOptions.getModelCompression(),
+                      modelOptions.getModelBlockSize());
             }
 
             System.err.println("Maximum posterior decoding");
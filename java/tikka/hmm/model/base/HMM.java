@@ -22,7 +22,6 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import tikka.exceptions.IgnoreTagException;
 import tikka.hmm.apps.CommandLineOptions;
 
 import tikka.opennlp.io.*;
@@ -31,6 +30,7 @@ import tikka.structures.*;
 import tikka.utils.annealer.*;
 import tikka.utils.postags.*;
 
+import tikka.utils.HeapUsage;
 import tikka.utils.ec.util.MersenneTwisterFast;
 import tikka.utils.normalizer.*;
 
@@ -38,8 +38,6 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
 
 /**
  *
@@ -110,15 +108,15 @@ public abstract class HMM {
     /**
      * Array of word indexes. Of length {@link #wordN}.
      */
-    protected int[] wordVector;
+    protected IntArray wordVector;
     /**
      * Array of document indexes. Of length {@link #wordN}.
      */
-    protected int[] documentVector;
+    protected IntArray documentVector;
     /**
      * Array of sentence indexes. Of length {@link #wordN}.
      */
-    protected int[] sentenceVector;
+    protected IntArray sentenceVector;
     /**
      * Number of states including topic states and sentence boundary state
      */
@@ -154,27 +152,19 @@ public abstract class HMM {
     /**
      * Array of states one word before in previous iteration
      */
-    protected int[] first;
-    /**
-     * Array of states two words before in previous iteration
-     */
-    protected int[] second;
-    /**
-     * Array of states three words before in previous iteration
-     */
-    protected int[] third;
+    protected IntArray first;
     /**
      * Array of states over tokens
      */
-    protected int[] stateVector;
+    protected IntArray stateVector;
     /**
      * Array of full gold tags
      */
-    protected int[] goldTagVector;
+    protected IntArray goldTagVector;
     /**
      * Array of counts for words given states.
      */
-    protected int[] StateByWord;
+    protected IntArray StateByWord;
     /**
      * Probability of each state
      */
@@ -185,21 +175,13 @@ public abstract class HMM {
      */
     protected StringDoublePair[][] TopWordsPerState;
     /**
-     * Hashtable from word to index for training data.
-     */
-    protected HashMap<String, Integer> trainWordIdx;
-    /**
-     * Hashtable from index to word for training data.
-     */
-    protected HashMap<Integer, String> trainIdxToWord;
-    /**
-     * Hashtable from word to index for training data.
+     * Dictionary between words and indexes for training data.
      */
-    protected HashMap<String, Integer> testWordIdx;
+    protected Vocabulary trainVocabulary;
     /**
-     * Hashtable from index to word for training data.
+     * Dictionary between words and indexes for test data.
      */
-    protected HashMap<Integer, String> testIdxToWord;
+    protected Vocabulary testVocabulary;
     /**
      * Path of training data.
      */
@@ -299,6 +281,43 @@ public abstract class HMM {
      * Class for dealing with evaluation
      */
     protected Evaluator evaluator;
+    /**
+     * Number of sampler threads. Also the number of threads that parse
+     * the training files.
+     */
+    protected int threads;
+    /**
+     * Output buffer to write elapsed time and accuracy per iteration to.
+     * Null if no convergence output was requested.
+     */
+    protected BufferedWriter convergenceOutput;
+    /**
+     * Number of training iterations completed
+     */
+    protected int iterationsCompleted;
+    /**
+     * Time in milliseconds at which training began
+     */
+    protected long trainStartTime;
+    /**
+     * Time in milliseconds spent writing convergence output, which is left
+     * out of the elapsed training time
+     */
+    protected long convergenceOutputTime;
+    /**
+     * Where the token arrays and the large count arrays are kept
+     */
+    protected StorageEnum.Storage storage;
+    /**
+     * Directory of the files of mapped arrays. The default temporary
+     * directory if null.
+     */
+    protected File storageDirectory;
+    /**
+     * Directory of the binary caches of parsed corpora. Corpora are parsed
+     * on every run if null.
+     */
+    protected File corpusCacheDirectory;
 
     public HMM(CommandLineOptions options) {
         try {
@@ -330,10 +349,8 @@ public abstract class HMM {
         testDataDir = options.getTestDataDir();
         if (testDataDir != null) {
             testDirReader = new DirReader(testDataDir, dataFormat);
-            testWordIdx = new HashMap<String, Integer>();
-            testIdxToWord = new HashMap<Integer, String>();
-            testWordIdx.put(EOSw, EOSi);
-            testIdxToWord.put(EOSi, EOSw);
+            testVocabulary = new Vocabulary();
+            testVocabulary.put(EOSw, EOSi);
         } else {
             testDataDir = "";
         }
@@ -341,10 +358,8 @@ public abstract class HMM {
         /**
          * Setting lexicons
          */
-        trainWordIdx = new HashMap<String, Integer>();
-        trainIdxToWord = new HashMap<Integer, String>();
-        trainWordIdx.put(EOSw, EOSi);
-        trainIdxToWord.put(EOSi, EOSw);
+        trainVocabulary = new Vocabulary();
+        trainVocabulary.put(EOSw, EOSi);
 
         /**
          * Setting dimensions
@@ -391,14 +406,30 @@ public abstract class HMM {
         wordNormalizer = new WordNormalizerToLower(tagMap);
 
         modelName = options.getExperimentModel();
+        threads = options.getThreads();
+        convergenceOutput = options.getConvergenceOutput();
+        storage = options.getStorage();
+        if (options.getStorageDirectory() != null) {
+            storageDirectory = new File(options.getStorageDirectory());
+        }
+        if (options.getCorpusCacheDirectory() != null) {
+            corpusCacheDirectory = new File(options.getCorpusCacheDirectory());
+        }
     }
 
     /**
      * Initialize data structures needed for inference from training data.
+     *
+     * @throws IOException
      */
-    public void initializeFromTrainingData() {
-        initializeTokenArrays(trainDirReader, trainWordIdx, trainIdxToWord);
+    public void initializeFromTrainingData() throws IOException {
+        long startTime = System.currentTimeMillis();
+        initializeTokenArrays(trainDirReader, trainVocabulary);
+        trainVocabulary.freeze();
+        System.err.println(HeapUsage.report(String.format(
+              "Reading %d tokens of %d words", wordN, wordW), startTime));
         initializeCountArrays();
+        System.err.println(HeapUsage.report("Initialization", startTime));
     }
 
     /**
@@ -412,91 +443,62 @@ public abstract class HMM {
      * rewritten in sampling for test sets.
      *
      * @param dirReader Object to walk through files and directories
-     * @param wordIdx   Dictionary from word to index
-     * @param idxToWord Dictionary from index to word
+     * @param vocabulary    Dictionary between words and indexes
+     * @throws IOException
      */
     protected void initializeTokenArrays(DirReader dirReader,
-          HashMap<String, Integer> wordIdx, HashMap<Integer, String> idxToWord) {
-        documentD = sentenceS = 0;
-        ArrayList<Integer> wordVectorT = new ArrayList<Integer>(),
-              goldFullTagVectorT = new ArrayList<Integer>(),
-              sentenceVectorT = new ArrayList<Integer>(),
-              documentVectorT = new ArrayList<Integer>();
-
-        while ((dataReader = dirReader.nextDocumentReader()) != null) {
-            try {
-                String[][] sentence;
-                while ((sentence = dataReader.nextSequence()) != null) {
-                    for (String[] line : sentence) {
-                        try {
-                            wordNormalizer.normalize(line);
-                            String word = wordNormalizer.getWord();
-                            String tag = wordNormalizer.getTag();
-                            if (!word.isEmpty() && tag != null) {
-                                if (!wordIdx.containsKey(word)) {
-                                    wordIdx.put(word, wordIdx.size());
-                                    idxToWord.put(idxToWord.size(), word);
-                                }
-                                wordVectorT.add(wordIdx.get(word));
-                                sentenceVectorT.add(sentenceS);
-                                documentVectorT.add(documentD);
-                                goldFullTagVectorT.add(tagMap.get(tag));
-                            }
-                        } catch (IgnoreTagException e) {
-                        }
-                    }
-                    sentenceS++;
-                }
-            } catch (IOException e) {
-            }
-            documentD++;
-//                        wordNormalizer.normalize(line);
-//                        String word = wordNormalizer.getWord();
-//                        String tag = wordNormalizer.getTag();
-////                        String word = wordNormalizer.normalize(line)[0];
-//                        if (!word.isEmpty()) {
-//                            if (!wordIdx.containsKey(word)) {
-//                                wordIdx.put(word, wordIdx.size());
-//                                idxToWord.put(idxToWord.size(), word);
-//                            }
-//                            wordVectorT.add(wordIdx.get(word));
-//                            sentenceVectorT.add(sentenceS);
-//                        }
-//                    }
-//                    wordVectorT.add(EOSi);
-//                    sentenceVectorT.add(sentenceS);
-//                    sentenceS++;
-//                }
-//            } catch (IOException e) {
-//            }
-        }
+          Vocabulary vocabulary) throws IOException {
+        NormalizedCorpus corpus = readCorpus(dirReader, vocabulary);
+        documentD = corpus.documentStarts.size();
+        sentenceS = corpus.sentenceStarts.size();
 
-        wordN = wordVectorT.size();
-        wordW = wordIdx.size();
+        wordN = corpus.size();
+        wordW = vocabulary.size();
         wdelta = delta * wordW;
         sgamma = gamma * stateS;
 
-        wordVector = new int[wordN];
-        goldTagVector = new int[wordN];
-        sentenceVector = new int[wordN];
-        documentVector = new int[wordN];
+        wordVector = newIntArray(wordN, wordW - 1);
+        corpus.words.copyTo(wordVector);
+        corpus.words = null;
+        goldTagVector = newIntArray(wordN, corpus.tags.max());
+        corpus.tags.copyTo(goldTagVector);
+        corpus.tags = null;
+        sentenceVector = newIntArray(wordN, sentenceS);
+        fillSpans(sentenceVector, corpus.sentenceStarts);
+        documentVector = newIntArray(wordN, documentD);
+        fillSpans(documentVector, corpus.documentStarts);
+    }
 
-        copyToArray(wordVector, wordVectorT);
-        copyToArray(goldTagVector, goldFullTagVectorT);
-        copyToArray(sentenceVector, sentenceVectorT);
-        copyToArray(documentVector, documentVectorT);
+    /**
+     * Parse the documents of a directory, or read them from the corpus
+     * cache if there is one
+     *
+     * @param dirReader Object to walk through files and directories
+     * @param vocabulary    Dictionary between words and indexes
+     * @return  Normalized tokens of the documents
+     * @throws IOException
+     */
+    protected NormalizedCorpus readCorpus(DirReader dirReader,
+          Vocabulary vocabulary) throws IOException {
+        NormalizingParser parser = new NormalizingParser(wordNormalizer, tagMap);
+        if (corpusCacheDirectory == null) {
+            return NormalizedCorpus.read(dirReader, vocabulary, parser,
+                  threads);
+        }
+        return new NormalizedCorpusCache(corpusCacheDirectory).read(
+              dirReader, vocabulary, parser, threads);
     }
 
     /**
      * Initializes arrays for counting occurrences. These need to be initialized
      * regardless of whether the model being trained from raw data or whether
      * it is loaded from a saved model.
+     *
+     * @throws IOException
      */
-    protected void initializeCountArrays() {
-        first = new int[wordN];
-        second = new int[wordN];
-        third = new int[wordN];
-        stateVector = new int[wordN];
+    protected void initializeCountArrays() throws IOException {
+        first = newIntArray(wordN, stateS - 1);
+        stateVector = newIntArray(wordN, stateS - 1);
 
         stateCounts = new int[stateS];
         stateProbs = new double[stateS];
@@ -505,13 +507,7 @@ public abstract class HMM {
             stateProbs[i] = 0;
         }
 
-        StateByWord = new int[stateS * wordW];
-        try {
-            for (int i = 0;; ++i) {
-                StateByWord[i] = 0;
-            }
-        } catch (java.lang.ArrayIndexOutOfBoundsException e) {
-        }
+        StateByWord = newCountArray(stateS * wordW);
 
         thirdOrderTransitions = new int[stateS * stateS * stateS * stateS];
         secondOrderTransitions = new int[stateS * stateS * stateS];
@@ -546,10 +542,51 @@ public abstract class HMM {
         }
     }
 
+    /**
+     * Create an array with one element per token. The array is kept in a
+     * mapped file that is read ahead of the sweeps if the storage is mapped
+     * and on the heap otherwise.
+     *
+     * @param length    Number of elements
+     * @param maxValue  Largest value that will be stored
+     * @return  Array of zeros
+     * @throws IOException
+     */
+    protected IntArray newIntArray(int length, int maxValue) throws
+          IOException {
+        switch (storage) {
+            case MAPPED:
+                return MappedIntArray.createTemporary(storageDirectory,
+                      length, maxValue, true);
+            default:
+                return IntArray.allocate(length, maxValue);
+        }
+    }
+
+    /**
+     * Create an array of counts that grows with the vocabulary or the
+     * number of documents. The array is kept in a mapped file if the
+     * storage is mapped and on the heap otherwise.
+     *
+     * @param length    Number of counts
+     * @return  Array of zero counts
+     * @throws IOException
+     */
+    protected IntArray newCountArray(int length) throws IOException {
+        switch (storage) {
+            case MAPPED:
+                return MappedIntArray.createTemporary(storageDirectory,
+                      length, Integer.MAX_VALUE, false);
+            default:
+                return new DenseIntArray(length);
+        }
+    }
+
     /**
      * Learn parameters
      */
     public void train() {
+        trainStartTime = System.currentTimeMillis();
         initializeParametersRandom();
         Annealer annealer = new SimulatedAnnealer();
 
@@ -582,6 +619,41 @@ public abstract class HMM {
      */
     protected abstract void trainInnerIter(int itermax, Annealer annealer);
 
+    /**
+     * Write the elapsed training time and the accuracy of the current sample
+     * to the convergence output, if there is one. Called by samplers after
+     * every training iteration so that samplers may be compared by time to
+     * accuracy. Nothing is written while decoding.
+     *
+     * @param annealer Callback to annealing process
+     */
+    protected void traceIteration(Annealer annealer) {
+        if (!annealer.isStochastic()) {
+            return;
+        }
+        iterationsCompleted++;
+        if (convergenceOutput == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long elapsed = start - trainStartTime - convergenceOutputTime;
+        Evaluator trace = new Evaluator(tagMap, DistanceMeasureEnum.Measure.JACCARD);
+        trace.evaluateTags(stateVector, goldTagVector);
+        try {
+            convergenceOutput.write(String.format("%d\t%d\t%f\t%f\t%f",
+                  iterationsCompleted, elapsed, temperature,
+                  trace.getFullOneToOneAccuracy(),
+                  trace.getFullManyToOneAccuracy()));
+            convergenceOutput.newLine();
+            convergenceOutput.flush();
+        } catch (IOException e) {
+            System.err.println("Could not write convergence output: "
+                  + e.getMessage());
+            convergenceOutput = null;
+        }
+        convergenceOutputTime += System.currentTimeMillis() - start;
+    }
+
     /**
      * Maximum posterior decoding of tag sequence
      */
@@ -631,7 +703,7 @@ public abstract class HMM {
 //            for (int j = EOSi + 1; j < wordW; ++j) {
             for (int j = 0; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      StateByWord[j * stateS + i] + delta, trainIdxToWord.get(
+                      StateByWord.get(j * stateS + i) + delta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -668,7 +740,7 @@ public abstract class HMM {
      * @throws IOException
      */
     public void printAnnotatedTrainText(String outDir) throws IOException {
-        printAnnotatedText(outDir, trainDataDir, trainDirReader, trainIdxToWord);
+        printAnnotatedText(outDir, trainDataDir, trainDirReader, trainVocabulary);
     }
 
     /**
@@ -677,55 +749,60 @@ public abstract class HMM {
      * @param outDir Root of path to generate output to
      * @param dataDir   Origin of data
      * @param dirReader DirReader for data
-     * @param idxToWord Dictionary from index to word
+     * @param vocabulary    Dictionary between words and indexes
      * @throws IOException
      * @see HDPHMMLDA#printAnnotatedTestText(java.lang.String)
      * @see HDPHMMLDA#printAnnotatedTrainText(java.lang.String)
      */
     public void printAnnotatedText(String outDir, String dataDir,
-          DirReader dirReader, HashMap<Integer, String> idxToWord)
+          DirReader dirReader, Vocabulary vocabulary)
           throws IOException {
-        DirWriter dirWriter = new DirWriter(outDir, dataDir, dirReader);
+        DirWriter dirWriter = new ParallelDirWriter(outDir, dataDir, dirReader,
+              threads);
         String root = dirWriter.getRoot();
 
+        /**
+         * Labels of each state and gold tag, rendered once instead of for
+         * every token
+         */
+        String[] stateLabels = new String[stateS];
+        for (int i = 0; i < stateS; ++i) {
+            stateLabels[i] = "F:" + tagMap.getOneToOneTagString(i)
+                  + "\tR:" + tagMap.getManyToOneTagString(i);
+        }
+        String[] goldLabels = new String[Collections.max(tagMap.values()) + 1];
+        for (int i = 0; i < goldLabels.length; ++i) {
+            goldLabels[i] = "G:" + tagMap.getGoldReducedTagString(i);
+        }
+
         BufferedWriter bufferedWriter;
 
         int docid = 0, cursent = 0, prevsent = 0;
-        String word;
         bufferedWriter = dirWriter.nextOutputBuffer();
 
         for (int i = 0; i < wordN; ++i) {
-            cursent = sentenceVector[i];
-            if (docid != documentVector[i]) {
+            cursent = sentenceVector.get(i);
+            if (docid != documentVector.get(i)) {
                 bufferedWriter.close();
                 bufferedWriter = dirWriter.nextOutputBuffer();
-                docid = documentVector[i];
+                docid = documentVector.get(i);
             }
 
-            int wordid = wordVector[i];
-
             if (cursent != prevsent) {
                 bufferedWriter.newLine();
             }
 
-            word = idxToWord.get(wordid);
-            bufferedWriter.write(word);
-            bufferedWriter.write("\t");
-            int stateid = stateVector[i];
-            int goldid = goldTagVector[i];
-            String tag = String.format("F:%s", tagMap.getOneToOneTagString(stateid));
-            bufferedWriter.write(tag);
-            bufferedWriter.write("\t");
-            tag = String.format("R:%s", tagMap.getManyToOneTagString(stateid));
-            bufferedWriter.write(tag);
-            bufferedWriter.write("\t");
-            tag = String.format("G:%s", tagMap.getGoldReducedTagString(goldid));
-            bufferedWriter.write(tag);
+            bufferedWriter.write(vocabulary.getWord(wordVector.get(i)));
+            bufferedWriter.write('\t');
+            bufferedWriter.write(stateLabels[stateVector.get(i)]);
+            bufferedWriter.write('\t');
+            bufferedWriter.write(goldLabels[goldTagVector.get(i)]);
             bufferedWriter.newLine();
 
             prevsent = cursent;
         }
         bufferedWriter.close();
+        dirWriter.close();
 
         bufferedWriter = new BufferedWriter(new OutputStreamWriter(
               new FileOutputStream(root + File.separator + "PARAMETERS")));
@@ -827,15 +904,17 @@ public abstract class HMM {
     }
 
     /**
-     * Copy a sequence of numbers from @ta to array @ia.
+     * Set every token to the index of the sentence or document it belongs to
      *
-     * @param <T>   Any number type
-     * @param ia    Target array of integers to be copied to
-     * @param ta    Source List<T> of numbers to be copied from
-     */
-    protected static <T extends Number> void copyToArray(int[] ia, List<T> ta) {
-        for (int i = 0; i < ta.size(); ++i) {
-            ia[i] = ta.get(i).intValue();
+     * @param vector    Array of {@link #wordN} tokens to fill
+     * @param starts    Offset of the first token of each sentence or document
+     */
+    protected void fillSpans(IntArray vector, IntBuffer starts) {
+        for (int s = 0; s < starts.size(); ++s) {
+            int end = s + 1 < starts.size() ? starts.get(s + 1) : wordN;
+            for (int i = starts.get(s); i < end; ++i) {
+                vector.set(i, s);
+            }
         }
     }
 }
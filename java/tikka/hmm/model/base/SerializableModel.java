@@ -17,28 +17,33 @@
 ///////////////////////////////////////////////////////////////////////////////
 package tikka.hmm.model.base;
 
+import tikka.opennlp.io.BlockGzipOutputStream;
 import tikka.opennlp.io.DataFormatEnum;
+import tikka.opennlp.io.GzipChannel;
 
 import tikka.hmm.apps.CommandLineOptions;
 import tikka.hmm.model.em.EMHMM;
 import tikka.hmm.model.mcmc.GibbsHMM;
+import tikka.structures.IntArray;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
+import tikka.structures.Vocabulary;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
+import java.nio.channels.Channels;
 import java.util.HashMap;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
 import tikka.utils.postags.TagMap;
 
 /**
  * Object where model parameters are saved. Includes both constant parameters
- * and inferred parameters.
+ * and inferred parameters. Models are saved as {@link ModelFile}s whose
+ * token arrays are mapped when they are loaded. Models saved with java
+ * serialization before can still be loaded.
  * 
  * @author tsmoon
  */
@@ -89,6 +94,11 @@ public class SerializableModel implements Serializable {
     /**
      * Hashtable from word to index.
      */
+    protected Vocabulary vocabulary;
+    /**
+     * Word index of models saved before the vocabulary was serialized. It is
+     * only read when such a model is loaded.
+     */
     protected HashMap<String, Integer> wordIdx;
     /**
      * Array of word indexes. Of length {@link #wordN}.
@@ -145,25 +155,25 @@ public class SerializableModel implements Serializable {
     public SerializableModel(HMM m) {
         dataFormat = m.dataFormat;
         delta = m.delta;
-        documentVector = m.documentVector;
+        documentVector = m.documentVector.toArray();
         documentD = m.documentD;
         gamma = m.gamma;
-        goldTagVector = m.goldTagVector;
+        goldTagVector = m.goldTagVector.toArray();
         initialTemperature = m.initialTemperature;
         iterations = m.iterations;
         modelName = m.modelName;
         randomSeed = m.randomSeed;
         trainDataDir = m.trainDataDir;
         sentenceS = m.sentenceS;
-        sentenceVector = m.sentenceVector;
-        stateVector = m.stateVector;
+        sentenceVector = m.sentenceVector.toArray();
+        stateVector = m.stateVector.toArray();
         stateS = m.stateS;
         tagMap = m.tagMap;
         targetTemperature = m.targetTemperature;
         temperatureDecrement = m.temperatureDecrement;
-        wordIdx = m.trainWordIdx;
+        vocabulary = m.trainVocabulary;
         wordN = m.wordN;
-        wordVector = m.wordVector;
+        wordVector = m.wordVector.toArray();
         wordW = m.wordW;
     }
 
@@ -174,7 +184,8 @@ public class SerializableModel implements Serializable {
     }
 
     /**
-     * Load a previously trained model.
+     * Load a previously trained model. Models in the binary model format are
+     * mapped, older models are deserialized.
      *
      * @param filename  Full path of model location.
      * @return  The model that has been loaded.
@@ -184,9 +195,16 @@ public class SerializableModel implements Serializable {
     public HMM loadModel(CommandLineOptions options, String filename)
           throws IOException,
           FileNotFoundException {
+        File file = new File(filename);
+        if (ModelFile.isModelFile(file)) {
+            ModelFile in = ModelFile.open(file);
+            modelName = in.getString("modelName");
+            return read(in, newModel(options));
+        }
+
         ObjectInputStream modelIn =
-              new ObjectInputStream(new GZIPInputStream(new FileInputStream(
-              filename)));
+              new ObjectInputStream(Channels.newInputStream(
+              new GzipChannel(file)));
         try {
             loadBuffer = (SerializableModel) modelIn.readObject();
         } catch (ClassNotFoundException e) {
@@ -197,28 +215,124 @@ public class SerializableModel implements Serializable {
         loadBuffer = null;
         modelIn.close();
 
+        return copy(newModel(options));
+    }
+
+    /**
+     * @return  Empty model of the type named by {@link #modelName}
+     */
+    protected HMM newModel(CommandLineOptions options) {
         HMM hmm = null;
         if (modelName.equals("m1")) {
             hmm = new EMHMM(options);
         } else if (modelName.equals("m2")) {
             hmm = new GibbsHMM(options);
         }
-
-        return copy(hmm);
+        return hmm;
     }
 
     /**
-     * Save the trained model.
+     * Save the trained model in the binary model format.
      *
      * @param filename  Full path of model location.
      * @throws IOException
      */
     public void saveModel(String filename) throws IOException {
-        ObjectOutputStream modelOut =
-              new ObjectOutputStream(new GZIPOutputStream(
-              new FileOutputStream(filename)));
-        modelOut.writeObject(this);
-        modelOut.close();
+        saveModel(filename, 0, BlockGzipOutputStream.MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * Save the trained model in the binary model format, compressed in
+     * blocks that are deflated on several threads.
+     *
+     * @param filename  Full path of model location.
+     * @param level Compression level from 1 to 9, or 0 to save the model
+     *              uncompressed
+     * @param blockSize Number of bytes of the model in each compressed block
+     * @throws IOException
+     */
+    public void saveModel(String filename, int level, int blockSize) throws
+          IOException {
+        ModelFileWriter out = new ModelFileWriter(new File(filename), level,
+              blockSize);
+        try {
+            write(out);
+            out.close();
+        } finally {
+            out.abort();
+        }
+    }
+
+    /**
+     * Put the fields in the sections of a model file
+     *
+     * @param out   Writer of the model file
+     * @throws IOException
+     */
+    protected void write(ModelFileWriter out) throws IOException {
+        out.putString("modelName", modelName);
+        out.putString("dataFormat", dataFormat == null ? null
+              : dataFormat.name());
+        out.putString("trainDataDir", trainDataDir);
+        out.putInt("randomSeed", randomSeed);
+        out.putInt("iterations", iterations);
+        out.putInt("documentD", documentD);
+        out.putInt("wordW", wordW);
+        out.putInt("wordN", wordN);
+        out.putInt("stateS", stateS);
+        out.putInt("sentenceS", sentenceS);
+        out.putDouble("gamma", gamma);
+        out.putDouble("delta", delta);
+        out.putDouble("initialTemperature", initialTemperature);
+        out.putDouble("temperatureDecrement", temperatureDecrement);
+        out.putDouble("targetTemperature", targetTemperature);
+        out.putObject("tagMap", tagMap);
+        out.putStrings("vocabulary", vocabulary.toArray());
+
+        out.putInts("documentVector", documentVector);
+        out.putInts("sentenceVector", sentenceVector);
+        out.putInts("wordVector", wordVector, wordW - 1);
+        out.putInts("goldTagVector", goldTagVector);
+        out.putInts("stateVector", stateVector, stateS - 1);
+    }
+
+    /**
+     * Set the fields of a model from the sections of a model file. Token
+     * arrays are mapped rather than read.
+     *
+     * @param in    The model file
+     * @param hmm   Model to set the fields of
+     * @return  The model
+     * @throws IOException
+     */
+    protected HMM read(ModelFile in, HMM hmm) throws IOException {
+        String format = in.getString("dataFormat");
+        hmm.dataFormat = format == null ? null
+              : DataFormatEnum.DataFormat.valueOf(format);
+        hmm.delta = in.getDouble("delta");
+        hmm.documentD = in.getInt("documentD");
+        hmm.documentVector = in.getIntArray("documentVector", true);
+        hmm.gamma = in.getDouble("gamma");
+        hmm.goldTagVector = in.getIntArray("goldTagVector", true);
+        hmm.initialTemperature = in.getDouble("initialTemperature");
+        hmm.iterations = in.getInt("iterations");
+        hmm.modelName = in.getString("modelName");
+        hmm.randomSeed = in.getInt("randomSeed");
+        hmm.trainDataDir = in.getString("trainDataDir");
+        hmm.sentenceS = in.getInt("sentenceS");
+        hmm.sentenceVector = in.getIntArray("sentenceVector", true);
+        hmm.stateVector = in.getIntArray("stateVector", true);
+        hmm.stateS = in.getInt("stateS");
+        hmm.tagMap = (TagMap) in.getObject("tagMap");
+        hmm.targetTemperature = in.getDouble("targetTemperature");
+        hmm.temperatureDecrement = in.getDouble("temperatureDecrement");
+        hmm.trainVocabulary = Vocabulary.fromArray(in.getStrings("vocabulary"));
+        hmm.trainVocabulary.freeze();
+        hmm.wordN = in.getInt("wordN");
+        hmm.wordVector = in.getIntArray("wordVector", true);
+        hmm.wordW = in.getInt("wordW");
+
+        return hmm;
     }
 
     protected void copy(SerializableModel sm) {
@@ -239,7 +353,8 @@ public class SerializableModel implements Serializable {
         tagMap = sm.tagMap;
         targetTemperature = sm.targetTemperature;
         temperatureDecrement = sm.temperatureDecrement;
-        wordIdx = sm.wordIdx;
+        vocabulary = sm.vocabulary != null ? sm.vocabulary
+              : Vocabulary.fromMap(sm.wordIdx);
         wordN = sm.wordN;
         wordVector = sm.wordVector;
         wordW = sm.wordW;
@@ -248,24 +363,25 @@ public class SerializableModel implements Serializable {
     protected HMM copy(HMM hmm) {
         hmm.dataFormat = dataFormat;
         hmm.documentD = documentD;
-        hmm.documentVector = documentVector;
+        hmm.documentVector = IntArray.fromArray(documentVector);
         hmm.gamma = gamma;
-        hmm.goldTagVector = goldTagVector;
+        hmm.goldTagVector = IntArray.fromArray(goldTagVector);
         hmm.initialTemperature = initialTemperature;
         hmm.iterations = iterations;
         hmm.modelName = modelName;
         hmm.randomSeed = randomSeed;
         hmm.trainDataDir = trainDataDir;
         hmm.sentenceS = sentenceS;
-        hmm.sentenceVector = sentenceVector;
-        hmm.stateVector = stateVector;
+        hmm.sentenceVector = IntArray.fromArray(sentenceVector);
+        hmm.stateVector = IntArray.fromArray(stateVector);
         hmm.stateS = stateS;
         hmm.tagMap = tagMap;
         hmm.targetTemperature = targetTemperature;
         hmm.temperatureDecrement = temperatureDecrement;
-        hmm.trainWordIdx = wordIdx;
+        hmm.trainVocabulary = vocabulary;
+        hmm.trainVocabulary.freeze();
         hmm.wordN = wordN;
-        hmm.wordVector = wordVector;
+        hmm.wordVector = IntArray.fromArray(wordVector);
         hmm.wordW = wordW;
 
         return hmm;
@@ -21,16 +21,17 @@ import tikka.hmm.apps.CommandLineOptions;
 import tikka.hmm.model.base.HMM;
 
 import tikka.structures.DoubleStringPair;
+import tikka.structures.IntArray;
 import tikka.structures.StringDoublePair;
+import tikka.structures.Vocabulary;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import tikka.exceptions.IgnoreTagException;
 import tikka.opennlp.io.DirReader;
+import tikka.utils.normalizer.NormalizedCorpus;
 import tikka.utils.annealer.Annealer;
 
 /**
@@ -70,14 +71,14 @@ public class HMMLDA extends HMM {
     /**
      * Counts of topics by document
      */
-    protected int[] DocumentByTopic;
+    protected IntArray DocumentByTopic;
     /**
      * Array of counts for words given topics.
      * This has no effect on the model. It is merely here as a bookkeeping
      * device to check how the segmentation model is doing compared to
      * normalization as if the words had been dumped into their topics.
      */
-    protected int[] TopicByWord;
+    protected IntArray TopicByWord;
     /**
      * Table of top {@link #outputPerClass} words per topic. Used in
      * normalization and printing.
@@ -86,7 +87,7 @@ public class HMMLDA extends HMM {
     /**
      * Array of topic indexes. Of length {@link #wordN}.
      */
-    protected int[] topicVector;
+    protected IntArray topicVector;
 
     public HMMLDA(CommandLineOptions options) {
         super(options);
@@ -101,76 +102,43 @@ public class HMMLDA extends HMM {
      * rewritten in sampling for test sets.
      *
      * @param dirReader Object to walk through files and directories
-     * @param wordIdx   Dictionary from word to index
-     * @param idxToWord Dictionary from index to word
+     * @param vocabulary    Dictionary between words and indexes
+     * @throws IOException
      */
     @Override
     protected void initializeTokenArrays(DirReader dirReader,
-          HashMap<String, Integer> wordIdx, HashMap<Integer, String> idxToWord) {
-        documentD = 0;
-        ArrayList<Integer> wordVectorT = new ArrayList<Integer>(),
-              documentVectorT = new ArrayList<Integer>(),
-              goldFullTagVectorT = new ArrayList<Integer>(),
-              sentenceVectorT = new ArrayList<Integer>();
-        while ((dataReader = dirReader.nextDocumentReader()) != null) {
-            try {
-                String[][] sentence;
-                while ((sentence = dataReader.nextSequence()) != null) {
-                    for (String[] line : sentence) {
-                        try {
-//                        String word = wordNormalizer.normalize(line)[0];
-                            wordNormalizer.normalize(line);
-                            String word = wordNormalizer.getWord();
-                            String tag = wordNormalizer.getTag();
-                            if (!word.isEmpty() && tag != null) {
-                                if (!wordIdx.containsKey(word)) {
-                                    wordIdx.put(word, wordIdx.size());
-                                    idxToWord.put(idxToWord.size(), word);
-                                }
-
-                                wordVectorT.add(wordIdx.get(word));
-                                documentVectorT.add(documentD);
-                                sentenceVectorT.add(sentenceS);
-                                goldFullTagVectorT.add(tagMap.get(tag));
-                            }
-                        } catch (IgnoreTagException e) {
-                        }
-                    }
-//                    wordVectorT.add(EOSi);
-//                    documentVectorT.add(documentD);
-//                    sentenceVectorT.add(sentenceS);
-                    sentenceS++;
-
-                }
-            } catch (IOException e) {
-            }
-            documentD++;
-        }
+          Vocabulary vocabulary) throws IOException {
+        NormalizedCorpus corpus = readCorpus(dirReader, vocabulary);
+        documentD = corpus.documentStarts.size();
+        sentenceS = corpus.sentenceStarts.size();
 
-        wordN = wordVectorT.size();
-        wordW = wordIdx.size();
+        wordN = corpus.size();
+        wordW = vocabulary.size();
         wbeta = beta * wordW;
         wdelta = delta * wordW;
         sgamma = gamma * stateS;
 
-        wordVector = new int[wordN];
-        goldTagVector = new int[wordN];
-        sentenceVector = new int[wordN];
-        documentVector = new int[wordN];
-
-        copyToArray(wordVector, wordVectorT);
-        copyToArray(goldTagVector, goldFullTagVectorT);
-        copyToArray(sentenceVector, sentenceVectorT);
-        copyToArray(documentVector, documentVectorT);
+        wordVector = newIntArray(wordN, wordW - 1);
+        corpus.words.copyTo(wordVector);
+        corpus.words = null;
+        goldTagVector = newIntArray(wordN, corpus.tags.max());
+        corpus.tags.copyTo(goldTagVector);
+        corpus.tags = null;
+        sentenceVector = newIntArray(wordN, sentenceS);
+        fillSpans(sentenceVector, corpus.sentenceStarts);
+        documentVector = newIntArray(wordN, documentD);
+        fillSpans(documentVector, corpus.documentStarts);
     }
 
     /**
      * Initializes arrays for counting occurrences. These need to be initialized
      * regardless of whether the model being trained from raw data or whether
      * it is loaded from a saved model.
+     *
+     * @throws IOException
      */
     @Override
-    protected void initializeCountArrays() {
+    protected void initializeCountArrays() throws IOException {
         super.initializeCountArrays();
 
         topicCounts = new int[topicK];
@@ -180,29 +148,11 @@ public class HMMLDA extends HMM {
             topicProbs[i] = 0.;
         }
 
-        topicVector = new int[wordN];
-        try {
-            for (int i = 0;; ++i) {
-                topicVector[i] = 0;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-        }
+        topicVector = newIntArray(wordN, topicK - 1);
 
-        TopicByWord = new int[topicK * wordW];
-        try {
-            for (int i = 0;; ++i) {
-                TopicByWord[i] = 0;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-        }
+        TopicByWord = newCountArray(topicK * wordW);
 
-        DocumentByTopic = new int[documentD * topicK];
-        try {
-            for (int i = 0;; ++i) {
-                DocumentByTopic[i] = 0;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
-        }
+        DocumentByTopic = newCountArray(documentD * topicK);
     }
 
     /**
@@ -233,7 +183,7 @@ public class HMMLDA extends HMM {
              */
             for (int j = 0; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      TopicByWord[j * topicK + i] + beta, trainIdxToWord.get(
+                      TopicByWord.get(j * topicK + i) + beta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -274,7 +224,7 @@ public class HMMLDA extends HMM {
             int wordoff = j * topicK;
             for (int i = 0; i < topicK; ++i) {
                 marginalwordprobs[j] += topicProbs[i]
-                      * (TopicByWord[wordoff + i] + beta)
+                      * (TopicByWord.get(wordoff + i) + beta)
                       / (topicCounts[i] + wbeta);
             }
         }
@@ -285,7 +235,7 @@ public class HMMLDA extends HMM {
                   new ArrayList<DoubleStringPair>();
             for (int j = 0; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      marginalwordprobs[j], trainIdxToWord.get(
+                      marginalwordprobs[j], trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -306,7 +256,7 @@ public class HMMLDA extends HMM {
              */
             for (int j = 0; j < wordW; ++j) {
                 topWords.add(new DoubleStringPair(
-                      StateByWord[j * stateS + i] + delta, trainIdxToWord.get(
+                      StateByWord.get(j * stateS + i) + delta, trainVocabulary.getWord(
                       j)));
             }
             Collections.sort(topWords);
@@ -388,35 +338,32 @@ public class HMMLDA extends HMM {
          * Initialize by assigning random topic indices to words
          */
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
+            wordid = wordVector.get(i);
 
 //            if (wordid == EOSi) {
 //                firstOrderTransitions[current * S1 + 0]++;
 //                first[i] = current;
 //                current = 0;
 //            } else {
-            docid = documentVector[i];
+            docid = documentVector.get(i);
             wordtopicoff = topicK * wordid;
             wordstateoff = stateS * wordid;
             docoff = topicK * docid;
 
             if (mtfRand.nextDouble() > 0.5) {
-                stateVector[i] = 1;
+                stateVector.set(i, 1);
             } else {
-                stateVector[i] = 0;
+                stateVector.set(i, 0);
             }
 
             totalprob = 0;
-            try {
-                for (int j = 0;; ++j) {
-                    topicProbs[j] = DocumentByTopic[docoff + j] + alpha;
-                    if (stateVector[i] == 1) {
-                        topicProbs[j] *= (TopicByWord[wordtopicoff + j] + beta)
-                              / (topicCounts[j] + wbeta);
-                    }
-                    totalprob += topicProbs[j];
+            for (int j = 0; j < topicK; ++j) {
+                topicProbs[j] = DocumentByTopic.get(docoff + j) + alpha;
+                if (stateVector.get(i) == 1) {
+                    topicProbs[j] *= (TopicByWord.get(wordtopicoff + j) + beta)
+                          / (topicCounts[j] + wbeta);
                 }
-            } catch (java.lang.ArrayIndexOutOfBoundsException e) {
+                totalprob += topicProbs[j];
             }
 
             max = topicProbs[0];
@@ -426,24 +373,21 @@ public class HMMLDA extends HMM {
                 topicid++;
                 max += topicProbs[topicid];
             }
-            topicVector[i] = topicid;
+            topicVector.set(i, topicid);
             max = 0;
 
             totalprob = 0;
-            if (stateVector[i] == 0) {
+            if (stateVector.get(i) == 0) {
                 totalprob = stateProbs[0] =
-                      (TopicByWord[wordtopicoff + topicid] + delta)
+                      (TopicByWord.get(wordtopicoff + topicid) + delta)
                       / (topicCounts[topicid] + wdelta)
                       * (firstOrderTransitions[current * S1 + 0] + gamma);
-                try {
-                    for (int j = 1;; j++) {
-                        totalprob += stateProbs[j] =
-                              (StateByWord[wordstateoff + j] + beta)
-                              / (stateCounts[j] + wbeta)
-                              * (firstOrderTransitions[current * S1 + j]
-                              + gamma);
-                    }
-                } catch (java.lang.ArrayIndexOutOfBoundsException e) {
+                for (int j = 1; j < stateS; j++) {
+                    totalprob += stateProbs[j] =
+                          (StateByWord.get(wordstateoff + j) + beta)
+                          / (stateCounts[j] + wbeta)
+                          * (firstOrderTransitions[current * S1 + j]
+                          + gamma);
                 }
             }
 
@@ -454,19 +398,19 @@ public class HMMLDA extends HMM {
                 stateid++;
                 max += stateProbs[stateid];
             }
-            stateVector[i] = stateid;
+            stateVector.set(i, stateid);
 
             if (stateid == 0) {
-                TopicByWord[wordtopicoff + topicid]++;
-                DocumentByTopic[docoff + topicid]++;
+                TopicByWord.inc(wordtopicoff + topicid);
+                DocumentByTopic.inc(docoff + topicid);
                 topicCounts[topicid]++;
             } else {
-                StateByWord[wordstateoff + stateid]++;
+                StateByWord.inc(wordstateoff + stateid);
             }
 
             stateCounts[stateid]++;
             firstOrderTransitions[current * S1 + stateid]++;
-            first[i] = current;
+            first.set(i, current);
             current = stateid;
 //            }
         }
@@ -487,7 +431,7 @@ public class HMMLDA extends HMM {
                 if (i % 100000 == 0) {
                     System.err.println("\tProcessing word " + i);
                 }
-                wordid = wordVector[i];
+                wordid = wordVector.get(i);
 
 //                if (wordid == EOSi) // sentence marker
 //                {
@@ -496,33 +440,30 @@ public class HMMLDA extends HMM {
 //                    first[i] = current;
 //                    current = 0;
 //                } else {
-                docid = documentVector[i];
-                stateid = stateVector[i];
-                topicid = topicVector[i];
+                docid = documentVector.get(i);
+                stateid = stateVector.get(i);
+                topicid = topicVector.get(i);
                 wordstateoff = wordid * stateS;
                 wordtopicoff = wordid * topicK;
                 docoff = docid * topicK;
 
                 if (stateid == 0) {
-                    TopicByWord[wordtopicoff + topicid]--;
-                    DocumentByTopic[docoff + topicid]--;
+                    TopicByWord.dec(wordtopicoff + topicid);
+                    DocumentByTopic.dec(docoff + topicid);
                     topicCounts[topicid]--;
                 } else {
-                    StateByWord[wordstateoff + stateid]--;
+                    StateByWord.dec(wordstateoff + stateid);
 
                 }
                 stateCounts[stateid]--;
-                firstOrderTransitions[first[i] * S1 + stateid]--;
-
-                try {
-                    for (int j = 0;; j++) {
-                        topicProbs[j] = DocumentByTopic[docoff + j] + alpha;
-                        if (stateid == 1) {
-                            topicProbs[j] *= (TopicByWord[wordtopicoff + j] + beta)
-                                  / (topicCounts[j] + wbeta);
-                        }
+                firstOrderTransitions[first.get(i) * S1 + stateid]--;
+
+                for (int j = 0; j < topicK; j++) {
+                    topicProbs[j] = DocumentByTopic.get(docoff + j) + alpha;
+                    if (stateid == 1) {
+                        topicProbs[j] *= (TopicByWord.get(wordtopicoff + j) + beta)
+                              / (topicCounts[j] + wbeta);
                     }
-                } catch (java.lang.ArrayIndexOutOfBoundsException e) {
                 }
                 totalprob = annealer.annealProbs(topicProbs);
                 r = mtfRand.nextDouble() * totalprob;
@@ -533,23 +474,19 @@ public class HMMLDA extends HMM {
                     topicid++;
                     max += topicProbs[topicid];
                 }
-                topicVector[i] = topicid;
+                topicVector.set(i, topicid);
 
                 stateoff = current * stateS;
-                try {
-                    next = stateVector[i + 1];
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    next = 0;
-                }
+                next = i + 1 < wordN ? stateVector.get(i + 1) : 0;
 
                 stateProbs[0] =
-                      ((TopicByWord[wordtopicoff + topicid] + beta) / (topicCounts[topicid] + wbeta))
+                      ((TopicByWord.get(wordtopicoff + topicid) + beta) / (topicCounts[topicid] + wbeta))
                       * (firstOrderTransitions[stateoff + 0] + gamma)
                       * ((firstOrderTransitions[S1 + next] + gamma)
                       / (stateCounts[0] + sgamma));
                 for (int j = 1; j < stateS; j++) {
                     stateProbs[j] =
-                          ((StateByWord[wordstateoff + j] + delta) / (stateCounts[j] + wdelta))
+                          ((StateByWord.get(wordstateoff + j) + delta) / (stateCounts[j] + wdelta))
                           * (firstOrderTransitions[stateoff + j] + gamma)
                           * ((firstOrderTransitions[j * stateS + next] + gamma)
                           / (stateCounts[j] + sgamma));
@@ -562,19 +499,19 @@ public class HMMLDA extends HMM {
                     stateid++;
                     max += stateProbs[stateid];
                 }
-                stateVector[i] = stateid;
+                stateVector.set(i, stateid);
 
                 if (stateid == 0) {
-                    TopicByWord[wordtopicoff + topicid]++;
-                    DocumentByTopic[docoff + topicid]++;
+                    TopicByWord.inc(wordtopicoff + topicid);
+                    DocumentByTopic.inc(docoff + topicid);
                     topicCounts[topicid]++;
                 } else {
-                    StateByWord[wordstateoff + stateid]++;
+                    StateByWord.inc(wordstateoff + stateid);
                 }
 
                 stateCounts[stateid]++;
                 firstOrderTransitions[current * S1 + stateid]++;
-                first[i] = current;
+                first.set(i, current);
                 current = stateid;
 //                }
             }
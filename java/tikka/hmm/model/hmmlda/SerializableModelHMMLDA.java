@@ -18,17 +18,19 @@
 package tikka.hmm.model.hmmlda;
 
 import tikka.hmm.apps.CommandLineOptions;
+import tikka.hmm.model.base.HMM;
 import tikka.hmm.model.base.SerializableModel;
+import tikka.opennlp.io.GzipChannel;
+import tikka.structures.IntArray;
+import tikka.structures.ModelFile;
+import tikka.structures.ModelFileWriter;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.nio.channels.Channels;
 
 /**
  * Object where model parameters are saved. Includes both constant parameters
@@ -38,6 +40,11 @@ import java.util.zip.GZIPOutputStream;
  */
 public class SerializableModelHMMLDA extends SerializableModel {
 
+    /**
+     * Computed from the fields and methods this class had when models were
+     * saved with java serialization, so that those models can be loaded
+     */
+    static private final long serialVersionUID = 7158744921188662850L;
     /**
      * Hyperparameter for topic-by-document prior.
      */
@@ -65,7 +72,7 @@ public class SerializableModelHMMLDA extends SerializableModel {
         alpha = m.alpha;
         beta = m.beta;
         topicK = m.topicK;
-        topicVector = m.topicVector;
+        topicVector = m.topicVector.toArray();
     }
 
     /**
@@ -75,7 +82,8 @@ public class SerializableModelHMMLDA extends SerializableModel {
     }
 
     /**
-     * Load a previously trained model.
+     * Load a previously trained model. Models in the binary model format are
+     * mapped, older models are deserialized.
      *
      * @param filename  Full path of model location.
      * @return  The model that has been loaded.
@@ -86,15 +94,20 @@ public class SerializableModelHMMLDA extends SerializableModel {
     public HMMLDA loadModel(CommandLineOptions options, String filename)
           throws IOException,
           FileNotFoundException {
+        File file = new File(filename);
+        if (ModelFile.isModelFile(file)) {
+            return (HMMLDA) read(ModelFile.open(file), new HMMLDA(options));
+        }
+
         ObjectInputStream modelIn =
-              new ObjectInputStream(new GZIPInputStream(new FileInputStream(
-              filename)));
+              new ObjectInputStream(Channels.newInputStream(
+              new GzipChannel(file)));
         try {
             loadBuffer = (SerializableModel) modelIn.readObject();
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
-        copy(loadBuffer);
+        copy((SerializableModelHMMLDA) loadBuffer);
         loadBuffer = null;
         modelIn.close();
 
@@ -103,19 +116,24 @@ public class SerializableModelHMMLDA extends SerializableModel {
         return copy(hmmlda);
     }
 
-    /**
-     * Save the trained model.
-     *
-     * @param filename  Full path of model location.
-     * @throws IOException
-     */
     @Override
-    public void saveModel(String filename) throws IOException {
-        ObjectOutputStream modelOut =
-              new ObjectOutputStream(new GZIPOutputStream(
-              new FileOutputStream(filename)));
-        modelOut.writeObject(this);
-        modelOut.close();
+    protected void write(ModelFileWriter out) throws IOException {
+        super.write(out);
+        out.putDouble("alpha", alpha);
+        out.putDouble("beta", beta);
+        out.putInt("topicK", topicK);
+        out.putInts("topicVector", topicVector, topicK - 1);
+    }
+
+    @Override
+    protected HMM read(ModelFile in, HMM hmm) throws IOException {
+        HMMLDA hmmlda = (HMMLDA) super.read(in, hmm);
+        hmmlda.alpha = in.getDouble("alpha");
+        hmmlda.beta = in.getDouble("beta");
+        hmmlda.topicK = in.getInt("topicK");
+        hmmlda.topicVector = in.getIntArray("topicVector", true);
+
+        return hmmlda;
     }
 
     protected void copy(SerializableModelHMMLDA sm) {
@@ -131,7 +149,7 @@ public class SerializableModelHMMLDA extends SerializableModel {
         hmmlda.alpha = alpha;
         hmmlda.beta = beta;
         hmmlda.topicK = topicK;
-        hmmlda.topicVector = topicVector;
+        hmmlda.topicVector = IntArray.fromArray(topicVector);
 
         return hmmlda;
     }
@@ -0,0 +1,467 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.hmm.model.mcmc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import tikka.hmm.apps.CommandLineOptions;
+import tikka.structures.IntArray;
+import tikka.utils.annealer.Annealer;
+import tikka.utils.ec.util.MersenneTwisterFast;
+
+/**
+ * HMM that samples the states of whole sentences jointly with forward
+ * filtering, backward sampling. The transition and emission probabilities
+ * for a sentence are taken from the current counts with the sentence's own
+ * counts removed. With more than one thread, the sentences are split into
+ * contiguous partitions that are sampled in parallel against private copies
+ * of the counts, and the changes are merged after every sweep.
+ *
+ * @author tsmoon
+ */
+public class BlockedGibbsHMM extends GibbsHMM {
+
+    /**
+     * Offsets of the sentences. Sentence k covers the tokens from
+     * sentenceStarts[k] up to but not including sentenceStarts[k+1].
+     */
+    protected int[] sentenceStarts;
+    /**
+     * Index of the first sentence of each partition, including the number
+     * of sentences as the last element
+     */
+    protected int[] partitions;
+    /**
+     * One sampler per partition
+     */
+    protected SentenceSampler[] samplers;
+    /**
+     * Pool of sampler threads. Only set while training with more than one
+     * thread.
+     */
+    protected ExecutorService executor;
+
+    public BlockedGibbsHMM(CommandLineOptions options) {
+        super(options);
+    }
+
+    /**
+     * Learn parameters, sampling the partitions on a pool of threads
+     */
+    @Override
+    public void train() {
+        if (threads > 1) {
+            System.err.println("Sampling sentences with " + threads
+                  + " threads");
+            executor = Executors.newFixedThreadPool(threads);
+        }
+        try {
+            super.train();
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+                executor = null;
+            }
+        }
+    }
+
+    /**
+     * Training routine for the inner iterations. Each iteration draws the
+     * states of every sentence jointly.
+     *
+     * @param itermax Maximum number of iterations to perform
+     * @param annealer Callback to annealing process
+     */
+    @Override
+    protected void trainInnerIter(int itermax, Annealer annealer) {
+        if (sentenceStarts == null) {
+            initializeSentenceStarts();
+        }
+        for (int iter = 0; iter < itermax; ++iter) {
+            System.err.println("iteration " + iter);
+            if (executor == null) {
+                SentenceSampler sampler =
+                      new SentenceSampler(StateByWord, stateCounts,
+                      firstOrderTransitions, mtfRand);
+                sampler.sampleSentences(0, sentenceStarts.length - 1, -1,
+                      annealer);
+            } else {
+                sweepPartitions(annealer);
+            }
+            traceIteration(annealer);
+        }
+    }
+
+    /**
+     * Find the offsets of the sentences and split them into partitions of
+     * roughly equal numbers of tokens, at most one per thread. Every
+     * partition holds at least one sentence.
+     */
+    protected void initializeSentenceStarts() {
+        ArrayList<Integer> starts = new ArrayList<Integer>();
+        for (int i = 0; i < wordN; ++i) {
+            if (i == 0 || sentenceVector.get(i) != sentenceVector.get(i - 1)) {
+                starts.add(i);
+            }
+        }
+        sentenceStarts = new int[starts.size() + 1];
+        for (int k = 0; k < starts.size(); ++k) {
+            sentenceStarts[k] = starts.get(k);
+        }
+        sentenceStarts[starts.size()] = wordN;
+
+        int sentences = starts.size();
+        int n = Math.max(1, Math.min(threads, sentences));
+        ArrayList<Integer> offsets = new ArrayList<Integer>();
+        offsets.add(0);
+        int k = 0;
+        for (int p = 1; p < n; ++p) {
+            long target = (long) wordN * p / n;
+            while (k < sentences && sentenceStarts[k] < target) {
+                k++;
+            }
+            if (k >= sentences) {
+                break;
+            }
+            if (k > offsets.get(offsets.size() - 1)) {
+                offsets.add(k);
+            }
+        }
+        offsets.add(sentences);
+
+        partitions = new int[offsets.size()];
+        for (int p = 0; p < partitions.length; ++p) {
+            partitions[p] = offsets.get(p);
+        }
+    }
+
+    /**
+     * Sample every partition on its own thread against private copies of
+     * the counts. The changes to the counts are merged afterwards and the
+     * transitions into the first token of each partition are repaired.
+     *
+     * @param annealer Callback to annealing process
+     */
+    protected void sweepPartitions(final Annealer annealer) {
+        int n = partitions.length - 1;
+        if (samplers == null) {
+            samplers = new SentenceSampler[n];
+            for (int p = 0; p < n; ++p) {
+                samplers[p] = new SentenceSampler(StateByWord.copy(),
+                      stateCounts.clone(), firstOrderTransitions.clone(),
+                      new MersenneTwisterFast(mtfRand.nextInt()));
+            }
+        } else {
+            for (SentenceSampler sampler : samplers) {
+                sampler.stateByWord.copyFrom(StateByWord);
+                System.arraycopy(stateCounts, 0, sampler.stateCounts, 0,
+                      stateCounts.length);
+                System.arraycopy(firstOrderTransitions, 0,
+                      sampler.firstOrderTransitions, 0,
+                      firstOrderTransitions.length);
+            }
+        }
+
+        ArrayList<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+        for (int p = 0; p < n; ++p) {
+            final SentenceSampler sampler = samplers[p];
+            final int startk = partitions[p], endk = partitions[p + 1];
+            final int next = sentenceStarts[endk] < wordN
+                  ? stateVector.get(sentenceStarts[endk]) : -1;
+            tasks.add(new Callable<Object>() {
+
+                public Object call() {
+                    sampler.sampleSentences(startk, endk, next, annealer);
+                    return null;
+                }
+            });
+        }
+        invokeAll(tasks);
+
+        IntArray[] wordLocals = new IntArray[n];
+        for (int p = 0; p < n; ++p) {
+            wordLocals[p] = samplers[p].stateByWord;
+        }
+        merge(StateByWord, wordLocals);
+        int[][] locals = new int[n][];
+        for (int p = 0; p < n; ++p) {
+            locals[p] = samplers[p].stateCounts;
+        }
+        merge(stateCounts, locals);
+        for (int p = 0; p < n; ++p) {
+            locals[p] = samplers[p].firstOrderTransitions;
+        }
+        merge(firstOrderTransitions, locals);
+
+        for (int p = 1; p < n; ++p) {
+            int i = sentenceStarts[partitions[p]];
+            int prev = stateVector.get(i - 1);
+            if (first.get(i) != prev) {
+                firstOrderTransitions[first.get(i) * stateS + stateVector.get(i)]--;
+                firstOrderTransitions[prev * stateS + stateVector.get(i)]++;
+                first.set(i, prev);
+            }
+        }
+    }
+
+    /**
+     * Add the changes each sampler made to its copy of a count array back
+     * into the global array
+     *
+     * @param global    Global count array
+     * @param locals    Copies of the array that have completed a sweep
+     */
+    protected static void merge(int[] global, int[][] locals) {
+        for (int k = 0; k < global.length; ++k) {
+            int sum = global[k];
+            for (int[] local : locals) {
+                sum += local[k] - global[k];
+            }
+            global[k] = sum;
+        }
+    }
+
+    /**
+     * Add the changes each sampler made to its copy of a count array back
+     * into the global array
+     *
+     * @param global    Global count array
+     * @param locals    Copies of the array that have completed a sweep
+     */
+    protected static void merge(IntArray global, IntArray[] locals) {
+        for (int k = 0; k < global.length(); ++k) {
+            int count = global.get(k);
+            int sum = count;
+            for (IntArray local : locals) {
+                sum += local.get(k) - count;
+            }
+            global.set(k, sum);
+        }
+    }
+
+    /**
+     * Run tasks on the thread pool and wait for all of them to finish.
+     * Failures in any task are rethrown on the calling thread.
+     *
+     * @param tasks Tasks to run
+     */
+    protected void invokeAll(List<Callable<Object>> tasks) {
+        try {
+            for (Future<Object> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Draws the states of a run of sentences one sentence at a time. Holds
+     * the counts it samples against and its own scratch arrays, so that
+     * each thread needs its own instance.
+     */
+    protected class SentenceSampler {
+
+        /**
+         * Counts for words given states
+         */
+        protected IntArray stateByWord;
+        /**
+         * Counts per state
+         */
+        protected int[] stateCounts;
+        /**
+         * 1st order state counts
+         */
+        protected int[] firstOrderTransitions;
+        /**
+         * Random number generator of the thread
+         */
+        protected MersenneTwisterFast rand;
+        /**
+         * Forward probabilities of each position in the sentence by state
+         */
+        protected double[] forward;
+        /**
+         * Scratch array of length {@link #stateS}
+         */
+        protected double[] probs;
+        /**
+         * Scratch array of length {@link #stateS}
+         */
+        protected double[] scaled;
+
+        protected SentenceSampler(IntArray stateByWord, int[] stateCounts,
+              int[] firstOrderTransitions, MersenneTwisterFast rand) {
+            this.stateByWord = stateByWord;
+            this.stateCounts = stateCounts;
+            this.firstOrderTransitions = firstOrderTransitions;
+            this.rand = rand;
+            forward = new double[stateS];
+            probs = new double[stateS];
+            scaled = new double[stateS];
+        }
+
+        /**
+         * Sample the sentences from startk up to but not including endk. The
+         * state preceding the first sentence is taken from {@link #first}.
+         *
+         * @param startk    Index of first sentence
+         * @param endk      Index one past the last sentence
+         * @param next      State of the token following the last sentence
+         *                  if it belongs to another partition. The
+         *                  transition into it is then left for the caller to
+         *                  repair. -1 if the last sentence ends the corpus
+         *                  or is followed by a sentence of this partition.
+         * @param annealer  Callback to annealing process
+         */
+        protected void sampleSentences(int startk, int endk, int next,
+              Annealer annealer) {
+            for (int k = startk; k < endk; ++k) {
+                int start = sentenceStarts[k], end = sentenceStarts[k + 1];
+                if (k % 10000 == 0) {
+                    System.err.println("\tProcessing word " + start);
+                }
+                if (k + 1 < endk) {
+                    sampleSentence(start, end, stateVector.get(end), true,
+                          annealer);
+                } else {
+                    sampleSentence(start, end, next, false, annealer);
+                }
+            }
+        }
+
+        /**
+         * Draw the states of one sentence jointly.
+         *
+         * @param start     Index of first token of sentence
+         * @param end       Index one past the last token of sentence
+         * @param next      State of the token following the sentence, -1
+         *                  if there is none
+         * @param outgoing  Whether the transition into the following token
+         *                  is counted by this sampler
+         * @param annealer  Callback to annealing process
+         */
+        protected void sampleSentence(int start, int end, int next,
+              boolean outgoing, Annealer annealer) {
+            int length = end - start;
+            int prev = first.get(start);
+
+            for (int i = start; i < end; ++i) {
+                int stateid = stateVector.get(i);
+                stateByWord.dec(wordVector.get(i) * stateS + stateid);
+                stateCounts[stateid]--;
+                firstOrderTransitions[first.get(i) * stateS + stateid]--;
+            }
+            if (outgoing) {
+                firstOrderTransitions[first.get(end) * stateS + next]--;
+            }
+
+            if (forward.length < length * stateS) {
+                forward = new double[length * stateS];
+            }
+
+            /**
+             * Forward filtering. Each row is normalized to keep the
+             * probabilities from underflowing.
+             */
+            int wordstateoff = wordVector.get(start) * stateS;
+            int stateoff = prev * stateS;
+            double sum = 0;
+            for (int j = 0; j < stateS; ++j) {
+                sum += forward[j] =
+                      (stateByWord.get(wordstateoff + j) + delta) / (stateCounts[j] + wdelta)
+                      * (firstOrderTransitions[stateoff + j] + gamma);
+            }
+            for (int j = 0; j < stateS; ++j) {
+                forward[j] /= sum;
+            }
+            for (int t = 1; t < length; ++t) {
+                int off = t * stateS, prevoff = off - stateS;
+                for (int i = 0; i < stateS; ++i) {
+                    scaled[i] = forward[prevoff + i] / (stateCounts[i] + sgamma);
+                    forward[off + i] = 0;
+                }
+                for (int i = 0; i < stateS; ++i) {
+                    double weight = scaled[i];
+                    stateoff = i * stateS;
+                    for (int j = 0; j < stateS; ++j) {
+                        forward[off + j] +=
+                              weight * (firstOrderTransitions[stateoff + j] + gamma);
+                    }
+                }
+                wordstateoff = wordVector.get(start + t) * stateS;
+                sum = 0;
+                for (int j = 0; j < stateS; ++j) {
+                    sum += forward[off + j] *=
+                          (stateByWord.get(wordstateoff + j) + delta) / (stateCounts[j] + wdelta);
+                }
+                for (int j = 0; j < stateS; ++j) {
+                    forward[off + j] /= sum;
+                }
+            }
+
+            /**
+             * Backward sampling
+             */
+            int stateid = next;
+            for (int t = length - 1; t >= 0; --t) {
+                int off = t * stateS;
+                for (int j = 0; j < stateS; ++j) {
+                    probs[j] = forward[off + j];
+                    if (stateid >= 0) {
+                        probs[j] *= (firstOrderTransitions[j * stateS + stateid] + gamma)
+                              / (stateCounts[j] + sgamma);
+                    }
+                }
+                double totalprob = annealer.annealProbs(probs);
+                double r = rand.nextDouble() * totalprob;
+                stateid = 0;
+                double max = probs[stateid];
+                while (r > max && stateid < stateS - 1) {
+                    stateid++;
+                    max += probs[stateid];
+                }
+                stateVector.set(start + t, stateid);
+            }
+
+            int current = prev;
+            for (int i = start; i < end; ++i) {
+                stateid = stateVector.get(i);
+                stateByWord.inc(wordVector.get(i) * stateS + stateid);
+                stateCounts[stateid]++;
+                firstOrderTransitions[current * stateS + stateid]++;
+                first.set(i, current);
+                current = stateid;
+            }
+            if (outgoing) {
+                firstOrderTransitions[current * stateS + next]++;
+                first.set(end, current);
+            }
+        }
+    }
+}
@@ -47,7 +47,7 @@ public class GibbsHMM extends HMM {
          * Initialize by assigning random topic indices to words
          */
         for (int i = 0; i < wordN; ++i) {
-            wordid = wordVector[i];
+            wordid = wordVector.get(i);
 
 //            if (wordid == EOSi) {
 //                firstOrderTransitions[current * stateS + 0]++;
@@ -58,14 +58,11 @@ public class GibbsHMM extends HMM {
 
             totalprob = 0;
             stateoff = current * stateS;
-            try {
-                for (int j = 0;; j++) {
-                    totalprob += stateProbs[j] =
-                          (StateByWord[wordstateoff + j] + delta)
-                          / (stateCounts[j] + wdelta)
-                          * (firstOrderTransitions[stateoff + j] + gamma);
-                }
-            } catch (java.lang.ArrayIndexOutOfBoundsException e) {
+            for (int j = 0; j < stateS; j++) {
+                totalprob += stateProbs[j] =
+                      (StateByWord.get(wordstateoff + j) + delta)
+                      / (stateCounts[j] + wdelta)
+                      * (firstOrderTransitions[stateoff + j] + gamma);
             }
 
             r = mtfRand.nextDouble() * totalprob;
@@ -75,11 +72,11 @@ public class GibbsHMM extends HMM {
                 stateid++;
                 max += stateProbs[stateid];
             }
-            stateVector[i] = stateid;
-            StateByWord[wordstateoff + stateid]++;
+            stateVector.set(i, stateid);
+            StateByWord.inc(wordstateoff + stateid);
             stateCounts[stateid]++;
             firstOrderTransitions[stateoff + stateid]++;
-            first[i] = current;
+            first.set(i, current);
             current = stateid;
 //            }
         }
@@ -103,7 +100,7 @@ public class GibbsHMM extends HMM {
                 if (i % 100000 == 0) {
                     System.err.println("\tProcessing word " + i);
                 }
-                wordid = wordVector[i];
+                wordid = wordVector.get(i);
 
 //                if (wordid == EOSi) // sentence marker
 //                {
@@ -112,28 +109,21 @@ public class GibbsHMM extends HMM {
 //                    first[i] = current;
 //                    current = 0;
 //                } else {
-                stateid = stateVector[i];
+                stateid = stateVector.get(i);
                 wordstateoff = wordid * stateS;
 
-                StateByWord[wordstateoff + stateid]--;
+                StateByWord.dec(wordstateoff + stateid);
                 stateCounts[stateid]--;
-                firstOrderTransitions[first[i] * stateS + stateid]--;
+                firstOrderTransitions[first.get(i) * stateS + stateid]--;
 
                 stateoff = current * stateS;
-                try {
-                    next = stateVector[i + 1];
-                } catch (ArrayIndexOutOfBoundsException e) {
-                    next = 0;
-                }
+                next = i + 1 < wordN ? stateVector.get(i + 1) : 0;
 
-                try {
-                    for (int j = 0;; j++) {
-                        stateProbs[j] =
-                              ((StateByWord[wordstateoff + j] + delta) / (stateCounts[j] + wdelta))
-                              * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
-                              * (firstOrderTransitions[j * stateS + next] + gamma);
-                    }
-                } catch (ArrayIndexOutOfBoundsException e) {
+                for (int j = 0; j < stateS; j++) {
+                    stateProbs[j] =
+                          ((StateByWord.get(wordstateoff + j) + delta) / (stateCounts[j] + wdelta))
+                          * (firstOrderTransitions[stateoff + j] + gamma) / (stateCounts[j] + sgamma)
+                          * (firstOrderTransitions[j * stateS + next] + gamma);
                 }
                 totalprob = annealer.annealProbs(stateProbs);
                 r = mtfRand.nextDouble() * totalprob;
@@ -143,15 +133,16 @@ public class GibbsHMM extends HMM {
                     stateid++;
                     max += stateProbs[stateid];
                 }
-                stateVector[i] = stateid;
+                stateVector.set(i, stateid);
 
-                StateByWord[wordstateoff + stateid]++;
+                StateByWord.inc(wordstateoff + stateid);
                 stateCounts[stateid]++;
                 firstOrderTransitions[stateoff + stateid]++;
-                first[i] = current;
+                first.set(i, current);
                 current = stateid;
 //                }
             }
+            traceIteration(annealer);
         }
     }
 }
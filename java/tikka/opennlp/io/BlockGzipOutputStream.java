@@ -0,0 +1,299 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.opennlp.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Stream that compresses its content into gzip blocks in the BGZF layout.
+ * Each block is a complete gzip member holding at most
+ * {@link #MAX_BLOCK_SIZE} bytes, whose header gives the size of the block,
+ * so blocks are deflated independently on a pool of threads and written in
+ * order. The output is an ordinary multi-member gzip file that any gzip
+ * reader accepts, and that {@link GzipChannel} inflates in parallel. The
+ * stream ends with the empty block that marks the end of BGZF files.
+ *
+ * @author tsmoon
+ */
+public class BlockGzipOutputStream extends OutputStream {
+
+    /**
+     * Largest number of bytes in a block. The deflated block, with header
+     * and trailer, stays below the 64KB that the header can describe even
+     * if the content does not compress.
+     */
+    public static final int MAX_BLOCK_SIZE = 65280;
+    /**
+     * Number of blocks submitted ahead of the writer per deflater thread
+     */
+    protected static final int TASKS_AHEAD = 4;
+    /**
+     * Length of the header of a block, including the BC subfield
+     */
+    protected static final int HEADER_LENGTH = 18;
+    /**
+     * Pool of deflater threads shared by all open streams
+     */
+    protected static ExecutorService executor;
+    protected static final int threads =
+          Runtime.getRuntime().availableProcessors();
+    protected OutputStream out;
+    /**
+     * Deflate level from 0 to 9
+     */
+    protected int level;
+    /**
+     * Block being filled
+     */
+    protected byte[] block;
+    /**
+     * Number of bytes in the block being filled
+     */
+    protected int count = 0;
+    /**
+     * Deflated blocks in stream order
+     */
+    protected ArrayDeque<Future<byte[]>> pending =
+          new ArrayDeque<Future<byte[]>>();
+    protected boolean finished = false;
+
+    /**
+     * @param out   Stream the blocks are written to
+     * @param level Deflate level from 0 to 9
+     * @param blockSize Number of bytes in a block, at most
+     *                  {@link #MAX_BLOCK_SIZE}
+     */
+    public BlockGzipOutputStream(OutputStream out, int level, int blockSize) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Deflate level " + level
+                  + " is not between 0 and 9");
+        }
+        if (blockSize <= 0 || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size " + blockSize
+                  + " is not between 1 and " + MAX_BLOCK_SIZE);
+        }
+        this.out = out;
+        this.level = level;
+        block = new byte[blockSize];
+    }
+
+    /**
+     * @param out   Stream the blocks are written to
+     * @param level Deflate level from 0 to 9
+     */
+    public BlockGzipOutputStream(OutputStream out, int level) {
+        this(out, level, MAX_BLOCK_SIZE);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == block.length) {
+            submit();
+        }
+        block[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == block.length) {
+                submit();
+            }
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * End the current block early and write all blocks
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            submit();
+        }
+        while (!pending.isEmpty()) {
+            drain();
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the remaining blocks and the end of file block without closing
+     * the underlying stream. Nothing may be written afterwards.
+     *
+     * @throws IOException
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        try {
+            flush();
+            out.write(deflate(new byte[0], 0, level));
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+            pending.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Submit the current block for deflation and start a new one. Blocks
+     * that are done are written first if enough are pending.
+     *
+     * @throws IOException
+     */
+    protected void submit() throws IOException {
+        while (pending.size() >= threads * TASKS_AHEAD) {
+            drain();
+        }
+        final byte[] data = block;
+        final int length = count;
+        pending.add(start(new Callable<byte[]>() {
+
+            public byte[] call() {
+                return deflate(data, length, level);
+            }
+        }));
+        block = new byte[block.length];
+        count = 0;
+    }
+
+    /**
+     * Wait for the oldest pending block and write it
+     *
+     * @throws IOException
+     */
+    protected void drain() throws IOException {
+        try {
+            out.write(pending.poll().get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Start a task on the deflater threads. With a single processor there
+     * is nothing to overlap, so the task runs right away on the calling
+     * thread.
+     *
+     * @param task  Task producing a deflated block
+     * @return  Future of the block
+     */
+    protected static Future<byte[]> start(Callable<byte[]> task) {
+        if (threads > 1) {
+            return getExecutor().submit(task);
+        }
+        FutureTask<byte[]> future = new FutureTask<byte[]>(task);
+        future.run();
+        return future;
+    }
+
+    protected static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads,
+                  new ThreadFactory() {
+
+                      public Thread newThread(Runnable r) {
+                          Thread thread = new Thread(r, "tikka-deflater");
+                          thread.setDaemon(true);
+                          return thread;
+                      }
+                  });
+        }
+        return executor;
+    }
+
+    /**
+     * Deflate a block into a complete gzip member with the BC subfield
+     *
+     * @param data  Content of the block
+     * @param length    Number of bytes of content
+     * @param level Deflate level
+     * @return  The member
+     */
+    protected static byte[] deflate(byte[] data, int length, int level) {
+        byte[] compressed = new byte[HEADER_LENGTH + length + length / 8
+              + 64 + 8];
+        Deflater deflater = new Deflater(level, true);
+        int n;
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            n = HEADER_LENGTH;
+            while (!deflater.finished()) {
+                n += deflater.deflate(compressed, n,
+                      compressed.length - 8 - n);
+            }
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+
+        int size = n + 8;
+        byte[] header = {
+            0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0,
+            'B', 'C', 2, 0, (byte) (size - 1), (byte) ((size - 1) >> 8)};
+        System.arraycopy(header, 0, compressed, 0, HEADER_LENGTH);
+        writeInt(compressed, n, (int) crc.getValue());
+        writeInt(compressed, n + 4, length);
+
+        byte[] member = new byte[size];
+        System.arraycopy(compressed, 0, member, 0, size);
+        return member;
+    }
+
+    protected static void writeInt(byte[] b, int offset, int value) {
+        b[offset] = (byte) value;
+        b[offset + 1] = (byte) (value >> 8);
+        b[offset + 2] = (byte) (value >> 16);
+        b[offset + 3] = (byte) (value >> 24);
+    }
+}
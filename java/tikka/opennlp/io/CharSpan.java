@@ -0,0 +1,71 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.opennlp.io;
+
+/**
+ * View of a range of a char buffer. The view changes whenever its owner
+ * moves it, so {@link #toString} must be called to keep its content.
+ *
+ * @author tsmoon
+ */
+public class CharSpan implements CharSequence {
+
+    protected char[] buffer;
+    protected int offset;
+    protected int length;
+
+    public CharSpan() {
+        buffer = new char[0];
+    }
+
+    /**
+     * Point the view at a new range.
+     *
+     * @param buffer    Buffer holding the characters
+     * @param offset    Offset of the first character
+     * @param length    Number of characters
+     */
+    public void set(char[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return buffer[offset + index];
+    }
+
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException();
+        }
+        return new String(buffer, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        return new String(buffer, offset, length);
+    }
+}
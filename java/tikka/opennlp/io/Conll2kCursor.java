@@ -0,0 +1,197 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.opennlp.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Cursor over a document in the format read by {@link Conll2kReader}. Lines
+ * are trimmed and split at tabs in place, the word being the first column
+ * and the tag the second. Blank lines separate sentences. The cursor reads
+ * the underlying reader in blocks, so the document must not be read any
+ * other way once the cursor has been used.
+ *
+ * @author tsmoon
+ */
+public class Conll2kCursor extends TokenCursor {
+
+    /**
+     * Initial size of the char buffer. It grows to hold the longest line.
+     */
+    protected static final int BUFFER_SIZE = 1 << 13;
+    protected Reader reader;
+    protected char[] buffer = new char[BUFFER_SIZE];
+    /**
+     * Offset of the first character that has not been consumed
+     */
+    protected int position = 0;
+    /**
+     * Offset past the last character read into the buffer
+     */
+    protected int limit = 0;
+    /**
+     * Offsets of the current line, without its terminator
+     */
+    protected int lineStart, lineEnd;
+    /**
+     * Whether the reader is exhausted
+     */
+    protected boolean eof = false;
+    /**
+     * Whether the last line ended with a carriage return, in which case a
+     * line feed that follows belongs to the same terminator
+     */
+    protected boolean skipLineFeed = false;
+    /**
+     * Whether tokens have been returned since the last sentence boundary
+     */
+    protected boolean inSentence = false;
+    protected boolean hasTag = false;
+    protected CharSpan word = new CharSpan(), tag = new CharSpan();
+
+    public Conll2kCursor(Reader reader) {
+        this.reader = reader;
+    }
+
+    @Override
+    public CursorEventEnum.CursorEvent next() throws IOException {
+        while (readLine()) {
+            int start = lineStart, end = lineEnd;
+            while (start < end && buffer[start] <= ' ') {
+                start++;
+            }
+            while (end > start && buffer[end - 1] <= ' ') {
+                end--;
+            }
+            if (start == end) {
+                if (inSentence) {
+                    inSentence = false;
+                    return CursorEventEnum.CursorEvent.SENTENCE_END;
+                }
+                continue;
+            }
+
+            /**
+             * The trimmed line ends in a character other than a tab, so a
+             * token has a tag exactly when its line has a tab.
+             */
+            int wordEnd = start;
+            while (wordEnd < end && buffer[wordEnd] != '\t') {
+                wordEnd++;
+            }
+            word.set(buffer, start, wordEnd - start);
+            hasTag = wordEnd < end;
+            if (hasTag) {
+                int tagEnd = wordEnd + 1;
+                while (tagEnd < end && buffer[tagEnd] != '\t') {
+                    tagEnd++;
+                }
+                tag.set(buffer, wordEnd + 1, tagEnd - wordEnd - 1);
+            }
+            inSentence = true;
+            return CursorEventEnum.CursorEvent.TOKEN;
+        }
+
+        if (inSentence) {
+            inSentence = false;
+            return CursorEventEnum.CursorEvent.SENTENCE_END;
+        }
+        return CursorEventEnum.CursorEvent.DOCUMENT_END;
+    }
+
+    @Override
+    public CharSequence getWord() {
+        return word;
+    }
+
+    @Override
+    public CharSequence getTag() {
+        return hasTag ? tag : null;
+    }
+
+    /**
+     * Find the next line in the buffer, reading more of the document as
+     * needed. Lines end with a line feed, a carriage return or both, as in
+     * {@link java.io.BufferedReader#readLine}.
+     *
+     * @return  Whether there was another line
+     * @throws IOException
+     */
+    protected boolean readLine() throws IOException {
+        int scan = position;
+        for (;;) {
+            for (; scan < limit; ++scan) {
+                char c = buffer[scan];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (c == '\n') {
+                        position = scan + 1;
+                        continue;
+                    }
+                }
+                if (c == '\n' || c == '\r') {
+                    lineStart = position;
+                    lineEnd = scan;
+                    position = scan + 1;
+                    skipLineFeed = c == '\r';
+                    return true;
+                }
+            }
+
+            if (eof) {
+                if (position < limit) {
+                    lineStart = position;
+                    lineEnd = limit;
+                    position = limit;
+                    return true;
+                }
+                return false;
+            }
+            scan -= position;
+            fill();
+            scan += position;
+        }
+    }
+
+    /**
+     * Move the unconsumed characters to the front of the buffer, growing it
+     * if it is full, and read more of the document after them.
+     *
+     * @throws IOException
+     */
+    protected void fill() throws IOException {
+        int remaining = limit - position;
+        if (remaining == buffer.length) {
+            char[] grown = new char[buffer.length * 2];
+            System.arraycopy(buffer, position, grown, 0, remaining);
+            buffer = grown;
+        } else if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, remaining);
+        }
+        position = 0;
+        limit = remaining;
+
+        int n = reader.read(buffer, limit, buffer.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+}
@@ -49,32 +49,35 @@ public class Conll2kReader extends DataReader {
         super(f);
     }
 
+    @Override
+    protected TokenCursor newCursor() {
+        return new Conll2kCursor(inputReader);
+    }
+
     public String[] nextToken() throws IOException, EOFException {
-        String line = inputReader.readLine();
-        if (line == null) {
-            throw new EOFException();
-        }
-        line = line.trim();
-        if (line.length() == 0) {
-            return nextToken();
-        } else {
-            return line.split("\t");
-        }
+        String line;
+        do {
+            line = inputReader.readLine();
+            if (line == null) {
+                throw new EOFException();
+            }
+            line = line.trim();
+        } while (line.length() == 0);
+        return line.split("\t");
     }
 
     public String[][] nextSequence() throws IOException, EOFException {
 
         ArrayList<String[]> sequence = new ArrayList<String[]>();
 
-        String line = inputReader.readLine();
-        if (line == null) {
-            throw new EOFException();
-        }
-        line = line.trim();
-
-        if (line.length() == 0) {
-            return nextSequence();
-        }
+        String line;
+        do {
+            line = inputReader.readLine();
+            if (line == null) {
+                throw new EOFException();
+            }
+            line = line.trim();
+        } while (line.length() == 0);
 
         while (line.length() != 0) {
             sequence.add(line.split("\t"));
@@ -94,15 +97,14 @@ public class Conll2kReader extends DataReader {
 
         ArrayList<String> sequence = new ArrayList<String>();
 
-        String line = inputReader.readLine();
-        if (line == null) {
-            throw new EOFException();
-        }
-        line = line.trim();
-
-        if (line.length() == 0) {
-            return nextOutputSequence();
-        }
+        String line;
+        do {
+            line = inputReader.readLine();
+            if (line == null) {
+                throw new EOFException();
+            }
+            line = line.trim();
+        } while (line.length() == 0);
 
         while (line.length() != 0) {
             if (line.indexOf('\t') > 0) {
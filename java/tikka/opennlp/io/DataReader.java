@@ -21,10 +21,9 @@ import java.io.BufferedReader;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.zip.GZIPInputStream;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 
 /**
  * Wrapper for reading in information from a file which has one word
@@ -36,8 +35,14 @@ import java.util.zip.GZIPInputStream;
  */
 public abstract class DataReader {
 
+    /**
+     * Encoding of all input files
+     */
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
     BufferedReader inputReader;
     File inputFile;
+    TokenCursor cursor;
 
     protected DataReader (File f) throws IOException {
 	inputFile = f;
@@ -48,16 +53,46 @@ public abstract class DataReader {
     public abstract String[][] nextSequence() throws IOException, EOFException;
     public abstract String[] nextOutputSequence() throws IOException, EOFException;
 
+    /**
+     * Cursor over the rest of the file. The same cursor is returned until the
+     * reader is restarted. Mixing it with the other read methods skips
+     * lines, since the cursor reads ahead.
+     *
+     * @return  Cursor over the tokens of the file
+     */
+    public TokenCursor getCursor() {
+        if (cursor == null) {
+            cursor = newCursor();
+        }
+        return cursor;
+    }
+
+    protected abstract TokenCursor newCursor();
+
+    /**
+     * Open the bytes of the input file, decompressing it in the background
+     * if it is gzipped
+     *
+     * @return  Channel over the content of the file
+     * @throws IOException
+     */
+    protected ReadableByteChannel openChannel() throws IOException {
+	if (inputFile.getName().endsWith(".gz"))
+	    return new GzipChannel(inputFile);
+	else
+	    return new FileInputStream(inputFile).getChannel();
+    }
+
     // Override this in case a format needs to be set to a particular
     // spot for the first read (see HashSlashReader).x
     protected void prepare () throws IOException {}
 
     public void restart() throws IOException {
-	if (inputFile.getName().endsWith(".gz"))
-	    inputReader = new BufferedReader(new InputStreamReader(
-  	                    new GZIPInputStream(new FileInputStream(inputFile))));
-	else
-	    inputReader = new BufferedReader(new FileReader(inputFile));
+	if (inputReader != null)
+	    inputReader.close();
+	inputReader = new BufferedReader(new DecodingReader(openChannel(),
+	                                                    CHARSET));
+	cursor = null;
 
 	prepare();
     }
@@ -0,0 +1,165 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.opennlp.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Reader that decodes the bytes of a channel with a given charset. Bytes
+ * are read into large direct buffers, which are pooled across readers since
+ * a corpus is read one file after another. Malformed input is replaced, as
+ * {@link java.io.InputStreamReader} does.
+ *
+ * @author tsmoon
+ */
+public class DecodingReader extends Reader {
+
+    /**
+     * Size of the byte buffers
+     */
+    protected static final int BUFFER_SIZE = 1 << 20;
+    /**
+     * Byte buffers of closed readers
+     */
+    protected static final ConcurrentLinkedQueue<ByteBuffer> buffers =
+          new ConcurrentLinkedQueue<ByteBuffer>();
+    protected ReadableByteChannel channel;
+    protected CharsetDecoder decoder;
+    protected ByteBuffer bytes;
+    /**
+     * Whether the channel is exhausted
+     */
+    protected boolean eof = false;
+    /**
+     * Whether the decoder has been flushed after the end of input
+     */
+    protected boolean flushed = false;
+    /**
+     * Second half of a surrogate pair that did not fit into the last read
+     */
+    protected char leftover;
+    protected boolean hasLeftover = false;
+    protected char[] pair = new char[2];
+
+    /**
+     * @param channel   Channel to read from. It is closed with the reader.
+     * @param charset   Encoding of the channel
+     */
+    public DecodingReader(ReadableByteChannel channel, Charset charset) {
+        this.channel = channel;
+        decoder = charset.newDecoder()
+              .onMalformedInput(CodingErrorAction.REPLACE)
+              .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = buffers.poll();
+        if (bytes == null) {
+            bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+        bytes.clear();
+        bytes.flip();
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (bytes == null) {
+            throw new IOException("Reader closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (hasLeftover) {
+            hasLeftover = false;
+            cbuf[off] = leftover;
+            return 1;
+        }
+        if (len == 1) {
+            /**
+             * A single char may not hold the next character, so decode into
+             * room for two and keep the second half for later.
+             */
+            int n = decode(CharBuffer.wrap(pair));
+            if (n < 0) {
+                return -1;
+            }
+            cbuf[off] = pair[0];
+            if (n == 2) {
+                leftover = pair[1];
+                hasLeftover = true;
+            }
+            return 1;
+        }
+        return decode(CharBuffer.wrap(cbuf, off, len));
+    }
+
+    /**
+     * Decode as many chars as are available without blocking for more input
+     * once some have been produced.
+     *
+     * @param out   Room for at least two chars
+     * @return  Number of chars decoded, or -1 at the end of the channel
+     * @throws IOException
+     */
+    protected int decode(CharBuffer out) throws IOException {
+        if (flushed) {
+            return -1;
+        }
+        int start = out.position();
+        for (;;) {
+            CoderResult result = decoder.decode(bytes, out, eof);
+            if (result.isOverflow()) {
+                break;
+            }
+            if (eof) {
+                if (!flushed) {
+                    if (decoder.flush(out).isOverflow()) {
+                        break;
+                    }
+                    flushed = true;
+                }
+                break;
+            }
+            if (out.position() > start) {
+                break;
+            }
+            bytes.compact();
+            if (channel.read(bytes) < 0) {
+                eof = true;
+            }
+            bytes.flip();
+        }
+        int n = out.position() - start;
+        return n == 0 && flushed ? -1 : n;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (bytes != null) {
+            channel.close();
+            buffers.offer(bytes);
+            bytes = null;
+        }
+    }
+}
@@ -18,7 +18,11 @@
 package tikka.opennlp.io;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 import java.util.Vector;
 
 /**
@@ -71,6 +75,7 @@ public class DirReader {
             throw new IOException();
         }
 
+        this.root = root;
         files = new Vector<String>();
         this.dataFormat = dataFormat;
         walk(root);
@@ -94,13 +99,7 @@ public class DirReader {
             if (currentFileIdx < files.size()) {
                 currentFile = new File(files.elementAt(currentFileIdx));
                 currentFileIdx++;
-
-                switch (dataFormat) {
-                    case CONLL2K:
-                        dataReader = new Conll2kReader(currentFile);
-                        break;
-                }
-
+                dataReader = openDocumentReader(currentFile);
                 return dataReader;
             } else {
                 return null;
@@ -112,6 +111,107 @@ public class DirReader {
         }
     }
 
+    /**
+     * Open a reader for one of the files independently of the position of
+     * {@link #nextDocumentReader}, so that several files may be read at
+     * the same time
+     *
+     * @param idx   Index of the file in walking order
+     * @return  Reader for the file. Must be closed by the caller.
+     * @throws IOException
+     */
+    public DataReader getDocumentReader(int idx) throws IOException {
+        return openDocumentReader(new File(files.elementAt(idx)));
+    }
+
+    protected DataReader openDocumentReader(File file) throws IOException {
+        switch (dataFormat) {
+            case CONLL2K:
+                return new Conll2kReader(file);
+            default:
+                throw new IOException("Unsupported data format " + dataFormat);
+        }
+    }
+
+    /**
+     * Count the lines of all files without parsing them. For formats with
+     * one token per line, this is an upper bound on the number of tokens
+     * and is cheap enough to size buffers before the files are read.
+     * Compressed files are left out, since counting them would mean
+     * decompressing them twice.
+     *
+     * @return  Number of line breaks in all files
+     * @throws IOException
+     */
+    public long countLines() throws IOException {
+        return countLines(0);
+    }
+
+    /**
+     * Count the lines of the files from the given index on
+     *
+     * @param firstFile Index of the first file to count
+     * @return  Number of line breaks in the files
+     * @throws IOException
+     * @see #countLines()
+     */
+    public long countLines(int firstFile) throws IOException {
+        long lines = 0;
+        byte[] buffer = new byte[1 << 16];
+        for (String file : files.subList(firstFile, files.size())) {
+            if (file.endsWith(".gz")) {
+                continue;
+            }
+            InputStream in = new FileInputStream(file);
+            try {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    for (int i = 0; i < n; ++i) {
+                        if (buffer[i] == '\n') {
+                            lines++;
+                        }
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * @return  Number of files to be read
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * @param idx   Index of the file in walking order
+     * @return  Path of the file
+     */
+    public String getFile(int idx) {
+        return files.elementAt(idx);
+    }
+
+    /**
+     * @return  Paths of the files in walking order
+     */
+    public List<String> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    /**
+     * Change the order in which the files are read and written. Used when
+     * the documents of a corpus come from a cache that keeps its own order.
+     *
+     * @param files Paths of the same files in the new order
+     */
+    public void setFiles(List<String> files) {
+        this.files = new Vector<String>(files);
+        reset();
+    }
+
     public void reset() {
         currentFileIdx = 0;
     }
@@ -17,11 +17,13 @@
 ///////////////////////////////////////////////////////////////////////////////
 package tikka.opennlp.io;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.util.Vector;
 
 /**
@@ -62,8 +64,7 @@ public class DirWriter {
         inRoot = dirReader.root;
         this.outRoot = outRoot;
         for (String file : dirReader.files) {
-            file.replaceFirst(inRoot, outRoot);
-            files.add(file);
+            files.add(outputPath(file));
         }
     }
 
@@ -73,17 +74,47 @@ public class DirWriter {
         this.inRoot = inRoot;
         this.outRoot = outRoot;
         for (String file : dirReader.files) {
-            file = file.replaceFirst(inRoot, outRoot);
-            files.add(file);
+            files.add(outputPath(file));
         }
     }
 
+    /**
+     * Path of the output file for an input file. The first occurrence of the
+     * input root is replaced with the output root.
+     *
+     * @param file  Path of the input file
+     * @return  Path of the output file
+     */
+    protected String outputPath(String file) {
+        int idx = file.indexOf(inRoot);
+        if (idx < 0) {
+            return file;
+        }
+        return file.substring(0, idx) + outRoot
+              + file.substring(idx + inRoot.length());
+    }
+
+    /**
+     * Open an output file, creating the directories above it if needed.
+     *
+     * @param fileName  Path of the file
+     * @return  Writer for the file
+     * @throws IOException
+     */
+    protected static Writer openOutput(String fileName) throws IOException {
+        File parent = new File(fileName).getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        return new OutputStreamWriter(new BufferedOutputStream(
+              new FileOutputStream(fileName), 1 << 16), DataReader.CHARSET);
+    }
+
     public BufferedWriter nextOutputBuffer() {
         try {
             if (currentFileIdx < files.size()) {
                 currentFileName = files.elementAt(currentFileIdx);
-                outputWriter = new BufferedWriter(new OutputStreamWriter(
-                        new FileOutputStream(currentFileName)));
+                outputWriter = new BufferedWriter(openOutput(currentFileName));
                 currentFileIdx++;
                 return outputWriter;
             } else {
@@ -91,13 +122,21 @@ public class DirWriter {
             }
 
         } catch (IOException e) {
-            File f = new File(currentFileName);
-            String parent = f.getParent();
-            (new File(parent)).mkdir();
-            return nextOutputBuffer();
+            e.printStackTrace();
+            return null;
         }
     }
 
+    /**
+     * Wait until everything handed to the writers of this object has been
+     * written. Writers are written synchronously here, so there is nothing
+     * to wait for.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+    }
+
     public void reset() {
         currentFileIdx = 0;
     }
@@ -0,0 +1,437 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.opennlp.io;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Channel over the decompressed content of a gzip file. Decompression runs
+ * on background threads so that it overlaps with parsing.
+ * <p>
+ * Files made of blocks in the BGZF layout, whose headers give the size of
+ * each block, are split into batches of blocks that are inflated in
+ * parallel. Other gzip files, including ones with several members, are
+ * inflated one chunk ahead of the reader on a single thread at a time,
+ * since the end of a member is only known once it has been inflated.
+ *
+ * @author tsmoon
+ */
+public class GzipChannel implements ReadableByteChannel {
+
+    /**
+     * Number of bytes inflated at a time from files that are not in blocks
+     */
+    protected static final int CHUNK_SIZE = 1 << 20;
+    /**
+     * Number of blocks inflated in one task. Blocks hold at most 64KB.
+     */
+    protected static final int BLOCKS_PER_TASK = 16;
+    /**
+     * Number of tasks submitted ahead of the reader per inflater thread
+     */
+    protected static final int TASKS_AHEAD = 2;
+    /**
+     * Length of the fixed part of a gzip header
+     */
+    protected static final int HEADER_LENGTH = 12;
+    /**
+     * Pool of inflater threads shared by all open channels
+     */
+    protected static ExecutorService executor;
+    protected static final int threads =
+          Runtime.getRuntime().availableProcessors();
+    /**
+     * Chunks of {@link #CHUNK_SIZE} bytes that have been read to the end.
+     * Corpora tend to have many small files, each of which would otherwise
+     * allocate a fresh chunk.
+     */
+    protected static final ConcurrentLinkedQueue<byte[]> chunks =
+          new ConcurrentLinkedQueue<byte[]>();
+    protected FileChannel file;
+    /**
+     * Offset of the next block to submit. Only used for files in blocks.
+     */
+    protected long position = 0;
+    /**
+     * Decompressed stream of files that are not in blocks. Null while the
+     * file is read in blocks.
+     */
+    protected InputStream stream;
+    /**
+     * Decompressed chunks in file order
+     */
+    protected ArrayDeque<Future<ByteBuffer>> pending =
+          new ArrayDeque<Future<ByteBuffer>>();
+    /**
+     * Whether all of the file has been submitted
+     */
+    protected boolean exhausted = false;
+    protected ByteBuffer current;
+
+    /**
+     * @param f Gzip file
+     * @throws IOException
+     */
+    public GzipChannel(File f) throws IOException {
+        file = new FileInputStream(f).getChannel();
+        try {
+            if (blockSize(0) <= 0) {
+                stream = new GZIPInputStream(Channels.newInputStream(file),
+                      1 << 16);
+            }
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Start a task on the inflater threads. With a single processor there
+     * is nothing to overlap, so the task runs right away on the calling
+     * thread.
+     *
+     * @param task  Task producing a decompressed chunk
+     * @return  Result of the task
+     */
+    protected static Future<ByteBuffer> start(Callable<ByteBuffer> task) {
+        if (threads > 1) {
+            return getExecutor().submit(task);
+        }
+        FutureTask<ByteBuffer> future = new FutureTask<ByteBuffer>(task);
+        future.run();
+        return future;
+    }
+
+    protected static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads,
+                  new ThreadFactory() {
+
+                      public Thread newThread(Runnable r) {
+                          Thread thread = new Thread(r, "tikka-inflater");
+                          thread.setDaemon(true);
+                          return thread;
+                      }
+                  });
+        }
+        return executor;
+    }
+
+    public int read(ByteBuffer dst) throws IOException {
+        if (!isOpen()) {
+            throw new IOException("Channel closed");
+        }
+        while (current == null || !current.hasRemaining()) {
+            recycle();
+            current = nextChunk();
+            if (current == null) {
+                return -1;
+            }
+        }
+        int n = Math.min(dst.remaining(), current.remaining());
+        ByteBuffer slice = current.duplicate();
+        slice.limit(slice.position() + n);
+        dst.put(slice);
+        current.position(current.position() + n);
+        return n;
+    }
+
+    /**
+     * @return  Next decompressed chunk, or null at the end of the file
+     * @throws IOException
+     */
+    protected ByteBuffer nextChunk() throws IOException {
+        for (;;) {
+            submit();
+            if (pending.isEmpty()) {
+                return null;
+            }
+            ByteBuffer chunk;
+            try {
+                chunk = pending.poll().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+            if (chunk != null) {
+                submit();
+                return chunk;
+            }
+            exhausted = true;
+        }
+    }
+
+    /**
+     * Submit tasks until enough are pending. Chunks of a stream that is not
+     * in blocks must be read one after the other, so one of them is
+     * submitted only when nothing else is pending.
+     *
+     * @throws IOException
+     */
+    protected void submit() throws IOException {
+        while (!exhausted) {
+            if (stream != null) {
+                if (pending.isEmpty()) {
+                    pending.add(start(new Callable<ByteBuffer>() {
+
+                        public ByteBuffer call() throws IOException {
+                            return inflateChunk();
+                        }
+                    }));
+                }
+                return;
+            }
+            if (pending.size() >= threads * TASKS_AHEAD) {
+                return;
+            }
+            submitBlocks();
+        }
+    }
+
+    /**
+     * Read the next batch of blocks and submit them for inflation. If the
+     * rest of the file is not in blocks, switch to inflating it as a
+     * stream.
+     *
+     * @throws IOException
+     */
+    protected void submitBlocks() throws IOException {
+        long end = position;
+        int blocks = 0;
+        long size;
+        while (blocks < BLOCKS_PER_TASK && (size = blockSize(end)) > 0) {
+            end += size;
+            blocks++;
+        }
+        if (blocks == 0) {
+            if (end < file.size()) {
+                file.position(end);
+                stream = new GZIPInputStream(Channels.newInputStream(file),
+                      1 << 16);
+            } else {
+                exhausted = true;
+            }
+            return;
+        }
+
+        final byte[] compressed = new byte[(int) (end - position)];
+        ByteBuffer buffer = ByteBuffer.wrap(compressed);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Truncated gzip block");
+            }
+        }
+        position = end;
+        pending.add(start(new Callable<ByteBuffer>() {
+
+            public ByteBuffer call() throws IOException {
+                return inflateBlocks(compressed);
+            }
+        }));
+    }
+
+    /**
+     * Size of the block at an offset, taken from the BSIZE field of its
+     * header.
+     *
+     * @param offset    Offset of the block
+     * @return  Size of the block, 0 at the end of the file, or -1 if the
+     *          data at the offset is not a block
+     * @throws IOException
+     */
+    protected long blockSize(long offset) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining()) {
+            if (file.read(header, offset + header.position()) < 0) {
+                return header.position() == 0 ? 0 : -1;
+            }
+        }
+        byte[] h = header.array();
+        if ((h[0] & 0xff) != 0x1f || (h[1] & 0xff) != 0x8b || h[2] != 8
+              || h[3] != 4) {
+            return -1;
+        }
+        int xlen = (h[10] & 0xff) | (h[11] & 0xff) << 8;
+        ByteBuffer extra = ByteBuffer.allocate(xlen);
+        while (extra.hasRemaining()) {
+            if (file.read(extra, offset + HEADER_LENGTH + extra.position())
+                  < 0) {
+                return -1;
+            }
+        }
+        byte[] x = extra.array();
+        for (int i = 0; i + 4 <= xlen;) {
+            int slen = (x[i + 2] & 0xff) | (x[i + 3] & 0xff) << 8;
+            if (x[i] == 'B' && x[i + 1] == 'C' && slen == 2 && i + 6 <= xlen) {
+                return ((x[i + 4] & 0xff) | (x[i + 5] & 0xff) << 8) + 1;
+            }
+            i += 4 + slen;
+        }
+        return -1;
+    }
+
+    /**
+     * Inflate consecutive blocks and check them against their trailers.
+     *
+     * @param compressed    Blocks to inflate
+     * @return  Decompressed content of the blocks
+     * @throws IOException
+     */
+    protected static ByteBuffer inflateBlocks(byte[] compressed) throws
+          IOException {
+        int total = 0;
+        for (int offset = 0; offset < compressed.length;) {
+            int size = blockLength(compressed, offset);
+            total += readInt(compressed, offset + size - 4);
+            offset += size;
+        }
+
+        byte[] out = new byte[total];
+        Inflater inflater = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            int produced = 0;
+            for (int offset = 0; offset < compressed.length;) {
+                int size = blockLength(compressed, offset);
+                int xlen = (compressed[offset + 10] & 0xff)
+                      | (compressed[offset + 11] & 0xff) << 8;
+                int data = offset + HEADER_LENGTH + xlen;
+                int isize = readInt(compressed, offset + size - 4);
+                inflater.reset();
+                inflater.setInput(compressed, data, offset + size - 8 - data);
+                int n = 0;
+                while (n < isize && !inflater.finished()) {
+                    int k = inflater.inflate(out, produced + n, isize - n);
+                    if (k == 0 && (inflater.needsInput()
+                          || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += k;
+                }
+                crc.reset();
+                crc.update(out, produced, n);
+                if (n != isize || (int) crc.getValue()
+                      != readInt(compressed, offset + size - 8)) {
+                    throw new ZipException("Corrupt gzip block");
+                }
+                produced += n;
+                offset += size;
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(out);
+    }
+
+    protected static int blockLength(byte[] b, int offset) {
+        int xlen = (b[offset + 10] & 0xff) | (b[offset + 11] & 0xff) << 8;
+        for (int i = offset + HEADER_LENGTH;
+              i + 4 <= offset + HEADER_LENGTH + xlen;) {
+            int slen = (b[i + 2] & 0xff) | (b[i + 3] & 0xff) << 8;
+            if (b[i] == 'B' && b[i + 1] == 'C' && slen == 2) {
+                return ((b[i + 4] & 0xff) | (b[i + 5] & 0xff) << 8) + 1;
+            }
+            i += 4 + slen;
+        }
+        throw new IllegalStateException("Block without size");
+    }
+
+    protected static int readInt(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8
+              | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+
+    /**
+     * @return  Next chunk of a stream that is not in blocks, or null at its
+     *          end
+     * @throws IOException
+     */
+    protected ByteBuffer inflateChunk() throws IOException {
+        byte[] chunk = chunks.poll();
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+        int n = 0, k;
+        while (n < CHUNK_SIZE && (k = stream.read(chunk, n, CHUNK_SIZE - n))
+              >= 0) {
+            n += k;
+        }
+        if (n == 0) {
+            chunks.offer(chunk);
+            return null;
+        }
+        return ByteBuffer.wrap(chunk, 0, n);
+    }
+
+    /**
+     * Return the current chunk to the pool if it has the pooled size. The
+     * reader is done with it, so it does not matter whether it came from
+     * the pool.
+     */
+    protected void recycle() {
+        if (current != null && current.array().length == CHUNK_SIZE) {
+            chunks.offer(current.array());
+        }
+        current = null;
+    }
+
+    public boolean isOpen() {
+        return file.isOpen();
+    }
+
+    public void close() throws IOException {
+        for (Future<ByteBuffer> future : pending) {
+            future.cancel(false);
+        }
+        pending.clear();
+        recycle();
+        if (stream != null) {
+            stream.close();
+        }
+        file.close();
+    }
+}
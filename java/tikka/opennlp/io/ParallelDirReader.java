@@ -0,0 +1,158 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.opennlp.io;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Parses the files of a {@link DirReader} on a pool of threads and hands out
+ * the results in the order the files were walked, so that anything numbered
+ * while the results are consumed, such as documents and words, gets the
+ * same numbers as when the files are read one at a time. Only a bounded
+ * number of files is parsed ahead of the consumer.
+ *
+ * @param <T>   Result of parsing a document
+ * @author tsmoon
+ */
+public class ParallelDirReader<T> {
+
+    /**
+     * Number of files parsed ahead per thread
+     */
+    protected static final int FILES_AHEAD = 4;
+    protected DirReader dirReader;
+    protected DocumentParser<T> parser;
+    /**
+     * Pool of parser threads. Null if files are parsed on the calling
+     * thread.
+     */
+    protected ExecutorService executor;
+    /**
+     * Results of submitted files in walking order
+     */
+    protected ArrayDeque<Future<T>> pending;
+    /**
+     * Index of the next file to submit or parse
+     */
+    protected int nextFile;
+    protected int window;
+
+    /**
+     * @param dirReader Files to read
+     * @param parser    Parser for a single document
+     * @param threads   Number of parser threads. With one thread, files are
+     *                  parsed on the calling thread.
+     */
+    public ParallelDirReader(DirReader dirReader, DocumentParser<T> parser,
+          int threads) {
+        this(dirReader, parser, threads, 0);
+    }
+
+    /**
+     * @param dirReader Files to read
+     * @param parser    Parser for a single document
+     * @param threads   Number of parser threads. With one thread, files are
+     *                  parsed on the calling thread.
+     * @param firstFile Index of the first file to read. Earlier files are
+     *                  skipped.
+     */
+    public ParallelDirReader(DirReader dirReader, DocumentParser<T> parser,
+          int threads, int firstFile) {
+        this.dirReader = dirReader;
+        nextFile = firstFile;
+        this.parser = parser;
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads,
+                  new ThreadFactory() {
+
+                      public Thread newThread(Runnable r) {
+                          Thread thread = new Thread(r, "tikka-reader");
+                          thread.setDaemon(true);
+                          return thread;
+                      }
+                  });
+            pending = new ArrayDeque<Future<T>>();
+            window = threads * FILES_AHEAD;
+        }
+    }
+
+    /**
+     * @return  Parsed next document, or null when all files have been read
+     * @throws IOException
+     */
+    public T next() throws IOException {
+        if (executor == null) {
+            return nextFile < dirReader.getFileCount() ? parse(nextFile++)
+                  : null;
+        }
+
+        while (pending.size() < window
+              && nextFile < dirReader.getFileCount()) {
+            final int idx = nextFile++;
+            pending.add(executor.submit(new Callable<T>() {
+
+                public T call() throws IOException {
+                    return parse(idx);
+                }
+            }));
+        }
+        if (pending.isEmpty()) {
+            close();
+            return null;
+        }
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            close();
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    protected T parse(int idx) throws IOException {
+        DataReader dataReader = dirReader.getDocumentReader(idx);
+        try {
+            return parser.parse(dataReader);
+        } finally {
+            dataReader.close();
+        }
+    }
+
+    /**
+     * Stop the parser threads. Files that have not been handed out are
+     * dropped.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,279 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.opennlp.io;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Writes annotated files on background threads. The writers returned by
+ * {@link #nextOutputBuffer} only collect text into chunks, which are handed
+ * through bounded queues to writer threads that encode them and write them
+ * out. Each file goes to a single writer thread, so its chunks are written
+ * in order, while different files may be written at the same time.
+ * {@link #close} must be called to wait for the files to be complete.
+ *
+ * @author tsmoon
+ */
+public class ParallelDirWriter extends DirWriter {
+
+    /**
+     * Number of chars collected before a chunk is handed to a writer thread
+     */
+    protected static final int CHUNK_SIZE = 1 << 16;
+    /**
+     * Number of chunks that may be waiting per writer thread
+     */
+    protected static final int CHUNKS_AHEAD = 16;
+    protected ArrayList<ArrayBlockingQueue<Chunk>> queues;
+    protected Thread[] writers;
+    /**
+     * Chunks that have been written out and may be filled again
+     */
+    protected ConcurrentLinkedQueue<StringBuilder> builders =
+          new ConcurrentLinkedQueue<StringBuilder>();
+    /**
+     * First error of the writer threads
+     */
+    protected volatile IOException failure;
+
+    /**
+     * Text for one file, or the end of the files if the file is null
+     */
+    protected static class Chunk {
+
+        String fileName;
+        StringBuilder text;
+        boolean last;
+
+        Chunk(String fileName, StringBuilder text, boolean last) {
+            this.fileName = fileName;
+            this.text = text;
+            this.last = last;
+        }
+    }
+
+    /**
+     * @param outRoot   Root of output files
+     * @param inRoot    Root of input files
+     * @param dirReader Input files, whose paths are mirrored in the output
+     * @param threads   Number of writer threads
+     * @throws IOException
+     */
+    public ParallelDirWriter(String outRoot, String inRoot,
+          DirReader dirReader, int threads) throws IOException {
+        super(outRoot, inRoot, dirReader);
+        threads = Math.max(1, threads);
+        queues = new ArrayList<ArrayBlockingQueue<Chunk>>(threads);
+        writers = new Thread[threads];
+        for (int t = 0; t < threads; ++t) {
+            final ArrayBlockingQueue<Chunk> queue =
+                  new ArrayBlockingQueue<Chunk>(CHUNKS_AHEAD);
+            queues.add(queue);
+            writers[t] = new Thread(new Runnable() {
+
+                public void run() {
+                    drain(queue);
+                }
+            }, "tikka-writer");
+            writers[t].setDaemon(true);
+            writers[t].start();
+        }
+    }
+
+    @Override
+    public BufferedWriter nextOutputBuffer() {
+        if (currentFileIdx < files.size()) {
+            currentFileName = files.elementAt(currentFileIdx);
+            outputWriter = new BufferedWriter(new QueuedWriter(
+                  queues.get(currentFileIdx % queues.size()),
+                  currentFileName));
+            currentFileIdx++;
+            return outputWriter;
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Write the chunks of a queue until the end of the files. After an error,
+     * chunks are dropped so that the threads filling the queue do not block.
+     *
+     * @param queue Chunks for this thread
+     */
+    protected void drain(ArrayBlockingQueue<Chunk> queue) {
+        Writer out = null;
+        String openFile = null;
+        char[] chars = new char[CHUNK_SIZE];
+        for (;;) {
+            Chunk chunk;
+            try {
+                chunk = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (chunk.fileName == null) {
+                return;
+            }
+            try {
+                if (failure == null) {
+                    if (!chunk.fileName.equals(openFile)) {
+                        out = openOutput(chunk.fileName);
+                        openFile = chunk.fileName;
+                    }
+                    StringBuilder text = chunk.text;
+                    for (int start = 0; start < text.length();
+                          start += chars.length) {
+                        int end = Math.min(text.length(), start + chars.length);
+                        text.getChars(start, end, chars, 0);
+                        out.write(chars, 0, end - start);
+                    }
+                    if (chunk.last) {
+                        out.close();
+                        out = null;
+                        openFile = null;
+                    }
+                }
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException f) {
+                    }
+                    out = null;
+                }
+            }
+            chunk.text.setLength(0);
+            builders.offer(chunk.text);
+        }
+    }
+
+    /**
+     * @return  Empty chunk to collect text into
+     */
+    protected StringBuilder newChunk() {
+        StringBuilder builder = builders.poll();
+        return builder != null ? builder : new StringBuilder(CHUNK_SIZE + 256);
+    }
+
+    protected void put(ArrayBlockingQueue<Chunk> queue, Chunk chunk) throws
+          IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        try {
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Wait for the writer threads to write everything handed to them.
+     *
+     * @throws IOException  The first error of the writer threads
+     */
+    @Override
+    public void close() throws IOException {
+        for (ArrayBlockingQueue<Chunk> queue : queues) {
+            put(queue, new Chunk(null, null, true));
+        }
+        try {
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Collects the text of one file and hands it to its writer thread
+     */
+    protected class QueuedWriter extends Writer {
+
+        protected ArrayBlockingQueue<Chunk> queue;
+        protected String fileName;
+        protected StringBuilder text = newChunk();
+
+        protected QueuedWriter(ArrayBlockingQueue<Chunk> queue,
+              String fileName) {
+            this.queue = queue;
+            this.fileName = fileName;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            checkOpen();
+            text.append(cbuf, off, len);
+            handOff();
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            checkOpen();
+            text.append(str, off, off + len);
+            handOff();
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            checkOpen();
+            text.append((char) c);
+            handOff();
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (text != null) {
+                put(queue, new Chunk(fileName, text, true));
+                text = null;
+            }
+        }
+
+        protected void checkOpen() throws IOException {
+            if (text == null) {
+                throw new IOException("Writer closed");
+            }
+        }
+
+        protected void handOff() throws IOException {
+            if (text.length() >= CHUNK_SIZE) {
+                put(queue, new Chunk(fileName, text, false));
+                text = newChunk();
+            }
+        }
+    }
+}
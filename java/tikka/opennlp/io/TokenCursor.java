@@ -0,0 +1,49 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.opennlp.io;
+
+import java.io.IOException;
+
+/**
+ * Walks through the tokens of a document one at a time without building
+ * arrays for its lines or sentences. The word and tag of the current token
+ * are views into a buffer that the cursor reuses for every line, so they
+ * are only valid until the next call to {@link #next}.
+ *
+ * @author tsmoon
+ */
+public abstract class TokenCursor {
+
+    /**
+     * Move to the next token or boundary of the document.
+     *
+     * @return  What the cursor is on now
+     * @throws IOException
+     */
+    public abstract CursorEventEnum.CursorEvent next() throws IOException;
+
+    /**
+     * @return  Word of the current token
+     */
+    public abstract CharSequence getWord();
+
+    /**
+     * @return  Tag of the current token, or null if the token has none
+     */
+    public abstract CharSequence getTag();
+}
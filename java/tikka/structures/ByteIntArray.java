@@ -0,0 +1,49 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+/**
+ * Int array backed by a byte array. Values are stored unsigned.
+ *
+ * @author tsmoon
+ */
+public class ByteIntArray extends IntArray {
+
+    public static final int MAX_VALUE = 0xff;
+    protected byte[] values;
+
+    public ByteIntArray(int length) {
+        super(length);
+        values = new byte[length];
+    }
+
+    @Override
+    public int get(int i) {
+        return values[i] & 0xff;
+    }
+
+    @Override
+    public long bytes() {
+        return length;
+    }
+
+    @Override
+    public void set(int i, int value) {
+        values[i] = (byte) value;
+    }
+}
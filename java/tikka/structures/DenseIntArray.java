@@ -0,0 +1,83 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+/**
+ * Int array backed by an int array
+ *
+ * @author tsmoon
+ */
+public class DenseIntArray extends IntArray {
+
+    protected int[] values;
+
+    public DenseIntArray(int length) {
+        super(length);
+        values = new int[length];
+    }
+
+    /**
+     * Wrap an int array without copying it
+     *
+     * @param values    Elements of the array
+     */
+    public DenseIntArray(int[] values) {
+        super(values.length);
+        this.values = values;
+    }
+
+    @Override
+    public int get(int i) {
+        return values[i];
+    }
+
+    @Override
+    public long bytes() {
+        return 4L * length;
+    }
+
+    @Override
+    public void set(int i, int value) {
+        values[i] = value;
+    }
+
+    @Override
+    public void inc(int i) {
+        values[i]++;
+    }
+
+    @Override
+    public void dec(int i) {
+        values[i]--;
+    }
+
+    @Override
+    public void copyFrom(IntArray array) {
+        if (array instanceof DenseIntArray) {
+            System.arraycopy(((DenseIntArray) array).values, 0, values, 0,
+                  length);
+        } else {
+            super.copyFrom(array);
+        }
+    }
+
+    @Override
+    public int[] toArray() {
+        return values.clone();
+    }
+}
@@ -0,0 +1,155 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+/**
+ * Array of nonnegative values, such as the state of every token or the
+ * cells of a count table. Use {@link #allocate} to get the narrowest
+ * heap implementation that holds the largest value, or
+ * {@link MappedIntArray} to keep the values in a file outside the heap.
+ *
+ * @author tsmoon
+ */
+public abstract class IntArray {
+
+    /**
+     * Number of elements
+     */
+    protected int length;
+
+    protected IntArray(int length) {
+        this.length = length;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public abstract int get(int i);
+
+    public abstract void set(int i, int value);
+
+    public void inc(int i) {
+        set(i, get(i) + 1);
+    }
+
+    public void dec(int i) {
+        set(i, get(i) - 1);
+    }
+
+    /**
+     * @return  Size of the elements in bytes
+     */
+    public abstract long bytes();
+
+    /**
+     * @return  Number of bytes the elements take up on the heap
+     */
+    public long heapBytes() {
+        return bytes();
+    }
+
+    /**
+     * Create an array of zeros whose elements may hold values from zero up
+     * to and including maxValue
+     *
+     * @param length    Number of elements
+     * @param maxValue  Largest value that will be stored
+     * @return  Array of bytes, shorts or ints
+     */
+    public static IntArray allocate(int length, int maxValue) {
+        if (maxValue <= ByteIntArray.MAX_VALUE) {
+            return new ByteIntArray(length);
+        } else if (maxValue <= ShortIntArray.MAX_VALUE) {
+            return new ShortIntArray(length);
+        } else {
+            return new DenseIntArray(length);
+        }
+    }
+
+    /**
+     * Copy an int array into the narrowest array that holds its values
+     *
+     * @param values    Nonnegative values. May be null.
+     * @return  The copy, or null if there were no values
+     */
+    public static IntArray fromArray(int[] values) {
+        if (values == null) {
+            return null;
+        }
+        int maxValue = 0;
+        for (int value : values) {
+            maxValue = Math.max(maxValue, value);
+        }
+        return fromArray(values, maxValue);
+    }
+
+    /**
+     * Copy an int array into an array that may later hold values up to
+     * maxValue
+     *
+     * @param values    Nonnegative values. May be null.
+     * @param maxValue  Largest value that will be stored
+     * @return  The copy, or null if there were no values
+     */
+    public static IntArray fromArray(int[] values, int maxValue) {
+        if (values == null) {
+            return null;
+        }
+        IntArray array = allocate(values.length, maxValue);
+        for (int i = 0; i < values.length; ++i) {
+            array.set(i, values[i]);
+        }
+        return array;
+    }
+
+    /**
+     * Create a private copy of the array on the heap, for instance for a
+     * single sampler thread
+     *
+     * @return  Copy of the array
+     */
+    public IntArray copy() {
+        DenseIntArray array = new DenseIntArray(length);
+        array.copyFrom(this);
+        return array;
+    }
+
+    /**
+     * Overwrite the contents of this array with those of another array of
+     * the same length
+     *
+     * @param array Array to copy from
+     */
+    public void copyFrom(IntArray array) {
+        for (int i = 0; i < length; ++i) {
+            set(i, array.get(i));
+        }
+    }
+
+    /**
+     * @return  Contents of the array as ints
+     */
+    public int[] toArray() {
+        int[] array = new int[length];
+        for (int i = 0; i < length; ++i) {
+            array[i] = get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,118 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+/**
+ * Growable array of primitive ints. Used to collect values whose number is
+ * not known in advance, such as the tokens of a corpus while it is being
+ * read, without boxing every value into an Integer.
+ *
+ * @author tsmoon
+ */
+public class IntBuffer {
+
+    /**
+     * Largest number of elements an array may hold on common JVMs
+     */
+    public static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    /**
+     * Backing array. Only the first {@link #size} elements are in use.
+     */
+    protected int[] values;
+    /**
+     * Number of elements
+     */
+    protected int size;
+    /**
+     * Largest element added so far, or zero if there are none
+     */
+    protected int max;
+
+    public IntBuffer() {
+        this(16);
+    }
+
+    /**
+     * @param capacity  Number of elements to make room for. Values larger
+     *                  than {@link #MAX_CAPACITY} are capped.
+     */
+    public IntBuffer(long capacity) {
+        values = new int[(int) Math.max(1, Math.min(capacity, MAX_CAPACITY))];
+    }
+
+    public void add(int value) {
+        if (size == values.length) {
+            grow();
+        }
+        values[size++] = value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    public int get(int i) {
+        return values[i];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return  Largest element, or zero if the buffer is empty
+     */
+    public int max() {
+        return max;
+    }
+
+    /**
+     * @return  Array of exactly {@link #size} elements. This is the backing
+     *          array itself if it is full, so the buffer should not be
+     *          used afterwards.
+     */
+    public int[] toArray() {
+        if (size == values.length) {
+            return values;
+        }
+        int[] array = new int[size];
+        System.arraycopy(values, 0, array, 0, size);
+        return array;
+    }
+
+    /**
+     * Copy the elements into the beginning of an array
+     *
+     * @param array Array of at least {@link #size} elements
+     */
+    public void copyTo(IntArray array) {
+        for (int i = 0; i < size; ++i) {
+            array.set(i, values[i]);
+        }
+    }
+
+    protected void grow() {
+        if (values.length == MAX_CAPACITY) {
+            throw new IllegalStateException(
+                  "IntBuffer cannot hold more than " + MAX_CAPACITY + " values");
+        }
+        long capacity = values.length + (values.length >> 1) + 1;
+        int[] grown = new int[(int) Math.min(capacity, MAX_CAPACITY)];
+        System.arraycopy(values, 0, grown, 0, size);
+        values = grown;
+    }
+}
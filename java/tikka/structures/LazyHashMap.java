@@ -0,0 +1,184 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Hash map whose entries may be kept in sections of a model file until it
+ * is first used. {@link #readLater} only remembers the file. The entries are
+ * read by {@link #read} when any method of the map is called, so a loaded
+ * model pays only for the tables it uses.
+ * <p>
+ * Subclasses that keep state besides the entries must call {@link #load}
+ * before they use it.
+ *
+ * @param <K>   Type of keys
+ * @param <V>   Type of values
+ * @author tsmoon
+ */
+public abstract class LazyHashMap<K, V> extends HashMap<K, V> {
+
+    /**
+     * File the entries are read from when the map is first used, or null if
+     * they have been read
+     */
+    protected transient ModelFile source;
+    /**
+     * Prefix of the names of the sections in {@link #source}
+     */
+    protected transient String sourceName;
+
+    /**
+     * Add the entries saved in a model file to the map when it is first
+     * used
+     *
+     * @param in    The model file
+     * @param name  Prefix of the names of the sections
+     */
+    public void readLater(ModelFile in, String name) {
+        source = in;
+        sourceName = name;
+    }
+
+    /**
+     * @return  Whether the saved entries are still to be read
+     */
+    public boolean isPending() {
+        return source != null;
+    }
+
+    /**
+     * Read the saved entries if they have not been read yet
+     */
+    public void load() {
+        if (source == null) {
+            return;
+        }
+        ModelFile in = source;
+        source = null;
+        try {
+            read(in, sourceName);
+        } catch (IOException e) {
+            throw new IllegalStateException(String.format(
+                  "Could not read %s from %s", sourceName, in.getFile()), e);
+        }
+    }
+
+    /**
+     * Put the entries in sections of a model file
+     *
+     * @param out   Writer of the model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    public abstract void write(ModelFileWriter out, String name) throws
+          IOException;
+
+    /**
+     * Add the entries saved by {@link #write}
+     *
+     * @param in    The model file
+     * @param name  Prefix of the names of the sections
+     * @throws IOException
+     */
+    protected abstract void read(ModelFile in, String name) throws
+          IOException;
+
+    @Override
+    public int size() {
+        load();
+        return super.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        load();
+        return super.isEmpty();
+    }
+
+    @Override
+    public V get(Object key) {
+        load();
+        return super.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        load();
+        return super.containsKey(key);
+    }
+
+    @Override
+    public boolean containsValue(Object value) {
+        load();
+        return super.containsValue(value);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        load();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends V> m) {
+        load();
+        super.putAll(m);
+    }
+
+    @Override
+    public V remove(Object key) {
+        load();
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        source = null;
+        super.clear();
+    }
+
+    @Override
+    public Set<K> keySet() {
+        load();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<V> values() {
+        load();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        load();
+        return super.entrySet();
+    }
+
+    @Override
+    public Object clone() {
+        load();
+        return super.clone();
+    }
+}
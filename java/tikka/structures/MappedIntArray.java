@@ -0,0 +1,269 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Int array kept in a memory mapped file rather than on the heap. The file
+ * is mapped in chunks so that arrays may be larger than a single mapping.
+ * Elements are one, two or four bytes wide depending on the largest value
+ * that will be stored, so an element never straddles two chunks.
+ * <p>
+ * Arrays that are swept from start to finish, such as the tokens of a
+ * corpus, may be created with read-ahead. Whenever an access moves into a
+ * new chunk, the following chunk is loaded into memory on a background
+ * thread so that the sweep does not stall on page faults once it gets
+ * there.
+ *
+ * @author tsmoon
+ */
+public class MappedIntArray extends IntArray {
+
+    /**
+     * log2 of the number of bytes in a chunk
+     */
+    protected static final int CHUNK_SHIFT = 26;
+    protected static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+    /**
+     * Thread that loads chunks ahead of sequential sweeps
+     */
+    protected static ExecutorService loader = null;
+    /**
+     * Mapped regions of the file
+     */
+    protected MappedByteBuffer[] chunks;
+    /**
+     * log2 of the number of bytes in an element
+     */
+    protected int shift;
+    /**
+     * Whether to load the next chunk when an access moves into a new one
+     */
+    protected boolean readAhead;
+    /**
+     * Chunk of the most recent access. Only used for read-ahead.
+     */
+    protected int currentChunk = -1;
+    /**
+     * Chunks that have been handed to the loader since accesses last moved
+     * into them. Keeps threads that sweep different parts of the array from
+     * loading the same chunk over and over.
+     */
+    protected boolean[] requested;
+
+    /**
+     * Map a file that holds the array. The file is extended to the size of
+     * the array if it is shorter.
+     *
+     * @param file      File that holds the elements
+     * @param length    Number of elements
+     * @param maxValue  Largest value that will be stored
+     * @param readAhead Whether to load chunks ahead of sequential access
+     * @throws IOException
+     */
+    public MappedIntArray(File file, int length, int maxValue,
+          boolean readAhead) throws IOException {
+        this(file, 0, length, shiftOf(maxValue), ByteOrder.nativeOrder(),
+              FileChannel.MapMode.READ_WRITE, readAhead);
+    }
+
+    /**
+     * Map a region of a file that holds the array, such as a section of a
+     * saved model. With {@link FileChannel.MapMode#PRIVATE}, changes to the
+     * elements are copied on write and never reach the file, so several
+     * processes may share the pages of the file until they change them.
+     * With {@link FileChannel.MapMode#READ_WRITE}, the file is extended to
+     * the end of the region if it is shorter.
+     *
+     * @param file      File that holds the elements
+     * @param offset    Position of the first element in the file
+     * @param length    Number of elements
+     * @param shift     log2 of the number of bytes in an element
+     * @param order     Byte order of the elements
+     * @param mode      How to map the file
+     * @param readAhead Whether to load chunks ahead of sequential access
+     * @throws IOException
+     */
+    public MappedIntArray(File file, long offset, int length, int shift,
+          ByteOrder order, FileChannel.MapMode mode, boolean readAhead)
+          throws IOException {
+        super(length);
+        this.shift = shift;
+        this.readAhead = readAhead;
+
+        long size = bytes();
+        int chunkN = (int) ((size + CHUNK_MASK) >>> CHUNK_SHIFT);
+        chunks = new MappedByteBuffer[chunkN];
+        requested = new boolean[chunkN];
+        RandomAccessFile raf = new RandomAccessFile(file,
+              mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw");
+        try {
+            if (mode == FileChannel.MapMode.READ_WRITE
+                  && raf.length() < offset + size) {
+                raf.setLength(offset + size);
+            }
+            FileChannel channel = raf.getChannel();
+            for (int c = 0; c < chunkN; ++c) {
+                long position = (long) c << CHUNK_SHIFT;
+                chunks[c] = channel.map(mode, offset + position,
+                      Math.min(CHUNK_MASK + 1, size - position));
+                chunks[c].order(order);
+            }
+        } finally {
+            /**
+             * The mappings stay valid after the channel is closed
+             */
+            raf.close();
+        }
+    }
+
+    /**
+     * @param maxValue  Largest value that will be stored
+     * @return  log2 of the number of bytes in an element that holds
+     *          maxValue
+     */
+    public static int shiftOf(int maxValue) {
+        if (maxValue <= ByteIntArray.MAX_VALUE) {
+            return 0;
+        } else if (maxValue <= ShortIntArray.MAX_VALUE) {
+            return 1;
+        } else {
+            return 2;
+        }
+    }
+
+    /**
+     * Create an array of zeros in a temporary file that is deleted when the
+     * virtual machine exits
+     *
+     * @param directory Directory of the file. The default temporary
+     *                  directory if null.
+     * @param length    Number of elements
+     * @param maxValue  Largest value that will be stored
+     * @param readAhead Whether to load chunks ahead of sequential access
+     * @return  The array
+     * @throws IOException
+     */
+    public static MappedIntArray createTemporary(File directory, int length,
+          int maxValue, boolean readAhead) throws IOException {
+        File file = File.createTempFile("tikka", ".map", directory);
+        file.deleteOnExit();
+        return new MappedIntArray(file, length, maxValue, readAhead);
+    }
+
+    @Override
+    public int get(int i) {
+        long offset = (long) i << shift;
+        int c = (int) (offset >>> CHUNK_SHIFT);
+        if (readAhead && c != currentChunk) {
+            enter(c);
+        }
+        int position = (int) (offset & CHUNK_MASK);
+        switch (shift) {
+            case 0:
+                return chunks[c].get(position) & 0xff;
+            case 1:
+                return chunks[c].getChar(position);
+            default:
+                return chunks[c].getInt(position);
+        }
+    }
+
+    @Override
+    public void set(int i, int value) {
+        long offset = (long) i << shift;
+        int c = (int) (offset >>> CHUNK_SHIFT);
+        if (readAhead && c != currentChunk) {
+            enter(c);
+        }
+        int position = (int) (offset & CHUNK_MASK);
+        switch (shift) {
+            case 0:
+                chunks[c].put(position, (byte) value);
+                break;
+            case 1:
+                chunks[c].putChar(position, (char) value);
+                break;
+            default:
+                chunks[c].putInt(position, value);
+        }
+    }
+
+    @Override
+    public long bytes() {
+        return (long) length << shift;
+    }
+
+    @Override
+    public long heapBytes() {
+        return 0;
+    }
+
+    /**
+     * Write changes to the elements through to the file
+     */
+    public void force() {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+    }
+
+    /**
+     * Note that accesses have moved into chunk c and start loading the
+     * chunk after it unless that has already been done
+     *
+     * @param c Index of the chunk
+     */
+    protected void enter(int c) {
+        currentChunk = c;
+        requested[c] = false;
+        if (c + 1 < chunks.length && !requested[c + 1]) {
+            requested[c + 1] = true;
+            final MappedByteBuffer next = chunks[c + 1];
+            loader().execute(new Runnable() {
+
+                public void run() {
+                    next.load();
+                }
+            });
+        }
+    }
+
+    protected static synchronized ExecutorService loader() {
+        if (loader == null) {
+            loader = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "tikka-read-ahead");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return loader;
+    }
+}
@@ -0,0 +1,454 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+
+import tikka.opennlp.io.GzipChannel;
+import tikka.structures.ModelSectionEnum.ModelSection;
+
+/**
+ * Saved model in the binary model format. The file starts with a header of
+ * {@link #HEADER_SIZE} bytes holding {@link #MAGIC}, {@link #VERSION} and
+ * the position and size of the directory at the end of the file. The
+ * directory names every section and holds the values of single ints,
+ * doubles and strings. Arrays and serialized objects are kept in sections
+ * between the header and the directory that start at multiples of
+ * {@link #ALIGNMENT} bytes. The elements of arrays are little endian and one,
+ * two or four bytes wide depending on the largest value they hold.
+ * <p>
+ * Arrays are not read when the file is opened. {@link #getIntArray}
+ * maps a section directly, so that several processes that load the same
+ * model share its pages through the page cache.
+ * <p>
+ * Files that {@link ModelFileWriter} compressed are gzip files made of
+ * independent blocks. {@link #open} inflates them to a temporary file, on
+ * several threads, and maps that instead.
+ *
+ * @author tsmoon
+ */
+public class ModelFile {
+
+    public static final int MAGIC = 0x544b4d46;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int ALIGNMENT = 64;
+    /**
+     * Byte order of the elements of arrays
+     */
+    public static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+    /**
+     * The model file
+     */
+    protected File file;
+    /**
+     * Whether the file may be opened for writing. Sections of files that
+     * may not are copied to the heap rather than mapped, since private
+     * mappings need a writable file.
+     */
+    protected boolean writable;
+    /**
+     * Sections of the file by name
+     */
+    protected HashMap<String, Section> sections;
+
+    /**
+     * Entry of the directory
+     */
+    protected static class Section {
+
+        protected ModelSection type;
+        protected int intValue;
+        protected double doubleValue;
+        protected String stringValue;
+        /**
+         * Position of the section in the file
+         */
+        protected long offset;
+        /**
+         * Number of elements of arrays, or number of bytes of objects
+         */
+        protected int length;
+        /**
+         * Size of the section in bytes
+         */
+        protected long size;
+        /**
+         * log2 of the number of bytes in an element of int arrays
+         */
+        protected int shift;
+    }
+
+    /**
+     * Read the header and the directory of a model file
+     *
+     * @param file  The model file
+     * @throws IOException  If the file is not a model file of this version
+     */
+    public ModelFile(File file) throws IOException {
+        this.file = file;
+        writable = file.canWrite();
+        sections = new HashMap<String, Section>();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.readInt() != MAGIC) {
+                throw new IOException(file + " is not a model file");
+            }
+            int version = raf.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format(
+                      "%s has version %d of the model format. Only version %d "
+                      + "is supported.", file, version, VERSION));
+            }
+            long position = raf.readLong();
+            byte[] bytes = new byte[raf.readInt()];
+            raf.seek(position);
+            raf.readFully(bytes);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                  bytes));
+            int sectionN = in.readInt();
+            for (int i = 0; i < sectionN; ++i) {
+                String name = in.readUTF();
+                Section section = new Section();
+                section.type = ModelSection.valueOf(in.readUTF());
+                switch (section.type) {
+                    case INT:
+                        section.intValue = in.readInt();
+                        break;
+                    case DOUBLE:
+                        section.doubleValue = in.readDouble();
+                        break;
+                    case STRING:
+                        section.stringValue = in.readUTF();
+                        break;
+                    default:
+                        section.offset = in.readLong();
+                        section.length = in.readInt();
+                        section.size = in.readLong();
+                        section.shift = in.readByte();
+                }
+                sections.put(name, section);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Open a model file that may have been compressed. A compressed file is
+     * inflated to a temporary file that is deleted when the program exits.
+     *
+     * @param file  The model file
+     * @return  The opened model file
+     * @throws IOException  If the file is not a model file of this version
+     */
+    public static ModelFile open(File file) throws IOException {
+        if (!isCompressed(file)) {
+            return new ModelFile(file);
+        }
+        File inflated = File.createTempFile("model-", ".tmp");
+        inflated.deleteOnExit();
+        GzipChannel in = new GzipChannel(file);
+        FileOutputStream out = new FileOutputStream(inflated);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            while (in.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            inflated.delete();
+            throw e;
+        } finally {
+            in.close();
+            out.close();
+        }
+        return new ModelFile(inflated);
+    }
+
+    /**
+     * @param file  File to check
+     * @return  Whether the file starts with the magic number of model files,
+     *          either directly or once it is inflated
+     * @throws IOException
+     */
+    public static boolean isModelFile(File file) throws IOException {
+        if (isCompressed(file)) {
+            DataInputStream in = new DataInputStream(Channels.newInputStream(
+                  new GzipChannel(file)));
+            try {
+                return in.readInt() == MAGIC;
+            } catch (IOException e) {
+                return false;
+            } finally {
+                in.close();
+            }
+        }
+        if (file.length() < HEADER_SIZE) {
+            return false;
+        }
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param file  File to check
+     * @return  Whether the file starts with the magic number of gzip files
+     * @throws IOException
+     */
+    public static boolean isCompressed(File file) throws IOException {
+        if (file.length() < 2) {
+            return false;
+        }
+        FileInputStream in = new FileInputStream(file);
+        try {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } finally {
+            in.close();
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean contains(String name) {
+        return sections.containsKey(name);
+    }
+
+    public int getInt(String name) throws IOException {
+        return section(name, ModelSection.INT).intValue;
+    }
+
+    public double getDouble(String name) throws IOException {
+        return section(name, ModelSection.DOUBLE).doubleValue;
+    }
+
+    /**
+     * @param name  Name of the section
+     * @return  The string, or null if it was null when saved
+     * @throws IOException
+     */
+    public String getString(String name) throws IOException {
+        if (!contains(name)) {
+            return null;
+        }
+        return section(name, ModelSection.STRING).stringValue;
+    }
+
+    /**
+     * @param name  Name of the section
+     * @return  The deserialized object, or null if it was null when saved
+     * @throws IOException
+     */
+    public Object getObject(String name) throws IOException {
+        if (!contains(name)) {
+            return null;
+        }
+        Section section = section(name, ModelSection.OBJECT);
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+              read(section)));
+        try {
+            return in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(String.format(
+                  "Section %s of %s holds an unknown class: %s", name, file,
+                  e.getMessage()));
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Map an array without reading it. The mapping is private, so changes to
+     * the elements stay in the process that makes them. If the file may not
+     * be opened for writing, the elements are copied to the heap instead.
+     *
+     * @param name  Name of the section
+     * @param readAhead Whether to load chunks ahead of sequential access
+     * @return  The array, or null if it was null when saved
+     * @throws IOException
+     */
+    public IntArray getIntArray(String name, boolean readAhead) throws
+          IOException {
+        if (!contains(name)) {
+            return null;
+        }
+        Section section = section(name, ModelSection.INTS);
+        if (!writable) {
+            IntArray array = IntArray.allocate(section.length,
+                  (int) Math.min(Integer.MAX_VALUE,
+                  (1L << (8 << section.shift)) - 1));
+            ByteBuffer buffer = read(section, FileChannel.MapMode.READ_ONLY);
+            for (int i = 0; i < section.length; ++i) {
+                array.set(i, get(buffer, i, section.shift));
+            }
+            return array;
+        }
+        return new MappedIntArray(file, section.offset, section.length,
+              section.shift, ORDER, FileChannel.MapMode.PRIVATE, readAhead);
+    }
+
+    /**
+     * Copy an array to the heap
+     *
+     * @param name  Name of the section
+     * @return  The array, or null if it was null when saved
+     * @throws IOException
+     */
+    public int[] getInts(String name) throws IOException {
+        if (!contains(name)) {
+            return null;
+        }
+        Section section = section(name, ModelSection.INTS);
+        ByteBuffer buffer = read(section, FileChannel.MapMode.READ_ONLY);
+        int[] array = new int[section.length];
+        if (section.shift == 2) {
+            buffer.asIntBuffer().get(array);
+        } else {
+            for (int i = 0; i < section.length; ++i) {
+                array[i] = get(buffer, i, section.shift);
+            }
+        }
+        return array;
+    }
+
+    /**
+     * @param name  Name of the section
+     * @return  The strings, or null if the array was null when saved
+     * @throws IOException
+     */
+    public String[] getStrings(String name) throws IOException {
+        if (!contains(name)) {
+            return null;
+        }
+        Section section = section(name, ModelSection.STRINGS);
+        ByteBuffer buffer = read(section, FileChannel.MapMode.READ_ONLY);
+        String[] strings = new String[section.length];
+        int position = 4 * section.length;
+        byte[] bytes = new byte[0];
+        for (int i = 0; i < section.length; ++i) {
+            int length = buffer.getInt(4 * i);
+            if (length < 0) {
+                continue;
+            }
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            }
+            buffer.position(position);
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, "UTF-8");
+            position += length;
+        }
+        return strings;
+    }
+
+    /**
+     * @param name  Name of the section
+     * @return  The bytes, or null if they were null when saved
+     * @throws IOException
+     */
+    public byte[] getBytes(String name) throws IOException {
+        if (!contains(name)) {
+            return null;
+        }
+        return read(section(name, ModelSection.BYTES));
+    }
+
+    protected Section section(String name, ModelSection type) throws
+          IOException {
+        Section section = sections.get(name);
+        if (section == null) {
+            throw new IOException(String.format("%s has no section %s",
+                  file, name));
+        }
+        if (section.type != type) {
+            throw new IOException(String.format(
+                  "Section %s of %s is of type %s rather than %s", name, file,
+                  section.type, type));
+        }
+        return section;
+    }
+
+    /**
+     * Map a whole section
+     *
+     * @param section   Section to map. Must be smaller than 2GB.
+     * @param mode  How to map the file
+     * @return  Contents of the section in the byte order of arrays
+     * @throws IOException
+     */
+    protected ByteBuffer read(Section section, FileChannel.MapMode mode)
+          throws IOException {
+        if (section.size > Integer.MAX_VALUE) {
+            throw new IOException(String.format(
+                  "A section of %d bytes of %s is too large to be read at "
+                  + "once", section.size, file));
+        }
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            MappedByteBuffer buffer = raf.getChannel().map(mode,
+                  section.offset, section.size);
+            buffer.order(ORDER);
+            return buffer;
+        } finally {
+            raf.close();
+        }
+    }
+
+    protected byte[] read(Section section) throws IOException {
+        ByteBuffer buffer = read(section, FileChannel.MapMode.READ_ONLY);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    protected static int get(ByteBuffer buffer, int i, int shift) {
+        switch (shift) {
+            case 0:
+                return buffer.get(i) & 0xff;
+            case 1:
+                return buffer.getChar(i << 1);
+            default:
+                return buffer.getInt(i << 2);
+        }
+    }
+}
@@ -0,0 +1,444 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import tikka.opennlp.io.BlockGzipOutputStream;
+import tikka.structures.ModelSectionEnum.ModelSection;
+
+/**
+ * Writer of files in the binary model format described in
+ * {@link ModelFile}. The sections are written to a temporary file next to
+ * the model file, which replaces the model file when the writer is closed.
+ * Sections with null values are left out.
+ * <p>
+ * If a compression level is given, the finished file is compressed into
+ * independent gzip blocks on several threads before it replaces the model
+ * file. {@link ModelFile#open} inflates such files again.
+ *
+ * @author tsmoon
+ */
+public class ModelFileWriter {
+
+    /**
+     * The model file
+     */
+    protected File file;
+    /**
+     * File that is written until the writer is closed
+     */
+    protected File temporary;
+    protected FileOutputStream out;
+    protected FileChannel channel;
+    /**
+     * Buffer of the sections in the byte order of arrays
+     */
+    protected ByteBuffer buffer;
+    /**
+     * Position in the file of the next byte put in the buffer
+     */
+    protected long position;
+    /**
+     * Entries of the directory
+     */
+    protected ByteArrayOutputStream directoryBytes;
+    protected DataOutputStream directory;
+    protected int sectionN;
+    /**
+     * Compression level from 1 to 9, or 0 if the file is not compressed
+     */
+    protected int level;
+    /**
+     * Number of bytes of the file in each compressed block
+     */
+    protected int blockSize;
+
+    /**
+     * @param file  The model file
+     * @throws IOException
+     */
+    public ModelFileWriter(File file) throws IOException {
+        this(file, 0, BlockGzipOutputStream.MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * @param file  The model file
+     * @param level Compression level from 1 to 9, or 0 to leave the file
+     *              uncompressed so that its sections can be mapped in place
+     * @param blockSize Number of bytes of the file in each compressed block
+     * @throws IOException
+     */
+    public ModelFileWriter(File file, int level, int blockSize) throws
+          IOException {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException(
+                  "Compression level must be between 0 and 9: " + level);
+        }
+        if (blockSize <= 0 || blockSize > BlockGzipOutputStream.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException(String.format(
+                  "Block size must be between 1 and %d: %d",
+                  BlockGzipOutputStream.MAX_BLOCK_SIZE, blockSize));
+        }
+        this.file = file;
+        this.level = level;
+        this.blockSize = blockSize;
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        temporary = File.createTempFile("model-", ".tmp", parent);
+        out = new FileOutputStream(temporary);
+        channel = out.getChannel();
+        buffer = ByteBuffer.allocateDirect(1 << 16).order(ModelFile.ORDER);
+        position = ModelFile.HEADER_SIZE;
+        channel.position(position);
+        directoryBytes = new ByteArrayOutputStream();
+        directory = new DataOutputStream(directoryBytes);
+    }
+
+    public void putInt(String name, int value) throws IOException {
+        entry(name, ModelSection.INT);
+        directory.writeInt(value);
+    }
+
+    public void putDouble(String name, double value) throws IOException {
+        entry(name, ModelSection.DOUBLE);
+        directory.writeDouble(value);
+    }
+
+    public void putString(String name, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        entry(name, ModelSection.STRING);
+        directory.writeUTF(value);
+    }
+
+    /**
+     * Serialize a small object, such as a tag map
+     *
+     * @param name  Name of the section
+     * @param value Object to serialize. May be null.
+     * @throws IOException
+     */
+    public void putObject(String name, Serializable value) throws
+          IOException {
+        if (value == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+        objectOut.writeObject(value);
+        objectOut.close();
+
+        long offset = align();
+        put(bytes.toByteArray());
+        section(name, ModelSection.OBJECT, offset, bytes.size(), 0);
+    }
+
+    /**
+     * @param name  Name of the section
+     * @param values    Nonnegative values. May be null.
+     * @param maxValue  Largest value the array must be able to hold when it
+     *                  is loaded
+     * @throws IOException
+     */
+    public void putInts(String name, int[] values, int maxValue) throws
+          IOException {
+        if (values == null) {
+            return;
+        }
+        int shift = MappedIntArray.shiftOf(maxValue);
+        long offset = align();
+        for (int value : values) {
+            put(value, shift);
+        }
+        section(name, ModelSection.INTS, offset, values.length, shift);
+    }
+
+    /**
+     * @param name  Name of the section
+     * @param values    Nonnegative values. May be null.
+     * @param maxValue  Largest value the array must be able to hold when it
+     *                  is loaded
+     * @throws IOException
+     */
+    public void putInts(String name, IntArray values, int maxValue) throws
+          IOException {
+        if (values == null) {
+            return;
+        }
+        int shift = MappedIntArray.shiftOf(maxValue);
+        long offset = align();
+        for (int i = 0; i < values.length(); ++i) {
+            put(values.get(i), shift);
+        }
+        section(name, ModelSection.INTS, offset, values.length(), shift);
+    }
+
+    /**
+     * Save an array whose elements are as wide as its largest value needs
+     *
+     * @param name  Name of the section
+     * @param values    Nonnegative values. May be null.
+     * @throws IOException
+     */
+    public void putInts(String name, int[] values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        int maxValue = 0;
+        for (int value : values) {
+            maxValue = Math.max(maxValue, value);
+        }
+        putInts(name, values, maxValue);
+    }
+
+    /**
+     * Save an array whose elements are as wide as its largest value needs
+     *
+     * @param name  Name of the section
+     * @param values    Nonnegative values. May be null.
+     * @throws IOException
+     */
+    public void putInts(String name, IntArray values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        int maxValue = 0;
+        for (int i = 0; i < values.length(); ++i) {
+            maxValue = Math.max(maxValue, values.get(i));
+        }
+        putInts(name, values, maxValue);
+    }
+
+    /**
+     * @param name  Name of the section
+     * @param values    Strings, some of which may be null. May be null.
+     * @throws IOException
+     */
+    public void putStrings(String name, String[] values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        byte[][] bytes = new byte[values.length][];
+        for (int i = 0; i < values.length; ++i) {
+            if (values[i] != null) {
+                bytes[i] = values[i].getBytes("UTF-8");
+            }
+        }
+        long offset = align();
+        for (byte[] value : bytes) {
+            put(value == null ? -1 : value.length, 2);
+        }
+        for (byte[] value : bytes) {
+            if (value != null) {
+                put(value);
+            }
+        }
+        section(name, ModelSection.STRINGS, offset, values.length, 0);
+    }
+
+    /**
+     * @param name  Name of the section
+     * @param values    Bytes to save. May be null.
+     * @throws IOException
+     */
+    public void putBytes(String name, byte[] values) throws IOException {
+        if (values == null) {
+            return;
+        }
+        long offset = align();
+        put(values);
+        section(name, ModelSection.BYTES, offset, values.length, 0);
+    }
+
+    /**
+     * Write the directory and the header, compress the file if a level was
+     * given, force the file to the disk and move it over the model file.
+     * The model file is either the old or the new file at any time, even if
+     * the machine goes down.
+     *
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if (out == null) {
+            return;
+        }
+        directory.close();
+        long directoryOffset = align();
+        flush();
+        ByteBuffer entries = ByteBuffer.allocate(4 + directoryBytes.size());
+        entries.putInt(sectionN).put(directoryBytes.toByteArray());
+        entries.flip();
+        write(entries);
+
+        ByteBuffer header = ByteBuffer.allocate(ModelFile.HEADER_SIZE);
+        header.putInt(ModelFile.MAGIC).putInt(ModelFile.VERSION);
+        header.putLong(directoryOffset).putInt(entries.limit());
+        header.rewind();
+        channel.position(0);
+        write(header);
+        if (level == 0) {
+            channel.force(true);
+        }
+        out.close();
+        out = null;
+        if (level > 0) {
+            compress();
+        }
+
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+                throw new IOException("Could not write " + file);
+            }
+        }
+    }
+
+    /**
+     * Give up on the file unless it has been closed. Does nothing after
+     * {@link #close()}, so it may be called in a finally block.
+     */
+    public void abort() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+        }
+        out = null;
+        temporary.delete();
+    }
+
+    /**
+     * Replace the temporary file by a compressed copy next to it
+     *
+     * @throws IOException
+     */
+    protected void compress() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        File compressed = null;
+        try {
+            compressed = File.createTempFile("model-", ".tmp", parent);
+            FileOutputStream compressedOut = new FileOutputStream(compressed);
+            FileInputStream in = new FileInputStream(temporary);
+            try {
+                BlockGzipOutputStream blocks = new BlockGzipOutputStream(
+                      compressedOut, level, blockSize);
+                byte[] bytes = new byte[1 << 20];
+                int n;
+                while ((n = in.read(bytes)) >= 0) {
+                    blocks.write(bytes, 0, n);
+                }
+                blocks.finish();
+                compressedOut.getChannel().force(true);
+            } finally {
+                in.close();
+                compressedOut.close();
+            }
+        } catch (IOException e) {
+            if (compressed != null) {
+                compressed.delete();
+            }
+            throw e;
+        } finally {
+            temporary.delete();
+        }
+        temporary = compressed;
+    }
+
+    protected void entry(String name, ModelSection type) throws IOException {
+        directory.writeUTF(name);
+        directory.writeUTF(type.name());
+        sectionN++;
+    }
+
+    protected void section(String name, ModelSection type, long offset,
+          int length, int shift) throws IOException {
+        entry(name, type);
+        directory.writeLong(offset);
+        directory.writeInt(length);
+        directory.writeLong(position - offset);
+        directory.writeByte(shift);
+    }
+
+    /**
+     * Pad the sections to the next multiple of {@link ModelFile#ALIGNMENT}
+     *
+     * @return  Position of the next section
+     * @throws IOException
+     */
+    protected long align() throws IOException {
+        while (position % ModelFile.ALIGNMENT != 0) {
+            put(0, 0);
+        }
+        return position;
+    }
+
+    protected void put(int value, int shift) throws IOException {
+        if (buffer.remaining() < 4) {
+            flush();
+        }
+        switch (shift) {
+            case 0:
+                buffer.put((byte) value);
+                break;
+            case 1:
+                buffer.putChar((char) value);
+                break;
+            default:
+                buffer.putInt(value);
+        }
+        position += 1 << shift;
+    }
+
+    protected void put(byte[] bytes) throws IOException {
+        for (int done = 0; done < bytes.length;) {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            int n = Math.min(bytes.length - done, buffer.remaining());
+            buffer.put(bytes, done, n);
+            done += n;
+            position += n;
+        }
+    }
+
+    protected void flush() throws IOException {
+        buffer.flip();
+        write(buffer);
+        buffer.clear();
+    }
+
+    protected void write(ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+}
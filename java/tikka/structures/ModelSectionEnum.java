@@ -0,0 +1,60 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+/**
+ *
+ * @author tsmoon
+ */
+public class ModelSectionEnum {
+
+    /**
+     * Kinds of sections in a {@link ModelFile}
+     */
+    public static enum ModelSection {
+        /**
+         * Single int kept in the directory
+         */
+        INT,
+        /**
+         * Single double kept in the directory
+         */
+        DOUBLE,
+        /**
+         * Single string kept in the directory
+         */
+        STRING,
+        /**
+         * Serialized object, for small parameters such as tag maps
+         */
+        OBJECT,
+        /**
+         * Array of one, two or four byte elements, such as the tokens of a
+         * corpus or the cells of a count table
+         */
+        INTS,
+        /**
+         * Array of strings in UTF-8, such as the words of a vocabulary
+         */
+        STRINGS,
+        /**
+         * Raw bytes, such as the state of a random number generator
+         */
+        BYTES
+    }
+}
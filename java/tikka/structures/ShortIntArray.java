@@ -0,0 +1,50 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+//
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+//
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+//
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+/**
+ * Int array backed by a char array, so that values are stored as
+ * unsigned shorts.
+ *
+ * @author tsmoon
+ */
+public class ShortIntArray extends IntArray {
+
+    public static final int MAX_VALUE = 0xffff;
+    protected char[] values;
+
+    public ShortIntArray(int length) {
+        super(length);
+        values = new char[length];
+    }
+
+    @Override
+    public int get(int i) {
+        return values[i];
+    }
+
+    @Override
+    public long bytes() {
+        return 2L * length;
+    }
+
+    @Override
+    public void set(int i, int value) {
+        values[i] = (char) value;
+    }
+}
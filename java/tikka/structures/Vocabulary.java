@@ -0,0 +1,286 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.structures;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Two way map between words and indexes. Words are found through an open
+ * addressing hash table of indexes with linear probing, and indexes are
+ * turned back into words by reading a dense array, so that neither
+ * direction boxes its keys. A vocabulary may be frozen once it is complete,
+ * after which it is read only.
+ * <p>
+ * Only the words are serialized. The hash table is rebuilt when the
+ * vocabulary is read back.
+ *
+ * @author tsmoon
+ */
+public class Vocabulary implements Serializable {
+
+    static private final long serialVersionUID = 42L;
+    /**
+     * Hash table of indexes plus one. Zero marks an empty slot. The length
+     * is a power of two that is at least twice the number of words.
+     */
+    protected transient int[] slots;
+    /**
+     * Word of each index. Null where there is no word.
+     */
+    protected String[] words;
+    /**
+     * Number of words
+     */
+    protected int size;
+    /**
+     * Whether the vocabulary may no longer be changed
+     */
+    protected boolean frozen;
+
+    public Vocabulary() {
+        this(16);
+    }
+
+    /**
+     * @param capacity  Number of words to make room for
+     */
+    public Vocabulary(int capacity) {
+        words = new String[Math.max(capacity, 1)];
+        slots = new int[tableLength(capacity)];
+    }
+
+    /**
+     * Copy a map from words to indexes
+     *
+     * @param map   Map from words to nonnegative indexes
+     * @return  Vocabulary with the same words and indexes
+     */
+    public static Vocabulary fromMap(Map<String, Integer> map) {
+        Vocabulary vocabulary = new Vocabulary(map.size());
+        for (Map.Entry<String, Integer> entry : map.entrySet()) {
+            vocabulary.put(entry.getKey(), entry.getValue());
+        }
+        return vocabulary;
+    }
+
+    /**
+     * Rebuild a vocabulary from the words of its indexes
+     *
+     * @param words Word of each index. Null where there is no word.
+     * @return  Vocabulary with the same words and indexes
+     */
+    public static Vocabulary fromArray(String[] words) {
+        Vocabulary vocabulary = new Vocabulary(words.length);
+        for (int idx = 0; idx < words.length; ++idx) {
+            if (words[idx] != null) {
+                vocabulary.put(words[idx], idx);
+            }
+        }
+        return vocabulary;
+    }
+
+    /**
+     * @return  Word of each index up to the largest index in use. Null
+     *          where there is no word.
+     */
+    public String[] toArray() {
+        int length = words.length;
+        while (length > 0 && words[length - 1] == null) {
+            length--;
+        }
+        String[] array = new String[length];
+        System.arraycopy(words, 0, array, 0, length);
+        return array;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean contains(String word) {
+        return get(word) >= 0;
+    }
+
+    /**
+     * @param word  Word to look up
+     * @return  Index of word, or -1 if it is not in the vocabulary
+     */
+    public int get(String word) {
+        int mask = slots.length - 1;
+        for (int s = hash(word) & mask;; s = (s + 1) & mask) {
+            int slot = slots[s];
+            if (slot == 0) {
+                return -1;
+            }
+            if (word.equals(words[slot - 1])) {
+                return slot - 1;
+            }
+        }
+    }
+
+    /**
+     * @param idx   Index to look up
+     * @return  Word of index, or null if no word has that index
+     */
+    public String getWord(int idx) {
+        return idx < words.length ? words[idx] : null;
+    }
+
+    /**
+     * Add a word if it is not in the vocabulary yet. New words are given
+     * the number of words in the vocabulary as their index, so indexes stay
+     * dense as long as nothing is removed.
+     *
+     * @param word  Word to look up or add
+     * @return  Index of word
+     */
+    public int add(String word) {
+        int idx = get(word);
+        if (idx < 0) {
+            idx = size;
+            put(word, idx);
+        }
+        return idx;
+    }
+
+    /**
+     * Map a word to the given index. The index must not be in use by
+     * another word.
+     *
+     * @param word  Word to add
+     * @param idx   Nonnegative index of word
+     */
+    public void put(String word, int idx) {
+        checkWritable();
+        remove(word);
+        if (idx >= words.length) {
+            String[] grown = new String[Math.max(idx + 1, 2 * words.length)];
+            System.arraycopy(words, 0, grown, 0, words.length);
+            words = grown;
+        }
+        if (words[idx] != null) {
+            throw new IllegalArgumentException("Index " + idx
+                  + " is already used by \"" + words[idx] + "\"");
+        }
+        words[idx] = word;
+        size++;
+        if (2 * size > slots.length) {
+            rehash(tableLength(size));
+        } else {
+            insert(idx);
+        }
+    }
+
+    /**
+     * Remove a word. Its index may be given to another word afterwards.
+     *
+     * @param word  Word to remove
+     * @return  Index the word had, or -1 if it was not in the vocabulary
+     */
+    public int remove(String word) {
+        checkWritable();
+        int mask = slots.length - 1;
+        int s = hash(word) & mask;
+        while (slots[s] != 0 && !word.equals(words[slots[s] - 1])) {
+            s = (s + 1) & mask;
+        }
+        if (slots[s] == 0) {
+            return -1;
+        }
+        int idx = slots[s] - 1;
+        words[idx] = null;
+        size--;
+
+        /**
+         * Shift later entries of the probe sequence back into the gap so
+         * that lookups never stop early at an empty slot
+         */
+        int gap = s;
+        for (int t = (s + 1) & mask; slots[t] != 0; t = (t + 1) & mask) {
+            int home = hash(words[slots[t] - 1]) & mask;
+            if (((t - home) & mask) >= ((t - gap) & mask)) {
+                slots[gap] = slots[t];
+                gap = t;
+            }
+        }
+        slots[gap] = 0;
+        return idx;
+    }
+
+    /**
+     * Make the vocabulary read only
+     */
+    public void freeze() {
+        frozen = true;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    protected void checkWritable() {
+        if (frozen) {
+            throw new UnsupportedOperationException(
+                  "The vocabulary is frozen");
+        }
+    }
+
+    protected void insert(int idx) {
+        int mask = slots.length - 1;
+        int s = hash(words[idx]) & mask;
+        while (slots[s] != 0) {
+            s = (s + 1) & mask;
+        }
+        slots[s] = idx + 1;
+    }
+
+    protected void rehash(int length) {
+        slots = new int[length];
+        for (int idx = 0; idx < words.length; ++idx) {
+            if (words[idx] != null) {
+                insert(idx);
+            }
+        }
+    }
+
+    protected static int hash(String word) {
+        int h = word.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @param capacity  Number of words
+     * @return  Smallest power of two that is at least twice capacity
+     */
+    protected static int tableLength(int capacity) {
+        int length = 2;
+        while (length < 2 * capacity) {
+            length <<= 1;
+        }
+        return length;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException,
+          ClassNotFoundException {
+        in.defaultReadObject();
+        rehash(tableLength(size));
+    }
+}
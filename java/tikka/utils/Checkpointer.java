@@ -0,0 +1,171 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Decides when training saves a checkpoint and writes checkpoints on a
+ * background thread. A checkpoint is due every given number of iterations
+ * or every given number of minutes, whichever comes first. The sampler
+ * copies its state into a {@link Snapshot}, which is written while sampling
+ * goes on. At most one checkpoint is written at a time. The file of a
+ * checkpoint is replaced only once the new checkpoint is complete.
+ *
+ * @author tsmoon
+ */
+public class Checkpointer {
+
+    /**
+     * State of a sampler copied at the end of an iteration
+     */
+    public static abstract class Snapshot {
+
+        /**
+         * Write the snapshot. Called on the background thread.
+         *
+         * @param file  File of the checkpoint
+         * @throws IOException
+         */
+        public abstract void save(File file) throws IOException;
+    }
+    /**
+     * File of the checkpoint
+     */
+    protected File file;
+    /**
+     * Number of iterations between checkpoints. Zero if checkpoints are not
+     * counted in iterations.
+     */
+    protected int iterations;
+    /**
+     * Milliseconds between checkpoints. Zero if checkpoints are not timed.
+     */
+    protected long interval;
+    /**
+     * Iterations since the last checkpoint
+     */
+    protected int elapsedIterations = 0;
+    /**
+     * Time of the last checkpoint in milliseconds
+     */
+    protected long lastTime;
+    protected ExecutorService executor;
+    /**
+     * Checkpoint being written, or null
+     */
+    protected Future<Object> pending = null;
+
+    /**
+     * @param file  File of the checkpoint
+     * @param iterations    Number of iterations between checkpoints. Zero
+     *                      or less to not count iterations.
+     * @param minutes   Minutes between checkpoints. Zero or less to not
+     *                  time checkpoints.
+     */
+    public Checkpointer(File file, int iterations, double minutes) {
+        this.file = file;
+        this.iterations = Math.max(iterations, 0);
+        interval = minutes > 0 ? (long) (minutes * 60000) : 0;
+        lastTime = System.currentTimeMillis();
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "tikka-checkpoint");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Count an iteration that has just finished
+     *
+     * @return  Whether a checkpoint is due
+     */
+    public boolean tick() {
+        elapsedIterations++;
+        if (iterations > 0 && elapsedIterations >= iterations) {
+            return true;
+        }
+        return interval > 0
+              && System.currentTimeMillis() - lastTime >= interval;
+    }
+
+    /**
+     * Write a snapshot on the background thread. If the previous checkpoint
+     * is still being written, wait for it first.
+     *
+     * @param snapshot  State of the sampler
+     */
+    public void save(final Snapshot snapshot) {
+        await();
+        elapsedIterations = 0;
+        lastTime = System.currentTimeMillis();
+        pending = executor.submit(new Callable<Object>() {
+
+            public Object call() throws IOException {
+                long startTime = System.currentTimeMillis();
+                snapshot.save(file);
+                System.err.println(HeapUsage.report("Checkpoint to " + file,
+                      startTime));
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Wait for the last checkpoint to be written and stop the background
+     * thread
+     */
+    public void finish() {
+        await();
+        executor.shutdown();
+    }
+
+    /**
+     * Wait for the checkpoint being written. A checkpoint that could not be
+     * written is reported and training goes on, since the previous
+     * checkpoint is still in place.
+     */
+    protected void await() {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("Could not write checkpoint to " + file + ": "
+                  + e.getCause().getMessage());
+        }
+        pending = null;
+    }
+}
@@ -0,0 +1,67 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Reports how much of the heap is or has been in use, so that the cost of
+ * reading a corpus and allocating a model can be printed.
+ *
+ * @author tsmoon
+ */
+public class HeapUsage {
+
+    /**
+     * @return  Bytes of the heap currently in use
+     */
+    public static long usedBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Largest use of the heap since the JVM started. This is the sum of the
+     * peaks of the heap memory pools, which may have been reached at
+     * different times, so it slightly overestimates the true peak.
+     *
+     * @return  Peak heap in bytes
+     */
+    public static long peakBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    /**
+     * @param label Name of the phase that has just finished
+     * @param startTime Time the phase began, in milliseconds
+     * @return  Line with the elapsed time and the current and peak heap
+     */
+    public static String report(String label, long startTime) {
+        return String.format("%s took %.2f s, heap in use %d MB, peak %d MB",
+              label, (System.currentTimeMillis() - startTime) / 1000.0,
+              usedBytes() >> 20, peakBytes() >> 20);
+    }
+}
@@ -56,9 +56,33 @@ public abstract class Annealer {
 
     public abstract double annealProbs(int starti, double[] classes);
 
+    /**
+     * Anneal the ratio of two probabilities, for samplers that only compare
+     * the probabilities of pairs of classes.
+     *
+     * @param ratio Ratio of two probabilities
+     * @return  Ratio of the annealed probabilities
+     */
+    public double annealRatio(double ratio) {
+        if (temperatureReciprocal == 1) {
+            return ratio;
+        }
+        return Math.pow(ratio, temperatureReciprocal);
+    }
+
+    /**
+     * Whether classes are drawn at random from the annealed probabilities.
+     * Samplers that only compare pairs of classes cannot be used otherwise.
+     *
+     * @return  Whether draws are random
+     */
+    public boolean isStochastic() {
+        return true;
+    }
+
     /**
      * Anneal an array of probabilities. For use when every array is
-     * meaningfully populated. Discards with bounds checking.
+     * meaningfully populated.
      *
      * @param classes   Array of probabilities
      * @return  Sum of annealed probabilities. Is not 1.
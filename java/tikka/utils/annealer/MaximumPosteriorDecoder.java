@@ -27,22 +27,24 @@ public class MaximumPosteriorDecoder extends Annealer {
     public double annealProbs(int starti, double[] classes) {
         double max = 0;
         int maxid = 0;
-        try {
-            for (int i = starti;; ++i) {
-                if (classes[i] > max) {
-                    max = classes[i];
-                    maxid = i;
-                }
+        for (int i = starti; i < classes.length; ++i) {
+            if (classes[i] > max) {
+                max = classes[i];
+                maxid = i;
             }
-        } catch (ArrayIndexOutOfBoundsException e) {
         }
-        try {
-            for (int i = starti;; ++i) {
-                classes[i] = 0;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
+        for (int i = starti; i < classes.length; ++i) {
+            classes[i] = 0;
         }
         classes[maxid] = 1;
         return 1;
     }
+
+    /**
+     * Always picks the most probable class
+     */
+    @Override
+    public boolean isStochastic() {
+        return false;
+    }
 }
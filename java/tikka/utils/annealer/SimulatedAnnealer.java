@@ -26,29 +26,20 @@ public class SimulatedAnnealer extends Annealer {
     @Override
     public double annealProbs(int starti, double[] classes) {
         double sum = 0, sumw = 0;
-        try {
-            for (int i = starti;; ++i) {
-                sum += classes[i];
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
+        for (int i = starti; i < classes.length; ++i) {
+            sum += classes[i];
         }
         if (temperatureReciprocal != 1) {
-            try {
-                for (int i = starti;; ++i) {
-                    classes[i] /= sum;
-                    sumw += classes[i] = Math.pow(classes[i],
-                          temperatureReciprocal);
-                }
-            } catch (ArrayIndexOutOfBoundsException e) {
+            for (int i = starti; i < classes.length; ++i) {
+                classes[i] /= sum;
+                sumw += classes[i] = Math.pow(classes[i],
+                      temperatureReciprocal);
             }
         } else {
             sumw = sum;
         }
-        try {
-            for (int i = starti;; ++i) {
-                classes[i] /= sumw;
-            }
-        } catch (ArrayIndexOutOfBoundsException e) {
+        for (int i = starti; i < classes.length; ++i) {
+            classes[i] /= sumw;
         }
         /**
          * For now, we set everything so that it sums to one.
@@ -0,0 +1,77 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.utils.math;
+
+/**
+ * Logarithm of the gamma function and of ratios of gamma functions, for
+ * the collapsed probabilities of Dirichlet-multinomial counts.
+ *
+ * @author tsmoon
+ */
+public class LogGamma {
+
+    /**
+     * Coefficients of the Lanczos approximation with g=7
+     */
+    protected static final double[] LANCZOS = {
+        0.99999999999980993, 676.5203681218851, -1259.1392167224028,
+        771.32342877765313, -176.61502916214059, 12.507343278686905,
+        -0.13857109526572012, 9.9843695780195716e-6, 1.5056327351493116e-7};
+    protected static final double HALF_LOG_TWO_PI = 0.5 * Math.log(2 * Math.PI);
+    /**
+     * Counts up to which {@link #logRising} sums logarithms directly
+     */
+    protected static final int DIRECT = 16;
+
+    /**
+     * @param x Positive argument
+     * @return  ln(Gamma(x))
+     */
+    public static double logGamma(double x) {
+        if (x < 0.5) {
+            return Math.log(Math.PI / Math.sin(Math.PI * x)) - logGamma(1 - x);
+        }
+        x -= 1;
+        double sum = LANCZOS[0];
+        for (int i = 1; i < LANCZOS.length; ++i) {
+            sum += LANCZOS[i] / (x + i);
+        }
+        double t = x + 7.5;
+        return HALF_LOG_TWO_PI + (x + 0.5) * Math.log(t) - t + Math.log(sum);
+    }
+
+    /**
+     * Logarithm of the rising factorial a(a+1)...(a+n-1). This is the
+     * log probability mass that n observations add to a Dirichlet
+     * hyperparameter a in a collapsed model.
+     *
+     * @param a Positive hyperparameter
+     * @param n Count
+     * @return  ln(Gamma(a+n))-ln(Gamma(a))
+     */
+    public static double logRising(double a, int n) {
+        if (n <= DIRECT) {
+            double product = 1;
+            for (int c = 0; c < n; ++c) {
+                product *= a + c;
+            }
+            return Math.log(product);
+        }
+        return logGamma(a + n) - logGamma(a);
+    }
+}
@@ -0,0 +1,143 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.utils.normalizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import tikka.opennlp.io.DirReader;
+import tikka.opennlp.io.ParallelDirReader;
+import tikka.structures.IntBuffer;
+import tikka.structures.Vocabulary;
+
+/**
+ * Normalized tokens of all documents of a corpus, with the word index and
+ * gold tag index of every token and the offsets at which sentences and
+ * documents begin. Every file is one document.
+ *
+ * @author tsmoon
+ */
+public class NormalizedCorpus {
+
+    /**
+     * Dictionary between words and indexes
+     */
+    public Vocabulary vocabulary;
+    /**
+     * Word index of each token
+     */
+    public IntBuffer words;
+    /**
+     * Gold tag index of each token
+     */
+    public IntBuffer tags;
+    /**
+     * Offset of the first token of each sentence
+     */
+    public IntBuffer sentenceStarts;
+    /**
+     * Offset of the first token of each document
+     */
+    public IntBuffer documentStarts;
+    /**
+     * Path of the file of each document
+     */
+    public ArrayList<String> files;
+
+    /**
+     * @param vocabulary    Dictionary to add the words of the corpus to
+     * @param tokens    Number of tokens to make room for
+     * @param documents Number of documents to make room for
+     */
+    public NormalizedCorpus(Vocabulary vocabulary, long tokens, int documents) {
+        this.vocabulary = vocabulary;
+        words = new IntBuffer(tokens);
+        tags = new IntBuffer(tokens);
+        sentenceStarts = new IntBuffer(tokens / 8 + 1);
+        documentStarts = new IntBuffer(documents + 1);
+        files = new ArrayList<String>(documents);
+    }
+
+    /**
+     * Read all files of a directory
+     *
+     * @param dirReader Files to read
+     * @param vocabulary    Dictionary to add the words of the corpus to
+     * @param parser    Parser for single documents
+     * @param threads   Number of parser threads
+     * @return  The corpus
+     * @throws IOException
+     */
+    public static NormalizedCorpus read(DirReader dirReader,
+          Vocabulary vocabulary, NormalizingParser parser, int threads)
+          throws IOException {
+        NormalizedCorpus corpus = new NormalizedCorpus(vocabulary,
+              dirReader.countLines(), dirReader.getFileCount());
+        corpus.read(dirReader, parser, threads, 0);
+        return corpus;
+    }
+
+    /**
+     * Parse files and append their documents in walking order. Word
+     * indexes are assigned on the calling thread, so they do not depend on
+     * the number of threads.
+     *
+     * @param dirReader Files to read
+     * @param parser    Parser for single documents
+     * @param threads   Number of parser threads
+     * @param firstFile Index of the first file to read
+     * @throws IOException
+     */
+    public void read(DirReader dirReader, NormalizingParser parser,
+          int threads, int firstFile) throws IOException {
+        ParallelDirReader<NormalizedDocument> documents =
+              new ParallelDirReader<NormalizedDocument>(dirReader, parser,
+              threads, firstFile);
+        NormalizedDocument document;
+        for (int idx = firstFile; (document = documents.next()) != null;
+              ++idx) {
+            add(dirReader.getFile(idx), document);
+        }
+    }
+
+    /**
+     * Append a document
+     *
+     * @param file  Path of the file the document was read from
+     * @param document  Tokens of the document
+     */
+    public void add(String file, NormalizedDocument document) {
+        files.add(file);
+        documentStarts.add(words.size());
+        int t = 0;
+        for (int end : document.sentenceEnds) {
+            sentenceStarts.add(words.size());
+            for (; t < end; ++t) {
+                words.add(vocabulary.add(document.words[t]));
+                tags.add(document.tags[t]);
+            }
+        }
+    }
+
+    /**
+     * @return  Number of tokens
+     */
+    public int size() {
+        return words.size();
+    }
+}
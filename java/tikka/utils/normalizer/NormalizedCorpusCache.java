@@ -0,0 +1,309 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.utils.normalizer;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import tikka.opennlp.io.DirReader;
+import tikka.structures.IntBuffer;
+import tikka.structures.Vocabulary;
+
+/**
+ * Binary cache of parsed corpora. The first time a directory is read with
+ * a given normalizer and tag set, the vocabulary, the word and gold tag
+ * indexes of all tokens, the sentence and document offsets and the list of
+ * files are written to a file in the cache directory. Later runs map that
+ * file instead of parsing the corpus again. Files added to the directory
+ * since are parsed and appended to the cached documents. If any cached file
+ * was changed or removed, the whole corpus is parsed again.
+ * <p>
+ * The cache file starts with a header holding the key, the files with
+ * their sizes and modification times, the document offsets and the
+ * vocabulary. It is followed by the word indexes, the gold tag indexes and
+ * the sentence offsets as big endian ints.
+ *
+ * @author tsmoon
+ */
+public class NormalizedCorpusCache {
+
+    protected static final int MAGIC = 0x544b4343;
+    protected static final int VERSION = 1;
+    /**
+     * Number of ints mapped at a time when a cache is read
+     */
+    protected static final int CHUNK = 1 << 24;
+    /**
+     * Directory of the cache files
+     */
+    protected File directory;
+
+    /**
+     * @param directory Directory of the cache files. Is created if
+     *                  necessary.
+     */
+    public NormalizedCorpusCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Read a corpus from the cache, parsing only the files that are not in
+     * the cache yet, and update the cache if anything was parsed. The
+     * files of the reader are put in the order of the documents of the
+     * corpus, which is the cached order followed by new files.
+     *
+     * @param dirReader Files to read
+     * @param vocabulary    Dictionary to add the words of the corpus to
+     * @param parser    Parser for single documents
+     * @param threads   Number of parser threads
+     * @return  The corpus
+     * @throws IOException
+     */
+    public NormalizedCorpus read(DirReader dirReader, Vocabulary vocabulary,
+          NormalizingParser parser, int threads) throws IOException {
+        String key = String.format("root=%s;%s",
+              new File(dirReader.getRoot()).getCanonicalPath(),
+              parser.getSettings());
+        File file = new File(directory,
+              String.format("corpus-%08x.bin", key.hashCode()));
+
+        NormalizedCorpus corpus = null;
+        if (file.isFile()) {
+            corpus = load(file, key, dirReader, vocabulary);
+        }
+        int cached = 0;
+        if (corpus == null) {
+            corpus = NormalizedCorpus.read(dirReader, vocabulary, parser,
+                  threads);
+        } else {
+            cached = corpus.files.size();
+            ArrayList<String> files = new ArrayList<String>(corpus.files);
+            HashSet<String> known = new HashSet<String>(corpus.files);
+            for (String path : dirReader.getFiles()) {
+                if (!known.contains(path)) {
+                    files.add(path);
+                }
+            }
+            dirReader.setFiles(files);
+            corpus.read(dirReader, parser, threads, cached);
+            System.err.println(String.format(
+                  "Read %d cached documents from %s and parsed %d new ones",
+                  cached, file, corpus.files.size() - cached));
+        }
+
+        if (corpus.files.size() > cached) {
+            write(file, key, corpus);
+        }
+        return corpus;
+    }
+
+    /**
+     * Map a cache file
+     *
+     * @param file  Cache file
+     * @param key   Root directory and parser settings of the corpus
+     * @param dirReader Files to read
+     * @param vocabulary    Dictionary to add the words of the corpus to.
+     *                      Any words it already holds must have the indexes
+     *                      they have in the cache.
+     * @return  Cached corpus, or null if the cache does not match the key,
+     *          the files or the vocabulary
+     * @throws IOException
+     */
+    protected NormalizedCorpus load(File file, String key,
+          DirReader dirReader, Vocabulary vocabulary) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                  new FileInputStream(raf.getFD())));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long position = 12 + in.readInt();
+            if (!in.readUTF().equals(key)) {
+                return null;
+            }
+
+            HashSet<String> current = new HashSet<String>(dirReader.getFiles());
+            int fileCount = in.readInt();
+            String[] files = new String[fileCount];
+            for (int f = 0; f < fileCount; ++f) {
+                files[f] = in.readUTF();
+                File source = new File(files[f]);
+                if (in.readLong() != source.length()
+                      || in.readLong() != source.lastModified()
+                      || !current.contains(files[f])) {
+                    return null;
+                }
+            }
+            int[] documentStarts = new int[fileCount];
+            for (int f = 0; f < fileCount; ++f) {
+                documentStarts[f] = in.readInt();
+            }
+            int wordW = in.readInt();
+            String[] words = new String[wordW];
+            for (int w = 0; w < wordW; ++w) {
+                words[w] = in.readUTF();
+            }
+            if (vocabulary.size() > wordW) {
+                return null;
+            }
+            for (int w = 0; w < vocabulary.size(); ++w) {
+                if (!words[w].equals(vocabulary.getWord(w))) {
+                    return null;
+                }
+            }
+            int wordN = in.readInt(), sentenceS = in.readInt();
+
+            for (int w = vocabulary.size(); w < wordW; ++w) {
+                vocabulary.add(words[w]);
+            }
+            NormalizedCorpus corpus = new NormalizedCorpus(vocabulary, wordN,
+                  fileCount);
+            for (int f = 0; f < fileCount; ++f) {
+                corpus.files.add(files[f]);
+                corpus.documentStarts.add(documentStarts[f]);
+            }
+            FileChannel channel = raf.getChannel();
+            position = readInts(channel, position, wordN, corpus.words);
+            position = readInts(channel, position, wordN, corpus.tags);
+            readInts(channel, position, sentenceS, corpus.sentenceStarts);
+            return corpus;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Write a corpus to a temporary file and move it over the cache file
+     *
+     * @param file  Cache file
+     * @param key   Root directory and parser settings of the corpus
+     * @param corpus    Corpus to write
+     * @throws IOException
+     */
+    protected void write(File file, String key, NormalizedCorpus corpus)
+          throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(bytes);
+        header.writeUTF(key);
+        header.writeInt(corpus.files.size());
+        for (String path : corpus.files) {
+            File source = new File(path);
+            header.writeUTF(path);
+            header.writeLong(source.length());
+            header.writeLong(source.lastModified());
+        }
+        for (int f = 0; f < corpus.files.size(); ++f) {
+            header.writeInt(corpus.documentStarts.get(f));
+        }
+        header.writeInt(corpus.vocabulary.size());
+        for (int w = 0; w < corpus.vocabulary.size(); ++w) {
+            header.writeUTF(corpus.vocabulary.getWord(w));
+        }
+        header.writeInt(corpus.size());
+        header.writeInt(corpus.sentenceStarts.size());
+        header.close();
+
+        directory.mkdirs();
+        File temporary = File.createTempFile("corpus-", ".tmp", directory);
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            FileChannel channel = out.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(bytes.size());
+            buffer.flip();
+            write(channel, buffer);
+            write(channel, ByteBuffer.wrap(bytes.toByteArray()));
+            buffer.clear();
+            writeInts(channel, buffer, corpus.words);
+            writeInts(channel, buffer, corpus.tags);
+            writeInts(channel, buffer, corpus.sentenceStarts);
+            buffer.flip();
+            write(channel, buffer);
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(file)) {
+            file.delete();
+            if (!temporary.renameTo(file)) {
+                temporary.delete();
+                throw new IOException("Could not write " + file);
+            }
+        }
+        System.err.println(String.format("Wrote %d documents to %s",
+              corpus.files.size(), file));
+    }
+
+    /**
+     * Copy ints from a file into a buffer, mapping a chunk of the file at a
+     * time
+     *
+     * @param channel   File to read
+     * @param position  Offset of the first int in the file
+     * @param count     Number of ints to read
+     * @param values    Buffer to append the ints to
+     * @return  Offset past the last int read
+     * @throws IOException
+     */
+    protected static long readInts(FileChannel channel, long position,
+          int count, IntBuffer values) throws IOException {
+        for (int done = 0; done < count;) {
+            int n = Math.min(count - done, CHUNK);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+                  position, 4L * n);
+            for (int i = 0; i < n; ++i) {
+                values.add(map.getInt());
+            }
+            position += 4L * n;
+            done += n;
+        }
+        return position;
+    }
+
+    protected static void writeInts(FileChannel channel, ByteBuffer buffer,
+          IntBuffer values) throws IOException {
+        for (int i = 0; i < values.size(); ++i) {
+            if (buffer.remaining() < 4) {
+                buffer.flip();
+                write(channel, buffer);
+                buffer.clear();
+            }
+            buffer.putInt(values.get(i));
+        }
+    }
+
+    protected static void write(FileChannel channel, ByteBuffer buffer)
+          throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.utils.normalizer;
+
+/**
+ * Tokens of one document after normalization, in the order they occur.
+ * Tokens that were ignored or normalized to nothing are left out.
+ *
+ * @author tsmoon
+ */
+public class NormalizedDocument {
+
+    /**
+     * Normalized words of the tokens
+     */
+    public String[] words;
+    /**
+     * Gold tag indexes of the tokens
+     */
+    public int[] tags;
+    /**
+     * Offset past the last token of each sentence. Sentences left without
+     * tokens have the same offset as the sentence before them.
+     */
+    public int[] sentenceEnds;
+
+    public NormalizedDocument(String[] words, int[] tags, int[] sentenceEnds) {
+        this.words = words;
+        this.tags = tags;
+        this.sentenceEnds = sentenceEnds;
+    }
+}
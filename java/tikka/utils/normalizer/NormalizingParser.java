@@ -0,0 +1,102 @@
+///////////////////////////////////////////////////////////////////////////////
+//  Copyright (C) 2010 Taesun Moon, The University of Texas at Austin
+// 
+//  This library is free software; you can redistribute it and/or
+//  modify it under the terms of the GNU Lesser General Public
+//  License as published by the Free Software Foundation; either
+//  version 3 of the License, or (at your option) any later version.
+// 
+//  This library is distributed in the hope that it will be useful,
+//  but WITHOUT ANY WARRANTY; without even the implied warranty of
+//  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+//  GNU Lesser General Public License for more details.
+// 
+//  You should have received a copy of the GNU Lesser General Public
+//  License along with this program; if not, write to the Free Software
+//  Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+///////////////////////////////////////////////////////////////////////////////
+package tikka.utils.normalizer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+import tikka.exceptions.IgnoreTagException;
+import tikka.opennlp.io.CursorEventEnum;
+import tikka.opennlp.io.DataReader;
+import tikka.opennlp.io.DocumentParser;
+import tikka.opennlp.io.TokenCursor;
+import tikka.structures.IntBuffer;
+import tikka.utils.postags.TagMap;
+
+/**
+ * Walks through the tokens of a document and normalizes them. Tokens
+ * whose tag is ignored, that have no tag or whose word is empty after
+ * normalization are dropped. Every thread gets its own copy of the word
+ * normalizer, so documents may be parsed concurrently.
+ *
+ * @author tsmoon
+ */
+public class NormalizingParser extends DocumentParser<NormalizedDocument> {
+
+    protected ThreadLocal<WordNormalizer> normalizers;
+    protected WordNormalizer wordNormalizer;
+    protected TagMap tagMap;
+
+    /**
+     * @param wordNormalizer    Normalizer to copy for each thread
+     * @param tagMap    Map from gold tags to indexes
+     */
+    public NormalizingParser(final WordNormalizer wordNormalizer,
+          TagMap tagMap) {
+        this.wordNormalizer = wordNormalizer;
+        this.tagMap = tagMap;
+        normalizers = new ThreadLocal<WordNormalizer>() {
+
+            @Override
+            protected WordNormalizer initialValue() {
+                return wordNormalizer.copy();
+            }
+        };
+    }
+
+    /**
+     * @return  Description of everything besides the files that determines
+     *          the parsed documents. Used to key caches of parsed corpora.
+     */
+    public String getSettings() {
+        return String.format("normalizer=%s;tagset=%s;reduction=%s",
+              wordNormalizer.getClass().getName(), tagMap.getTagSetName(),
+              tagMap.getReductionLevel());
+    }
+
+    @Override
+    public NormalizedDocument parse(DataReader dataReader) {
+        WordNormalizer wordNormalizer = normalizers.get();
+        ArrayList<String> words = new ArrayList<String>();
+        IntBuffer tags = new IntBuffer(), sentenceEnds = new IntBuffer();
+        TokenCursor cursor = dataReader.getCursor();
+        try {
+            CursorEventEnum.CursorEvent event;
+            while ((event = cursor.next())
+                  != CursorEventEnum.CursorEvent.DOCUMENT_END) {
+                if (event == CursorEventEnum.CursorEvent.SENTENCE_END) {
+                    sentenceEnds.add(words.size());
+                    continue;
+                }
+                try {
+                    wordNormalizer.normalize(cursor.getWord(), cursor.getTag());
+                    String word = wordNormalizer.getWord();
+                    String tag = wordNormalizer.getTag();
+                    if (!word.isEmpty() && tag != null) {
+                        words.add(word);
+                        tags.add(tagMap.get(tag));
+                    }
+                } catch (IgnoreTagException e) {
+                }
+            }
+        } catch (IOException e) {
+        }
+        return new NormalizedDocument(words.toArray(new String[words.size()]),
+              tags.toArray(), sentenceEnds.toArray());
+    }
+}
@@ -19,21 +19,58 @@ package tikka.utils.normalizer;
 
 import tikka.utils.postags.TagMap;
 
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import tikka.exceptions.IgnoreTagException;
 
 /**
+ * Reduces the tokens of a corpus to the forms the models are trained on.
+ * Surface forms are normalized by scanning their characters rather than
+ * with regular expressions, and the most recent normalizations are kept in
+ * a small cache since most tokens in a corpus are repeats.
  *
  * @author tsmoon
  */
 public class WordNormalizer {
 
-    protected Pattern pattern;
-    protected Matcher matcher;
+    /**
+     * Number of slots in the cache of normalized words. Must be a power of two.
+     */
+    protected static final int CACHE_SIZE = 1 << 12;
+    /**
+     * Number of slots in the cache of tags. Must be a power of two.
+     */
+    protected static final int TAG_CACHE_SIZE = 1 << 6;
+    /**
+     * Token consisting only of non-word characters. Only used for tokens the
+     * character scanners do not handle.
+     */
+    protected static final Pattern NON_WORD = Pattern.compile("^\\W*$");
+    /**
+     * Token with its leading and trailing non-word characters captured
+     * separately. Only used for tokens the character scanners do not handle.
+     */
+    protected static final Pattern TRIM =
+          Pattern.compile("(^\\W*(\\w.*\\w)\\W*$|(^\\w+$)|.*)");
     protected String[] strings;
     protected String word, reducedTag, fullTag;
     protected TagMap tagMap;
+    /**
+     * Raw forms in the cache of normalized words
+     */
+    protected String[] rawCache = new String[CACHE_SIZE];
+    /**
+     * Normalized forms of the words in {@link #rawCache}
+     */
+    protected String[] wordCache = new String[CACHE_SIZE];
+    /**
+     * Tags that have been seen recently
+     */
+    protected String[] tagCache = new String[TAG_CACHE_SIZE];
+    /**
+     * Lines built from tokens given as character sequences, with and
+     * without a tag
+     */
+    protected String[] taggedLine = new String[2], untaggedLine = new String[1];
 
     public WordNormalizer(TagMap tagMap) {
         this.tagMap = tagMap;
@@ -42,8 +79,26 @@ public class WordNormalizer {
     public WordNormalizer() {
     }
 
+    /**
+     * Normalizers keep the results of the last call to {@link #normalize}, so
+     * each thread that normalizes words needs its own.
+     *
+     * @return  Normalizer of the same kind with the same tag map
+     */
+    public WordNormalizer copy() {
+        return new WordNormalizer(tagMap);
+    }
+
+    /**
+     * Normalize a line of a corpus. The array that is returned is reused by
+     * the next call.
+     *
+     * @param strings   Token followed by its tag
+     * @return  Normalized token followed by its reduced tag
+     * @throws IgnoreTagException   If the tag of the token is to be ignored
+     */
     public String[] normalize(String[] strings) throws IgnoreTagException {
-        this.strings = new String[strings.length];
+        reuseStrings(strings.length);
         try {
             fullTag = strings[1];
             this.strings[1] = reducedTag = tagMap.getReducedTag(fullTag);
@@ -52,16 +107,7 @@ public class WordNormalizer {
         }
 
         if (reducedTag == null || !reducedTag.isEmpty()) {
-            word = strings[0];
-            pattern = Pattern.compile("^\\W*$");
-            matcher = pattern.matcher(word);
-            if (!matcher.find()) {
-                pattern = Pattern.compile("(^\\W*(\\w.*\\w)\\W*$|(^\\w+$)|.*)");
-                matcher = pattern.matcher(word);
-                word = matcher.replaceAll("$2$3").toLowerCase();
-            } else {
-                word = "";
-            }
+            word = lookup(strings[0]);
         } else {
             word = "";
         }
@@ -74,18 +120,162 @@ public class WordNormalizer {
         return this.strings;
     }
 
+    /**
+     * Normalize a token given as views into a buffer, such as the ones a
+     * {@link tikka.opennlp.io.TokenCursor} returns. Words and tags that are
+     * in the caches are not copied.
+     *
+     * @param word  Surface form of the token
+     * @param tag   Tag of the token, or null if it has none
+     * @return  Normalized token followed by its reduced tag
+     * @throws IgnoreTagException   If the tag of the token is to be ignored
+     * @see #normalize(String[])
+     */
+    public String[] normalize(CharSequence word, CharSequence tag) throws
+          IgnoreTagException {
+        String[] line;
+        if (tag == null) {
+            line = untaggedLine;
+        } else {
+            line = taggedLine;
+            line[1] = intern(tag, tagCache, tagCache);
+        }
+        line[0] = intern(word, rawCache, null);
+        return normalize(line);
+    }
+
+    /**
+     * Find a string with the given content in a cache.
+     *
+     * @param s Content of the string
+     * @param cache Cache to look in
+     * @param store Cache to store the string in if it is not found, or null
+     * @return  String from the cache, or a new copy of s
+     */
+    protected static String intern(CharSequence s, String[] cache,
+          String[] store) {
+        int h = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            h = 31 * h + s.charAt(i);
+        }
+        int slot = (h ^ (h >>> 16)) & (cache.length - 1);
+        String cached = cache[slot];
+        if (cached != null && cached.contentEquals(s)) {
+            return cached;
+        }
+        String copy = s.toString();
+        if (store != null) {
+            store[slot] = copy;
+        }
+        return copy;
+    }
+
+    /**
+     * Make {@link #strings} an array of the given length, keeping the
+     * current array if it already has that length.
+     *
+     * @param length    Length of the line being normalized
+     */
+    protected void reuseStrings(int length) {
+        if (this.strings == null || this.strings.length != length) {
+            this.strings = new String[length];
+        }
+    }
+
+    /**
+     * Normalize a surface form, consulting the cache first.
+     *
+     * @param raw   Surface form
+     * @return  Normalized form
+     */
+    protected String lookup(String raw) {
+        int h = raw.hashCode();
+        int slot = (h ^ (h >>> 16)) & (CACHE_SIZE - 1);
+        if (raw.equals(rawCache[slot])) {
+            return wordCache[slot];
+        }
+        String normalized = transform(raw);
+        rawCache[slot] = raw;
+        wordCache[slot] = normalized;
+        return normalized;
+    }
+
+    /**
+     * Normalize a surface form. Subclasses that reduce words differently
+     * override this rather than {@link #lookup}.
+     *
+     * @param raw   Surface form
+     * @return  Normalized form
+     */
+    protected String transform(String raw) {
+        return normalize(raw).toLowerCase();
+    }
+
+    /**
+     * Strip the leading and trailing non-word characters from a token.
+     * Tokens that have no word characters, or a single word character in
+     * the midst of others, are reduced to the empty string.
+     *
+     * @param s Token
+     * @return  Stripped token
+     */
     static public String normalize(String s) {
-        Pattern p = Pattern.compile("^\\W*$");
-        Matcher m = p.matcher(s);
-        if (!m.find()) {
-            p = Pattern.compile("(^\\W*(\\w.*\\w)\\W*$|(^\\w+$)|.*)");
-            m = p.matcher(s);
-            return m.replaceAll("$2$3");
+        if (hasLineTerminator(s)) {
+            if (NON_WORD.matcher(s).find()) {
+                return "";
+            }
+            return TRIM.matcher(s).replaceAll("$2$3");
+        }
+
+        int length = s.length();
+        int first = 0;
+        while (first < length && !isWordChar(s.charAt(first))) {
+            first++;
+        }
+        if (first == length) {
+            return "";
+        }
+        int last = length - 1;
+        while (!isWordChar(s.charAt(last))) {
+            last--;
+        }
+        if (first < last) {
+            return s.substring(first, last + 1);
+        } else if (length == 1) {
+            return s;
         } else {
             return "";
         }
     }
 
+    /**
+     * @param c Character
+     * @return  Whether c belongs to the regular expression class \w
+     */
+    protected static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')
+              || (c >= '0' && c <= '9') || c == '_';
+    }
+
+    /**
+     * Line terminators change how the regular expressions the normalizers
+     * were originally written with match, so tokens that contain them are
+     * left to those expressions.
+     *
+     * @param s Token
+     * @return  Whether s contains a character that terminates a line
+     */
+    protected static boolean hasLineTerminator(String s) {
+        for (int i = 0; i < s.length(); ++i) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028'
+                  || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public String getWord() {
         return word;
     }
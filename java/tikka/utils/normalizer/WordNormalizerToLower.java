@@ -32,13 +32,13 @@ public class WordNormalizerToLower extends WordNormalizer {
 
     @Override
     public String[] normalize(String[] strings) throws IgnoreTagException {
-        this.strings = new String[strings.length];
+        reuseStrings(strings.length);
 
         try {
             fullTag = strings[1];
             reducedTag = tagMap.getReducedTag(strings[1]);
 
-            word = strings[0].toLowerCase();
+            word = lookup(strings[0]);
 
             if (tagMap.isIgnoreTag(fullTag)) {
                 throw new IgnoreTagException(word, fullTag);
@@ -49,4 +49,14 @@ public class WordNormalizerToLower extends WordNormalizer {
         }
         return this.strings;
     }
+
+    @Override
+    protected String transform(String raw) {
+        return raw.toLowerCase();
+    }
+
+    @Override
+    public WordNormalizer copy() {
+        return new WordNormalizerToLower(tagMap);
+    }
 }
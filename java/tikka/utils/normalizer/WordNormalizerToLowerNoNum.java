@@ -26,15 +26,19 @@ import tikka.exceptions.IgnoreTagException;
  */
 public class WordNormalizerToLowerNoNum extends WordNormalizer {
 
+    /**
+     * Tag beginning with a word character. Only used for tags the character
+     * scanners do not handle.
+     */
+    protected static final Pattern WORD_TAG = Pattern.compile("^\\w.*$");
+
     @Override
     public String[] normalize(String[] strings) throws IgnoreTagException {
-        this.strings = new String[strings.length];
+        reuseStrings(strings.length);
 //        String reducedTag = "", word = "";
         try {
             reducedTag = strings[1];
-            pattern = Pattern.compile("^\\w.*$");
-            matcher = pattern.matcher(reducedTag);
-            if (!matcher.find()) {
+            if (!isWordTag(reducedTag)) {
                 reducedTag = "";
             }
             this.strings[1] = reducedTag;
@@ -44,18 +48,7 @@ public class WordNormalizerToLowerNoNum extends WordNormalizer {
         }
 
         if (reducedTag == null || !reducedTag.isEmpty()) {
-            word = strings[0].toLowerCase();
-            pattern = Pattern.compile("^\\W*$");
-            matcher = pattern.matcher(word);
-            if (!matcher.find()) {
-                pattern = Pattern.compile("\\d\\d*");
-                matcher = pattern.matcher(word);
-                if (matcher.find()) {
-                    word = "#";
-                }
-            } else {
-                word = "";
-            }
+            word = lookup(strings[0]);
         } else {
             word = "";
         }
@@ -67,4 +60,54 @@ public class WordNormalizerToLowerNoNum extends WordNormalizer {
 
         return this.strings;
     }
+
+    /**
+     * Lowercase a token, reducing it to the empty string if it has no word
+     * characters and to "#" if it contains a digit.
+     *
+     * @param raw   Surface form
+     * @return  Normalized form
+     */
+    @Override
+    protected String transform(String raw) {
+        String lower = raw.toLowerCase();
+        if (hasLineTerminator(lower)) {
+            if (NON_WORD.matcher(lower).find()) {
+                return "";
+            }
+        } else {
+            int i = 0;
+            while (i < lower.length() && !isWordChar(lower.charAt(i))) {
+                i++;
+            }
+            if (i == lower.length()) {
+                return "";
+            }
+        }
+        for (int i = 0; i < lower.length(); ++i) {
+            char c = lower.charAt(i);
+            if (c >= '0' && c <= '9') {
+                return "#";
+            }
+        }
+        return lower;
+    }
+
+    /**
+     * @param tag   Tag
+     * @return  Whether the tag begins with a word character
+     */
+    protected static boolean isWordTag(String tag) {
+        if (hasLineTerminator(tag)) {
+            return WORD_TAG.matcher(tag).find();
+        }
+        return !tag.isEmpty() && isWordChar(tag.charAt(0));
+    }
+
+    @Override
+    public WordNormalizer copy() {
+        WordNormalizer normalizer = new WordNormalizerToLowerNoNum();
+        normalizer.tagMap = tagMap;
+        return normalizer;
+    }
 }
@@ -32,17 +32,27 @@ public class WordNormalizerToLowerNoTag extends WordNormalizer {
 
     @Override
     public String[] normalize(String[] strings) throws IgnoreTagException {
-        this.strings = new String[strings.length];
+        reuseStrings(strings.length);
 
         try {
             fullTag = "";
             reducedTag = "";
 
-            word = strings[0].toLowerCase();
+            word = lookup(strings[0]);
         } catch (ArrayIndexOutOfBoundsException e) {
             reducedTag = "";
             word = "";
         }
         return this.strings;
     }
+
+    @Override
+    protected String transform(String raw) {
+        return raw.toLowerCase();
+    }
+
+    @Override
+    public WordNormalizer copy() {
+        return new WordNormalizerToLowerNoTag(tagMap);
+    }
 }
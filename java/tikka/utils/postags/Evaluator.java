@@ -20,6 +20,10 @@ package tikka.utils.postags;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
+
+import tikka.structures.DenseIntArray;
+import tikka.structures.IntArray;
 
 /**
  * Class for evaluating model tags based on gold tags
@@ -29,9 +33,9 @@ import java.util.HashSet;
 public class Evaluator {
 
     protected final static double EPSILON = 1e-12;
-    protected int[] modelTags;//, modelTagCounts;
-    protected int[] fullGoldTags;//, goldTagCounts;
-    protected int[] reducedGoldTags;//, reducedGoldTagCounts;
+    protected IntArray modelTags;//, modelTagCounts;
+    protected IntArray fullGoldTags;//, goldTagCounts;
+    protected IntArray reducedGoldTags;//, reducedGoldTagCounts;
     protected double fullOneToOneAccuracy, fullManyToOneAccuracy;
     protected double reducedOneToOneAccuracy, reducedManyToOneAccuracy;
     protected TagMap fullTagMap;
@@ -66,21 +70,72 @@ public class Evaluator {
         reducedClusterEvalScore = new ClusterEvalScore();
     }
 
+    /**
+     * Reduced gold tags of the tokens, looked up from their full gold tags
+     * rather than stored
+     */
+    protected static class ReducedTags extends IntArray {
+
+        protected IntArray fullTags;
+        /**
+         * Reduced tag of each full tag
+         */
+        protected int[] reducedTagOfFullTag;
+
+        protected ReducedTags(IntArray fullTags, int[] reducedTagOfFullTag) {
+            super(fullTags.length());
+            this.fullTags = fullTags;
+            this.reducedTagOfFullTag = reducedTagOfFullTag;
+        }
+
+        @Override
+        public int get(int i) {
+            return reducedTagOfFullTag[fullTags.get(i)];
+        }
+
+        @Override
+        public void set(int i, int value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long bytes() {
+            return 4L * reducedTagOfFullTag.length;
+        }
+    }
+
     /**
      * 
      * @param _modelTags
      * @param _goldTags
      */
     public void evaluateTags(int[] _modelTags, int[] _goldTags) {
+        evaluateTags(new DenseIntArray(_modelTags),
+              new DenseIntArray(_goldTags));
+    }
+
+    /**
+     * Evaluate the tags of a model in place. The tags are read through
+     * the arrays and are not copied, so they may be mapped from a file.
+     *
+     * @param _modelTags
+     * @param _goldTags
+     */
+    public void evaluateTags(IntArray _modelTags, IntArray _goldTags) {
         modelTags = _modelTags;
         fullGoldTags = _goldTags;
 
-        reducedGoldTags = new int[fullGoldTags.length];
-        for (int i = 0; i < fullGoldTags.length; ++i) {
-            int fullid = fullGoldTags[i];
-            String fulltag = fullTagMap.idxToFullTag.get(fullid);
-            reducedGoldTags[i] = reducedTagMap.get(reducedTagMap.getReducedTag(fulltag));
+        int fullTagN = 0;
+        for (int fullid : fullTagMap.idxToFullTag.keySet()) {
+            fullTagN = Math.max(fullTagN, fullid + 1);
+        }
+        int[] reducedTagOfFullTag = new int[fullTagN];
+        for (Map.Entry<Integer, String> entry :
+              fullTagMap.idxToFullTag.entrySet()) {
+            reducedTagOfFullTag[entry.getKey()] = reducedTagMap.get(
+                  reducedTagMap.getReducedTag(entry.getValue()));
         }
+        reducedGoldTags = new ReducedTags(fullGoldTags, reducedTagOfFullTag);
 
         matchTags(_modelTags, fullGoldTags, fullTagMap, fullOneToOneTagMap, fullManyToOneTagMap);
         fullOneToOneAccuracy = measureAccuracy(_modelTags, fullGoldTags, fullOneToOneTagMap);
@@ -101,7 +156,8 @@ public class Evaluator {
      * @param _oneToOneTagMap
      * @param _manyToOneTagMap
      */
-    public void matchTags(int[] _modelTags, int[] _goldTags, TagMap _tagMap,
+    public void matchTags(IntArray _modelTags, IntArray _goldTags,
+          TagMap _tagMap,
           IntTagMap _oneToOneTagMap, IntTagMap _manyToOneTagMap) {
         int M = _tagMap.oneToOneTagMap.size();
         int N = _tagMap.getTagSetSize();
@@ -121,9 +177,9 @@ public class Evaluator {
             goldTagCounts[i] = 0;
         }
 
-        for (int i = 0; i < _modelTags.length; ++i) {
-            int j = _modelTags[i];
-            int k = _goldTags[i];
+        for (int i = 0; i < _modelTags.length(); ++i) {
+            int j = _modelTags.get(i);
+            int k = _goldTags.get(i);
             modelTagCounts[j]++;
             goldTagCounts[k]++;
             cooccurrenceMatrix[j * N + k]++;
@@ -247,25 +303,25 @@ public class Evaluator {
      * @param _tagMap
      * @return
      */
-    protected double measureAccuracy(int[] _modelTags, int[] _goldTags,
-          IntTagMap _tagMap) {
-        int total = _modelTags.length;
+    protected double measureAccuracy(IntArray _modelTags,
+          IntArray _goldTags, IntTagMap _tagMap) {
+        int total = _modelTags.length();
         int correct = 0;
         for (int i = 0; i < total; ++i) {
-            int j = _modelTags[i];
-            if (_tagMap.get(j) == _goldTags[i]) {
+            int j = _modelTags.get(i);
+            if (_tagMap.get(j) == _goldTags.get(i)) {
                 correct++;
             }
         }
         return correct / (double) total;
     }
 
-    protected void clusterEvaluation(int[] _modelTags, int[] _goldTags,
+    protected void clusterEvaluation(IntArray _modelTags, IntArray _goldTags,
           int _modelK, int _goldK, ClusterEvalScore _clusterEvalScore) {
         int[] confusionMatrix = new int[_modelK * _goldK];
         int[] rowSum = new int[_modelK];
         int[] columnSum = new int[_goldK];
-        int N = _modelTags.length;
+        int N = _modelTags.length();
 
         for (int i = 0; i < _modelK * _goldK; ++i) {
             confusionMatrix[i] = 0;
@@ -278,8 +334,8 @@ public class Evaluator {
         }
 
         for (int i = 0; i < N; ++i) {
-            int modelidx = _modelTags[i];
-            int goldidx = _goldTags[i];
+            int modelidx = _modelTags.get(i);
+            int goldidx = _goldTags.get(i);
             confusionMatrix[modelidx * _goldK + goldidx] += 1;
         }
 